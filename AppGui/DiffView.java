@@ -0,0 +1,212 @@
+package AppGui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
+import javax.swing.ListCellRenderer;
+
+import notes.TextDiff;
+
+/**
+ * List showing the hunks of a {@link TextDiff}, a header row per hunk followed by one row
+ * per line, with changed words highlighted inside changed lines.
+ *
+ * <p>Rows have a fixed size and are fetched from the hunks only when they are painted, so
+ * a diff of hundreds of thousands of lines costs no more than the rows in view. Lines are
+ * clipped at {@link #MAX_COLUMNS} characters.</p>
+ */
+public class DiffView extends JList<Object> {
+    private static final long serialVersionUID = 1L;
+
+    /** Number of characters shown of each line */
+    public static final int MAX_COLUMNS = 400;
+
+    private static final int GUTTER_COLUMNS = 16;
+    private static final int TAB_WIDTH = 4;
+    private static final Color HEADER = new Color(235, 242, 250);
+    private static final Color HEADER_TEXT = new Color(90, 100, 120);
+    private static final Color DELETED = new Color(255, 235, 233);
+    private static final Color DELETED_WORD = new Color(255, 182, 174);
+    private static final Color INSERTED = new Color(230, 255, 236);
+    private static final Color INSERTED_WORD = new Color(170, 240, 188);
+    private static final Color GUTTER_TEXT = new Color(140, 140, 140);
+
+    private boolean wordHighlighting = true;
+
+    /**
+     * Rows of the hunks: each hunk contributes itself, shown as its header, and its lines.
+     */
+    private static final class DiffModel extends AbstractListModel<Object> {
+        private static final long serialVersionUID = 1L;
+        private final List<TextDiff.Hunk> hunks;
+        /** Row of each hunk's header */
+        private final int[] firstRows;
+        private final int size;
+
+        private DiffModel(List<TextDiff.Hunk> hunks) {
+            this.hunks = hunks;
+            this.firstRows = new int[hunks.size()];
+            int rows = 0;
+            for (int i = 0; i < hunks.size(); i++) {
+                firstRows[i] = rows;
+                rows += 1 + hunks.get(i).lines().size();
+            }
+            this.size = rows;
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Object getElementAt(int index) {
+            int low = 0;
+            int high = firstRows.length - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (firstRows[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            int row = index - firstRows[low];
+            TextDiff.Hunk hunk = hunks.get(low);
+            return row == 0 ? hunk : hunk.lines().get(row - 1);
+        }
+    }
+
+    /**
+     * Paints a hunk header or a line, drawing only as many characters as fit the row.
+     */
+    private final class RowRenderer extends JComponent implements ListCellRenderer<Object> {
+        private static final long serialVersionUID = 1L;
+        private Object row;
+        private boolean selected;
+
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+                boolean cellHasFocus) {
+            row = value;
+            selected = isSelected;
+            setFont(list.getFont());
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            FontMetrics metrics = g.getFontMetrics(getFont());
+            g.setFont(getFont());
+            int charWidth = metrics.charWidth('m');
+            int baseline = (getHeight() - metrics.getHeight()) / 2 + metrics.getAscent();
+
+            if (row instanceof TextDiff.Hunk hunk) {
+                g.setColor(HEADER);
+                g.fillRect(0, 0, getWidth(), getHeight());
+                g.setColor(HEADER_TEXT);
+                g.drawString(hunk.header(), charWidth, baseline);
+                return;
+            }
+            if (!(row instanceof TextDiff.Line line)) {
+                return;
+            }
+            Color background = switch (line.operation()) {
+                case DELETE -> DELETED;
+                case INSERT -> INSERTED;
+                case EQUAL -> getBackground();
+            };
+            g.setColor(background);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            if (selected) {
+                g.setColor(getSelectionBackground());
+                g.fillRect(0, 0, GUTTER_COLUMNS * charWidth, getHeight());
+            }
+            char marker = switch (line.operation()) {
+                case DELETE -> '-';
+                case INSERT -> '+';
+                case EQUAL -> ' ';
+            };
+            g.setColor(GUTTER_TEXT);
+            g.drawString(String.format("%6s %6s %c", number(line.oldNumber()), number(line.newNumber()), marker),
+                    0, baseline);
+
+            int column = 0;
+            int x = GUTTER_COLUMNS * charWidth;
+            boolean highlight = wordHighlighting && !line.words().isEmpty();
+            for (TextDiff.Span span : line.spans()) {
+                if (column >= MAX_COLUMNS) {
+                    break;
+                }
+                String text = visible(span.text(), MAX_COLUMNS - column);
+                if (highlight && span.operation() != TextDiff.Operation.EQUAL) {
+                    g.setColor(span.operation() == TextDiff.Operation.DELETE ? DELETED_WORD : INSERTED_WORD);
+                    g.fillRect(x, 0, text.length() * charWidth, getHeight());
+                }
+                g.setColor(getForeground());
+                g.drawString(text, x, baseline);
+                column += text.length();
+                x += text.length() * charWidth;
+            }
+        }
+
+        private String number(int number) {
+            return number > 0 ? Integer.toString(number) : "";
+        }
+
+        /**
+         * Expands tabs and cuts the text to the given number of columns.
+         */
+        private String visible(String text, int columns) {
+            StringBuilder visible = new StringBuilder(Math.min(text.length(), columns));
+            for (int i = 0; i < text.length() && visible.length() < columns; i++) {
+                char c = text.charAt(i);
+                if (c == '\t') {
+                    visible.append(" ".repeat(Math.min(TAB_WIDTH, columns - visible.length())));
+                } else if (c != '\r') {
+                    visible.append(c);
+                }
+            }
+            return visible.toString();
+        }
+    }
+
+    /**
+     * Creates an empty view.
+     */
+    public DiffView() {
+        super(new DiffModel(List.of()));
+        setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        FontMetrics metrics = getFontMetrics(getFont());
+        setFixedCellHeight(metrics.getHeight() + 2);
+        setFixedCellWidth((GUTTER_COLUMNS + MAX_COLUMNS) * metrics.charWidth('m'));
+        setCellRenderer(new RowRenderer());
+    }
+
+    /**
+     * Shows the hunks of a diff.
+     *
+     * @param diff the diff to show
+     */
+    public void setDiff(TextDiff diff) {
+        setModel(new DiffModel(diff.getHunks()));
+        ensureIndexIsVisible(0);
+    }
+
+    /**
+     * Sets whether changed words are highlighted inside changed lines.
+     *
+     * @param wordHighlighting true to highlight words, false to mark whole lines only
+     */
+    public void setWordHighlighting(boolean wordHighlighting) {
+        this.wordHighlighting = wordHighlighting;
+        repaint();
+    }
+}
@@ -3,15 +3,46 @@
  */
 package AppGui;
 
+import javax.imageio.ImageIO;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainDocument;
 
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+import api.NoteApiServer;
+import diagnostics.EdtWatchdog;
+import diagnostics.Metrics;
+import diagnostics.ViewRenderEvent;
 import notes.*;
 import notes.TestingNote.TestStatus;
 
@@ -22,23 +53,46 @@ public class NoteAppGUI extends JFrame {
     private CardLayout cardLayout;
     private JPanel mainPanel;
     private Note currentNote;
-    private List<Note> notes = new ArrayList<>();
-
-    private JTextField titleField, descField, authorField;
+    private volatile Notebook notebook = new Notebook();
+    private final Workspace workspace = openWorkspace();
+    private volatile String notebookName = workspace.names().get(0);
+    private volatile NoteStore store = workspace.storeOf(notebookName);
+    private final Set<Notebook> followed = Collections.newSetFromMap(new WeakHashMap<>());
+    private final BackupRepository backups = new BackupRepository(Path.of("note-backups"));
+
+    private JTextField titleField, descField, authorField, tagsField;
     private JTextArea textArea;
     private JSpinner deadline;
-    private JTextField languageField, snippetField;
+    private JTextField languageField;
+    private JTextPane snippetField;
     private JTextField testcaseField;
     private JCheckBox isMandatoryField;
     private JComboBox<TestingNote.TestStatus> testStatusCombo;
     private JComboBox<String> noteTypeCombo;
     private JLabel successMessage;
+    private static final int MAX_SUGGESTIONS = 8;
+    private static final double DUPLICATE_SIMILARITY = 0.8;
+    private static final int PAGE_SIZE = 50;
+    private static final int MAX_TAG_FACETS = 20;
+    /** Characters of a text attachment shown at once, read from the start or the end */
+    private static final int ATTACHMENT_VIEW_LIMIT = 4 * 1024 * 1024;
+    private static final Metrics.Histogram SAVE_TIME = Metrics.histogram("gui.saveToFile.nanos");
+    private static final Metrics.Histogram LOAD_TIME = Metrics.histogram("gui.readFromFile.nanos");
+    private static final Metrics.Histogram VIEW_RENDER_TIME = Metrics.histogram("gui.createViewPanel.nanos");
+    private static final Metrics.Histogram NOTE_RENDER_TIME = Metrics.histogram("gui.renderNote.nanos");
+    private String viewQuery = "";
+    private int viewPage = 0;
+    /** Rows of the shown view panel by note identifier, so changed notes are redrawn alone */
+    private final Map<Long, JPanel> viewRows = new HashMap<>();
+    private JPanel viewRowsContainer, tagFacets;
+    private JButton undoBtn, redoBtn;
+    private RopeContent textContent, snippetContent;
 
     /**
      * Constructs the main GUI window and initializes all panels.
      */
     public NoteAppGUI() {
-        setTitle("Note App");
+        setTitle("Note App - " + notebookName);
         setSize(500, 750);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
@@ -52,6 +106,90 @@ public class NoteAppGUI extends JFrame {
         add(mainPanel);
         cardLayout.show(mainPanel, "welcome");
         setVisible(true);
+
+        Metrics.gauge("notebook.notes", () -> notebook.size());
+        Metrics.gauge("blobs.count", () -> BlobStore.shared().size());
+        Metrics.gauge("blobs.chars", () -> BlobStore.shared().getTotalChars());
+        startApiServer();
+        startReplication();
+    }
+
+    /**
+     * Reads the notebook registry {@code notebooks.txt}, registering {@code note.ser} as the
+     * default notebook on first start. Resident notebooks may take an estimated
+     * {@code -Dnoteapp.workspace.budget} megabytes, by default a quarter of the maximum heap.
+     */
+    private static Workspace openWorkspace() {
+        long budgetMb = Long.getLong("noteapp.workspace.budget", Runtime.getRuntime().maxMemory() / 4 / (1024 * 1024));
+        try {
+            Workspace workspace = new Workspace(Path.of("notebooks.txt"), budgetMb * 1024 * 1024);
+            if (workspace.names().isEmpty()) {
+                workspace.register(Workspace.DEFAULT_NOTEBOOK, Path.of("note.ser"));
+            }
+            return workspace;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the notebook registry", e);
+        }
+    }
+
+    /**
+     * Starts the local HTTP API on the port given by the {@code noteapp.api.port} system
+     * property; a negative port disables it. Clients authenticate with the token in the file
+     * {@code noteapp.api.token}, by default {@code .noteapp-api.token} in the home
+     * directory, which is created on first use.
+     */
+    private void startApiServer() {
+        int port = Integer.getInteger("noteapp.api.port", NoteApiServer.DEFAULT_PORT);
+        if (port < 0) {
+            return;
+        }
+        try {
+            String token = NoteApiServer.token(Path.of(System.getProperty("noteapp.api.token",
+                    Path.of(System.getProperty("user.home"), ".noteapp-api.token").toString())));
+            NoteApiServer apiServer = new NoteApiServer(port, () -> notebook, workspace::storeOf, token);
+            apiServer.start();
+        } catch (IOException e) {
+            System.out.println("Note API not started: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the current notebook to other instances when {@code noteapp.replication.listen}
+     * gives an address, and mirrors another instance into the current notebook when
+     * {@code noteapp.replication.follow} does. Addresses are a loopback port or
+     * {@code unix:<path>}. Instances authenticate each other with the secret in the key file
+     * {@code noteapp.replication.key}, by default {@code .noteapp-replication.key} in the
+     * home directory, which is created on first use.
+     */
+    private void startReplication() {
+        String listen = System.getProperty("noteapp.replication.listen");
+        String follow = System.getProperty("noteapp.replication.follow");
+        if (listen == null && follow == null) {
+            return;
+        }
+        byte[] secret;
+        try {
+            secret = ReplicationServer.secret(Path.of(System.getProperty("noteapp.replication.key",
+                    Path.of(System.getProperty("user.home"), ".noteapp-replication.key").toString())));
+        } catch (IOException e) {
+            System.out.println("Replication not started: " + e.getMessage());
+            return;
+        }
+        if (listen != null) {
+            try {
+                new ReplicationServer(ReplicationServer.address(listen), () -> notebook, secret).start();
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Replication not started: " + e.getMessage());
+            }
+        }
+        if (follow != null) {
+            try {
+                new ReplicationFollower(ReplicationServer.address(follow), () -> notebook, workspace::storeOf, secret)
+                        .start();
+            } catch (IllegalArgumentException e) {
+                System.out.println("Replication not started: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -71,9 +209,19 @@ public class NoteAppGUI extends JFrame {
 
         JButton createBtn = new JButton("Create Note");
         JButton viewBtn = new JButton("View Notes");
+        JButton importBtn = new JButton("Import JUnit Report");
+        JButton diagnosticsBtn = new JButton("Diagnostics");
+        JButton backupsBtn = new JButton("Backups");
+        JButton statisticsBtn = new JButton("Statistics");
+        JButton notebooksBtn = new JButton("Notebooks");
 
         createBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
         viewBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        importBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        diagnosticsBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        backupsBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        statisticsBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        notebooksBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
 
         readFromFile();
 
@@ -93,6 +241,12 @@ public class NoteAppGUI extends JFrame {
 
         });
 
+        importBtn.addActionListener(e -> importJUnitReport());
+        diagnosticsBtn.addActionListener(e -> showDiagnostics());
+        backupsBtn.addActionListener(e -> showBackups());
+        statisticsBtn.addActionListener(e -> showStatistics());
+        notebooksBtn.addActionListener(e -> showNotebooks());
+
         panel.add(titleLabel);
         panel.add(Box.createVerticalStrut(35));
         panel.add(welcome);
@@ -100,6 +254,16 @@ public class NoteAppGUI extends JFrame {
         panel.add(createBtn);
         panel.add(Box.createVerticalStrut(10));
         panel.add(viewBtn);
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(importBtn);
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(diagnosticsBtn);
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(backupsBtn);
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(statisticsBtn);
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(notebooksBtn);
 
         return panel;
     }
@@ -112,6 +276,7 @@ public class NoteAppGUI extends JFrame {
         descField.setText("");
         textArea.setText("");
         authorField.setText("");
+        tagsField.setText("");
         successMessage.setText("");
         deadline.setValue(new Date());
         if (languageField != null)
@@ -129,6 +294,7 @@ public class NoteAppGUI extends JFrame {
      */
     private void switchToViewPanel() {
         SwingUtilities.invokeLater(() -> {
+            EdtWatchdog.describe("Rebuild view panel");
             mainPanel.remove(2);
             JPanel newViewPanel = createViewPanel();
             mainPanel.add(newViewPanel, "view");
@@ -138,6 +304,96 @@ public class NoteAppGUI extends JFrame {
         });
     }
 
+    /**
+     * Updates the visible view whenever the notes of the notebook change, including
+     * changes made through the HTTP API or by another process. Batches are requested one at
+     * a time from the event dispatch thread, so bursts of changes cost one update each time
+     * the view catches up instead of one per change.
+     *
+     * @param followed the notebook to follow
+     */
+    private void followChanges(Notebook followed) {
+        followed.subscribe(new Flow.Subscriber<NoteChange.Batch>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(NoteChange.Batch batch) {
+                SwingUtilities.invokeLater(() -> {
+                    if (followed == notebook) {
+                        updateVisibleView(batch);
+                    }
+                    subscription.request(1);
+                });
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
+    /**
+     * Redraws the rows of the changed notes if the view panel is being shown, leaving the
+     * other rows alone. The whole panel is rebuilt only when notes enter or leave the page,
+     * which moves the notes after them, or when changes were missed.
+     */
+    private void updateVisibleView(NoteChange.Batch batch) {
+        if (!mainPanel.getComponent(2).isShowing()) {
+            return;
+        }
+        NoteQuery query;
+        try {
+            query = NoteQuery.parse(viewQuery);
+        } catch (InvalidQueryException ex) {
+            return;
+        }
+        Set<Long> changedIds = new LinkedHashSet<>();
+        boolean tagsChanged = false;
+        for (NoteChange change : batch.changes()) {
+            changedIds.add(change.noteId());
+            tagsChanged |= change.field() == NoteChange.Field.TAGS || change.field() == NoteChange.Field.NOTE;
+        }
+        for (long id : changedIds) {
+            JPanel row = viewRows.get(id);
+            Note note = notebook.get(id);
+            boolean listed = note != null && query.matches(note);
+            if (batch.missed() > 0 || (row == null ? listed : !listed)) {
+                switchToViewPanel();
+                return;
+            }
+            if (row == null) {
+                continue;
+            }
+            int index = viewRowsContainer.getComponentZOrder(row);
+            viewRowsContainer.remove(index);
+            JPanel updated = createNoteRow(note);
+            viewRowsContainer.add(updated, index);
+            viewRows.put(id, updated);
+        }
+        if (tagsChanged) {
+            tagFacets.removeAll();
+            Map<String, Integer> tagCounts = viewQuery.isBlank() ? notebook.tagCounts() : notebook.tagCounts(query);
+            if (!tagCounts.isEmpty()) {
+                tagFacets.add(createTagFacetPanel(tagCounts));
+            }
+            tagFacets.revalidate();
+        }
+        undoBtn.setEnabled(notebook.canUndo());
+        redoBtn.setEnabled(notebook.canRedo());
+        viewRowsContainer.revalidate();
+        viewRowsContainer.repaint();
+    }
+
     /**
      * Creates the form panel for note creation and editing.
      */
@@ -152,6 +408,7 @@ public class NoteAppGUI extends JFrame {
         descField = new JTextField();
         textArea = new JTextArea(3, 10);
         authorField = new JTextField();
+        tagsField = new JTextField();
         successMessage = new JLabel();
 
         formPanel.add(new JLabel("Note Type:"));
@@ -164,6 +421,8 @@ public class NoteAppGUI extends JFrame {
         formPanel.add(textArea);
         formPanel.add(new JLabel("Author:"));
         formPanel.add(authorField);
+        formPanel.add(new JLabel("Tags:"));
+        formPanel.add(tagsField);
 
         Calendar calendar = Calendar.getInstance();
         calendar.set(Calendar.HOUR_OF_DAY, 0);
@@ -190,11 +449,12 @@ public class NoteAppGUI extends JFrame {
             extraPanel.removeAll();
             if ("ProgrammingNote".equals(noteTypeCombo.getSelectedItem())) {
                 languageField = new JTextField();
-                snippetField = new JTextField();
+                snippetField = createSnippetPane();
+                followLanguage(languageField, new SnippetHighlighter(snippetField, null, null));
                 extraPanel.add(new JLabel("Language:"));
                 extraPanel.add(languageField);
                 extraPanel.add(new JLabel("Snippet:"));
-                extraPanel.add(snippetField);
+                extraPanel.add(new JScrollPane(snippetField));
             } else if ("TestingNote".equals(noteTypeCombo.getSelectedItem())) {
                 testcaseField = new JTextField();
                 testStatusCombo = new JComboBox<>(TestingNote.TestStatus.values());
@@ -254,6 +514,9 @@ public class NoteAppGUI extends JFrame {
      * Creates the view panel displaying all saved notes with edit and delete options.
      */
     private JPanel createViewPanel() {
+        ViewRenderEvent event = new ViewRenderEvent();
+        event.begin();
+        long start = Metrics.start();
         JPanel panel = new JPanel();
         panel.setLayout(new BorderLayout());
         panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
@@ -261,97 +524,339 @@ public class NoteAppGUI extends JFrame {
         JPanel notesContainer = new JPanel();
         notesContainer.setLayout(new BoxLayout(notesContainer, BoxLayout.Y_AXIS));
         notesContainer.setBackground(Color.WHITE);
-
+        viewRowsContainer = notesContainer;
+        viewRows.clear();
+
+        // a blank filter matches every note, which is shown a page at a time as well
+        List<Note> notes = List.of();
+        String emptyText = viewQuery.isBlank() ? "You have not created any notes" : "No notes match the filter";
+        NoteQuery.Page page = null;
+        Map<String, Integer> tagCounts = Map.of();
+        try {
+            NoteQuery query = NoteQuery.parse(viewQuery);
+            page = notebook.query(query, viewPage, PAGE_SIZE);
+            if (viewPage >= page.pageCount()) {
+                // notes were removed since the page was chosen
+                viewPage = page.pageCount() - 1;
+                page = notebook.query(query, viewPage, PAGE_SIZE);
+            }
+            tagCounts = viewQuery.isBlank() ? notebook.tagCounts() : notebook.tagCounts(query);
+            notes = page.notes();
+        } catch (InvalidQueryException ex) {
+            emptyText = "Invalid filter: " + ex.getMessage();
+        }
         if (notes.isEmpty()) {
-            JLabel noNotesText = new JLabel("You have not created any notes", SwingConstants.CENTER);
+            JLabel noNotesText = new JLabel(emptyText, SwingConstants.CENTER);
             noNotesText.setFont(new Font("Arial", Font.BOLD, 14));
             noNotesText.setAlignmentX(Component.CENTER_ALIGNMENT);
             notesContainer.add(noNotesText);
             notesContainer.add(Box.createVerticalStrut(15));
         } else {
-            for (int i = notes.size() - 1; i >= 0; i--) {
-                Note n = notes.get(i);
+            for (Note n : notes) {
+                JPanel row = createNoteRow(n);
+                notesContainer.add(row);
+                viewRows.put(n.getId(), row);
+            }
+        }
 
-                JPanel singleNotePanel = new JPanel(new BorderLayout(10, 10));
-                singleNotePanel.setBorder(BorderFactory.createCompoundBorder(
+        JScrollPane scrollPane = new JScrollPane(notesContainer);
+        scrollPane.setPreferredSize(new Dimension(500, 400));
+
+        JPanel topPanel = new JPanel();
+        topPanel.setLayout(new BoxLayout(topPanel, BoxLayout.Y_AXIS));
+        topPanel.add(createSearchPanel());
+        topPanel.add(createFilterPanel());
+        tagFacets = new JPanel(new BorderLayout());
+        if (!tagCounts.isEmpty()) {
+            tagFacets.add(createTagFacetPanel(tagCounts));
+        }
+        topPanel.add(tagFacets);
+        panel.add(topPanel, BorderLayout.NORTH);
+
+        JButton backBtn = new JButton("Back");
+        backBtn.addActionListener(e -> cardLayout.show(mainPanel, "welcome"));
+
+        JButton duplicatesBtn = new JButton("Find Duplicates");
+        duplicatesBtn.addActionListener(e -> findDuplicates());
+
+        undoBtn = new JButton("Undo");
+        undoBtn.setEnabled(notebook.canUndo());
+        undoBtn.addActionListener(e -> {
+            if (notebook.undo()) {
+                saveToFile("");
+            }
+            switchToViewPanel();
+        });
+
+        redoBtn = new JButton("Redo");
+        redoBtn.setEnabled(notebook.canRedo());
+        redoBtn.addActionListener(e -> {
+            if (notebook.redo()) {
+                saveToFile("");
+            }
+            switchToViewPanel();
+        });
+
+        JPanel btnPanel = new JPanel();
+        if (page != null) {
+            JButton prevBtn = new JButton("<");
+            prevBtn.setEnabled(viewPage > 0);
+            prevBtn.addActionListener(e -> {
+                viewPage--;
+                switchToViewPanel();
+            });
+            JButton nextBtn = new JButton(">");
+            nextBtn.setEnabled(viewPage < page.pageCount() - 1);
+            nextBtn.addActionListener(e -> {
+                viewPage++;
+                switchToViewPanel();
+            });
+            btnPanel.add(prevBtn);
+            btnPanel.add(new JLabel("Page " + (viewPage + 1) + " of " + page.pageCount()));
+            btnPanel.add(nextBtn);
+        }
+        btnPanel.add(undoBtn);
+        btnPanel.add(redoBtn);
+        btnPanel.add(duplicatesBtn);
+        btnPanel.add(backBtn);
+
+        panel.add(scrollPane, BorderLayout.CENTER);
+        panel.add(btnPanel, BorderLayout.SOUTH);
+
+        VIEW_RENDER_TIME.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.query = viewQuery;
+            event.notes = notes.size();
+            event.total = page != null ? page.total() : notes.size();
+            event.commit();
+        }
+        return panel;
+    }
+    
+    /**
+     * Creates the row of the view panel showing one note with its edit, attachments and
+     * delete buttons.
+     */
+    private JPanel createNoteRow(Note n) {
+        long noteStart = Metrics.start();
+        JPanel singleNotePanel = new JPanel(new BorderLayout(10, 10));
+        // the bottom margin separates the rows, so a row is removed or replaced as one component
+        singleNotePanel.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createEmptyBorder(0, 0, 10, 0),
+                BorderFactory.createCompoundBorder(
                         BorderFactory.createLineBorder(Color.LIGHT_GRAY),
-                        BorderFactory.createEmptyBorder(10, 10, 10, 10)));
-                singleNotePanel.setBackground(Color.WHITE);
-
-                JLabel noteTitleLabel = new JLabel(n.getTitle());
-                noteTitleLabel.setFont(new Font("Arial", Font.BOLD, 14));
-
-                JButton editBtn = new JButton("Edit");
-                editBtn.addActionListener(e -> {
-                    for (int j = 0; j < notes.size(); j++) {
-                        if (notes.get(j).isSameNote(n)) {
-                            currentNote = notes.get(j);
-                            break;
-                        }
-                    }
-                    JPanel editPanel = createEditNotePanel();
-                    mainPanel.add(editPanel, "update");
-                    cardLayout.show(mainPanel, "update");
-                });
+                        BorderFactory.createEmptyBorder(10, 10, 10, 10))));
+        singleNotePanel.setBackground(Color.WHITE);
+
+        JLabel noteTitleLabel = new JLabel(n.getTitle());
+        noteTitleLabel.setFont(new Font("Arial", Font.BOLD, 14));
+
+        JButton editBtn = new JButton("Edit");
+        editBtn.addActionListener(e -> openEditPanel(n));
 
-                JButton deleteBtn = new JButton("Delete");
-                deleteBtn.addActionListener(e -> {
-                    int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this note?",
-                            "Confirm Delete", JOptionPane.YES_NO_OPTION);
-                    if (confirm == JOptionPane.YES_OPTION) {
-                        notes.remove(n);
-                        for (int j = 0; j < notes.size(); j++) {
-                            if (notes.get(j).isSameNote(n)) {
-                                notes.remove(j);
+        JButton deleteBtn = new JButton("Delete");
+        deleteBtn.addActionListener(e -> {
+            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this note?",
+                    "Confirm Delete", JOptionPane.YES_NO_OPTION);
+            if (confirm == JOptionPane.YES_OPTION) {
+                try {
+                    // one undo step brings back both notes
+                    notebook.group(() -> {
+                        notebook.remove(n);
+                        for (Note other : notebook.getNotes()) {
+                            if (other.isSameNote(n)) {
+                                notebook.remove(other);
                                 break;
                             }
                         }
-                        saveToFile("");
-                        switchToViewPanel();
-                    }
-                });
+                    });
+                } catch (NoteException ex) {
+                    JOptionPane.showMessageDialog(this, "Failed to delete the note: " + ex.getMessage());
+                }
+                saveToFile("");
+                switchToViewPanel();
+            }
+        });
 
-                JPanel headerPanel = new JPanel(new BorderLayout());
-                headerPanel.setOpaque(false);
-                headerPanel.add(noteTitleLabel, BorderLayout.WEST);
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.setOpaque(false);
+        headerPanel.add(noteTitleLabel, BorderLayout.WEST);
+
+        JButton attachmentsBtn = new JButton("Attachments (" + n.getAttachments().size() + ")");
+        attachmentsBtn.addActionListener(e -> showAttachments(n));
+
+        JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttonsPanel.setOpaque(false);
+        buttonsPanel.add(editBtn);
+        buttonsPanel.add(attachmentsBtn);
+        buttonsPanel.add(deleteBtn);
+
+        headerPanel.add(buttonsPanel, BorderLayout.EAST);
+
+        String details = n.toString();
+        JTextPane snippetPane = null;
+        if (n instanceof ProgrammingNote progNote) {
+            // the snippet ends the note description and is shown highlighted below it
+            String snippet = progNote.getCodingSnippet();
+            details = details.substring(0, details.length() - snippet.length());
+            snippetPane = createSnippetPane();
+            snippetPane.setText(snippet);
+            snippetPane.setEditable(false);
+            snippetPane.setBackground(new Color(245, 245, 245));
+            snippetPane.setBorder(BorderFactory.createEmptyBorder(0, 10, 10, 10));
+            new SnippetHighlighter(snippetPane, null, progNote.getLanguage());
+        }
 
-                JPanel buttonsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
-                buttonsPanel.setOpaque(false);
-                buttonsPanel.add(editBtn);
-                buttonsPanel.add(deleteBtn);
+        JTextArea noteArea = new JTextArea(details);
+        noteArea.setLineWrap(true);
+        noteArea.setWrapStyleWord(true);
+        noteArea.setEditable(false);
+        noteArea.setBackground(new Color(245, 245, 245));
+        noteArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        singleNotePanel.add(headerPanel, BorderLayout.NORTH);
+        singleNotePanel.add(noteArea, BorderLayout.CENTER);
+        if (snippetPane != null) {
+            singleNotePanel.add(snippetPane, BorderLayout.SOUTH);
+        }
 
-                headerPanel.add(buttonsPanel, BorderLayout.EAST);
+        NOTE_RENDER_TIME.recordSince(noteStart);
+        return singleNotePanel;
+    }
 
-                JTextArea noteArea = new JTextArea(n.toString());
-                noteArea.setLineWrap(true);
-                noteArea.setWrapStyleWord(true);
-                noteArea.setEditable(false);
-                noteArea.setBackground(new Color(245, 245, 245));
-                noteArea.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+    /**
+     * Creates the typeahead search box shown above the notes list. Suggestions are
+     * refreshed on every keystroke; choosing one opens the note for editing.
+     */
+    private JPanel createSearchPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+
+        JTextField searchField = new JTextField();
+        DefaultListModel<Note> suggestions = new DefaultListModel<>();
+        JList<Note> suggestionList = new JList<>(suggestions);
+        suggestionList.setVisibleRowCount(5);
+        suggestionList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, ((Note) value).getTitle(), index, isSelected,
+                        cellHasFocus);
+            }
+        });
+        JScrollPane suggestionScroll = new JScrollPane(suggestionList);
+        suggestionScroll.setVisible(false);
 
-                singleNotePanel.add(headerPanel, BorderLayout.NORTH);
-                singleNotePanel.add(noteArea, BorderLayout.CENTER);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                refresh();
+            }
 
-                notesContainer.add(singleNotePanel);
-                notesContainer.add(Box.createVerticalStrut(10));
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                refresh();
             }
-        }
 
-        JScrollPane scrollPane = new JScrollPane(notesContainer);
-        scrollPane.setPreferredSize(new Dimension(500, 400));
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                refresh();
+            }
 
-        JButton backBtn = new JButton("Back");
-        backBtn.addActionListener(e -> cardLayout.show(mainPanel, "welcome"));
+            private void refresh() {
+                suggestions.clear();
+                String query = searchField.getText();
+                if (!query.isBlank()) {
+                    suggestions.addAll(notebook.suggest(query, MAX_SUGGESTIONS));
+                }
+                suggestionScroll.setVisible(!suggestions.isEmpty());
+                panel.revalidate();
+            }
+        });
+        searchField.addActionListener(e -> {
+            if (!suggestions.isEmpty()) {
+                openEditPanel(suggestions.get(0));
+            }
+        });
+        suggestionList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && suggestionList.getSelectedValue() != null) {
+                    openEditPanel(suggestionList.getSelectedValue());
+                }
+            }
+        });
 
-        JPanel btnPanel = new JPanel();
-        btnPanel.add(backBtn);
+        panel.add(new JLabel("Search:"), BorderLayout.WEST);
+        panel.add(searchField, BorderLayout.CENTER);
+        panel.add(suggestionScroll, BorderLayout.SOUTH);
+        return panel;
+    }
 
-        panel.add(scrollPane, BorderLayout.CENTER);
-        panel.add(btnPanel, BorderLayout.SOUTH);
+    /**
+     * Creates the filter box that narrows the notes list with a query such as
+     * {@code type:TestingNote status:FAILED author:alice deadline<2026-11-01}.
+     */
+    private JPanel createFilterPanel() {
+        JPanel panel = new JPanel(new BorderLayout(5, 5));
+        panel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+
+        JTextField filterField = new JTextField(viewQuery);
+        filterField.setToolTipText(
+                "e.g. type:TestingNote status:FAILED,PENDING tag:ui -tag:done author:alice deadline<2026-11-01 sort:deadline");
+        filterField.addActionListener(e -> {
+            viewQuery = filterField.getText();
+            viewPage = 0;
+            switchToViewPanel();
+        });
 
+        panel.add(new JLabel("Filter:"), BorderLayout.WEST);
+        panel.add(filterField, BorderLayout.CENTER);
         return panel;
     }
-    
+
+    /**
+     * Creates the row of the most used tags among the listed notes with their counts.
+     * Choosing a tag narrows the filter to notes carrying it.
+     */
+    private JPanel createTagFacetPanel(Map<String, Integer> tagCounts) {
+        JPanel panel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        panel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        panel.add(new JLabel("Tags:"));
+        int shown = 0;
+        for (Map.Entry<String, Integer> tag : tagCounts.entrySet()) {
+            if (shown++ == MAX_TAG_FACETS) {
+                break;
+            }
+            JButton tagBtn = new JButton(tag.getKey() + " (" + tag.getValue() + ")");
+            tagBtn.setMargin(new Insets(1, 4, 1, 4));
+            tagBtn.addActionListener(e -> {
+                viewQuery = (viewQuery.trim() + " tag:" + tag.getKey()).trim();
+                viewPage = 0;
+                switchToViewPanel();
+            });
+            panel.add(tagBtn);
+        }
+        return panel;
+    }
+
+    /**
+     * Makes the given note current and shows the edit panel for it.
+     */
+    private void openEditPanel(Note note) {
+        currentNote = note;
+        for (Note other : notebook.getNotes()) {
+            if (other.isSameNote(note)) {
+                currentNote = other;
+                break;
+            }
+        }
+        JPanel editPanel = createEditNotePanel();
+        mainPanel.add(editPanel, "update");
+        cardLayout.show(mainPanel, "update");
+    }
+
     /**
      * Creates the edit panel for modifying existing notes.
      */
@@ -365,8 +870,9 @@ public class NoteAppGUI extends JFrame {
         //Set values from currentNote
         titleField.setText(currentNote.getTitle());
         descField.setText(currentNote.getDescription());
-        textArea.setText(currentNote.getText());
+        textContent = bindContent(textArea, currentNote.getTextRope());
         authorField.setText(currentNote.getAuthor());
+        tagsField.setText(String.join(", ", currentNote.getTags()));
 
         formPanel.add(new JLabel("Title:"));
         formPanel.add(titleField);
@@ -376,6 +882,8 @@ public class NoteAppGUI extends JFrame {
         formPanel.add(new JScrollPane(textArea));
         formPanel.add(new JLabel("Author:"));
         formPanel.add(authorField);
+        formPanel.add(new JLabel("Tags:"));
+        formPanel.add(tagsField);
 
         Calendar calendar = Calendar.getInstance();
         calendar.set(Calendar.HOUR_OF_DAY, 0);
@@ -402,7 +910,7 @@ public class NoteAppGUI extends JFrame {
         //Extra fields
         JPanel extraPanel = new JPanel(new GridLayout(0, 2, 5, 5));
         languageField = new JTextField();
-        snippetField = new JTextField();
+        snippetField = createSnippetPane();
         testcaseField = new JTextField();
         isMandatoryField = new JCheckBox("Is Manditory");
         testStatusCombo = new JComboBox<>();
@@ -412,14 +920,16 @@ public class NoteAppGUI extends JFrame {
         isMandatoryField.setSelected(false);
         testStatusCombo.setModel(new DefaultComboBoxModel<>(TestingNote.TestStatus.values()));
 
+        snippetContent = null;
         if (currentNote instanceof ProgrammingNote progNote) {
             languageField.setText(progNote.getLanguage());
-            snippetField.setText(progNote.getCodingSnippet());
+            snippetContent = bindSnippet(snippetField, progNote.getCodingSnippetRope());
+            followLanguage(languageField, new SnippetHighlighter(snippetField, snippetContent, progNote.getLanguage()));
 
             extraPanel.add(new JLabel("Language:"));
             extraPanel.add(languageField);
             extraPanel.add(new JLabel("Snippet:"));
-            extraPanel.add(snippetField);
+            extraPanel.add(new JScrollPane(snippetField));
 
         } else if (currentNote instanceof TestingNote testNote) {
             testcaseField.setText(testNote.getTestcase());
@@ -443,32 +953,47 @@ public class NoteAppGUI extends JFrame {
         JButton updateBtn = new JButton("Update Note");
         updateBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
         updateBtn.addActionListener(e -> {
+            if (notebook.get(currentNote.getId()) != currentNote) {
+                // undo, redo or a removal replaced the note this view was opened on
+                JOptionPane.showMessageDialog(this, "The note changed since it was opened, open it again to edit it.");
+                return;
+            }
             try {
-                currentNote.saveVersion(currentNote.clone());
-
-                try {
-                    currentNote.setTitle(titleField.getText());
-                } catch (TitleLengthExceededException ex) {
-                    System.out.println(ex.getMessage());
-                }
+                notebook.saveVersion(currentNote);
+                notebook.update(currentNote, () -> {
+                    try {
+                        currentNote.setTitle(titleField.getText());
+                    } catch (TitleLengthExceededException ex) {
+                        System.out.println(ex.getMessage());
+                    }
 
-                currentNote.setDescription(descField.getText());
-                currentNote.setText(textArea.getText());
-                currentNote.setAuthor(authorField.getText());
-
-                Date selectedDate = (Date) deadline.getValue();
-                Calendar deadlineCal = Calendar.getInstance();
-                deadlineCal.setTime(selectedDate);
-                currentNote.setDeadline(deadlineCal);
-
-                if (currentNote instanceof ProgrammingNote progNoteUpdate) {
-                    progNoteUpdate.setLanguage(languageField.getText());
-                    progNoteUpdate.setCodingSnippet(snippetField.getText());
-                } else if (currentNote instanceof TestingNote testNoteUpdate) {
-                    testNoteUpdate.setTestcase(testcaseField.getText());
-                    testNoteUpdate.setIsMandatoryTest(isMandatoryField.isSelected());
-                    testNoteUpdate.updateStatus((TestingNote.TestStatus) testStatusCombo.getSelectedItem());
-                }
+                    currentNote.setDescription(descField.getText());
+                    if (textContent != null) {
+                        currentNote.setTextRope(textContent.getRope());
+                    } else {
+                        currentNote.setText(textArea.getText());
+                    }
+                    currentNote.setAuthor(authorField.getText());
+                    currentNote.setTags(Note.parseTags(tagsField.getText()));
+
+                    Date selectedDate = (Date) deadline.getValue();
+                    Calendar deadlineCal = Calendar.getInstance();
+                    deadlineCal.setTime(selectedDate);
+                    currentNote.setDeadline(deadlineCal);
+
+                    if (currentNote instanceof ProgrammingNote progNoteUpdate) {
+                        progNoteUpdate.setLanguage(languageField.getText());
+                        if (snippetContent != null) {
+                            progNoteUpdate.setCodingSnippetRope(snippetContent.getRope());
+                        } else {
+                            progNoteUpdate.setCodingSnippet(snippetField.getText());
+                        }
+                    } else if (currentNote instanceof TestingNote testNoteUpdate) {
+                        testNoteUpdate.setTestcase(testcaseField.getText());
+                        testNoteUpdate.setIsMandatoryTest(isMandatoryField.isSelected());
+                        testNoteUpdate.updateStatus((TestingNote.TestStatus) testStatusCombo.getSelectedItem());
+                    }
+                });
 
                 saveToFile("Note updated successfully!");
             } catch (Exception ex) {
@@ -479,6 +1004,14 @@ public class NoteAppGUI extends JFrame {
         panel.add(Box.createVerticalStrut(10));
         panel.add(updateBtn);
 
+        //Compare versions button
+        JButton compareBtn = new JButton("Compare Versions");
+        compareBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
+        compareBtn.setEnabled(!currentNote.getAllVersions().isEmpty());
+        compareBtn.addActionListener(e -> showVersionDiff(currentNote));
+
+        panel.add(compareBtn);
+
         //Back button
         JButton backBtn = new JButton("Back");
         backBtn.setAlignmentX(Component.CENTER_ALIGNMENT);
@@ -495,6 +1028,150 @@ public class NoteAppGUI extends JFrame {
         return panel;
     }
     
+    /**
+     * Shows the differences between two saved versions of a note, or between a version and
+     * the note itself. Diffs are computed in a separate thread and cached, so returning to a
+     * pair compared before is immediate.
+     */
+    private void showVersionDiff(Note note) {
+        List<Note> versions = note.getAllVersions();
+        String[] labels = new String[versions.size() + 1];
+        for (int i = 0; i < versions.size(); i++) {
+            labels[i] = "Version " + (i + 1);
+        }
+        labels[versions.size()] = "Current";
+        JComboBox<String> fromCombo = new JComboBox<>(labels);
+        JComboBox<String> toCombo = new JComboBox<>(labels);
+        fromCombo.setSelectedIndex(versions.size() - 1);
+        toCombo.setSelectedIndex(versions.size());
+
+        List<NoteChange.Field> fields = new ArrayList<>(List.of(NoteChange.Field.TEXT, NoteChange.Field.DESCRIPTION));
+        if (note instanceof ProgrammingNote) {
+            fields.add(NoteChange.Field.CODING_SNIPPET);
+        } else if (note instanceof TestingNote) {
+            fields.add(NoteChange.Field.TEST_CASE);
+        }
+        JComboBox<NoteChange.Field> fieldCombo = new JComboBox<>(fields.toArray(new NoteChange.Field[0]));
+        JCheckBox wordsBox = new JCheckBox("Highlight words", true);
+        JLabel status = new JLabel(" ");
+        DiffView diffView = new DiffView();
+        wordsBox.addActionListener(e -> diffView.setWordHighlighting(wordsBox.isSelected()));
+
+        AtomicInteger requests = new AtomicInteger();
+        Runnable compare = () -> {
+            int request = requests.incrementAndGet();
+            Note from = fromCombo.getSelectedIndex() < versions.size() ? versions.get(fromCombo.getSelectedIndex()) : note;
+            Note to = toCombo.getSelectedIndex() < versions.size() ? versions.get(toCombo.getSelectedIndex()) : note;
+            NoteChange.Field field = (NoteChange.Field) fieldCombo.getSelectedItem();
+            status.setText("Comparing...");
+            Thread diffThread = new Thread(() -> {
+                long start = System.nanoTime();
+                TextDiff diff = TextDiff.between(from, to, field);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                SwingUtilities.invokeLater(() -> {
+                    if (request != requests.get()) {
+                        return;
+                    }
+                    diffView.setDiff(diff);
+                    status.setText(diff.isEmpty() ? "No differences"
+                            : diff.getHunks().size() + " hunks, -" + diff.getDeletedLines() + " +"
+                                    + diff.getInsertedLines() + " lines (" + millis + " ms)");
+                });
+            });
+            diffThread.start();
+        };
+        fromCombo.addActionListener(e -> compare.run());
+        toCombo.addActionListener(e -> compare.run());
+        fieldCombo.addActionListener(e -> compare.run());
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        controls.add(new JLabel("From:"));
+        controls.add(fromCombo);
+        controls.add(new JLabel("To:"));
+        controls.add(toCombo);
+        controls.add(new JLabel("Field:"));
+        controls.add(fieldCombo);
+        controls.add(wordsBox);
+        JScrollPane scrollPane = new JScrollPane(diffView);
+        scrollPane.setPreferredSize(new Dimension(760, 480));
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(controls, BorderLayout.NORTH);
+        content.add(scrollPane, BorderLayout.CENTER);
+        content.add(status, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Compare Versions: " + note.getTitle(), false);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+        compare.run();
+    }
+
+    /**
+     * Loads text into an edit component. Large bodies are edited in place through a
+     * rope-backed document instead of being copied into the component.
+     *
+     * @return the rope content backing the component, or null for a plain document
+     */
+    private static RopeContent bindContent(JTextComponent component, Rope rope) {
+        if (rope.length() < Rope.LARGE_TEXT_THRESHOLD) {
+            component.setDocument(new PlainDocument());
+            component.setText(rope.toString());
+            return null;
+        }
+        RopeContent content = new RopeContent(rope);
+        component.setDocument(content.createPlainDocument());
+        return content;
+    }
+
+    /**
+     * Loads code into a snippet pane. Large snippets are edited in place through a
+     * rope-backed document instead of being copied into the pane.
+     *
+     * @return the rope content backing the pane, or null for a plain styled document
+     */
+    private static RopeContent bindSnippet(JTextPane pane, Rope rope) {
+        if (rope.length() < Rope.LARGE_TEXT_THRESHOLD) {
+            pane.setDocument(new DefaultStyledDocument());
+            pane.setText(rope.toString());
+            return null;
+        }
+        RopeContent content = new RopeContent(rope);
+        pane.setDocument(content.createStyledDocument());
+        return content;
+    }
+
+    /**
+     * Creates the pane code snippets are shown and edited in.
+     */
+    private static JTextPane createSnippetPane() {
+        JTextPane pane = new JTextPane();
+        pane.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        return pane;
+    }
+
+    /**
+     * Highlights the snippet with the rules of the language typed into the language field.
+     */
+    private static void followLanguage(JTextField languageField, SnippetHighlighter highlighter) {
+        languageField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                highlighter.setLanguage(languageField.getText());
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                highlighter.setLanguage(languageField.getText());
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+    }
+
     /**
      * Creates a new note from form data and adds it to the notes list.
      */
@@ -527,7 +1204,12 @@ public class NoteAppGUI extends JFrame {
                 }
                 default -> currentNote = new Note(title, desc, text, author, now, selectedDeadline);
             }
-            notes.add(currentNote);
+            currentNote.setTags(Note.parseTags(tagsField.getText()));
+            if (!confirmNotDuplicate(currentNote)) {
+                currentNote.releaseBlobs();
+                return;
+            }
+            notebook.add(currentNote);
             resetFields();
             ;
             successMessage.setText("Note added to list");
@@ -536,17 +1218,553 @@ public class NoteAppGUI extends JFrame {
         }
     }
 
+    /**
+     * Warns when a new note closely matches an existing one.
+     *
+     * @return true if the note should be added
+     */
+    private boolean confirmNotDuplicate(Note note) {
+        List<MinHashIndex.Match> matches = notebook.findSimilar(note, DUPLICATE_SIMILARITY);
+        if (matches.isEmpty()) {
+            return true;
+        }
+        MinHashIndex.Match best = matches.get(0);
+        int confirm = JOptionPane.showConfirmDialog(this,
+                "This note is " + Math.round(best.similarity() * 100) + "% similar to \"" + best.note().getTitle()
+                        + "\". Add it anyway?",
+                "Possible Duplicate", JOptionPane.YES_NO_OPTION);
+        return confirm == JOptionPane.YES_OPTION;
+    }
+
+    /**
+     * Looks for clusters of near-duplicate notes in a separate thread and reports them.
+     */
+    private void findDuplicates() {
+        Thread duplicatesThread = new Thread(() -> {
+            List<MinHashIndex.Cluster> clusters = notebook.findDuplicateClusters(DUPLICATE_SIMILARITY);
+            StringBuilder report = new StringBuilder();
+            for (MinHashIndex.Cluster cluster : clusters) {
+                report.append(Math.round(cluster.similarity() * 100)).append("% similar:\n");
+                for (Note note : cluster.notes()) {
+                    report.append("  ").append(note.getTitle()).append('\n');
+                }
+            }
+            int pending = notebook.pendingDuplicateChecks();
+            if (pending > 0) {
+                report.append(pending).append(" notes are still being indexed and were not compared\n");
+            }
+            String message = clusters.isEmpty() && pending == 0 ? "No near-duplicate notes found" : report.toString();
+            SwingUtilities.invokeLater(() -> {
+                JTextArea reportArea = new JTextArea(message, 15, 40);
+                reportArea.setEditable(false);
+                JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), "Near-Duplicate Notes",
+                        JOptionPane.INFORMATION_MESSAGE);
+            });
+        });
+        duplicatesThread.start();
+    }
+
+    /**
+     * Lets the user pick a JUnit XML report and applies it to the testing notes in a
+     * separate thread.
+     */
+    private void importJUnitReport() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File report = chooser.getSelectedFile();
+        Notebook current = notebook;
+        NoteStore currentStore = store;
+        Thread importThread = new Thread(() -> {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(report))) {
+                JUnitReportImporter.Summary summary = new JUnitReportImporter(current, currentStore)
+                        .importReport(in, report.getName());
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                        summary.testcases() + " test cases imported: " + summary.updated() + " updated, "
+                                + summary.unchanged() + " unchanged, " + summary.created() + " new notes"));
+            } catch (IOException e) {
+                SwingUtilities.invokeLater(
+                        () -> JOptionPane.showMessageDialog(this, "Failed to import report: " + e.getMessage()));
+            }
+        });
+        importThread.start();
+    }
+
+    /**
+     * Shows the collected metrics with buttons to refresh them and export them to a file.
+     */
+    private void showDiagnostics() {
+        JTextArea report = new JTextArea(Metrics.report(), 20, 70);
+        report.setEditable(false);
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        JButton refreshBtn = new JButton("Refresh");
+        refreshBtn.addActionListener(e -> report.setText(Metrics.report()));
+        JButton exportBtn = new JButton("Export...");
+        exportBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("note-metrics.txt"));
+            if (chooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    Metrics.export(chooser.getSelectedFile().toPath());
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(this, "Failed to export metrics: " + ex.getMessage());
+                }
+            }
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(refreshBtn);
+        buttons.add(exportBtn);
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.add(new JScrollPane(report), BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Diagnostics", false);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Lists the backups of the note file with buttons to take a new backup and to restore
+     * one into a chosen directory. Both run in a separate thread.
+     */
+    private void showBackups() {
+        DefaultListModel<BackupRepository.Backup> model = new DefaultListModel<>();
+        JList<BackupRepository.Backup> list = new JList<>(model);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected,
+                    boolean focus) {
+                BackupRepository.Backup backup = (BackupRepository.Backup) value;
+                return super.getListCellRendererComponent(l, backup.id() + "  (" + backup.bytes() / 1024 + " KB)",
+                        index, selected, focus);
+            }
+        });
+        JLabel status = new JLabel(" ");
+        Runnable reload = () -> {
+            try {
+                model.clear();
+                model.addAll(backups.list());
+            } catch (IOException ex) {
+                status.setText("Failed to list backups: " + ex.getMessage());
+            }
+        };
+        reload.run();
+
+        JButton backupBtn = new JButton("Back Up Now");
+        backupBtn.addActionListener(e -> {
+            backupBtn.setEnabled(false);
+            status.setText("Backing up...");
+            Thread backupThread = new Thread(() -> {
+                try {
+                    BackupRepository.Summary summary = backups.backup(store);
+                    SwingUtilities.invokeLater(() -> {
+                        reload.run();
+                        status.setText("Backed up " + summary.scannedBytes() / 1024 + " KB, stored "
+                                + summary.storedBytes() / 1024 + " KB in " + summary.storedChunks() + " new chunks");
+                    });
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() -> status.setText("Backup failed: " + ex.getMessage()));
+                } finally {
+                    SwingUtilities.invokeLater(() -> backupBtn.setEnabled(true));
+                }
+            });
+            backupThread.start();
+        });
+
+        JButton restoreBtn = new JButton("Restore...");
+        restoreBtn.addActionListener(e -> {
+            BackupRepository.Backup backup = list.getSelectedValue();
+            if (backup == null) {
+                status.setText("Choose a backup to restore");
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            chooser.setDialogTitle("Restore " + backup.id() + " into");
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path target = chooser.getSelectedFile().toPath();
+            if (target.toAbsolutePath().normalize().equals(store.getFile().toAbsolutePath().normalize().getParent())) {
+                status.setText("Restore into another directory than the open note file");
+                return;
+            }
+            status.setText("Restoring...");
+            Thread restoreThread = new Thread(() -> {
+                try {
+                    backups.restore(backup.id(), target);
+                    SwingUtilities.invokeLater(() -> status.setText("Restored " + backup.id() + " into " + target));
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() -> status.setText("Restore failed: " + ex.getMessage()));
+                }
+            });
+            restoreThread.start();
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(backupBtn);
+        buttons.add(restoreBtn);
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setPreferredSize(new Dimension(360, 240));
+        content.add(scrollPane, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.NORTH);
+        content.add(status, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Backups", false);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Lists the attachments of a note. Attaching copies the file into the attachment store
+     * of the notebook in a separate thread and then saves a version of the note, so the
+     * note only grows by the reference. Attachments are viewed and saved by streaming their
+     * content.
+     *
+     * @param note the note whose attachments are shown
+     */
+    private void showAttachments(Note note) {
+        Notebook current = notebook;
+        NoteStore currentStore = store;
+        AttachmentStore attachments = currentStore.getAttachments();
+        DefaultListModel<Attachment> model = new DefaultListModel<>();
+        model.addAll(note.getAttachments());
+        JList<Attachment> list = new JList<>(model);
+        JLabel status = new JLabel(" ");
+
+        JButton attachBtn = new JButton("Attach...");
+        attachBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path file = chooser.getSelectedFile().toPath();
+            attachBtn.setEnabled(false);
+            status.setText("Attaching " + file.getFileName() + "...");
+            Thread attachThread = new Thread(() -> {
+                try {
+                    Attachment attachment = attachments.importFile(file);
+                    current.saveVersion(note);
+                    current.update(note, () -> note.addAttachment(attachment));
+                    currentStore.save(current);
+                    SwingUtilities.invokeLater(() -> {
+                        model.addElement(attachment);
+                        status.setText("Attached " + attachment);
+                    });
+                } catch (IOException | CloneNotSupportedException | NoteException ex) {
+                    SwingUtilities.invokeLater(() -> status.setText("Attaching failed: " + ex.getMessage()));
+                } finally {
+                    SwingUtilities.invokeLater(() -> attachBtn.setEnabled(true));
+                }
+            });
+            attachThread.start();
+        });
+
+        JButton viewBtn = new JButton("View");
+        viewBtn.addActionListener(e -> {
+            Attachment attachment = list.getSelectedValue();
+            if (attachment == null) {
+                status.setText("Choose an attachment to view");
+                return;
+            }
+            viewAttachment(attachments, attachment);
+        });
+
+        JButton saveAsBtn = new JButton("Save As...");
+        saveAsBtn.addActionListener(e -> {
+            Attachment attachment = list.getSelectedValue();
+            if (attachment == null) {
+                status.setText("Choose an attachment to save");
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File(attachment.name()));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            Path target = chooser.getSelectedFile().toPath();
+            status.setText("Saving " + attachment.name() + "...");
+            Thread saveThread = new Thread(() -> {
+                try (InputStream in = attachments.openStream(attachment)) {
+                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                    SwingUtilities.invokeLater(() -> status.setText("Saved " + target));
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() -> status.setText("Saving failed: " + ex.getMessage()));
+                }
+            });
+            saveThread.start();
+        });
+
+        JButton detachBtn = new JButton("Detach");
+        detachBtn.addActionListener(e -> {
+            Attachment attachment = list.getSelectedValue();
+            if (attachment == null) {
+                status.setText("Choose an attachment to detach");
+                return;
+            }
+            try {
+                current.saveVersion(note);
+                current.update(note, () -> note.removeAttachment(attachment));
+                model.removeElement(attachment);
+                status.setText("Detached " + attachment.name() + "; earlier versions keep it");
+                saveToFile("");
+            } catch (CloneNotSupportedException | NoteException ex) {
+                status.setText("Detaching failed: " + ex.getMessage());
+            }
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(attachBtn);
+        buttons.add(viewBtn);
+        buttons.add(saveAsBtn);
+        buttons.add(detachBtn);
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setPreferredSize(new Dimension(400, 200));
+        content.add(scrollPane, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.NORTH);
+        content.add(status, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Attachments of " + note.getTitle(), false);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Shows an attachment, streamed from the store in a separate thread. Images are shown
+     * as pictures; anything else as UTF-8 text, of which at most
+     * {@link #ATTACHMENT_VIEW_LIMIT} characters are read from the start or, on request,
+     * from the end.
+     */
+    private void viewAttachment(AttachmentStore attachments, Attachment attachment) {
+        JDialog dialog = new JDialog(this, attachment.toString(), false);
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        JLabel status = new JLabel("Loading...");
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(status, BorderLayout.SOUTH);
+        String name = attachment.name().toLowerCase();
+        if (name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".gif")
+                || name.endsWith(".bmp")) {
+            JLabel picture = new JLabel();
+            JScrollPane scrollPane = new JScrollPane(picture);
+            scrollPane.setPreferredSize(new Dimension(640, 480));
+            content.add(scrollPane, BorderLayout.CENTER);
+            Thread loadThread = new Thread(() -> {
+                try (InputStream in = attachments.openStream(attachment)) {
+                    BufferedImage image = ImageIO.read(in);
+                    SwingUtilities.invokeLater(() -> {
+                        if (image == null) {
+                            status.setText("Unsupported image format");
+                        } else {
+                            picture.setIcon(new ImageIcon(image));
+                            status.setText(image.getWidth() + " x " + image.getHeight());
+                        }
+                    });
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() -> status.setText("Loading failed: " + ex.getMessage()));
+                }
+            });
+            loadThread.start();
+        } else {
+            JTextArea text = new JTextArea();
+            text.setEditable(false);
+            text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            JScrollPane scrollPane = new JScrollPane(text);
+            scrollPane.setPreferredSize(new Dimension(640, 480));
+            content.add(scrollPane, BorderLayout.CENTER);
+            JButton startBtn = new JButton("Show Start");
+            JButton endBtn = new JButton("Show End");
+            JPanel buttons = new JPanel();
+            buttons.add(startBtn);
+            buttons.add(endBtn);
+            content.add(buttons, BorderLayout.NORTH);
+            AtomicInteger loading = new AtomicInteger();
+            LongConsumer load = from -> {
+                int generation = loading.incrementAndGet();
+                text.setText("");
+                status.setText("Loading...");
+                Thread loadThread = new Thread(() -> {
+                    try (SeekableByteChannel channel = attachments.open(attachment)) {
+                        channel.position(from);
+                        Reader reader = new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8);
+                        char[] buffer = new char[64 * 1024];
+                        int shown = 0;
+                        while (shown < ATTACHMENT_VIEW_LIMIT && loading.get() == generation) {
+                            int read = reader.read(buffer, 0, Math.min(buffer.length, ATTACHMENT_VIEW_LIMIT - shown));
+                            if (read < 0) {
+                                break;
+                            }
+                            String piece = new String(buffer, 0, read);
+                            shown += read;
+                            SwingUtilities.invokeLater(() -> {
+                                if (loading.get() == generation) {
+                                    text.append(piece);
+                                }
+                            });
+                        }
+                        String done = from > 0 ? "Showing the end of " + attachment
+                                : shown < ATTACHMENT_VIEW_LIMIT ? attachment.toString()
+                                : "Showing the start of " + attachment;
+                        SwingUtilities.invokeLater(() -> {
+                            if (loading.get() == generation) {
+                                status.setText(done);
+                            }
+                        });
+                    } catch (IOException ex) {
+                        SwingUtilities.invokeLater(() -> status.setText("Loading failed: " + ex.getMessage()));
+                    }
+                });
+                loadThread.start();
+            };
+            startBtn.addActionListener(e -> load.accept(0));
+            endBtn.addActionListener(e -> load.accept(Math.max(0, attachment.size() - ATTACHMENT_VIEW_LIMIT)));
+            dialog.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    // stops a load still streaming
+                    loading.incrementAndGet();
+                }
+            });
+            load.accept(0);
+        }
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Shows the notebook statistics: notes per author and language, test results and
+     * notes due per week, and version counts. The dashboard reads the aggregates the
+     * notebook keeps up to date and refreshes every second while open; "Verify" recomputes
+     * them from every note in a separate thread and compares.
+     */
+    private void showStatistics() {
+        JLabel summary = new JLabel(" ");
+        DefaultTableModel authors = statisticsModel("Author", "Notes");
+        DefaultTableModel languages = statisticsModel("Language", "Notes");
+        DefaultTableModel weeks = statisticsModel("Week", "Due", "Pending", "Passed", "Failed");
+        DefaultTableModel versions = statisticsModel("Versions", "Notes");
+        DefaultTableModel mostVersioned = statisticsModel("Note", "Versions");
+
+        JPanel versionPanel = new JPanel(new GridLayout(2, 1, 5, 5));
+        versionPanel.add(new JScrollPane(new JTable(versions)));
+        versionPanel.add(new JScrollPane(new JTable(mostVersioned)));
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Authors", new JScrollPane(new JTable(authors)));
+        tabs.addTab("Languages", new JScrollPane(new JTable(languages)));
+        tabs.addTab("Weeks", new JScrollPane(new JTable(weeks)));
+        tabs.addTab("Versions", versionPanel);
+        tabs.setPreferredSize(new Dimension(460, 320));
+
+        NoteStatistics[] shown = new NoteStatistics[1];
+        Runnable refresh = () -> {
+            NoteStatistics statistics = notebook.statistics();
+            if (statistics.equals(shown[0])) {
+                return;
+            }
+            shown[0] = statistics;
+            summary.setText(statistics.notes() + " notes " + statistics.types() + ", tests " + statistics.statuses());
+            fillStatistics(authors, statistics.authors());
+            fillStatistics(languages, statistics.languages());
+            weeks.setRowCount(0);
+            for (NoteStatistics.Week week : statistics.weeks()) {
+                weeks.addRow(new Object[] { week.start(), week.due(), week.pending(), week.passed(), week.failed() });
+            }
+            fillStatistics(versions, statistics.versionCounts());
+            mostVersioned.setRowCount(0);
+            for (NoteStatistics.Churn churn : statistics.mostVersioned()) {
+                mostVersioned.addRow(new Object[] { churn.title() + " (#" + churn.noteId() + ")", churn.versions() });
+            }
+        };
+        refresh.run();
+        Timer timer = new Timer(1000, e -> refresh.run());
+        timer.start();
+
+        JLabel status = new JLabel(" ");
+        JButton verifyBtn = new JButton("Verify");
+        verifyBtn.addActionListener(e -> {
+            verifyBtn.setEnabled(false);
+            status.setText("Recomputing...");
+            Notebook verified = notebook;
+            Thread verifyThread = new Thread(() -> {
+                long start = System.nanoTime();
+                boolean matches;
+                synchronized (verified) {
+                    matches = verified.recomputeStatistics().equals(verified.statistics());
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                SwingUtilities.invokeLater(() -> {
+                    status.setText((matches ? "Recomputed statistics match" : "Recomputed statistics differ")
+                            + " (" + millis + " ms)");
+                    verifyBtn.setEnabled(true);
+                });
+            });
+            verifyThread.start();
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(verifyBtn);
+        buttons.add(status);
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(summary, BorderLayout.NORTH);
+        content.add(tabs, BorderLayout.CENTER);
+        content.add(buttons, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Statistics", false);
+        dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                timer.stop();
+            }
+        });
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private static DefaultTableModel statisticsModel(String... columns) {
+        return new DefaultTableModel(columns, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+    private static void fillStatistics(DefaultTableModel model, Map<?, Integer> counts) {
+        model.setRowCount(0);
+        counts.forEach((key, count) -> model.addRow(new Object[] { key, count }));
+    }
+
     /**
      * Saves the notes list to a serialized file in a separate thread.
      */
     public void saveToFile(String message) {
+        Notebook current = notebook;
+        NoteStore currentStore = store;
         Thread saveThread = new Thread(() -> {
+            long start = Metrics.start();
             try {
-                ObjectOutput out = new ObjectOutputStream(new FileOutputStream("note.ser"));
-                out.writeObject(notes);
-
+                currentStore.save(current);
+                SAVE_TIME.recordSince(start);
                 SwingUtilities.invokeLater(() -> successMessage.setText(message));
-                out.close();
             } catch (IOException e) {
                 SwingUtilities.invokeLater(
                         () -> JOptionPane.showMessageDialog(this, "Failed to save to file: " + e.getMessage()));
@@ -558,22 +1776,54 @@ public class NoteAppGUI extends JFrame {
     
     /**
      * Reads notes from a serialized file in a separate thread and updates the notes list.
+     * Once the file has been read, only changes written by other processes since the last
+     * read are merged in, and a watcher merges them as they happen.
      */
     public void readFromFile() {
+        loadNotebook(notebookName, null);
+    }
+
+    /**
+     * Makes a notebook of the workspace the current one in a separate thread. A resident
+     * notebook is refreshed with changes from other processes, a cold one is read from its
+     * file, possibly evicting the least recently used notebooks.
+     *
+     * @param name the notebook name
+     * @param loaded run on the event dispatch thread once the notebook is shown, may be null
+     */
+    private void loadNotebook(String name, Runnable loaded) {
+        Notebook current = notebook;
         Thread loadThread = new Thread(() -> {
+            long start = Metrics.start();
             try {
-                ObjectInput in = new ObjectInputStream(new FileInputStream("note.ser"));
-                Object data = in.readObject();
-                List<?> noteList = (List<?>) data;
-                List<Note> loadedNotes = new ArrayList<>();
-                for (Object note : noteList) {
-                    loadedNotes.add((Note) note);
+                NoteStore loadedStore = workspace.storeOf(name);
+                if (loadedStore.isOpen(current)) {
+                    loadedStore.refresh(current);
+                    LOAD_TIME.recordSince(start);
+                    if (loaded != null) {
+                        SwingUtilities.invokeLater(loaded);
+                    }
+                    return;
+                }
+                Notebook loadedNotebook = workspace.switchTo(name);
+                LOAD_TIME.recordSince(start);
+                loadedStore.setErrorHandler(e -> SwingUtilities.invokeLater(
+                        () -> JOptionPane.showMessageDialog(this, "Note file error: " + e.getMessage())));
+                loadedStore.watch(null);
+                synchronized (followed) {
+                    if (followed.add(loadedNotebook)) {
+                        followChanges(loadedNotebook);
+                    }
                 }
                 SwingUtilities.invokeLater(() -> {
-                    notes = loadedNotes;
-                });   
-
-                in.close();
+                    notebook = loadedNotebook;
+                    store = loadedStore;
+                    notebookName = name;
+                    setTitle("Note App - " + name);
+                    if (loaded != null) {
+                        loaded.run();
+                    }
+                });
             } catch (IOException | ClassNotFoundException e) {
                 SwingUtilities.invokeLater(() -> cardLayout.show(mainPanel, "view"));
             }
@@ -581,7 +1831,113 @@ public class NoteAppGUI extends JFrame {
         loadThread.start();
     }
 
+    /**
+     * Lists the notebooks of the workspace, marking the open one and those held in memory,
+     * with buttons to switch to a notebook and to add or remove notebook files.
+     */
+    private void showNotebooks() {
+        DefaultListModel<String> model = new DefaultListModel<>();
+        JList<String> list = new JList<>(model);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected,
+                    boolean focus) {
+                String name = (String) value;
+                String state = name.equals(notebookName) ? "  (open)" : workspace.isResident(name) ? "  (in memory)" : "";
+                return super.getListCellRendererComponent(l, name + state + "  " + workspace.fileOf(name), index,
+                        selected, focus);
+            }
+        });
+        JLabel status = new JLabel(" ");
+        Runnable reload = () -> {
+            model.clear();
+            model.addAll(workspace.names());
+            status.setText("In memory: " + workspace.residentSize() / 1024 + " KB of "
+                    + workspace.getHeapBudget() / 1024 + " KB");
+        };
+        reload.run();
+
+        JButton openBtn = new JButton("Open");
+        openBtn.addActionListener(e -> {
+            String name = list.getSelectedValue();
+            if (name == null) {
+                status.setText("Choose a notebook to open");
+                return;
+            }
+            status.setText("Opening " + name + "...");
+            viewQuery = "";
+            viewPage = 0;
+            loadNotebook(name, () -> {
+                reload.run();
+                mainPanel.remove(mainPanel.getComponent(2));
+                mainPanel.add(createViewPanel(), "view");
+                cardLayout.show(mainPanel, "view");
+            });
+        });
+
+        JButton addBtn = new JButton("Add...");
+        addBtn.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser(new File("."));
+            chooser.setDialogTitle("Note file of the notebook");
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File file = chooser.getSelectedFile();
+            String name = JOptionPane.showInputDialog(this, "Notebook name:", file.getName().replaceFirst("\\.ser$", ""));
+            if (name == null) {
+                return;
+            }
+            try {
+                workspace.register(name.trim(), file.toPath());
+                reload.run();
+            } catch (IOException | IllegalArgumentException ex) {
+                status.setText("Failed to add notebook: " + ex.getMessage());
+            }
+        });
+
+        JButton removeBtn = new JButton("Remove");
+        removeBtn.addActionListener(e -> {
+            String name = list.getSelectedValue();
+            if (name == null) {
+                status.setText("Choose a notebook to remove");
+                return;
+            }
+            try {
+                workspace.unregister(name);
+                reload.run();
+            } catch (IOException | IllegalArgumentException ex) {
+                status.setText("Failed to remove notebook: " + ex.getMessage());
+            }
+        });
+
+        JPanel buttons = new JPanel();
+        buttons.add(openBtn);
+        buttons.add(addBtn);
+        buttons.add(removeBtn);
+        JPanel content = new JPanel(new BorderLayout(5, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setPreferredSize(new Dimension(420, 240));
+        content.add(buttons, BorderLayout.NORTH);
+        content.add(scrollPane, BorderLayout.CENTER);
+        content.add(status, BorderLayout.SOUTH);
+
+        JDialog dialog = new JDialog(this, "Notebooks", false);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    /**
+     * Starts the application. Event dispatch stalls over {@code -Dnoteapp.edt.budget}
+     * milliseconds (default 50) are reported in the diagnostics unless the watchdog is turned
+     * off with {@code -Dnoteapp.edt.watchdog=false}.
+     */
     public static void main(String[] args) {
+        if (!"false".equals(System.getProperty("noteapp.edt.watchdog"))) {
+            EdtWatchdog.install(Long.getLong("noteapp.edt.budget", EdtWatchdog.DEFAULT_BUDGET_MILLIS));
+        }
         SwingUtilities.invokeLater(NoteAppGUI::new);
     }
 }
@@ -0,0 +1,281 @@
+package AppGui;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.StyleContext;
+import javax.swing.undo.UndoableEdit;
+
+import notes.Rope;
+
+/**
+ * Swing document content backed by a {@link Rope}, letting text components edit very
+ * large note bodies in place instead of copying the whole string on every change.
+ *
+ * <p>Like every {@link AbstractDocument.Content} the stored text ends with an implicit
+ * newline, which {@link #getRope()} strips again. A document only learns the lines of the
+ * text inserted through it, so documents over content that already holds text are created
+ * with {@link #createPlainDocument()} and {@link #createStyledDocument()}, which build the
+ * lines of the initial text from the rope.</p>
+ *
+ * <p>{@link #getChars(int, int, Segment)} hands out the characters of a single leaf
+ * without copying them when the segment allows a partial return, or when the range lies
+ * within one leaf; the characters of the leaves read last are kept for that.</p>
+ */
+public class RopeContent implements AbstractDocument.Content {
+    /** Number of leaves whose characters are kept for {@link #getChars(int, int, Segment)} */
+    private static final int CACHED_LEAVES = 32;
+
+    private Rope rope;
+    private final List<WeakReference<Mark>> marks = new ArrayList<>();
+    /** Characters of the leaves read last, least recently read first */
+    private final Map<String, char[]> leaves = new LinkedHashMap<>(CACHED_LEAVES * 2, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, char[]> eldest) {
+            return size() > CACHED_LEAVES;
+        }
+    };
+
+    /**
+     * Position that follows inserts and removals made through this content.
+     */
+    private static final class Mark implements Position {
+        private int offset;
+
+        private Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Receives a line of the content.
+     */
+    @FunctionalInterface
+    private interface LineVisitor {
+        /**
+         * @param start offset of the first character of the line
+         * @param end offset after the newline ending the line
+         */
+        void line(int start, int end);
+    }
+
+    /**
+     * Plain document whose lines are built from the initial text of its content.
+     */
+    private static final class LinedPlainDocument extends PlainDocument {
+        private static final long serialVersionUID = 1L;
+
+        private LinedPlainDocument(RopeContent content) {
+            super(content);
+            writeLock();
+            try {
+                BranchElement root = (BranchElement) getDefaultRootElement();
+                List<Element> lines = new ArrayList<>();
+                content.forEachLine((start, end) -> lines.add(createLeafElement(root, null, start, end)));
+                root.replace(0, root.getElementCount(), lines.toArray(new Element[0]));
+                checkLines(root, content);
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
+
+    /**
+     * Styled document with one paragraph for each line of the initial text of its content.
+     */
+    private static final class LinedStyledDocument extends DefaultStyledDocument {
+        private static final long serialVersionUID = 1L;
+
+        private LinedStyledDocument(RopeContent content) {
+            super(content, new StyleContext());
+            writeLock();
+            try {
+                BranchElement section = (BranchElement) getDefaultRootElement();
+                AttributeSet style = section.getElement(0).getAttributes();
+                List<Element> paragraphs = new ArrayList<>();
+                content.forEachLine((start, end) -> {
+                    BranchElement paragraph = (BranchElement) createBranchElement(section, style);
+                    paragraph.replace(0, 0, new Element[] {createLeafElement(paragraph, null, start, end)});
+                    paragraphs.add(paragraph);
+                });
+                section.replace(0, section.getElementCount(), paragraphs.toArray(new Element[0]));
+                checkLines(section, content);
+            } finally {
+                writeUnlock();
+            }
+        }
+    }
+
+    /**
+     * Creates content holding the given rope.
+     *
+     * @param rope the initial text
+     */
+    public RopeContent(Rope rope) {
+        this.rope = rope.append(Rope.of("\n"));
+    }
+
+    /**
+     * Creates a plain document over this content, with the lines of its current text.
+     *
+     * @return the document
+     */
+    public PlainDocument createPlainDocument() {
+        return new LinedPlainDocument(this);
+    }
+
+    /**
+     * Creates a styled document over this content, with a paragraph for each line of its
+     * current text.
+     *
+     * @return the document
+     */
+    public DefaultStyledDocument createStyledDocument() {
+        return new LinedStyledDocument(this);
+    }
+
+    /**
+     * Returns the edited text without the implicit trailing newline.
+     *
+     * @return the current text as a rope
+     */
+    public synchronized Rope getRope() {
+        return rope.delete(rope.length() - 1, rope.length());
+    }
+
+    @Override
+    public synchronized Position createPosition(int offset) throws BadLocationException {
+        checkOffset(offset, rope.length());
+        Mark mark = new Mark(offset);
+        marks.add(new WeakReference<>(mark));
+        return mark;
+    }
+
+    @Override
+    public synchronized int length() {
+        return rope.length();
+    }
+
+    @Override
+    public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+        checkOffset(where, rope.length() - 1);
+        rope = rope.insert(where, str);
+        int from = where == 0 ? 1 : where;
+        for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext();) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= from) {
+                mark.offset += str.length();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        int end = where + nitems;
+        if (where < 0 || nitems < 0 || end >= rope.length()) {
+            throw new BadLocationException("Invalid remove", where);
+        }
+        rope = rope.delete(where, end);
+        for (Iterator<WeakReference<Mark>> it = marks.iterator(); it.hasNext();) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= end) {
+                mark.offset -= nitems;
+            } else if (mark.offset > where) {
+                mark.offset = where;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized String getString(int where, int len) throws BadLocationException {
+        checkRange(where, len);
+        return rope.substring(where, where + len);
+    }
+
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        checkRange(where, len);
+        if (len > 0) {
+            int[] start = new int[1];
+            String leaf = rope.chunkAt(where, start);
+            int offset = where - start[0];
+            int available = leaf.length() - offset;
+            if (available >= len || txt.isPartialReturn()) {
+                txt.array = leaves.computeIfAbsent(leaf, String::toCharArray);
+                txt.offset = offset;
+                txt.count = Math.min(len, available);
+                return;
+            }
+        }
+        char[] chars = new char[len];
+        rope.getChars(where, where + len, chars, 0);
+        txt.array = chars;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    /**
+     * Reports the lines of the text, the last one ending with the implicit newline.
+     */
+    private synchronized void forEachLine(LineVisitor visitor) {
+        int[] offset = new int[1];
+        int[] lineStart = new int[1];
+        Rope.forEachChunk(rope, chunk -> {
+            for (int i = 0; i < chunk.length(); i++) {
+                if (chunk.charAt(i) == '\n') {
+                    int end = offset[0] + i + 1;
+                    visitor.line(lineStart[0], end);
+                    lineStart[0] = end;
+                }
+            }
+            offset[0] += chunk.length();
+            return true;
+        });
+    }
+
+    /**
+     * Verifies that the lines of a new document cover its whole content.
+     */
+    private static void checkLines(Element root, RopeContent content) {
+        if (root.getElementCount() == 0 || root.getEndOffset() != content.length()) {
+            throw new IllegalStateException("Lines end at " + root.getEndOffset() + " of " + content.length());
+        }
+    }
+
+    private void checkRange(int where, int len) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > rope.length()) {
+            throw new BadLocationException("Invalid range", where + len);
+        }
+    }
+
+    private static void checkOffset(int offset, int max) throws BadLocationException {
+        if (offset < 0 || offset > max) {
+            throw new BadLocationException("Invalid offset", offset);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package AppGui;
+
+import java.awt.Color;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+import diagnostics.EdtWatchdog;
+import notes.SyntaxLexer;
+
+/**
+ * Colours the code in a text pane according to the language of a programming note.
+ *
+ * <p>Lexing happens on a single background thread shared by every pane. The pane's
+ * initial text is lexed through {@link SyntaxLexer#highlight(SyntaxLexer, CharSequence)}, so
+ * snippets shown before come from the cache, and each edit re-lexes only the damaged lines.
+ * The event dispatch thread only applies the resulting styles, at most
+ * {@link #LINES_PER_SLICE} lines per event, and only while the lexed text is still the
+ * text in the pane; styles for text edited in the meantime are applied once the newer
+ * edit has been lexed.</p>
+ */
+public class SnippetHighlighter implements DocumentListener {
+    /** Lines restyled per event on the event dispatch thread */
+    public static final int LINES_PER_SLICE = 500;
+
+    private static final ExecutorService LEXER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snippet-highlighter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AttributeSet PLAIN = SimpleAttributeSet.EMPTY;
+    private static final Map<SyntaxLexer.TokenType, AttributeSet> STYLES = new EnumMap<>(SyntaxLexer.TokenType.class);
+
+    static {
+        STYLES.put(SyntaxLexer.TokenType.KEYWORD, style(new Color(0, 0, 160), true, false));
+        STYLES.put(SyntaxLexer.TokenType.STRING, style(new Color(0, 120, 0), false, false));
+        STYLES.put(SyntaxLexer.TokenType.COMMENT, style(new Color(120, 120, 120), false, true));
+        STYLES.put(SyntaxLexer.TokenType.NUMBER, style(new Color(160, 80, 0), false, false));
+        STYLES.put(SyntaxLexer.TokenType.ANNOTATION, style(new Color(130, 110, 0), false, false));
+    }
+
+    private final StyledDocument document;
+    private final RopeContent content;
+    /** Number of changes made to the document or language, only used on the event dispatch thread */
+    private int version;
+
+    private SyntaxLexer.Highlighting highlighting;
+    /** Change the highlighting was lexed for */
+    private int lexedVersion = -1;
+    /** Range of the lexed text still to be restyled, damageStart is -1 if there is none */
+    private int damageStart = -1;
+    private int damageEnd;
+    private boolean applyScheduled;
+
+    /**
+     * Starts highlighting the text of a pane, which must not be edited on other threads
+     * than the event dispatch thread.
+     *
+     * @param pane the pane showing the code
+     * @param content the rope content backing the pane's document, or null if the document
+     *                stores its text itself
+     * @param language the language of the code, may be null
+     */
+    public SnippetHighlighter(JTextPane pane, RopeContent content, String language) {
+        this.document = pane.getStyledDocument();
+        this.content = content;
+        setLanguage(language);
+        document.addDocumentListener(this);
+    }
+
+    private static AttributeSet style(Color color, boolean bold, boolean italic) {
+        SimpleAttributeSet style = new SimpleAttributeSet();
+        StyleConstants.setForeground(style, color);
+        StyleConstants.setBold(style, bold);
+        StyleConstants.setItalic(style, italic);
+        return style;
+    }
+
+    /**
+     * Lexes the whole text again with the rules of another language.
+     *
+     * @param language the language of the code, may be null
+     */
+    public void setLanguage(String language) {
+        SyntaxLexer lexer = SyntaxLexer.forLanguage(language);
+        int change = ++version;
+        CharSequence text = snapshot();
+        LEXER.execute(() -> {
+            SyntaxLexer.Highlighting lexed = SyntaxLexer.highlight(lexer, text);
+            synchronized (this) {
+                highlighting = lexed;
+                lexedVersion = change;
+                damageStart = 0;
+                damageEnd = text.length();
+            }
+            scheduleApply();
+        });
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        edited(e.getOffset(), 0, e.getLength());
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        edited(e.getOffset(), e.getLength(), 0);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attribute changes, including the ones made here
+    }
+
+    /**
+     * Queues the re-lexing of an edit. Edits are lexed in the order they were made, each
+     * against the text right after it.
+     */
+    private void edited(int offset, int removed, int inserted) {
+        int change = ++version;
+        CharSequence text = snapshot();
+        LEXER.execute(() -> {
+            SyntaxLexer.Highlighting previous;
+            synchronized (this) {
+                previous = highlighting;
+            }
+            SyntaxLexer.Highlighting lexed = previous.edit(text, offset, removed, inserted);
+            synchronized (this) {
+                highlighting = lexed;
+                lexedVersion = change;
+                if (damageStart >= 0) {
+                    damageStart = shift(damageStart, offset, removed, inserted);
+                    damageEnd = shift(damageEnd, offset, removed, inserted);
+                    damageStart = Math.min(damageStart, lexed.getDamageStart());
+                    damageEnd = Math.max(damageEnd, lexed.getDamageEnd());
+                } else {
+                    damageStart = lexed.getDamageStart();
+                    damageEnd = lexed.getDamageEnd();
+                }
+            }
+            scheduleApply();
+        });
+    }
+
+    /**
+     * Maps an offset in the text before an edit to the text after it.
+     */
+    private static int shift(int position, int offset, int removed, int inserted) {
+        if (position <= offset) {
+            return position;
+        }
+        if (position >= offset + removed) {
+            return position - removed + inserted;
+        }
+        return offset + inserted;
+    }
+
+    private synchronized void scheduleApply() {
+        if (!applyScheduled) {
+            applyScheduled = true;
+            SwingUtilities.invokeLater(this::applyDamage);
+        }
+    }
+
+    /**
+     * Restyles the next slice of damaged lines if the lexed text is the current text.
+     */
+    private void applyDamage() {
+        EdtWatchdog.describe("Apply snippet highlighting");
+        SyntaxLexer.Highlighting lexed;
+        int from;
+        int to;
+        synchronized (this) {
+            applyScheduled = false;
+            if (lexedVersion != version || damageStart < 0) {
+                // a newer change is still being lexed and schedules its own restyling
+                return;
+            }
+            lexed = highlighting;
+            from = damageStart;
+            to = damageEnd;
+        }
+        int firstLine = lexed.lineOf(Math.min(from, lexed.length()));
+        int lastLine = lexed.lineOf(Math.min(Math.max(from, to - 1), lexed.length()));
+        int endLine = Math.min(lastLine + 1, firstLine + LINES_PER_SLICE);
+        for (int line = firstLine; line < endLine; line++) {
+            int start = lexed.lineStart(line);
+            document.setCharacterAttributes(start, lexed.lineEnd(line) - start, PLAIN, true);
+            for (SyntaxLexer.Token token : lexed.tokens(line)) {
+                document.setCharacterAttributes(start + token.start(), token.length(), STYLES.get(token.type()), true);
+            }
+        }
+        synchronized (this) {
+            if (endLine <= lastLine) {
+                damageStart = lexed.lineStart(endLine);
+                scheduleApply();
+            } else {
+                damageStart = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the current text without copying it if the document is rope-backed.
+     */
+    private CharSequence snapshot() {
+        if (content != null) {
+            return content.getRope();
+        }
+        try {
+            return document.getText(0, document.getLength());
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
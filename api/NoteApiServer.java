@@ -0,0 +1,706 @@
+package api;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import notes.Attachment;
+import notes.InvalidQueryException;
+import notes.JUnitReportImporter;
+import notes.Note;
+import notes.NoteException;
+import notes.NoteQuery;
+import notes.NoteStore;
+import notes.NoteTransaction;
+import notes.Notebook;
+import notes.ProgrammingNote;
+import notes.TestingNote;
+import notes.TestingNote.TestStatus;
+
+/**
+ * Embedded HTTP server exposing the notes of the running application on localhost.
+ *
+ * <p>Routes, all exchanging JSON:</p>
+ * <ul>
+ *   <li>{@code GET /notes?q=&page=&size=} lists notes matching a {@link NoteQuery}, streamed one note at a time,
+ *       {@value #DEFAULT_PAGE_SIZE} per page unless {@code size} asks for up to {@value #MAX_PAGE_SIZE}</li>
+ *   <li>{@code POST /notes} creates a Note, ProgrammingNote or TestingNote; {@code tags} is a comma separated list</li>
+ *   <li>{@code PATCH /notes?q=} applies the fields of a PUT body, or {@code postponeDays}, to every matching note at once</li>
+ *   <li>{@code GET|PUT|DELETE /notes/{id}} reads, updates or deletes a note</li>
+ *   <li>{@code GET /notes/{id}/versions} lists the saved versions of a note</li>
+ *   <li>{@code POST /notes/{id}/next} and {@code POST /notes/{id}/revert} step through versions</li>
+ *   <li>{@code PUT /notes/{id}/status} updates the status of a TestingNote</li>
+ *   <li>{@code GET /notes/{id}/attachments} lists the attachments of a note</li>
+ *   <li>{@code POST /notes/{id}/attachments?name=} attaches the raw request body, streamed into the store</li>
+ *   <li>{@code GET /notes/{id}/attachments/{attachmentId}} streams the content of an attachment</li>
+ *   <li>{@code POST /reports/junit} applies a JUnit XML report to the TestingNotes</li>
+ * </ul>
+ *
+ * <p>Every request must carry the token of the installation as
+ * {@code Authorization: Bearer <token>}, see {@link #token(Path)}, and name the server by
+ * its loopback address in the {@code Host} header. Without a token other local users could
+ * change the notes, and a web page whose host name was rebound to 127.0.0.1 would be
+ * same-origin with the server and could read and delete them; the Host check refuses such
+ * pages even before they learn the token. Requests without the token are refused with 401,
+ * requests for another host with 403.</p>
+ *
+ * <p>A web page can make the browser send a POST request to localhost without asking the
+ * server first, as long as the body is of a type an HTML form could send. POST requests
+ * therefore need {@code Content-Type: application/json}, a JUnit report {@code application/xml}
+ * or {@code text/xml}, and an attachment any type but {@code text/plain} and the form types;
+ * other requests are refused with 415. PUT, PATCH and DELETE are never sent cross-origin
+ * without the server's consent, which it does not give.</p>
+ *
+ * <p>Each request runs on its own virtual thread when the runtime supports them (JDK 21+),
+ * otherwise on a cached pool. Requests never touch Swing components; they work on the
+ * {@link Notebook} under its own lock and hand persistence to
+ * {@link NoteStore#scheduleSave(Notebook)}, which merges bursts of writes. Bulk updates
+ * run as a {@link NoteTransaction} and answer once it is committed to disk, concurrent
+ * ones sharing a write.</p>
+ */
+public class NoteApiServer {
+
+    /** Port used when none is configured */
+    public static final int DEFAULT_PORT = 8765;
+
+    /** Notes per page of a listing that does not give a size */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** Largest page size a listing may ask for */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    /** Body types a browser sends cross-origin without a preflight request */
+    private static final Set<String> FORM_TYPES =
+            Set.of("text/plain", "application/x-www-form-urlencoded", "multipart/form-data");
+
+    /** Random bytes in a new token, which is written as hex digits */
+    private static final int TOKEN_BYTES = 32;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Supplier<Notebook> notebookSupplier;
+    private final Function<Notebook, NoteStore> storeLookup;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final byte[] token;
+    /** Host header values naming this server, in lower case */
+    private final Set<String> hosts;
+
+    /**
+     * Creates a server bound to the loopback interface.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param notebookSupplier returns the notebook currently shown by the application
+     * @param store the store changes are persisted to
+     * @param token the token clients must send, see {@link #token(Path)}
+     * @throws IOException if the port cannot be bound
+     */
+    public NoteApiServer(int port, Supplier<Notebook> notebookSupplier, NoteStore store, String token)
+            throws IOException {
+        this(port, notebookSupplier, notebook -> store, token);
+    }
+
+    /**
+     * Creates a server bound to the loopback interface, for applications switching between
+     * notebooks saved to different stores.
+     *
+     * @param port the port to listen on, 0 for any free port
+     * @param notebookSupplier returns the notebook currently shown by the application
+     * @param storeLookup returns the store a notebook is persisted to
+     * @param token the token clients must send, see {@link #token(Path)}
+     * @throws IOException if the port cannot be bound
+     */
+    public NoteApiServer(int port, Supplier<Notebook> notebookSupplier, Function<Notebook, NoteStore> storeLookup,
+            String token) throws IOException {
+        if (token.length() < 2 * TOKEN_BYTES) {
+            throw new IllegalArgumentException("The API token must have at least " + 2 * TOKEN_BYTES + " characters");
+        }
+        this.notebookSupplier = notebookSupplier;
+        this.storeLookup = storeLookup;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        int bound = server.getAddress().getPort();
+        this.hosts = Set.of("localhost:" + bound, "127.0.0.1:" + bound, "[::1]:" + bound);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/notes", this::handle);
+        server.createContext("/reports/junit", this::importJUnitReport);
+    }
+
+    /** Starts accepting requests. */
+    public void start() {
+        server.start();
+    }
+
+    /** Stops the server, letting running requests finish for up to a second. */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Reads the API token from a token file, creating the file with a new random token
+     * readable only by its owner if it does not exist. Clients read the token from the
+     * same file.
+     *
+     * @param tokenFile the token file
+     * @return the token
+     * @throws IOException if the file cannot be read or created, or holds too short a token
+     */
+    public static String token(Path tokenFile) throws IOException {
+        if (!Files.exists(tokenFile)) {
+            byte[] random = new byte[TOKEN_BYTES];
+            RANDOM.nextBytes(random);
+            String token = HexFormat.of().formatHex(random);
+            try {
+                Files.createFile(tokenFile);
+                ownerOnly(tokenFile);
+                Files.writeString(tokenFile, token + System.lineSeparator());
+                return token;
+            } catch (FileAlreadyExistsException e) {
+                // created by another instance meanwhile
+            }
+        }
+        String token = Files.readString(tokenFile).trim();
+        if (token.length() < 2 * TOKEN_BYTES) {
+            throw new IOException("API token file " + tokenFile + " holds fewer than " + 2 * TOKEN_BYTES + " characters");
+        }
+        return token;
+    }
+
+    /**
+     * Lets only the owner read and write a file, where the file system has POSIX
+     * permissions.
+     */
+    private static void ownerOnly(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // no POSIX permissions, the directory has to protect the file
+        }
+    }
+
+    /**
+     * Returns an executor running every task on a new virtual thread, falling back to a
+     * cached pool of daemon threads on runtimes without virtual threads.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "note-api");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (authorized(exchange)) {
+                route(exchange);
+            }
+        } catch (NoteException | IllegalArgumentException | DateTimeParseException e) {
+            send(exchange, 400, error(e.getMessage()));
+        } catch (CloneNotSupportedException | RuntimeException e) {
+            send(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Applies a JUnit XML report posted as the request body, streaming it into the importer
+     * rather than buffering it.
+     */
+    private void importJUnitReport(HttpExchange exchange) throws IOException {
+        try {
+            if (!authorized(exchange)) {
+                return;
+            }
+            if (!exchange.getRequestMethod().equals("POST")) {
+                send(exchange, 405, error("Method not allowed"));
+                return;
+            }
+            String type = mediaType(exchange);
+            if (!type.equals("application/xml") && !type.equals("text/xml")) {
+                send(exchange, 415, error("Expected Content-Type application/xml"));
+                return;
+            }
+            Notebook notebook = notebookSupplier.get();
+            JUnitReportImporter.Summary summary;
+            try {
+                summary = new JUnitReportImporter(notebook, null).importReport(exchange.getRequestBody(), "API upload");
+            } catch (IOException e) {
+                send(exchange, 400, error(e.getMessage()));
+                return;
+            }
+            storeLookup.apply(notebook).scheduleSave(notebook);
+            send(exchange, 200, "{\"testcases\":" + summary.testcases() + ",\"updated\":" + summary.updated()
+                    + ",\"unchanged\":" + summary.unchanged() + ",\"created\":" + summary.created() + "}");
+        } catch (RuntimeException e) {
+            send(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks the Host header and the token of a request, answering it if either is wrong.
+     *
+     * @return true if the request may proceed
+     */
+    private boolean authorized(HttpExchange exchange) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        if (host == null || !hosts.contains(host.trim().toLowerCase(Locale.ROOT))) {
+            send(exchange, 403, error("Unexpected Host header"));
+            return false;
+        }
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        byte[] presented = authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)
+                ? authorization.substring(7).trim().getBytes(StandardCharsets.UTF_8)
+                : new byte[0];
+        if (!MessageDigest.isEqual(presented, token)) {
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            send(exchange, 401, error("Missing or wrong API token"));
+            return false;
+        }
+        return true;
+    }
+
+    private void route(HttpExchange exchange) throws IOException, NoteException, CloneNotSupportedException {
+        Notebook notebook = notebookSupplier.get();
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+        String[] parts = path.substring("/notes".length()).split("/");
+        if (method.equals("POST")) {
+            boolean upload = parts.length > 2 && parts[2].equals("attachments");
+            String type = mediaType(exchange);
+            if (upload ? type.isEmpty() || FORM_TYPES.contains(type) : !type.equals("application/json")) {
+                send(exchange, 415, error(upload ? "Expected a Content-Type such as application/octet-stream"
+                        : "Expected Content-Type application/json"));
+                return;
+            }
+        }
+        if (parts.length <= 1) {
+            switch (method) {
+                case "GET" -> list(exchange, notebook);
+                case "POST" -> create(exchange, notebook);
+                case "PATCH" -> updateMatching(exchange, notebook);
+                default -> send(exchange, 405, error("Method not allowed"));
+            }
+            return;
+        }
+        Note note = notebook.get(Long.parseLong(parts[1]));
+        if (note == null) {
+            send(exchange, 404, error("No note with id " + parts[1]));
+            return;
+        }
+        String action = parts.length > 2 ? parts[2] : "";
+        switch (method + " " + action) {
+            case "GET " -> send(exchange, 200, snapshot(notebook, note));
+            case "PUT " -> update(exchange, notebook, note);
+            case "DELETE " -> {
+                notebook.remove(note);
+                storeLookup.apply(notebook).scheduleSave(notebook);
+                send(exchange, 204, null);
+            }
+            case "GET versions" -> versions(exchange, notebook, note);
+            case "POST next", "POST revert" -> {
+                String json;
+                synchronized (notebook) {
+                    Note version = action.equals("next") ? note.nextVersion() : note.revertVersion();
+                    notebook.markChanged(note);
+                    json = version == null ? null : toJson(version);
+                }
+                storeLookup.apply(notebook).scheduleSave(notebook);
+                if (json == null) {
+                    send(exchange, 404, error("Note " + note.getId() + " has no saved versions"));
+                } else {
+                    send(exchange, 200, json);
+                }
+            }
+            case "PUT status", "POST status" -> updateStatus(exchange, notebook, note);
+            case "GET attachments" -> {
+                if (parts.length > 3) {
+                    sendAttachment(exchange, notebook, note, parts[3]);
+                } else {
+                    send(exchange, 200, attachmentsJson(note.getAttachments()));
+                }
+            }
+            case "POST attachments" -> attach(exchange, notebook, note);
+            default -> send(exchange, 404, error("Unknown route " + method + " " + path));
+        }
+    }
+
+    private void list(HttpExchange exchange, Notebook notebook) throws IOException, InvalidQueryException {
+        Map<String, String> params = queryParams(exchange);
+        int size = Integer.parseInt(params.getOrDefault("size", String.valueOf(DEFAULT_PAGE_SIZE)));
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        int page = Integer.parseInt(params.getOrDefault("page", "0"));
+        NoteQuery.Page result = notebook.query(NoteQuery.parse(params.getOrDefault("q", "")), page, size);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Total-Count", String.valueOf(result.total()));
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+            out.write('[');
+            boolean first = true;
+            for (Note note : result.notes()) {
+                if (!first) {
+                    out.write(',');
+                }
+                out.write(snapshot(notebook, note));
+                first = false;
+            }
+            out.write(']');
+        }
+    }
+
+    private void create(HttpExchange exchange, Notebook notebook) throws IOException, NoteException {
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        String title = string(body, "title", "");
+        String description = string(body, "description", "");
+        String text = string(body, "text", "");
+        String author = string(body, "author", "");
+        Calendar now = Calendar.getInstance();
+        Calendar deadline = body.containsKey("deadline") ? parseDate(string(body, "deadline", null)) : now;
+        Note note = switch (string(body, "type", "Note")) {
+            case "ProgrammingNote" -> new ProgrammingNote(title, description, text, author, now, deadline,
+                    string(body, "codingSnippet", ""), string(body, "language", ""));
+            case "TestingNote" -> new TestingNote(title, description, text, author, now, deadline,
+                    string(body, "testCase", ""), parseStatus(string(body, "status", "PENDING")),
+                    Boolean.TRUE.equals(body.get("mandatory")));
+            case "Note" -> new Note(title, description, text, author, now, deadline);
+            default -> throw new IllegalArgumentException("Unknown note type " + body.get("type"));
+        };
+        note.setTags(Note.parseTags(string(body, "tags", "")));
+        notebook.add(note);
+        storeLookup.apply(notebook).scheduleSave(notebook);
+        send(exchange, 201, snapshot(notebook, note));
+    }
+
+    private void update(HttpExchange exchange, Notebook notebook, Note note)
+            throws IOException, NoteException, CloneNotSupportedException {
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        synchronized (notebook) {
+            notebook.saveVersion(note);
+            notebook.update(note, () -> applyFields(note, body));
+        }
+        storeLookup.apply(notebook).scheduleSave(notebook);
+        send(exchange, 200, snapshot(notebook, note));
+    }
+
+    /**
+     * Applies one update body to every note matching the query as a single transaction,
+     * versioning and saving only the notes it changes.
+     */
+    private void updateMatching(HttpExchange exchange, Notebook notebook) throws IOException, NoteException {
+        Map<String, Object> body = Json.parseObject(readBody(exchange));
+        NoteQuery query = NoteQuery.parse(queryParams(exchange).getOrDefault("q", ""));
+        NoteTransaction transaction = notebook.begin();
+        for (Note note : notebook.query(query, 0, Integer.MAX_VALUE).notes()) {
+            transaction.update(note, () -> applyFields(note, body));
+        }
+        int changed = transaction.commit(storeLookup.apply(notebook)).size();
+        send(exchange, 200, "{\"matched\":" + transaction.size() + ",\"updated\":" + changed + "}");
+    }
+
+    /**
+     * Applies the changes of an update body to a note, leaving fields the body does not
+     * mention as they are. {@code postponeDays} moves the deadline by that many days.
+     */
+    private static void applyFields(Note note, Map<String, Object> body) throws NoteException {
+        if (body.containsKey("title")) {
+            note.setTitle(string(body, "title", ""));
+        }
+        if (body.containsKey("description")) {
+            note.setDescription(string(body, "description", ""));
+        }
+        if (body.containsKey("text")) {
+            note.setText(string(body, "text", ""));
+        }
+        if (body.containsKey("author")) {
+            note.setAuthor(string(body, "author", ""));
+        }
+        if (body.containsKey("deadline")) {
+            note.setDeadline(parseDate(string(body, "deadline", null)));
+        }
+        if (body.containsKey("postponeDays") && note.getDeadline() != null) {
+            Calendar deadline = (Calendar) note.getDeadline().clone();
+            deadline.add(Calendar.DAY_OF_MONTH, Integer.parseInt(string(body, "postponeDays", "0")));
+            note.setDeadline(deadline);
+        }
+        if (body.containsKey("tags")) {
+            note.setTags(Note.parseTags(string(body, "tags", "")));
+        }
+        if (note instanceof ProgrammingNote programmingNote) {
+            if (body.containsKey("language")) {
+                programmingNote.setLanguage(string(body, "language", ""));
+            }
+            if (body.containsKey("codingSnippet")) {
+                programmingNote.setCodingSnippet(string(body, "codingSnippet", ""));
+            }
+        } else if (note instanceof TestingNote testingNote) {
+            if (body.containsKey("testCase")) {
+                testingNote.setTestcase(string(body, "testCase", ""));
+            }
+            if (body.containsKey("mandatory")) {
+                testingNote.setIsMandatoryTest(Boolean.TRUE.equals(body.get("mandatory")));
+            }
+            if (body.containsKey("status")) {
+                testingNote.updateStatus(parseStatus(string(body, "status", null)));
+            }
+        }
+    }
+
+    private void updateStatus(HttpExchange exchange, Notebook notebook, Note note)
+            throws IOException, NoteException, CloneNotSupportedException {
+        if (!(note instanceof TestingNote testingNote)) {
+            send(exchange, 400, error("Note " + note.getId() + " is not a TestingNote"));
+            return;
+        }
+        TestStatus status = parseStatus(string(Json.parseObject(readBody(exchange)), "status", null));
+        boolean changed;
+        synchronized (notebook) {
+            changed = testingNote.getTestStatus() != status;
+            if (changed) {
+                notebook.saveVersion(testingNote);
+                notebook.update(testingNote, () -> testingNote.updateStatus(status));
+            }
+        }
+        if (changed) {
+            storeLookup.apply(notebook).scheduleSave(notebook);
+        }
+        send(exchange, 200, snapshot(notebook, note));
+    }
+
+    private void versions(HttpExchange exchange, Notebook notebook, Note note) throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        synchronized (notebook) {
+            List<Note> versions = note.getAllVersions();
+            for (int i = 0; i < versions.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(toJson(versions.get(i)));
+            }
+        }
+        send(exchange, 200, json.append(']').toString());
+    }
+
+    /**
+     * Streams the request body into the attachment store of the notebook, then versions
+     * the note and adds the attachment to it.
+     */
+    private void attach(HttpExchange exchange, Notebook notebook, Note note)
+            throws IOException, NoteException, CloneNotSupportedException {
+        String name = queryParams(exchange).get("name");
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Missing attachment name");
+        }
+        NoteStore store = storeLookup.apply(notebook);
+        Attachment attachment = store.getAttachments().write(name, Channels.newChannel(exchange.getRequestBody()));
+        synchronized (notebook) {
+            notebook.saveVersion(note);
+            notebook.update(note, () -> note.addAttachment(attachment));
+        }
+        store.scheduleSave(notebook);
+        send(exchange, 201, toJson(attachment));
+    }
+
+    /**
+     * Streams an attachment of a note, or of one of its versions, from the store without
+     * buffering it.
+     */
+    private void sendAttachment(HttpExchange exchange, Notebook notebook, Note note, String attachmentId)
+            throws IOException {
+        long id = Long.parseLong(attachmentId);
+        Attachment attachment = null;
+        synchronized (notebook) {
+            List<Note> notes = new ArrayList<>(note.getAllVersions());
+            notes.add(note);
+            for (Note candidate : notes) {
+                for (Attachment attached : candidate.getAttachments()) {
+                    if (attached.id() == id) {
+                        attachment = attached;
+                    }
+                }
+            }
+        }
+        if (attachment == null) {
+            send(exchange, 404, error("Note " + note.getId() + " has no attachment " + attachmentId));
+            return;
+        }
+        try (InputStream in = storeLookup.apply(notebook).getAttachments().openStream(attachment)) {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"" + attachment.name().replace("\"", "") + "\"");
+            exchange.sendResponseHeaders(200, attachment.size() == 0 ? -1 : attachment.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                in.transferTo(out);
+            }
+        }
+    }
+
+    private static String attachmentsJson(List<Attachment> attachments) {
+        StringBuilder json = new StringBuilder("[");
+        for (Attachment attachment : attachments) {
+            json.append(json.length() > 1 ? "," : "").append(toJson(attachment));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String toJson(Attachment attachment) {
+        return "{\"id\":" + attachment.id() + ",\"name\":" + Json.quote(attachment.name()) + ",\"size\":"
+                + attachment.size() + "}";
+    }
+
+    private static String snapshot(Notebook notebook, Note note) {
+        synchronized (notebook) {
+            return toJson(note);
+        }
+    }
+
+    /**
+     * Renders a note and its type-specific fields as a JSON object.
+     */
+    static String toJson(Note note) {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"id\":").append(note.getId());
+        json.append(",\"type\":").append(Json.quote(note.getClass().getSimpleName()));
+        json.append(",\"title\":").append(Json.quote(note.getTitle()));
+        json.append(",\"description\":").append(Json.quote(note.getDescription()));
+        Json.quote(note.getTextContent(), json.append(",\"text\":"));
+        json.append(",\"author\":").append(Json.quote(note.getAuthor()));
+        json.append(",\"created\":").append(Json.quote(formatDate(note.getDateRaw())));
+        json.append(",\"deadline\":").append(Json.quote(formatDate(note.getDeadline())));
+        json.append(",\"versionCount\":").append(note.getAllVersions().size());
+        json.append(",\"currentVersionIndex\":").append(note.getCurrentVersionIndex());
+        json.append(",\"tags\":[");
+        boolean first = true;
+        for (String tag : note.getTags()) {
+            json.append(first ? "" : ",").append(Json.quote(tag));
+            first = false;
+        }
+        json.append(']');
+        if (note instanceof ProgrammingNote programmingNote) {
+            json.append(",\"language\":").append(Json.quote(programmingNote.getLanguage()));
+            Json.quote(programmingNote.getCodingSnippetContent(), json.append(",\"codingSnippet\":"));
+        } else if (note instanceof TestingNote testingNote) {
+            json.append(",\"testCase\":").append(Json.quote(testingNote.getTestcase()));
+            json.append(",\"status\":").append(Json.quote(String.valueOf(testingNote.getTestStatus())));
+            json.append(",\"mandatory\":").append(testingNote.getIsMandatoryTest());
+        }
+        return json.append('}').toString();
+    }
+
+    private static String formatDate(Calendar calendar) {
+        return calendar == null ? null : LocalDate.ofInstant(calendar.toInstant(), ZoneId.systemDefault()).toString();
+    }
+
+    private static Calendar parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        return GregorianCalendar.from(LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()));
+    }
+
+    private static TestStatus parseStatus(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing test status");
+        }
+        return TestStatus.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    private static String string(Map<String, Object> body, String key, String defaultValue) {
+        Object value = body.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.put(key, value);
+        }
+        return params;
+    }
+
+    /** @return the lower-case media type of the request body without parameters, empty if none is given */
+    private static String mediaType(HttpExchange exchange) {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType == null) {
+            return "";
+        }
+        int parameters = contentType.indexOf(';');
+        return (parameters >= 0 ? contentType.substring(0, parameters) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        return new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
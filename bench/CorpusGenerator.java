@@ -0,0 +1,328 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import notes.Note;
+import notes.NoteException;
+import notes.NoteStore;
+import notes.Notebook;
+import notes.ProgrammingNote;
+import notes.TestingNote;
+import notes.TestingNote.TestStatus;
+
+/**
+ * Generates realistic notebooks for benchmarks and load tests.
+ *
+ * <p>Notes are a configurable mix of plain, programming and testing notes. Text lengths
+ * follow a long-tailed distribution with an occasional very large note, programming notes
+ * carry snippets in several languages whose size varies from a few lines to a few hundred,
+ * and testing notes get unique test case names and a configurable status distribution. Each
+ * note has a random number of saved versions up to a configured depth, and a small share of
+ * notes are near-duplicates of earlier ones. The same profile and seed always produce the
+ * same notes.</p>
+ *
+ * <p>Run {@code java bench.CorpusGenerator <notes> <file> [key=value ...]} to write a
+ * generated notebook to a note file; the keys are the components of {@link Profile}.
+ * Millions of notes need a correspondingly large heap, about 2 GB per million notes with
+ * the default profile.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class CorpusGenerator {
+    private static final String[] WORDS = { "cache", "index", "parser", "login", "report", "refactor", "deploy",
+            "schema", "migration", "timeout", "retry", "session", "query", "export", "import", "layout", "thread",
+            "budget", "release", "review", "client", "server", "config", "backup", "search", "upload", "metrics",
+            "payment", "invoice", "profile", "theme", "render", "notebook", "sync", "token", "queue", "stream" };
+    private static final String[] AUTHORS = { "alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi",
+            "ivan", "judy", "mallory", "oscar", "peggy", "trent", "victor", "walter" };
+    private static final String[] LANGUAGES = { "Java", "Python", "JavaScript", "Go", "SQL", "Rust", "C++" };
+    private static final int[] LANGUAGE_WEIGHTS = { 35, 25, 20, 7, 6, 4, 3 };
+    private static final String[] MODULES = { "core", "api", "ui", "storage", "auth", "billing", "search", "sync" };
+    /** Tags in decreasing popularity */
+    private static final String[] TAGS = { "bug", "backend", "ui", "feature", "urgent", "docs", "security", "perf",
+            "flaky", "blocked", "release-1.2", "customer", "tech-debt", "idea", "wontfix", "legacy" };
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final long START_MILLIS = 1_640_995_200_000L;
+
+    private final Profile profile;
+    private final Random random;
+    /** Separate source for tags, so the rest of the corpus does not depend on the number of tags */
+    private final Random tagRandom;
+    private final List<Note> recent = new ArrayList<>();
+    private int generated;
+
+    /**
+     * Shape of a generated notebook.
+     *
+     * @param notes number of notes
+     * @param programmingShare share of programming notes, between 0 and 1
+     * @param testingShare share of testing notes, between 0 and 1
+     * @param passedShare share of testing notes that passed
+     * @param failedShare share of testing notes that failed; the rest are pending
+     * @param maxVersions maximum number of saved versions per note
+     * @param duplicateShare share of notes that are near-duplicates of an earlier note
+     * @param maxTags maximum number of tags per note
+     * @param seed seed of the random generator
+     */
+    public record Profile(int notes, double programmingShare, double testingShare, double passedShare,
+            double failedShare, int maxVersions, double duplicateShare, int maxTags, long seed) {
+
+        /**
+         * Returns the default mix for a number of notes: 40% plain, 30% programming and 30%
+         * testing notes, up to 3 versions and 3 tags each.
+         *
+         * @param notes number of notes
+         * @return the profile
+         */
+        public static Profile defaults(int notes) {
+            return new Profile(notes, 0.3, 0.3, 0.7, 0.15, 3, 0.02, 3, 42);
+        }
+
+        /**
+         * Returns a copy of this profile with one component changed.
+         *
+         * @param key name of the component
+         * @param value new value
+         * @return the changed profile
+         * @throws IllegalArgumentException if the key is unknown or the value malformed
+         */
+        public Profile with(String key, String value) {
+            return switch (key) {
+                case "notes" -> new Profile(Integer.parseInt(value), programmingShare, testingShare, passedShare,
+                        failedShare, maxVersions, duplicateShare, maxTags, seed);
+                case "programmingShare" -> new Profile(notes, Double.parseDouble(value), testingShare, passedShare,
+                        failedShare, maxVersions, duplicateShare, maxTags, seed);
+                case "testingShare" -> new Profile(notes, programmingShare, Double.parseDouble(value), passedShare,
+                        failedShare, maxVersions, duplicateShare, maxTags, seed);
+                case "passedShare" -> new Profile(notes, programmingShare, testingShare, Double.parseDouble(value),
+                        failedShare, maxVersions, duplicateShare, maxTags, seed);
+                case "failedShare" -> new Profile(notes, programmingShare, testingShare, passedShare,
+                        Double.parseDouble(value), maxVersions, duplicateShare, maxTags, seed);
+                case "maxVersions" -> new Profile(notes, programmingShare, testingShare, passedShare, failedShare,
+                        Integer.parseInt(value), duplicateShare, maxTags, seed);
+                case "duplicateShare" -> new Profile(notes, programmingShare, testingShare, passedShare, failedShare,
+                        maxVersions, Double.parseDouble(value), maxTags, seed);
+                case "maxTags" -> new Profile(notes, programmingShare, testingShare, passedShare, failedShare,
+                        maxVersions, duplicateShare, Integer.parseInt(value), seed);
+                case "seed" -> new Profile(notes, programmingShare, testingShare, passedShare, failedShare,
+                        maxVersions, duplicateShare, maxTags, Long.parseLong(value));
+                default -> throw new IllegalArgumentException("Unknown profile key '" + key + "'");
+            };
+        }
+    }
+
+    /**
+     * Creates a generator for the given profile.
+     *
+     * @param profile the shape of the notebook
+     */
+    public CorpusGenerator(Profile profile) {
+        this.profile = profile;
+        this.random = new Random(profile.seed());
+        this.tagRandom = new Random(~profile.seed());
+    }
+
+    /**
+     * Generates the whole notebook described by the profile.
+     *
+     * @return a notebook holding the generated notes
+     */
+    public Notebook generate() {
+        Notebook notebook = new Notebook();
+        for (int i = 0; i < profile.notes(); i++) {
+            notebook.add(next());
+        }
+        return notebook;
+    }
+
+    /**
+     * Generates the next note, with its saved versions.
+     *
+     * @return a note not yet part of any notebook
+     */
+    public Note next() {
+        try {
+            Note note = recent.isEmpty() || random.nextDouble() >= profile.duplicateShare() ? newNote()
+                    : nearDuplicate(recent.get(random.nextInt(recent.size())));
+            int tags = profile.maxTags() <= 0 ? 0 : tagRandom.nextInt(profile.maxTags() + 1);
+            for (int t = 0; t < tags; t++) {
+                // squaring skews the picks towards the popular tags at the start of the list
+                double pick = tagRandom.nextDouble();
+                note.addTag(TAGS[(int) (pick * pick * TAGS.length)]);
+            }
+            int versions = profile.maxVersions() <= 0 ? 0 : random.nextInt(profile.maxVersions() + 1);
+            for (int v = 0; v < versions; v++) {
+                note.saveVersion(note.clone());
+                note.setText(note.getText() + "\n" + sentence(4 + random.nextInt(12)));
+            }
+            if (recent.size() < 1000) {
+                recent.add(note);
+            } else {
+                recent.set(random.nextInt(recent.size()), note);
+            }
+            generated++;
+            return note;
+        } catch (NoteException | CloneNotSupportedException e) {
+            throw new IllegalStateException("Generated an invalid note: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Generates a notebook and writes it to a note file.
+     *
+     * @param args number of notes, the file, then optional {@code key=value} profile overrides
+     * @throws IOException if the file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java bench.CorpusGenerator <notes> <file> [key=value ...]");
+            return;
+        }
+        Profile profile = Profile.defaults(Integer.parseInt(args[0]));
+        for (int i = 2; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Expected key=value but got '" + args[i] + "'");
+            }
+            profile = profile.with(args[i].substring(0, split), args[i].substring(split + 1));
+        }
+        Path file = Path.of(args[1]);
+        long start = System.nanoTime();
+        Notebook notebook = new CorpusGenerator(profile).generate();
+        long generatedAt = System.nanoTime();
+        new NoteStore(file).save(notebook);
+        System.out.printf("Generated %d notes in %.1f s, wrote %d bytes to %s in %.1f s%n", notebook.size(),
+                (generatedAt - start) / 1e9, Files.size(file), file, (System.nanoTime() - generatedAt) / 1e9);
+    }
+
+    private Note newNote() throws NoteException {
+        String title = title();
+        String description = sentence(3 + random.nextInt(10));
+        String text = text();
+        String author = AUTHORS[random.nextInt(AUTHORS.length)];
+        Calendar date = day(random.nextInt(3 * 365));
+        Calendar deadline = day(random.nextInt(4 * 365));
+        double kind = random.nextDouble();
+        if (kind < profile.programmingShare()) {
+            String language = pickLanguage();
+            return new ProgrammingNote(title, description, text, author, date, deadline, snippet(language), language);
+        }
+        if (kind < profile.programmingShare() + profile.testingShare()) {
+            String module = MODULES[random.nextInt(MODULES.length)];
+            String testCase = "com.example." + module + "." + capitalize(WORDS[random.nextInt(WORDS.length)])
+                    + "Test.test" + capitalize(WORDS[random.nextInt(WORDS.length)]) + generated;
+            return new TestingNote(title, description, text, author, date, deadline, testCase, pickStatus(),
+                    random.nextDouble() < 0.25);
+        }
+        return new Note(title, description, text, author, date, deadline);
+    }
+
+    private Note nearDuplicate(Note original) throws NoteException, CloneNotSupportedException {
+        Note copy = original.clone();
+        if (copy instanceof TestingNote testing) {
+            testing.setTestcase(testing.getTestcase() + "Copy" + generated);
+        }
+        copy.setText(original.getText() + " " + WORDS[random.nextInt(WORDS.length)]);
+        return copy;
+    }
+
+    private String title() {
+        String title = capitalize(sentence(2 + random.nextInt(4)));
+        return title.length() > 50 ? title.substring(0, 50) : title;
+    }
+
+    private String text() {
+        double roll = random.nextDouble();
+        int words;
+        if (roll < 0.0005) {
+            words = 12_000 + random.nextInt(20_000);
+        } else if (roll < 0.05) {
+            words = 400 + random.nextInt(1600);
+        } else {
+            words = 20 + (int) Math.min(400, Math.abs(random.nextGaussian()) * 80);
+        }
+        StringBuilder text = new StringBuilder(words * 7);
+        while (words > 0) {
+            int length = Math.min(words, 6 + random.nextInt(14));
+            text.append(capitalize(sentence(length))).append(". ");
+            words -= length;
+            if (random.nextInt(6) == 0) {
+                text.append('\n');
+            }
+        }
+        return text.toString().trim();
+    }
+
+    private String snippet(String language) {
+        int lines = random.nextDouble() < 0.1 ? 100 + random.nextInt(300) : 3 + random.nextInt(40);
+        StringBuilder code = new StringBuilder(lines * 40);
+        String name = WORDS[random.nextInt(WORDS.length)];
+        for (int i = 0; i < lines; i++) {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            int value = random.nextInt(1000);
+            code.append(switch (language) {
+                case "Java" -> "    int " + word + i + " = " + name + ".get(\"" + word + "\", " + value + ");";
+                case "Python" -> "    " + word + i + " = " + name + ".get('" + word + "', " + value + ")";
+                case "JavaScript" -> "  const " + word + i + " = await " + name + ".get('" + word + "', " + value + ");";
+                case "Go" -> "\t" + word + i + ", err := " + name + ".Get(\"" + word + "\", " + value + ")";
+                case "SQL" -> "SELECT " + word + ", COUNT(*) FROM " + name + " WHERE id > " + value + " GROUP BY " + word + ";";
+                case "Rust" -> "    let " + word + i + " = " + name + ".get(\"" + word + "\", " + value + ")?;";
+                default -> "    auto " + word + i + " = " + name + "->get(\"" + word + "\", " + value + ");";
+            }).append('\n');
+        }
+        return code.toString();
+    }
+
+    private String pickLanguage() {
+        int total = 0;
+        for (int weight : LANGUAGE_WEIGHTS) {
+            total += weight;
+        }
+        int roll = random.nextInt(total);
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            roll -= LANGUAGE_WEIGHTS[i];
+            if (roll < 0) {
+                return LANGUAGES[i];
+            }
+        }
+        return LANGUAGES[0];
+    }
+
+    private TestStatus pickStatus() {
+        double roll = random.nextDouble();
+        if (roll < profile.passedShare()) {
+            return TestStatus.PASSED;
+        }
+        return roll < profile.passedShare() + profile.failedShare() ? TestStatus.FAILED : TestStatus.PENDING;
+    }
+
+    private String sentence(int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+
+    private static Calendar day(int offset) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(START_MILLIS + offset * DAY_MILLIS);
+        return calendar;
+    }
+
+    private static String capitalize(String word) {
+        return word.isEmpty() ? word : word.substring(0, 1).toUpperCase(Locale.ROOT) + word.substring(1);
+    }
+}
@@ -0,0 +1,468 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+
+import notes.InvalidQueryException;
+import notes.Note;
+import notes.NoteException;
+import notes.NoteQuery;
+import notes.NoteStore;
+import notes.Notebook;
+
+/**
+ * Headless end-to-end benchmark replaying a workload script against a {@link NoteStore}.
+ *
+ * <p>A workload script lists one step per line; blank lines and lines starting with
+ * {@code #} are ignored:</p>
+ * <ul>
+ *   <li>{@code generate <notes> [key=value ...]} builds a notebook with
+ *       {@link CorpusGenerator}, the keys being those of {@link CorpusGenerator.Profile}</li>
+ *   <li>{@code save} writes the notebook to the store</li>
+ *   <li>{@code open} drops the notebook and reads it back from the store</li>
+ *   <li>{@code edit <count>} saves a version of random notes and changes their text</li>
+ *   <li>{@code search <count>} runs a mix of title suggestions and queries</li>
+ *   <li>{@code facets <count>} counts the tags of the whole notebook or of a tag, type and status query</li>
+ *   <li>{@code delete <count>} removes random notes</li>
+ *   <li>{@code threshold <metric> <fraction>} sets the allowed regression of one metric</li>
+ * </ul>
+ *
+ * <p>For every step the harness reports the throughput, the latency percentiles of the
+ * single operations, the peak heap while the step ran (the sum of the peaks of the heap
+ * pools) and the size of the store files afterwards. With {@code --output} the results are
+ * written as a properties file, and with {@code --baseline} they are compared with such a
+ * file from an earlier run: the benchmark fails with exit code 1 if a metric regressed by
+ * more than its threshold, by default {@code --tolerance} (25%). Throughput, the 50th, 90th
+ * and 99th latency percentiles, peak heap and file size are checked; the maximum latency is
+ * reported only.</p>
+ *
+ * <p>Run {@code java bench.MacroBenchmark [script] [--dir <directory>] [--output <file>]
+ * [--baseline <file>] [--tolerance <fraction>]}. Without a script, {@link #DEFAULT_WORKLOAD}
+ * is replayed.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class MacroBenchmark {
+    /** Workload replayed when no script is given */
+    public static final String DEFAULT_WORKLOAD = """
+            generate 20000
+            save
+            open
+            edit 2000
+            save
+            search 2000
+            delete 1000
+            save
+            open
+            facets 2000
+            """;
+
+    private static final String[] SEARCH_WORDS = { "cache", "login", "report", "deploy", "timeout", "session" };
+    private static final String[] QUERIES = { "type:TestingNote status:FAILED", "lang:java", "author:alice",
+            "type:ProgrammingNote lang:python sort:title", "mandatory:true status:PENDING", "deadline<2023-01-01" };
+    private static final String[] FACET_QUERIES = { "tag:bug", "tag:ui,backend -tag:wontfix",
+            "type:TestingNote status:FAILED,PENDING", "type:ProgrammingNote -tag:docs", "tag:urgent status:FAILED" };
+
+    private final NoteStore store;
+    private final Random random = new Random(7);
+    private final Map<String, Double> thresholds = new HashMap<>();
+    private final Map<String, Result> results = new LinkedHashMap<>();
+    private Notebook notebook = new Notebook();
+    private int step;
+
+    /**
+     * Measurements of one step of the workload.
+     *
+     * @param ops number of operations
+     * @param seconds wall-clock time of the step
+     * @param latencies duration of every operation in nanoseconds, sorted
+     * @param peakHeapBytes peak heap use while the step ran
+     * @param fileBytes size of the store files after the step
+     */
+    public record Result(int ops, double seconds, long[] latencies, long peakHeapBytes, long fileBytes) {
+
+        /**
+         * Returns the results as named metrics, in the units they are reported in.
+         *
+         * @return metric values by name
+         */
+        public Map<String, Double> metrics() {
+            Map<String, Double> metrics = new LinkedHashMap<>();
+            metrics.put("ops", (double) ops);
+            metrics.put("opsPerSecond", seconds > 0 ? ops / seconds : 0);
+            metrics.put("p50Millis", percentile(50) / 1e6);
+            metrics.put("p90Millis", percentile(90) / 1e6);
+            metrics.put("p99Millis", percentile(99) / 1e6);
+            metrics.put("maxMillis", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+            metrics.put("peakHeapMb", peakHeapBytes / (1024.0 * 1024));
+            metrics.put("fileBytes", (double) fileBytes);
+            return metrics;
+        }
+
+        private long percentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(latencies.length * percentile / 100);
+            return latencies[Math.max(0, rank - 1)];
+        }
+    }
+
+    /**
+     * A metric that got worse than the baseline allows.
+     *
+     * @param key step and metric name
+     * @param baseline value in the baseline
+     * @param actual value measured now
+     * @param threshold allowed relative change
+     */
+    public record Regression(String key, double baseline, double actual, double threshold) {
+        @Override
+        public String toString() {
+            return String.format("%s: %.3f against baseline %.3f (allowed %.0f%%)", key, actual, baseline,
+                    threshold * 100);
+        }
+    }
+
+    /**
+     * Creates a benchmark running against the store in the given file.
+     *
+     * @param store the store to load from and save to
+     */
+    public MacroBenchmark(NoteStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Replays a workload script.
+     *
+     * @param script the script to read
+     * @return results by step, in the order the steps ran
+     * @throws IOException if the script or the store cannot be read or written
+     * @throws IllegalArgumentException if the script is malformed
+     */
+    public Map<String, Result> run(Reader script) throws IOException {
+        List<String> lines = new BufferedReader(script).lines().toList();
+        for (int number = 1; number <= lines.size(); number++) {
+            String line = lines.get(number - 1).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try {
+                runStep(words);
+            } catch (NoteException | ClassNotFoundException | CloneNotSupportedException | RuntimeException e) {
+                throw new IllegalArgumentException("Line " + number + " '" + line + "': " + e.getMessage(), e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compares the results with a baseline. Higher values are regressions for every checked
+     * metric except the throughput, where lower values are.
+     *
+     * @param baseline metrics of an earlier run, as written by {@link #write(Writer)}
+     * @param tolerance allowed relative regression of metrics without their own threshold
+     * @return the regressions found, empty if none
+     */
+    public List<Regression> compare(Properties baseline, double tolerance) {
+        List<Regression> regressions = new ArrayList<>();
+        results.forEach((label, result) -> result.metrics().forEach((metric, actual) -> {
+            String key = label + "." + metric;
+            String expected = baseline.getProperty(key);
+            if (expected == null || metric.equals("ops") || metric.equals("maxMillis")) {
+                return;
+            }
+            double base = Double.parseDouble(expected);
+            double threshold = thresholds.getOrDefault(metric, tolerance);
+            boolean regressed = metric.equals("opsPerSecond") ? actual < base * (1 - threshold)
+                    : actual > base * (1 + threshold);
+            if (regressed) {
+                regressions.add(new Regression(key, base, actual, threshold));
+            }
+        }));
+        return regressions;
+    }
+
+    /**
+     * Writes the results as properties named {@code <step>.<metric>}.
+     *
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void write(Writer out) throws IOException {
+        Map<String, String> sorted = new TreeMap<>();
+        results.forEach((label, result) -> result.metrics()
+                .forEach((metric, value) -> sorted.put(label + "." + metric, String.valueOf(value))));
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            out.write(entry.getKey() + "=" + entry.getValue() + System.lineSeparator());
+        }
+    }
+
+    /** @return the results formatted as a table, one row per step */
+    public String report() {
+        StringBuilder out = new StringBuilder(String.format("%-16s %9s %12s %9s %9s %9s %9s %9s %12s%n", "step",
+                "ops", "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "heap MB", "file bytes"));
+        results.forEach((label, result) -> {
+            Map<String, Double> m = result.metrics();
+            out.append(String.format("%-16s %9.0f %12.1f %9.3f %9.3f %9.3f %9.3f %9.1f %12.0f%n", label, m.get("ops"),
+                    m.get("opsPerSecond"), m.get("p50Millis"), m.get("p90Millis"), m.get("p99Millis"),
+                    m.get("maxMillis"), m.get("peakHeapMb"), m.get("fileBytes")));
+        });
+        return out.toString();
+    }
+
+    /**
+     * Runs a workload script and checks the results against an optional baseline.
+     *
+     * @param args the script, followed by the options described in the class comment
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        Path script = null;
+        Path directory = null;
+        Path output = null;
+        Path baseline = null;
+        double tolerance = 0.25;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--dir" -> directory = Path.of(args[++i]);
+                case "--output" -> output = Path.of(args[++i]);
+                case "--baseline" -> baseline = Path.of(args[++i]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                default -> script = Path.of(args[i]);
+            }
+        }
+        boolean temporary = directory == null;
+        if (temporary) {
+            directory = Files.createTempDirectory("note-bench");
+        }
+        MacroBenchmark benchmark = new MacroBenchmark(new NoteStore(directory.resolve("note.ser")));
+        try (Reader in = script == null ? new StringReader(DEFAULT_WORKLOAD) : Files.newBufferedReader(script)) {
+            benchmark.run(in);
+        } finally {
+            if (temporary) {
+                deleteStoreFiles(directory);
+            }
+        }
+        System.out.print(benchmark.report());
+        if (output != null) {
+            try (Writer out = Files.newBufferedWriter(output)) {
+                benchmark.write(out);
+            }
+        }
+        if (baseline != null) {
+            Properties expected = new Properties();
+            try (Reader in = Files.newBufferedReader(baseline)) {
+                expected.load(in);
+            }
+            List<Regression> regressions = benchmark.compare(expected, tolerance);
+            if (!regressions.isEmpty()) {
+                System.out.println("Regressions against " + baseline + ":");
+                regressions.forEach(r -> System.out.println("  " + r));
+                System.exit(1);
+            }
+            System.out.println("No regressions against " + baseline);
+        }
+    }
+
+    private void runStep(String[] words)
+            throws IOException, ClassNotFoundException, NoteException, CloneNotSupportedException {
+        String name = words[0];
+        if (name.equals("threshold")) {
+            thresholds.put(words[1], Double.parseDouble(words[2]));
+            return;
+        }
+        step++;
+        String label = String.format("%02d-%s", step, name);
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        Latencies latencies = new Latencies();
+        long start = System.nanoTime();
+        switch (name) {
+            case "generate" -> {
+                CorpusGenerator.Profile profile = CorpusGenerator.Profile.defaults(Integer.parseInt(words[1]));
+                for (int i = 2; i < words.length; i++) {
+                    String[] pair = words[i].split("=", 2);
+                    profile = profile.with(pair[0], pair[1]);
+                }
+                CorpusGenerator generator = new CorpusGenerator(profile);
+                notebook.close();
+                notebook = new Notebook();
+                for (int i = 0; i < profile.notes(); i++) {
+                    long opStart = System.nanoTime();
+                    notebook.add(generator.next());
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            case "save" -> {
+                store.save(notebook);
+                latencies.add(System.nanoTime() - start);
+            }
+            case "open" -> {
+                notebook.close();
+                // let the old notebook be collected while the new one is read
+                notebook = null;
+                notebook = store.open();
+                latencies.add(System.nanoTime() - start);
+            }
+            case "edit" -> {
+                List<Note> notes = notebook.getNotes();
+                for (int i = 0; i < count(words); i++) {
+                    Note note = notes.get(random.nextInt(notes.size()));
+                    String text = note.getText() + " edited " + i;
+                    long opStart = System.nanoTime();
+                    notebook.saveVersion(note);
+                    notebook.update(note, () -> {
+                        note.setText(text);
+                        note.setDescription("Edited in step " + label);
+                    });
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            case "search" -> {
+                for (int i = 0; i < count(words); i++) {
+                    long opStart = System.nanoTime();
+                    search(i);
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            case "facets" -> {
+                for (int i = 0; i < count(words); i++) {
+                    long opStart = System.nanoTime();
+                    facets(i);
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            case "delete" -> {
+                List<Note> notes = new ArrayList<>(notebook.getNotes());
+                int deletes = Math.min(count(words), notes.size());
+                for (int i = 0; i < deletes; i++) {
+                    int pick = random.nextInt(notes.size());
+                    Note note = notes.get(pick);
+                    notes.set(pick, notes.get(notes.size() - 1));
+                    notes.remove(notes.size() - 1);
+                    long opStart = System.nanoTime();
+                    notebook.remove(note);
+                    latencies.add(System.nanoTime() - opStart);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown step '" + name + "'");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        results.put(label, new Result(latencies.size, seconds, latencies.sorted(), peakHeap, fileBytes()));
+    }
+
+    private void search(int i) {
+        if (i % 2 == 0) {
+            String word = SEARCH_WORDS[random.nextInt(SEARCH_WORDS.length)];
+            notebook.suggest(word.substring(0, 1 + random.nextInt(word.length())), 10);
+            return;
+        }
+        try {
+            notebook.query(NoteQuery.parse(QUERIES[random.nextInt(QUERIES.length)]), 0, 50);
+        } catch (InvalidQueryException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void facets(int i) {
+        if (i % 2 == 0) {
+            notebook.tagCounts();
+            return;
+        }
+        try {
+            notebook.tagCounts(NoteQuery.parse(FACET_QUERIES[random.nextInt(FACET_QUERIES.length)]));
+        } catch (InvalidQueryException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long fileBytes() throws IOException {
+        Path file = store.getFile();
+        long bytes = 0;
+        for (Path path : List.of(file, file.resolveSibling(file.getFileName() + ".journal"),
+                file.resolveSibling(file.getFileName() + ".tags"))) {
+            if (Files.exists(path)) {
+                bytes += Files.size(path);
+            }
+        }
+        return bytes;
+    }
+
+    private static int count(String[] words) {
+        if (words.length < 2) {
+            throw new IllegalArgumentException("Missing count");
+        }
+        return Integer.parseInt(words[1]);
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static void deleteStoreFiles(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            files.forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Growable array of operation durations.
+     */
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        private long[] sorted() {
+            long[] copy = Arrays.copyOf(values, size);
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for an event dispatch that exceeded the UI budget. The stack is
+ * the one sampled from the dispatch thread during the stall, not where the event was
+ * committed.
+ */
+@Name("noteapp.EdtStall")
+@Label("Event Dispatch Stall")
+@Category({ "Note App", "Rendering" })
+@StackTrace(false)
+public class EdtStallEvent extends Event {
+    @Label("Action")
+    public String action;
+
+    @Label("Duration (ms)")
+    public double durationMillis;
+
+    @Label("Sampled Stack")
+    public String stack;
+}
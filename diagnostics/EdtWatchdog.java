@@ -0,0 +1,277 @@
+package diagnostics;
+
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.InvocationEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.AbstractButton;
+import javax.swing.SwingUtilities;
+
+/**
+ * Watches the Swing event dispatch thread for events that take longer than a time budget.
+ *
+ * <p>Once installed, every event goes through a queue that times its dispatch and names
+ * the action behind it: the text of the clicked button, the component receiving a key or
+ * mouse event, the class posting an {@code invokeLater} task, or a label set with
+ * {@link #describe(String)}. A sampler thread checks the running dispatch every few
+ * milliseconds and captures the stack of the dispatch thread as soon as it passes the
+ * budget, which shows the code responsible for the stall. Dispatches are aggregated per
+ * action into a report ranked by their worst duration, and stalls are also recorded as
+ * {@link EdtStallEvent}s. Dispatches that run a nested event loop, such as a modal dialog,
+ * are not timed since they mostly wait for the user.</p>
+ */
+public final class EdtWatchdog {
+    /** Budget for one interaction, in milliseconds */
+    public static final long DEFAULT_BUDGET_MILLIS = 50;
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 5;
+    private static final int REPORTED_FRAMES = 15;
+    private static final Metrics.Histogram DISPATCH_TIME = Metrics.histogram("edt.dispatch.nanos");
+
+    private static volatile EdtWatchdog installed;
+
+    private final long budgetNanos;
+    private final Map<String, ActionStats> actions = new ConcurrentHashMap<>();
+    private volatile Dispatch current;
+
+    /**
+     * State of the event being dispatched, shared with the sampler thread.
+     */
+    private static final class Dispatch {
+        private final Thread thread = Thread.currentThread();
+        private final long start = System.nanoTime();
+        private final Dispatch outer;
+        private volatile String action;
+        private volatile StackTraceElement[] stack;
+        private boolean pumped;
+
+        private Dispatch(String action, Dispatch outer) {
+            this.action = action;
+            this.outer = outer;
+        }
+    }
+
+    /**
+     * Timings of one action.
+     */
+    private static final class ActionStats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long overBudget;
+        private StackTraceElement[] worstStack;
+
+        private synchronized void record(long nanos, boolean stalled, StackTraceElement[] stack) {
+            count++;
+            totalNanos += nanos;
+            if (stalled) {
+                overBudget++;
+            }
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+                if (stack != null) {
+                    worstStack = stack;
+                }
+            }
+        }
+    }
+
+    /**
+     * Timings of one action, as listed in the report.
+     *
+     * @param action the action
+     * @param count number of dispatches
+     * @param meanMillis mean dispatch time
+     * @param maxMillis worst dispatch time
+     * @param overBudget number of dispatches over the budget
+     * @param worstStack stack of the dispatch thread during the worst stall, empty if none was sampled
+     */
+    public record ActionReport(String action, long count, double meanMillis, double maxMillis, long overBudget,
+            List<StackTraceElement> worstStack) {
+    }
+
+    private EdtWatchdog(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Installs the watchdog on the system event queue, once per application.
+     *
+     * @param budgetMillis dispatch time above which an event counts as a stall
+     * @return the installed watchdog
+     */
+    public static synchronized EdtWatchdog install(long budgetMillis) {
+        if (installed == null) {
+            EdtWatchdog watchdog = new EdtWatchdog(budgetMillis);
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(watchdog.new WatchedQueue());
+            Thread sampler = new Thread(watchdog::sample, "edt-watchdog");
+            sampler.setDaemon(true);
+            sampler.start();
+            Metrics.section("Slowest UI actions", () -> watchdog.report(20));
+            installed = watchdog;
+        }
+        return installed;
+    }
+
+    /** @return the installed watchdog, or null if none is installed */
+    public static EdtWatchdog get() {
+        return installed;
+    }
+
+    /**
+     * Names the action of the event being dispatched, for tasks whose origin cannot be
+     * derived from the event itself. Does nothing off the dispatch thread or without a
+     * watchdog.
+     *
+     * @param action a short description such as "Rebuild view panel"
+     */
+    public static void describe(String action) {
+        EdtWatchdog watchdog = installed;
+        if (watchdog != null && SwingUtilities.isEventDispatchThread()) {
+            Dispatch dispatch = watchdog.current;
+            if (dispatch != null) {
+                dispatch.action = action;
+            }
+        }
+    }
+
+    /**
+     * Returns the actions with the slowest dispatches, slowest first.
+     *
+     * @param limit maximum number of actions
+     * @return one entry per action
+     */
+    public List<ActionReport> slowestActions(int limit) {
+        List<ActionReport> reports = new ArrayList<>();
+        actions.forEach((action, stats) -> {
+            synchronized (stats) {
+                StackTraceElement[] stack = stats.worstStack != null ? stats.worstStack : new StackTraceElement[0];
+                reports.add(new ActionReport(action, stats.count, stats.totalNanos / 1e6 / stats.count,
+                        stats.maxNanos / 1e6, stats.overBudget, List.of(stack)));
+            }
+        });
+        reports.sort(Comparator.comparingDouble(ActionReport::maxMillis).reversed());
+        return reports.subList(0, Math.min(limit, reports.size()));
+    }
+
+    /**
+     * Formats the slowest actions with the stack sampled during their worst stall.
+     *
+     * @param limit maximum number of actions
+     * @return the report
+     */
+    public String report(int limit) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("budget %d ms%n", TimeUnit.NANOSECONDS.toMillis(budgetNanos)));
+        for (ActionReport action : slowestActions(limit)) {
+            out.append(String.format("%8.1f ms max %8.1f ms mean %6d runs %5d over budget  %s%n", action.maxMillis(),
+                    action.meanMillis(), action.count(), action.overBudget(), action.action()));
+            List<StackTraceElement> stack = action.worstStack();
+            for (int i = 0; i < Math.min(REPORTED_FRAMES, stack.size()); i++) {
+                out.append("        at ").append(stack.get(i)).append(System.lineSeparator());
+            }
+        }
+        return out.toString();
+    }
+
+    private void sample() {
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Dispatch dispatch = current;
+            if (dispatch != null && dispatch.stack == null && System.nanoTime() - dispatch.start > budgetNanos) {
+                dispatch.stack = dispatch.thread.getStackTrace();
+            }
+        }
+    }
+
+    private void finish(Dispatch dispatch) {
+        long nanos = System.nanoTime() - dispatch.start;
+        if (dispatch.pumped) {
+            return;
+        }
+        DISPATCH_TIME.record(nanos);
+        boolean stalled = nanos > budgetNanos;
+        actions.computeIfAbsent(dispatch.action, k -> new ActionStats()).record(nanos, stalled, dispatch.stack);
+        if (stalled) {
+            EdtStallEvent event = new EdtStallEvent();
+            if (event.shouldCommit()) {
+                event.action = dispatch.action;
+                event.durationMillis = nanos / 1e6;
+                event.stack = dispatch.stack == null ? "" : formatStack(dispatch.stack);
+                event.commit();
+            }
+        }
+    }
+
+    private static String formatStack(StackTraceElement[] stack) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < Math.min(REPORTED_FRAMES, stack.length); i++) {
+            out.append(stack[i]).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String describeEvent(AWTEvent event) {
+        Object source = event.getSource();
+        if (source instanceof AbstractButton button && button.getText() != null && !button.getText().isEmpty()) {
+            // Swing buttons fire their listeners while dispatching the mouse or key event
+            return "Button \"" + button.getText() + "\"";
+        }
+        if (event instanceof ActionEvent) {
+            return "Action on " + source.getClass().getSimpleName();
+        }
+        if (event instanceof InvocationEvent invocation) {
+            String params = invocation.paramString();
+            int from = params.indexOf("runnable=");
+            if (from >= 0) {
+                String runnable = params.substring(from + "runnable=".length());
+                int end = runnable.indexOf("$$Lambda");
+                if (end < 0) {
+                    end = runnable.indexOf('@');
+                }
+                if (end < 0) {
+                    end = runnable.indexOf(',');
+                }
+                return "invokeLater from " + (end < 0 ? runnable : runnable.substring(0, end));
+            }
+            return "invokeLater";
+        }
+        String kind = event instanceof KeyEvent ? "Key" : event instanceof MouseEvent ? "Mouse" : event.getClass().getSimpleName();
+        return kind + " on " + source.getClass().getSimpleName();
+    }
+
+    /**
+     * Event queue timing every dispatch.
+     */
+    private final class WatchedQueue extends EventQueue {
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            Dispatch outer = current;
+            if (outer != null) {
+                outer.pumped = true;
+            }
+            Dispatch dispatch = new Dispatch(describeEvent(event), outer);
+            current = dispatch;
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                current = dispatch.outer;
+                finish(dispatch);
+            }
+        }
+    }
+}
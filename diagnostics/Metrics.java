@@ -0,0 +1,278 @@
+/**
+ * Metrics and Flight Recorder events showing where the note application spends its time.
+ */
+package diagnostics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process registry of counters, gauges and histograms.
+ *
+ * <p>Metrics are collected only when the application is started with
+ * {@code -Dnoteapp.metrics=true}. The flag is read once into a constant, so with metrics
+ * disabled every recording call returns immediately and the JIT removes it. When enabled,
+ * the registry is written to the file named by {@code noteapp.metrics.file} (default
+ * {@code note-metrics.txt}) when the application exits.</p>
+ *
+ * <p>The {@code jdk.jfr} events in this package are independent of the flag: they cost
+ * nothing unless a Flight Recorder recording enables them.</p>
+ */
+public final class Metrics {
+    /** Whether metrics are collected, fixed at startup */
+    public static final boolean ENABLED = Boolean.getBoolean("noteapp.metrics");
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Supplier<String>> SECTIONS = new ConcurrentHashMap<>();
+
+    static {
+        if (ENABLED) {
+            Path file = Path.of(System.getProperty("noteapp.metrics.file", "note-metrics.txt"));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    export(file);
+                } catch (IOException e) {
+                    System.out.println("Metrics not written: " + e.getMessage());
+                }
+            }, "metrics-export"));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter with the given name, creating it on first use.
+     *
+     * @param name the metric name
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it on first use.
+     *
+     * @param name the metric name; names ending in {@code .nanos} are reported as latencies
+     * @return the histogram
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge read whenever the metrics are reported. Does nothing while metrics
+     * are disabled.
+     *
+     * @param name the metric name
+     * @param gauge returns the current value
+     */
+    public static void gauge(String name, LongSupplier gauge) {
+        if (ENABLED) {
+            GAUGES.put(name, gauge);
+        }
+    }
+
+    /**
+     * Registers a block of text appended to the report under a title, for diagnostics
+     * collected outside the registry. Sections are reported even while metrics are disabled.
+     *
+     * @param title the section title
+     * @param content returns the section text
+     */
+    public static void section(String title, Supplier<String> content) {
+        SECTIONS.put(title, content);
+    }
+
+    /**
+     * Formats every metric as text, one per line, sorted by name, followed by the
+     * registered sections.
+     *
+     * @return the report
+     */
+    public static String report() {
+        StringBuilder out = new StringBuilder();
+        if (ENABLED) {
+            appendMetrics(out);
+        } else {
+            out.append("Metrics are disabled; start the application with -Dnoteapp.metrics=true.\n");
+        }
+        new TreeMap<>(SECTIONS).forEach((title, content) ->
+                out.append('\n').append(title).append('\n').append(content.get()));
+        return out.toString();
+    }
+
+    private static void appendMetrics(StringBuilder out) {
+        Map<String, String> lines = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> lines.put(name, String.valueOf(counter.get())));
+        GAUGES.forEach((name, gauge) -> {
+            try {
+                lines.put(name, String.valueOf(gauge.getAsLong()));
+            } catch (RuntimeException e) {
+                lines.put(name, "unavailable: " + e.getMessage());
+            }
+        });
+        HISTOGRAMS.forEach((name, histogram) -> lines.put(name, histogram.describe(name.endsWith(".nanos"))));
+        lines.forEach((name, value) -> out.append(name).append(' ').append(value).append('\n'));
+    }
+
+    /**
+     * Writes the report to a file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void export(Path file) throws IOException {
+        Files.writeString(file, report());
+    }
+
+    /** @return the current time for {@link Histogram#recordSince(long)}, 0 when disabled */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        private Counter() {
+        }
+
+        /**
+         * Adds to the counter.
+         *
+         * @param amount the amount to add
+         */
+        public void add(long amount) {
+            if (ENABLED) {
+                value.add(amount);
+            }
+        }
+
+        /** Adds one to the counter. */
+        public void increment() {
+            add(1);
+        }
+
+        /** @return the current count */
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Distribution of recorded values in log-linear buckets with eight sub-buckets per
+     * power of two, so percentiles are accurate to within 12.5%.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        /**
+         * Records a value.
+         *
+         * @param value the value, negative values are recorded as 0
+         */
+        public void record(long value) {
+            if (!ENABLED) {
+                return;
+            }
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(bucket(v));
+            count.increment();
+            sum.add(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        /**
+         * Records the nanoseconds elapsed since a time returned by {@link Metrics#start()}.
+         *
+         * @param start the start time
+         */
+        public void recordSince(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        /** @return number of recorded values */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Estimates a percentile of the recorded values.
+         *
+         * @param percentile the percentile between 0 and 100
+         * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+         */
+        public long percentile(double percentile) {
+            long total = count.sum();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private String describe(boolean nanos) {
+            long n = count.sum();
+            double mean = n == 0 ? 0 : (double) sum.sum() / n;
+            if (nanos) {
+                return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", n,
+                        mean / 1e6, percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, max.get() / 1e6);
+            }
+            return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", n, mean, percentile(50),
+                    percentile(90), percentile(99), max.get());
+        }
+
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + mantissa;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long mantissa = bucket % SUB_BUCKETS;
+            long width = 1L << (exponent - SUB_BUCKET_BITS);
+            return ((SUB_BUCKETS + mantissa) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+        }
+    }
+}
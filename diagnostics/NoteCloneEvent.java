@@ -0,0 +1,26 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for cloning a note, which every saved version starts with. Clones
+ * are frequent and usually take microseconds, so only slow ones are recorded by default;
+ * the {@code note.clone.nanos} histogram covers all of them.
+ */
+@Name("noteapp.NoteClone")
+@Label("Note Clone")
+@Category({ "Note App", "Versioning" })
+@Threshold("100 us")
+@StackTrace(false)
+public class NoteCloneEvent extends Event {
+    @Label("Note Type")
+    public String noteType;
+
+    @Label("Versions Copied")
+    public int versions;
+}
@@ -0,0 +1,23 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for saving a version of a note in a notebook.
+ */
+@Name("noteapp.SaveVersion")
+@Label("Save Note Version")
+@Category({ "Note App", "Versioning" })
+public class SaveVersionEvent extends Event {
+    @Label("Note Type")
+    public String noteType;
+
+    @Label("Note Id")
+    public long noteId;
+
+    @Label("Version Chain Length")
+    public int chainLength;
+}
@@ -0,0 +1,28 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one read of the note store.
+ */
+@Name("noteapp.StoreRead")
+@Label("Note Store Read")
+@Category({ "Note App", "Persistence" })
+@Description("Full read of the note file, or merge of journal records written elsewhere")
+public class StoreReadEvent extends Event {
+    @Label("Kind")
+    @Description("full or incremental")
+    public String kind;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytes;
+
+    @Label("Notes Read")
+    public int notes;
+}
@@ -0,0 +1,28 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one write to the note store.
+ */
+@Name("noteapp.StoreWrite")
+@Label("Note Store Write")
+@Category({ "Note App", "Persistence" })
+@Description("Journal append or snapshot rewrite of the note file")
+public class StoreWriteEvent extends Event {
+    @Label("Kind")
+    @Description("journal or snapshot")
+    public String kind;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytes;
+
+    @Label("Notes Written")
+    public int notes;
+}
@@ -0,0 +1,23 @@
+package diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for building the panel listing the notes.
+ */
+@Name("noteapp.ViewRender")
+@Label("Note View Render")
+@Category({ "Note App", "Rendering" })
+public class ViewRenderEvent extends Event {
+    @Label("Query")
+    public String query;
+
+    @Label("Notes Rendered")
+    public int notes;
+
+    @Label("Matching Notes")
+    public int total;
+}
@@ -0,0 +1,29 @@
+package notes;
+
+import java.io.Serializable;
+
+/**
+ * Reference from a note to a file held in an {@link AttachmentStore}. The reference is all
+ * a note stores, so listing, loading, saving and versioning a note never touch the content.
+ *
+ * @param id identifier of the content in the store
+ * @param name file name shown to the user
+ * @param size content length in bytes
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public record Attachment(long id, String name, long size) implements Serializable {
+
+    /** @return the name followed by the size in a readable unit */
+    @Override
+    public String toString() {
+        if (size < 1024) {
+            return name + " (" + size + " B)";
+        }
+        if (size < 1024 * 1024) {
+            return name + " (" + size / 1024 + " KB)";
+        }
+        return name + " (" + size / (1024 * 1024) + " MB)";
+    }
+}
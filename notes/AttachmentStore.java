@@ -0,0 +1,470 @@
+package notes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import diagnostics.Metrics;
+
+/**
+ * Holds the content of note {@link Attachment}s outside the note records, in a single file
+ * of fixed-size chunks.
+ *
+ * <p>Content is written and read through NIO channels one {@link #CHUNK_SIZE} chunk at a
+ * time, so attaching or viewing a file of hundreds of megabytes never holds more than a
+ * chunk in memory. Each attachment has a small manifest listing the chunk slots it
+ * occupies; reading opens the manifest and reads chunks only as the reader reaches them,
+ * and the channels returned by {@link #open(Attachment)} can seek, so a viewer can show the
+ * end of a long log without reading the rest.</p>
+ *
+ * <p>Writers fill the free slots first and append after them, and publish the manifest
+ * only once the chunks are synced, so an interrupted write leaves nothing but free slots.
+ * Processes sharing the store coordinate writes through an advisory lock on a sidecar lock
+ * file. Attachments are never removed with the note that references them, since saved
+ * versions may still do so; {@link #collectGarbage(Set)} frees the ones no note refers to
+ * any more. Nothing is freed while a backup reads the store, so the slots of the captured
+ * attachments keep their content until it has been read.</p>
+ *
+ * <p>Layout: {@code chunks} holds the chunk slots, {@code manifests/<id>.att} the name,
+ * length and slots of each attachment.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class AttachmentStore {
+    /** Bytes per chunk slot */
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    /** Age below which unreferenced attachments are kept, as their note may not be saved yet */
+    static final long GARBAGE_GRACE_MILLIS = 60L * 60 * 1000;
+
+    private static final int MAGIC = 0x4E415454;
+    private static final int FORMAT = 1;
+    private static final String SUFFIX = ".att";
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final Metrics.Histogram WRITE_TIME = Metrics.histogram("attachments.write.nanos");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("attachments.bytes.written");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("attachments.bytes.read");
+
+    private final Path directory;
+    private final Path chunkFile;
+    private final Path manifests;
+    private final Path lockFile;
+    /** Number of captures not ended yet, during which nothing is freed */
+    private int captures;
+
+    /**
+     * Manifest of a stored attachment.
+     */
+    private record Manifest(long id, String name, long size, int[] slots) {
+    }
+
+    /**
+     * Creates a store in a directory, which is created on the first write.
+     *
+     * @param directory the store directory
+     */
+    public AttachmentStore(Path directory) {
+        this.directory = directory;
+        this.chunkFile = directory.resolve("chunks");
+        this.manifests = directory.resolve("manifests");
+        this.lockFile = directory.resolve("lock");
+    }
+
+    /** @return the directory of the store */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Stores the content of a channel until its end.
+     *
+     * @param name file name shown for the attachment
+     * @param source the content, read in chunk-sized pieces and not closed
+     * @return the reference to keep in the note
+     * @throws IOException if the source cannot be read or the store written
+     */
+    public synchronized Attachment write(String name, ReadableByteChannel source) throws IOException {
+        long start = Metrics.start();
+        Files.createDirectories(manifests);
+        try (FileChannel lock = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileChannel chunks = FileChannel.open(chunkFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+            FileLock held = lock.lock();
+            try {
+                BitSet used = usedSlots();
+                int[] slots = new int[16];
+                int count = 0;
+                long size = 0;
+                ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+                boolean end = false;
+                while (!end) {
+                    buffer.clear();
+                    while (buffer.hasRemaining()) {
+                        if (source.read(buffer) < 0) {
+                            end = true;
+                            break;
+                        }
+                    }
+                    if (buffer.position() == 0) {
+                        break;
+                    }
+                    int slot = used.nextClearBit(count == 0 ? 0 : slots[count - 1] + 1);
+                    used.set(slot);
+                    if (count == slots.length) {
+                        slots = Arrays.copyOf(slots, count * 2);
+                    }
+                    slots[count++] = slot;
+                    buffer.flip();
+                    size += buffer.remaining();
+                    long position = (long) slot * CHUNK_SIZE;
+                    while (buffer.hasRemaining()) {
+                        position += chunks.write(buffer, position);
+                    }
+                }
+                chunks.force(false);
+                Manifest manifest = new Manifest(newId(), name, size, Arrays.copyOf(slots, count));
+                writeManifest(manifest);
+                BYTES_WRITTEN.add(size);
+                WRITE_TIME.recordSince(start);
+                return new Attachment(manifest.id(), name, size);
+            } finally {
+                held.release();
+            }
+        }
+    }
+
+    /**
+     * Stores a copy of a file under its file name.
+     *
+     * @param file the file to attach
+     * @return the reference to keep in the note
+     * @throws IOException if the file cannot be read or the store written
+     */
+    public Attachment importFile(Path file) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            return write(file.getFileName().toString(), source);
+        }
+    }
+
+    /**
+     * Opens the content of an attachment for reading. Chunks are read as the channel
+     * reaches them; the caller closes the channel.
+     *
+     * @param attachment the attachment
+     * @return a read-only channel positioned at the start of the content
+     * @throws IOException if the attachment is not in the store
+     */
+    public SeekableByteChannel open(Attachment attachment) throws IOException {
+        Manifest manifest = readManifest(manifestPath(attachment.id()));
+        if (manifest == null) {
+            throw new IOException("Attachment '" + attachment.name() + "' is missing from " + directory);
+        }
+        if (manifest.slots().length == 0) {
+            return new ChunkChannel(null, manifest);
+        }
+        return new ChunkChannel(FileChannel.open(chunkFile, StandardOpenOption.READ), manifest);
+    }
+
+    /**
+     * Opens the content of an attachment as a stream, for viewers reading it from start
+     * to end.
+     *
+     * @param attachment the attachment
+     * @return the content; the caller closes it
+     * @throws IOException if the attachment is not in the store
+     */
+    public InputStream openStream(Attachment attachment) throws IOException {
+        return Channels.newInputStream(open(attachment));
+    }
+
+    /**
+     * Frees the attachments that are not referenced and older than an hour, so that
+     * attachments of notes not saved yet are kept. Freed slots at the end of the chunk file
+     * are truncated, the others are reused by later writes.
+     *
+     * @param referenced identifiers of the attachments referenced by any note or version
+     * @return the number of attachments freed, 0 while a backup reads the store
+     * @throws IOException if the store cannot be read or changed
+     */
+    public synchronized int collectGarbage(Set<Long> referenced) throws IOException {
+        if (!Files.isDirectory(manifests) || captures > 0) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - GARBAGE_GRACE_MILLIS;
+        int freed = 0;
+        try (FileChannel lock = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock held = lock.lock();
+            try {
+                for (Path path : manifestPaths()) {
+                    long id = idOf(path);
+                    if (!referenced.contains(id) && Files.getLastModifiedTime(path).toMillis() < cutoff) {
+                        Files.deleteIfExists(path);
+                        freed++;
+                    }
+                }
+                if (freed > 0 && Files.exists(chunkFile)) {
+                    long end = (long) usedSlots().length() * CHUNK_SIZE;
+                    try (FileChannel chunks = FileChannel.open(chunkFile, StandardOpenOption.WRITE)) {
+                        if (chunks.size() > end) {
+                            chunks.truncate(end);
+                        }
+                    }
+                }
+            } finally {
+                held.release();
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Lists the chunk file and the manifests as they are at this moment, for a backup. The
+     * chunk file is opened now and the manifests, which never change, when they are read.
+     * Until {@link #endCapture()} no attachment is freed, so the slots of the captured
+     * manifests keep their content; writes only fill the other slots.
+     *
+     * @return the files, named relative to the parent of the store directory
+     * @throws IOException if the store cannot be read
+     */
+    synchronized List<NoteStore.CapturedFile> capture() throws IOException {
+        List<NoteStore.CapturedFile> files = new ArrayList<>();
+        if (!Files.isDirectory(manifests)) {
+            captures++;
+            return files;
+        }
+        String prefix = directory.getFileName() + "/";
+        try (FileChannel lock = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock held = lock.lock();
+            try {
+                for (Path path : manifestPaths()) {
+                    files.add(new NoteStore.CapturedFile(prefix + "manifests/" + path.getFileName(), path, null,
+                            Files.size(path)));
+                }
+                if (Files.exists(chunkFile)) {
+                    FileChannel chunks = FileChannel.open(chunkFile, StandardOpenOption.READ);
+                    files.add(new NoteStore.CapturedFile(prefix + "chunks", chunkFile, chunks, chunks.size()));
+                }
+            } finally {
+                held.release();
+            }
+        }
+        captures++;
+        return files;
+    }
+
+    /**
+     * Lets {@link #collectGarbage(Set)} free attachments again once a backup has read the
+     * files of {@link #capture()}.
+     */
+    synchronized void endCapture() {
+        captures--;
+    }
+
+    /**
+     * Reads every manifest to find the occupied slots. Called with the store locked.
+     */
+    private BitSet usedSlots() throws IOException {
+        BitSet used = new BitSet();
+        for (Path path : manifestPaths()) {
+            Manifest manifest = readManifest(path);
+            if (manifest != null) {
+                for (int slot : manifest.slots()) {
+                    used.set(slot);
+                }
+            }
+        }
+        return used;
+    }
+
+    private List<Path> manifestPaths() throws IOException {
+        if (!Files.isDirectory(manifests)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(manifests)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).toList();
+        }
+    }
+
+    /**
+     * @return the manifest, or null if it does not exist
+     */
+    private static Manifest readManifest(Path path) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+            throw new IOException("Attachment manifest " + path + " is corrupt");
+        }
+        String name = in.readUTF();
+        long size = in.readLong();
+        int[] slots = new int[in.readInt()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = in.readInt();
+        }
+        return new Manifest(idOf(path), name, size, slots);
+    }
+
+    /**
+     * Writes a manifest to a synced temporary file and moves it into place.
+     */
+    private void writeManifest(Manifest manifest) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(manifest.name());
+        out.writeLong(manifest.size());
+        out.writeInt(manifest.slots().length);
+        for (int slot : manifest.slots()) {
+            out.writeInt(slot);
+        }
+        out.flush();
+        Path temp = Files.createTempFile(manifests, "manifest", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, manifestPath(manifest.id()), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private long newId() {
+        while (true) {
+            long id = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+            if (id != 0 && !Files.exists(manifestPath(id))) {
+                return id;
+            }
+        }
+    }
+
+    private Path manifestPath(long id) {
+        return manifests.resolve(HEX.toHexDigits(id) + SUFFIX);
+    }
+
+    private static long idOf(Path manifest) {
+        String name = manifest.getFileName().toString();
+        return HexFormat.fromHexDigitsToLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Reads the chunks of one attachment from their slots in the chunk file.
+     */
+    private static final class ChunkChannel implements SeekableByteChannel {
+        private final FileChannel chunks;
+        private final Manifest manifest;
+        private long position;
+        private boolean open = true;
+
+        private ChunkChannel(FileChannel chunks, Manifest manifest) {
+            this.chunks = chunks;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (position >= manifest.size()) {
+                return -1;
+            }
+            int chunk = (int) (position / CHUNK_SIZE);
+            int offset = (int) (position % CHUNK_SIZE);
+            int length = (int) Math.min(dst.remaining(), Math.min(CHUNK_SIZE - offset, manifest.size() - position));
+            int limit = dst.limit();
+            dst.limit(dst.position() + length);
+            int read;
+            try {
+                read = chunks.read(dst, (long) manifest.slots()[chunk] * CHUNK_SIZE + offset);
+            } finally {
+                dst.limit(limit);
+            }
+            if (read < 0) {
+                throw new IOException("Attachment '" + manifest.name() + "' is truncated");
+            }
+            position += read;
+            BYTES_READ.add(read);
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            if (newPosition < 0) {
+                throw new IllegalArgumentException("Negative position " + newPosition);
+            }
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return manifest.size();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            open = false;
+            if (chunks != null) {
+                chunks.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+import diagnostics.Metrics;
+
+/**
+ * Deduplicating backups of a {@link NoteStore}, kept in a local directory.
+ *
+ * <p>Each backup splits the snapshot, journal, tag checkpoint and attachment files of the
+ * store into content-defined chunks and stores only the chunks the repository does not hold yet,
+ * named by their SHA-256 digest. Chunk boundaries are placed where a gear rolling hash over
+ * the last 64 bytes has its top 13 bits clear, so they move with the content
+ * rather than with file offsets: appending journal records or rewriting a snapshot with a
+ * few notes changed leaves all chunks away from the changes as they were. A backup after a
+ * few edits therefore writes its changed chunks and a list of chunk digests, not a copy of
+ * the store. The exception is a compaction that rewrites the snapshot after a change near
+ * its start: the serialization stream numbers shared objects in order, so the numbers
+ * after the change shift and most later chunks are new once.</p>
+ *
+ * <p>The store is captured consistently without holding its lock while the files are read;
+ * its attachments are not freed until the backup has read them, and a restored backup
+ * brings back the attachments its notes refer to. Reads are throttled to the configured rate so that a backup in the background does not
+ * starve the application of I/O. Restoring writes the files of a backup, verified against
+ * their digests, into a directory from which a store can be opened.</p>
+ *
+ * <p>Repository layout: {@code chunks/ab/abcd...} holds chunk contents and
+ * {@code backups/<id>.backup} the file list of each backup.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class BackupRepository {
+    /** Rate used when none is given, in bytes per second */
+    public static final long DEFAULT_RATE = 16L * 1024 * 1024;
+
+    /** Smallest chunk, except at the end of a file */
+    public static final int MIN_CHUNK = 2 * 1024;
+
+    /** Largest chunk */
+    public static final int MAX_CHUNK = 64 * 1024;
+
+    /** Number of hash bits that must be clear at a boundary, giving chunks of about 8 KB */
+    private static final int MASK_BITS = 13;
+
+    private static final int MAGIC = 0x4E424B50;
+    private static final int FORMAT = 1;
+    private static final int DIGEST_SIZE = 32;
+    private static final String SUFFIX = ".backup";
+    private static final DateTimeFormatter ID_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.systemDefault());
+    private static final HexFormat HEX = HexFormat.of();
+
+    /** Random values the rolling hash adds per byte; fixed forever so boundaries stay stable */
+    private static final long[] GEAR = new long[256];
+
+    private static final Metrics.Histogram BACKUP_TIME = Metrics.histogram("backup.nanos");
+    private static final Metrics.Counter BYTES_SCANNED = Metrics.counter("backup.bytes.scanned");
+    private static final Metrics.Counter BYTES_STORED = Metrics.counter("backup.bytes.stored");
+
+    static {
+        long seed = 0x4E6F74654261636BL;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final Path directory;
+    private final Path chunks;
+    private final Path backups;
+    private final long bytesPerSecond;
+
+    /**
+     * A backup held by the repository.
+     *
+     * @param id identifier, ordered by creation time
+     * @param created when the backup was taken
+     * @param bytes total size of the backed up files
+     * @param files names of the backed up files
+     */
+    public record Backup(String id, Instant created, long bytes, List<String> files) {
+    }
+
+    /**
+     * Outcome of a backup.
+     *
+     * @param id identifier of the new backup
+     * @param scannedBytes bytes read from the store
+     * @param storedBytes bytes of new chunks written to the repository
+     * @param chunks number of chunks the store was split into
+     * @param storedChunks number of those chunks that were new
+     */
+    public record Summary(String id, long scannedBytes, long storedBytes, int chunks, int storedChunks) {
+    }
+
+    /**
+     * A file of a backup and its chunks in order.
+     */
+    private record FileEntry(String name, long length, int[] lengths, byte[][] digests) {
+    }
+
+    /**
+     * Spaces out reads and writes so that on average they do not exceed a rate.
+     */
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private final long start = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int count) throws InterruptedIOException {
+            bytes += count;
+            if (bytesPerSecond <= 0) {
+                return;
+            }
+            long due = start + (long) (bytes * 1e9 / bytesPerSecond);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Backup interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a repository throttled to {@link #DEFAULT_RATE}.
+     *
+     * @param directory the repository directory, created on the first backup
+     */
+    public BackupRepository(Path directory) {
+        this(directory, DEFAULT_RATE);
+    }
+
+    /**
+     * Opens a repository.
+     *
+     * @param directory the repository directory, created on the first backup
+     * @param bytesPerSecond maximum rate at which backups read and restores write, 0 for no limit
+     */
+    public BackupRepository(Path directory, long bytesPerSecond) {
+        this.directory = directory;
+        this.chunks = directory.resolve("chunks");
+        this.backups = directory.resolve("backups");
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** @return the repository directory */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Backs up the current state of the store, storing only chunks the repository does not
+     * have yet. Runs at the throttled rate, so it belongs on a background thread; the store
+     * can be used and saved meanwhile.
+     *
+     * @param store the store to back up
+     * @return what was backed up
+     * @throws IOException if the store cannot be read or the repository written, or the
+     *                     thread was interrupted
+     */
+    public synchronized Summary backup(NoteStore store) throws IOException {
+        long start = Metrics.start();
+        Instant created = Instant.now();
+        List<NoteStore.CapturedFile> captured = store.capture();
+        try {
+            Files.createDirectories(chunks);
+            Files.createDirectories(backups);
+            Throttle throttle = new Throttle(bytesPerSecond);
+            MessageDigest digest = sha256();
+            List<FileEntry> entries = new ArrayList<>();
+            long scanned = 0;
+            long stored = 0;
+            int chunkCount = 0;
+            int storedCount = 0;
+            byte[] buffer = new byte[MAX_CHUNK];
+            for (NoteStore.CapturedFile file : captured) {
+                List<Integer> lengths = new ArrayList<>();
+                List<byte[]> digests = new ArrayList<>();
+                // manifests are opened only now, one at a time
+                FileChannel channel = file.channel() != null ? file.channel()
+                        : FileChannel.open(file.path(), StandardOpenOption.READ);
+                try {
+                    long position = 0;
+                    int filled = 0;
+                    while (true) {
+                        while (filled < buffer.length && position < file.length()) {
+                            int toRead = (int) Math.min(buffer.length - filled, file.length() - position);
+                            int read = channel.read(ByteBuffer.wrap(buffer, filled, toRead), position);
+                            if (read < 0) {
+                                throw new IOException(file.name() + " shrank while it was backed up");
+                            }
+                            throttle.acquire(read);
+                            filled += read;
+                            position += read;
+                        }
+                        if (filled == 0) {
+                            break;
+                        }
+                        int length = boundary(buffer, filled);
+                        digest.update(buffer, 0, length);
+                        byte[] hash = digest.digest();
+                        if (storeChunk(hash, buffer, length)) {
+                            stored += length;
+                            storedCount++;
+                        }
+                        lengths.add(length);
+                        digests.add(hash);
+                        chunkCount++;
+                        System.arraycopy(buffer, length, buffer, 0, filled - length);
+                        filled -= length;
+                    }
+                } finally {
+                    if (channel != file.channel()) {
+                        channel.close();
+                    }
+                }
+                scanned += file.length();
+                entries.add(new FileEntry(file.name(), file.length(),
+                        lengths.stream().mapToInt(Integer::intValue).toArray(), digests.toArray(new byte[0][])));
+            }
+            String id = writeBackup(created, entries);
+            BYTES_SCANNED.add(scanned);
+            BYTES_STORED.add(stored);
+            return new Summary(id, scanned, stored, chunkCount, storedCount);
+        } finally {
+            store.endCapture(captured);
+            BACKUP_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Lists the backups in the repository.
+     *
+     * @return the backups, oldest first
+     * @throws IOException if the repository cannot be read
+     */
+    public List<Backup> list() throws IOException {
+        if (!Files.isDirectory(backups)) {
+            return List.of();
+        }
+        List<String> ids;
+        try (Stream<Path> files = Files.list(backups)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> name.substring(0, name.length() - SUFFIX.length()))
+                    .sorted()
+                    .toList();
+        }
+        List<Backup> result = new ArrayList<>();
+        for (String id : ids) {
+            try (DataInputStream in = openBackup(id)) {
+                Instant created = Instant.ofEpochMilli(in.readLong());
+                List<FileEntry> entries = readEntries(in, false);
+                result.add(new Backup(id, created, entries.stream().mapToLong(FileEntry::length).sum(),
+                        entries.stream().map(FileEntry::name).toList()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the files of a backup into a directory, replacing files of the same name. The
+     * directory must not hold a store that is open.
+     *
+     * @param id the backup to restore
+     * @param target the directory to write the files to, created if missing
+     * @throws IOException if the backup is missing or corrupt, or the files cannot be written
+     */
+    public void restore(String id, Path target) throws IOException {
+        List<FileEntry> entries;
+        try (DataInputStream in = openBackup(id)) {
+            in.readLong();
+            entries = readEntries(in, true);
+        }
+        Files.createDirectories(target);
+        Throttle throttle = new Throttle(bytesPerSecond);
+        MessageDigest digest = sha256();
+        for (FileEntry entry : entries) {
+            Path file = target.resolve(entry.name());
+            Path temp = target.resolve(entry.name() + ".restore");
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                for (int i = 0; i < entry.digests().length; i++) {
+                    byte[] chunk = readChunk(entry.digests()[i]);
+                    if (chunk.length != entry.lengths()[i] || !Arrays.equals(digest.digest(chunk), entry.digests()[i])) {
+                        throw new IOException("Backup chunk " + HEX.formatHex(entry.digests()[i]) + " is corrupt");
+                    }
+                    throttle.acquire(chunk.length);
+                    out.write(chunk);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Finds the end of the chunk starting the buffer: the first position past
+     * {@link #MIN_CHUNK} where the rolling hash of the preceding bytes has its top bits
+     * clear, or {@link #MAX_CHUNK}, or the end of the data.
+     *
+     * @param buffer the data, starting at the chunk
+     * @param length number of bytes of data, short of {@link #MAX_CHUNK} only at the end of the file
+     * @return length of the chunk
+     */
+    static int boundary(byte[] buffer, int length) {
+        if (length <= MIN_CHUNK) {
+            return length;
+        }
+        int end = Math.min(length, MAX_CHUNK);
+        long hash = 0;
+        for (int i = MIN_CHUNK - 64; i < end; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if (i >= MIN_CHUNK && hash >>> (Long.SIZE - MASK_BITS) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Writes a chunk unless the repository already has it.
+     *
+     * @return true if the chunk was new
+     */
+    private boolean storeChunk(byte[] hash, byte[] buffer, int length) throws IOException {
+        Path path = chunkPath(hash);
+        if (Files.exists(path)) {
+            return false;
+        }
+        Files.createDirectories(path.getParent());
+        Path temp = Files.createTempFile(path.getParent(), "chunk", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(buffer, 0, length);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // written by a concurrent backup
+            Files.deleteIfExists(temp);
+            return false;
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return true;
+    }
+
+    private byte[] readChunk(byte[] hash) throws IOException {
+        try {
+            return Files.readAllBytes(chunkPath(hash));
+        } catch (NoSuchFileException e) {
+            throw new IOException("Backup chunk " + HEX.formatHex(hash) + " is missing", e);
+        }
+    }
+
+    private Path chunkPath(byte[] hash) {
+        String name = HEX.formatHex(hash);
+        return chunks.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Writes the file list of a new backup under an identifier taken from its creation time.
+     *
+     * @return the identifier
+     */
+    private String writeBackup(Instant created, List<FileEntry> entries) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(created.toEpochMilli());
+        out.writeInt(entries.size());
+        for (FileEntry entry : entries) {
+            out.writeUTF(entry.name());
+            out.writeLong(entry.length());
+            out.writeInt(entry.digests().length);
+            for (int i = 0; i < entry.digests().length; i++) {
+                out.writeInt(entry.lengths()[i]);
+                out.write(entry.digests()[i]);
+            }
+        }
+        out.flush();
+
+        Path temp = Files.createTempFile(backups, "backup", ".tmp");
+        try {
+            Files.write(temp, buffer.toByteArray());
+            String base = ID_FORMAT.format(created);
+            for (int attempt = 1; ; attempt++) {
+                String id = attempt == 1 ? base : base + "-" + attempt;
+                try {
+                    // a plain move refuses to replace an existing backup
+                    Files.move(temp, backups.resolve(id + SUFFIX));
+                    return id;
+                } catch (FileAlreadyExistsException e) {
+                    // taken in the same millisecond
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /** @return the backup positioned after its header */
+    private DataInputStream openBackup(String id) throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(backups.resolve(id + SUFFIX))));
+        } catch (NoSuchFileException e) {
+            throw new IOException("No backup " + id + " in " + directory, e);
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Not a note backup: " + id);
+            }
+            return in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the file list of a backup.
+     *
+     * @param chunks false to skip the chunk lists, leaving them empty
+     */
+    private static List<FileEntry> readEntries(DataInputStream in, boolean chunks) throws IOException {
+        try {
+            int count = in.readInt();
+            List<FileEntry> entries = new ArrayList<>(Math.max(0, Math.min(count, 16)));
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Path path = Path.of(name);
+                // attachment files sit in a directory next to the store files
+                if (name.isEmpty() || path.isAbsolute() || !path.normalize().equals(path) || path.startsWith("..")) {
+                    throw new IOException("Invalid file name in backup: " + name);
+                }
+                long length = in.readLong();
+                int chunkCount = in.readInt();
+                if (chunkCount < 0) {
+                    throw new IOException("Invalid chunk count in backup: " + chunkCount);
+                }
+                if (!chunks) {
+                    in.skipNBytes((long) chunkCount * (Integer.BYTES + DIGEST_SIZE));
+                    entries.add(new FileEntry(name, length, new int[0], new byte[0][]));
+                    continue;
+                }
+                int[] lengths = new int[chunkCount];
+                byte[][] digests = new byte[chunkCount][DIGEST_SIZE];
+                for (int c = 0; c < chunkCount; c++) {
+                    lengths[c] = in.readInt();
+                    in.readFully(digests[c]);
+                }
+                entries.add(new FileEntry(name, length, lengths, digests));
+            }
+            return entries;
+        } catch (EOFException e) {
+            throw new IOException("Backup is truncated", e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
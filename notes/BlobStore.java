@@ -0,0 +1,122 @@
+package notes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-addressed, reference-counted store for the large string fields of notes
+ * ({@code text}, {@code description}, {@code codingSnippet}, {@code testCase}).
+ *
+ * <p>Every note and every saved version holds a reference to a single canonical
+ * instance per distinct content. Identical bodies shared between notes, or copied
+ * unchanged into versions by {@link Note#saveVersion(Note)}, therefore exist once in
+ * memory, and because object serialization writes repeated references as back-references
+ * they are also written once per saved file. A blob is dropped as soon as its last
+ * reference is released.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public final class BlobStore {
+
+    /** Store shared by all notes of the running application */
+    private static final BlobStore SHARED = new BlobStore();
+
+    /** Canonical content mapped to its blob entry */
+    private final Map<String, Blob> blobs = new HashMap<>();
+
+    /** Total number of characters held by live blobs */
+    private long totalChars;
+
+    /**
+     * A single stored piece of content together with its reference count.
+     */
+    private static final class Blob {
+        private final String content;
+        private int refCount;
+
+        private Blob(String content) {
+            this.content = content;
+        }
+    }
+
+    /**
+     * Returns the store shared by all notes.
+     *
+     * @return the shared blob store
+     */
+    public static BlobStore shared() {
+        return SHARED;
+    }
+
+    /**
+     * Adds a reference to the given content and returns its canonical instance.
+     *
+     * @param content the content to store, may be null
+     * @return the canonical instance equal to {@code content}, or null if content is null
+     */
+    public synchronized String retain(String content) {
+        if (content == null) {
+            return null;
+        }
+        Blob blob = blobs.get(content);
+        if (blob == null) {
+            blob = new Blob(content);
+            blobs.put(content, blob);
+            totalChars += content.length();
+        }
+        blob.refCount++;
+        return blob.content;
+    }
+
+    /**
+     * Drops a reference to the given content, removing the blob when no references remain.
+     *
+     * @param content the content previously returned by {@link #retain(String)}, may be null
+     */
+    public synchronized void release(String content) {
+        if (content == null) {
+            return;
+        }
+        Blob blob = blobs.get(content);
+        if (blob != null && --blob.refCount <= 0) {
+            blobs.remove(content);
+            totalChars -= content.length();
+        }
+    }
+
+    /**
+     * Replaces one referenced content with another.
+     *
+     * @param oldContent the content being replaced, may be null
+     * @param newContent the new content, may be null
+     * @return the canonical instance of {@code newContent}
+     */
+    public synchronized String replace(String oldContent, String newContent) {
+        String canonical = retain(newContent);
+        release(oldContent);
+        return canonical;
+    }
+
+    /**
+     * Returns the number of references held on the given content.
+     *
+     * @param content the content to look up
+     * @return the reference count, or 0 if the content is not stored
+     */
+    public synchronized int refCount(String content) {
+        Blob blob = content != null ? blobs.get(content) : null;
+        return blob != null ? blob.refCount : 0;
+    }
+
+    /** @return number of distinct blobs currently stored */
+    public synchronized int size() {
+        return blobs.size();
+    }
+
+    /** @return total number of characters held by stored blobs */
+    public synchronized long getTotalChars() {
+        return totalChars;
+    }
+}
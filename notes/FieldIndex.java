@@ -0,0 +1,260 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import notes.TestingNote.TestStatus;
+
+/**
+ * Secondary indexes over note fields used by {@link NoteQuery} to avoid scanning the
+ * whole notebook: note type, author, programming language, test status, test case and
+ * deadline day. The sizes of the groups, together with test status counts per deadline
+ * day and the notes grouped by number of saved versions, also give the aggregates of
+ * {@link NoteStatistics} without visiting the notes.
+ *
+ * <p>The keys a note was indexed under are remembered, so a note can be removed after its
+ * fields have changed. The index is not thread-safe; {@link Notebook} guards it.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class FieldIndex {
+    private final Map<String, Set<Note>> byType = new HashMap<>();
+    private final Map<String, Set<Note>> byAuthor = new HashMap<>();
+    private final Map<String, Set<Note>> byLanguage = new HashMap<>();
+    private final Map<TestStatus, Set<Note>> byStatus = new EnumMap<>(TestStatus.class);
+    private final Map<String, Set<Note>> byTestCase = new HashMap<>();
+    private final NavigableMap<Long, Set<Note>> byDeadlineDay = new TreeMap<>();
+    /** Notes with at least one saved version, by number of versions and identifier */
+    private final NavigableMap<Integer, NavigableMap<Long, Note>> byVersions = new TreeMap<>();
+    /** Number of testing notes with each status, indexed by ordinal, per deadline day */
+    private final Map<Long, int[]> statusByDeadlineDay = new HashMap<>();
+    private final Map<Note, Keys> indexedKeys = new IdentityHashMap<>();
+
+    /**
+     * Keys a note is currently indexed under.
+     */
+    private record Keys(long id, String type, String author, String language, TestStatus status, String testCase,
+            Long deadlineDay, Integer versions) {
+    }
+
+    /**
+     * Adds a note under its current field values.
+     *
+     * @param note the note to index
+     */
+    public void add(Note note) {
+        String language = note instanceof ProgrammingNote programmingNote ? key(programmingNote.getLanguage()) : null;
+        TestStatus status = note instanceof TestingNote testingNote ? testingNote.getTestStatus() : null;
+        String testCase = note instanceof TestingNote testingNote ? testingNote.getTestcase() : null;
+        Long deadlineDay = note.getDeadline() != null ? startOfDay(note.getDeadline().getTimeInMillis()) : null;
+        int versions = note.getVersionSize() + 1;
+        Keys keys = new Keys(note.getId(), key(note.getClass().getSimpleName()), key(note.getAuthor()), language, status,
+                testCase, deadlineDay, versions > 0 ? versions : null);
+        indexedKeys.put(note, keys);
+        put(byType, keys.type(), note);
+        put(byAuthor, keys.author(), note);
+        put(byLanguage, keys.language(), note);
+        put(byStatus, keys.status(), note);
+        put(byTestCase, keys.testCase(), note);
+        put(byDeadlineDay, keys.deadlineDay(), note);
+        if (keys.versions() != null) {
+            byVersions.computeIfAbsent(keys.versions(), count -> new TreeMap<>()).put(keys.id(), note);
+        }
+        countStatus(keys, 1);
+    }
+
+    /**
+     * Removes a note using the keys it was added with.
+     *
+     * @param note the note to remove
+     */
+    public void remove(Note note) {
+        Keys keys = indexedKeys.remove(note);
+        if (keys == null) {
+            return;
+        }
+        delete(byType, keys.type(), note);
+        delete(byAuthor, keys.author(), note);
+        delete(byLanguage, keys.language(), note);
+        delete(byStatus, keys.status(), note);
+        delete(byTestCase, keys.testCase(), note);
+        delete(byDeadlineDay, keys.deadlineDay(), note);
+        NavigableMap<Long, Note> versioned = keys.versions() == null ? null : byVersions.get(keys.versions());
+        if (versioned != null && versioned.remove(keys.id(), note) && versioned.isEmpty()) {
+            byVersions.remove(keys.versions());
+        }
+        countStatus(keys, -1);
+    }
+
+    /** @return notes of the given class simple name, ignoring case */
+    Set<Note> type(String type) {
+        return lookup(byType, key(type));
+    }
+
+    /** @return notes by the given author, ignoring case */
+    Set<Note> author(String author) {
+        return lookup(byAuthor, key(author));
+    }
+
+    /** @return programming notes in the given language, ignoring case */
+    Set<Note> language(String language) {
+        return lookup(byLanguage, key(language));
+    }
+
+    /** @return testing notes with the given status */
+    Set<Note> status(TestStatus status) {
+        return lookup(byStatus, status);
+    }
+
+    /** @return testing notes whose test case is exactly the given value */
+    Set<Note> testCase(String testCase) {
+        return lookup(byTestCase, testCase);
+    }
+
+    /**
+     * Returns the groups of notes whose deadline day lies in [fromDay, toDay).
+     *
+     * @param fromDay inclusive start of the range as start-of-day millis, or null for unbounded
+     * @param toDay exclusive end of the range as start-of-day millis, or null for unbounded
+     * @return one set per deadline day in the range
+     */
+    List<Set<Note>> deadlineDays(Long fromDay, Long toDay) {
+        NavigableMap<Long, Set<Note>> range = byDeadlineDay;
+        if (fromDay != null) {
+            range = range.tailMap(fromDay, true);
+        }
+        if (toDay != null) {
+            range = range.headMap(toDay, false);
+        }
+        return new ArrayList<>(range.values());
+    }
+
+    /** @return number of notes of each type, by lower-case class simple name */
+    Map<String, Integer> typeCounts() {
+        return sizes(byType);
+    }
+
+    /** @return number of notes of each author, by normalized author */
+    Map<String, Integer> authorCounts() {
+        return sizes(byAuthor);
+    }
+
+    /** @return number of programming notes in each language, by normalized language */
+    Map<String, Integer> languageCounts() {
+        return sizes(byLanguage);
+    }
+
+    /** @return number of testing notes with each status */
+    Map<TestStatus, Integer> statusCounts() {
+        return sizes(byStatus);
+    }
+
+    /** @return number of notes due on each deadline day, as start-of-day millis, in day order */
+    NavigableMap<Long, Integer> deadlineDayCounts() {
+        NavigableMap<Long, Integer> counts = new TreeMap<>();
+        byDeadlineDay.forEach((day, notes) -> counts.put(day, notes.size()));
+        return counts;
+    }
+
+    /**
+     * Returns the number of testing notes with each status per deadline day.
+     *
+     * @return counts indexed by {@link TestStatus#ordinal()}, by start-of-day millis
+     */
+    Map<Long, int[]> deadlineDayStatusCounts() {
+        Map<Long, int[]> counts = new HashMap<>();
+        statusByDeadlineDay.forEach((day, statuses) -> counts.put(day, statuses.clone()));
+        return counts;
+    }
+
+    /**
+     * Returns the notes that have saved versions, most versions first and then by the
+     * identifier they were indexed with. The maps are live views, only valid while the
+     * caller keeps the notebook locked.
+     *
+     * @return notes by number of versions, in descending order
+     */
+    NavigableMap<Integer, NavigableMap<Long, Note>> versionGroups() {
+        return Collections.unmodifiableNavigableMap(byVersions.descendingMap());
+    }
+
+    /**
+     * Truncates a point in time to the start of its day in the default time zone.
+     *
+     * @param millis the time in milliseconds
+     * @return the start of that day in milliseconds
+     */
+    static long startOfDay(long millis) {
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(millis);
+        day.set(Calendar.HOUR_OF_DAY, 0);
+        day.set(Calendar.MINUTE, 0);
+        day.set(Calendar.SECOND, 0);
+        day.set(Calendar.MILLISECOND, 0);
+        return day.getTimeInMillis();
+    }
+
+    /**
+     * Normalizes a field value the way it is indexed.
+     *
+     * @param value the value, may be null
+     * @return the trimmed, lower-case value, or null
+     */
+    static String key(String value) {
+        return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private void countStatus(Keys keys, int delta) {
+        if (keys.status() == null || keys.deadlineDay() == null) {
+            return;
+        }
+        int[] counts = statusByDeadlineDay.computeIfAbsent(keys.deadlineDay(), day -> new int[TestStatus.values().length]);
+        counts[keys.status().ordinal()] += delta;
+        if (Arrays.stream(counts).allMatch(count -> count == 0)) {
+            statusByDeadlineDay.remove(keys.deadlineDay());
+        }
+    }
+
+    private static <K> Map<K, Integer> sizes(Map<K, Set<Note>> index) {
+        Map<K, Integer> sizes = new HashMap<>();
+        index.forEach((key, notes) -> sizes.put(key, notes.size()));
+        return sizes;
+    }
+
+    private static <K> Set<Note> lookup(Map<K, Set<Note>> index, K key) {
+        Set<Note> notes = key == null ? null : index.get(key);
+        return notes != null ? Collections.unmodifiableSet(notes) : Collections.emptySet();
+    }
+
+    private static <K> void put(Map<K, Set<Note>> index, K key, Note note) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(note);
+        }
+    }
+
+    private static <K> void delete(Map<K, Set<Note>> index, K key, Note note) {
+        if (key == null) {
+            return;
+        }
+        Set<Note> notes = index.get(key);
+        if (notes != null) {
+            notes.remove(note);
+            if (notes.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
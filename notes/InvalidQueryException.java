@@ -0,0 +1,22 @@
+package notes;
+
+/**
+ * Exception thrown when a note query expression cannot be parsed.
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ * @see NoteQuery
+ */
+public class InvalidQueryException extends NoteException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a new InvalidQueryException with the specified detail message.
+     *
+     * @param message the detail message explaining which part of the query is invalid
+     */
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,194 @@
+package notes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import notes.TestingNote.TestStatus;
+
+/**
+ * Applies JUnit / Surefire XML test reports to the {@link TestingNote}s of a notebook.
+ *
+ * <p>The report is read with a StAX pull parser, so only the testcase being parsed and the
+ * current batch are held in memory no matter how large the report or its captured output
+ * is. Each testcase is identified as {@code classname.name} (or just {@code name}) and
+ * matched to its note through the notebook's hash index on the test case field. Known
+ * notes get {@link TestingNote#updateStatus(TestStatus)} with PASSED or FAILED, saving a
+ * version only when the status actually changes; unknown testcases get a new PENDING note.
+ * Results are applied in batches, each as one {@link NoteTransaction}, and the store is
+ * committed once per report that was read to its end. A report that turns out to be
+ * invalid is not committed; the batches applied before the error stay in the notebook and
+ * are saved with its next change.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class JUnitReportImporter {
+
+    /** Number of testcases applied per notebook lock acquisition */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Author recorded on notes created for unknown testcases */
+    private static final String IMPORT_AUTHOR = "CI";
+
+    private static final int MAX_TITLE_LENGTH = 50;
+
+    private final Notebook notebook;
+    private final NoteStore store;
+
+    /**
+     * Outcome of one testcase in the report.
+     */
+    private enum Outcome {
+        PASSED, FAILED, SKIPPED
+    }
+
+    private record Result(String key, String name, Outcome outcome) {
+    }
+
+    /**
+     * Summary of an imported report.
+     *
+     * @param testcases number of testcases in the report
+     * @param updated notes whose status changed
+     * @param unchanged notes that already had the reported status or were skipped
+     * @param created PENDING notes created for testcases without a note
+     */
+    public record Summary(int testcases, int updated, int unchanged, int created) {
+    }
+
+    /**
+     * Creates an importer for the given notebook.
+     *
+     * @param notebook the notebook holding the testing notes
+     * @param store the store written once per imported report, or null to skip saving
+     */
+    public JUnitReportImporter(Notebook notebook, NoteStore store) {
+        this.notebook = notebook;
+        this.store = store;
+    }
+
+    /**
+     * Streams a report and applies its results.
+     *
+     * @param report the XML report, which is not closed
+     * @param reportName name recorded in the description of created notes
+     * @return counts of what changed
+     * @throws IOException if the report cannot be parsed or the store cannot be written
+     */
+    public Summary importReport(InputStream report, String reportName) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        int[] counts = new int[4];
+        List<Result> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(report);
+            String key = null;
+            String name = null;
+            Outcome outcome = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "testcase" -> {
+                            name = attribute(reader, "name");
+                            String className = attribute(reader, "classname");
+                            key = className.isEmpty() ? name : className + "." + name;
+                            outcome = Outcome.PASSED;
+                        }
+                        case "failure", "error" -> outcome = key != null ? Outcome.FAILED : outcome;
+                        case "skipped" -> outcome = key != null ? Outcome.SKIPPED : outcome;
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("testcase")) {
+                    batch.add(new Result(key, name, outcome));
+                    key = null;
+                    if (batch.size() >= BATCH_SIZE) {
+                        apply(batch, reportName, counts);
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid test report " + reportName + ": " + e.getMessage(), e);
+        }
+        apply(batch, reportName, counts);
+        if (store != null && counts[0] > 0) {
+            store.commit(notebook);
+        }
+        return new Summary(counts[0], counts[1], counts[2], counts[3]);
+    }
+
+    /**
+     * Clears a batch of results and applies them as one transaction. The notes it creates
+     * and the transaction are grouped, so a single undo reverts the batch. The batch is
+     * cleared first so a failed batch is never applied again.
+     */
+    private void apply(List<Result> pending, String reportName, int[] counts) throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Result> batch = new ArrayList<>(pending);
+        pending.clear();
+        synchronized (notebook) {
+            try {
+                notebook.group(() -> {
+                    NoteTransaction transaction = notebook.begin();
+                    for (Result result : batch) {
+                        counts[0]++;
+                        TestingNote note = notebook.findByTestCase(result.key());
+                        if (note == null && !result.key().equals(result.name())) {
+                            note = notebook.findByTestCase(result.name());
+                        }
+                        if (note == null) {
+                            notebook.add(createPendingNote(result, reportName));
+                            counts[3]++;
+                            continue;
+                        }
+                        TestStatus status = switch (result.outcome()) {
+                            case PASSED -> TestStatus.PASSED;
+                            case FAILED -> TestStatus.FAILED;
+                            case SKIPPED -> note.getTestStatus();
+                        };
+                        if (status == note.getTestStatus()) {
+                            counts[2]++;
+                            continue;
+                        }
+                        TestingNote updated = note;
+                        transaction.update(note, () -> updated.updateStatus(status));
+                    }
+                    int changed = transaction.commit().size();
+                    counts[1] += changed;
+                    counts[2] += transaction.size() - changed;
+                });
+            } catch (NoteException e) {
+                throw new IOException("Failed to apply " + reportName + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static TestingNote createPendingNote(Result result, String reportName) throws TitleLengthExceededException {
+        String title = result.name().length() > MAX_TITLE_LENGTH
+                ? result.name().substring(0, MAX_TITLE_LENGTH)
+                : result.name();
+        Calendar now = Calendar.getInstance();
+        return new TestingNote(title, "Imported from " + reportName, "", IMPORT_AUTHOR, now, now,
+                result.key(), TestStatus.PENDING, false);
+    }
+
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,572 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+import notes.SerialStreamReader.EnumConstant;
+import notes.SerialStreamReader.Instance;
+
+/**
+ * Converts a note file written by default serialization of the whole note list into the
+ * journal format of {@link NoteStore}, one note at a time and within a small fixed heap.
+ *
+ * <p>The legacy file is read twice with a {@link SerialStreamReader}, which resolves the
+ * serialized classes by name and checks them against an allow-list filter without
+ * instantiating them. The first pass only records which serialized objects are shared
+ * between notes and when each is last used. The second pass converts the notes in order,
+ * keeping only those shared objects, and appends each one as a journal record. Version
+ * chains are flattened on the way: saved versions no longer carry copies of the versions
+ * before them. Notes get the identifiers 1, 2, 3 and so on.</p>
+ *
+ * <p>Progress is recorded in the journal itself, which is forced to disk every
+ * {@value #SYNC_INTERVAL} notes, and a manifest next to the target identifies the source.
+ * An interrupted migration resumes after the last complete record when started again with
+ * the same source and target. At the end the number of notes is checked against the
+ * source list, and every record is read back and compared through a CRC32C checksum of the
+ * note contents with the source. Only then is the journal moved into place next to an
+ * empty snapshot, so the target never appears half written.</p>
+ *
+ * <p>Run {@code java notes.LegacyNoteMigrator <legacy file> <target file>}.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class LegacyNoteMigrator {
+    /** Classes allowed in note files, with limits against corrupt or hostile input */
+    static final String FILTER = "maxdepth=64;maxarray=100000000;notes.*;java.util.*;java.lang.Enum;"
+            + "java.lang.Object;java.lang.Number;java.lang.Integer;java.lang.Long;sun.util.calendar.ZoneInfo;!*";
+
+    /** Number of notes written between forcing the journal to disk */
+    private static final int SYNC_INTERVAL = 1000;
+
+    private static final int PROGRESS_INTERVAL = 100_000;
+
+    private final Path source;
+    private final Path target;
+    private final Path journal;
+    private final Path pending;
+    private final Path manifest;
+    private final ObjectInputFilter filter = ObjectInputFilter.Config.createFilter(FILTER);
+    private Consumer<String> progress = System.out::println;
+
+    /**
+     * Outcome of a migration.
+     *
+     * @param notes number of notes migrated
+     * @param resumedAt number of notes that an earlier, interrupted run had already written
+     * @param checksum CRC32C of the contents of all notes, equal for source and target
+     * @param sourceBytes size of the legacy file
+     * @param targetBytes size of the written snapshot and journal
+     */
+    public record Report(long notes, long resumedAt, long checksum, long sourceBytes, long targetBytes) {
+    }
+
+    /**
+     * Objects shared between notes, found by the first pass.
+     *
+     * @param listSize size recorded in the legacy list
+     * @param lastUse for every object referenced by a later note, the index of the last
+     *                note referring to it
+     */
+    private record Scan(int listSize, Map<Integer, Integer> lastUse) {
+    }
+
+    /**
+     * A calendar reduced to what notes use of it.
+     */
+    private record CalendarValue(long millis, String zone) {
+    }
+
+    /**
+     * The contents of a note, read either from the legacy stream or from a note, and
+     * compared between the two through {@link #digest(DataOutputStream, boolean)}.
+     */
+    private record NoteFields(String type, String title, String description, String text, String author,
+            CalendarValue date, CalendarValue deadline, String language, String snippet, String testCase,
+            boolean mandatory, String status, int currentVersionIndex, List<NoteFields> versions) {
+
+        static NoteFields of(Object serialized, boolean withVersions) throws IOException {
+            if (!(serialized instanceof Instance note) || !note.isA("notes.Note")) {
+                throw new StreamCorruptedException("Expected a note but found " + describe(serialized));
+            }
+            Map<String, Object> f = note.fields();
+            String type = note.isA("notes.ProgrammingNote") ? "ProgrammingNote"
+                    : note.isA("notes.TestingNote") ? "TestingNote" : "Note";
+            List<NoteFields> versions = new ArrayList<>();
+            int currentVersionIndex = -1;
+            if (withVersions) {
+                if (f.get("versions") instanceof Instance list) {
+                    for (Object version : list.objects()) {
+                        versions.add(of(version, false));
+                    }
+                }
+                currentVersionIndex = f.get("currentVersionIndex") instanceof Integer index
+                        ? Math.max(-1, Math.min(index, versions.size() - 1)) : -1;
+            }
+            String status = f.get("testStatus") instanceof EnumConstant constant ? constant.name() : null;
+            return new NoteFields(type, (String) f.get("title"), (String) f.get("description"),
+                    text(f.get("textRope"), f.get("text")), (String) f.get("author"), calendar(f.get("date")),
+                    calendar(f.get("deadline")), (String) f.get("language"),
+                    text(f.get("snippetRope"), f.get("codingSnippet")), (String) f.get("testCase"),
+                    Boolean.TRUE.equals(f.get("isMandatoryTest")), status, currentVersionIndex, versions);
+        }
+
+        static NoteFields of(Note note, boolean withVersions) {
+            List<NoteFields> versions = new ArrayList<>();
+            if (withVersions) {
+                for (Note version : note.getAllVersions()) {
+                    versions.add(of(version, false));
+                }
+            }
+            ProgrammingNote programming = note instanceof ProgrammingNote p ? p : null;
+            TestingNote testing = note instanceof TestingNote t ? t : null;
+            return new NoteFields(note.getClass().getSimpleName(), note.getTitle(), note.getDescription(),
+                    note.getText(), note.getAuthor(), calendar(note.getDateRaw()), calendar(note.getDeadline()),
+                    programming == null ? null : programming.getLanguage(),
+                    programming == null ? null : programming.getCodingSnippet(),
+                    testing == null ? null : testing.getTestcase(), testing != null && testing.getIsMandatoryTest(),
+                    testing == null || testing.getTestStatus() == null ? null : testing.getTestStatus().name(),
+                    withVersions ? note.getCurrentVersionIndex() : -1, versions);
+        }
+
+        /**
+         * Builds the note in its current form, with flat versions.
+         */
+        Note toNote(long id) throws NoteException {
+            if (title == null) {
+                throw new NoteException("Note without a title");
+            }
+            Note note = switch (type) {
+                case "ProgrammingNote" -> new ProgrammingNote(title, description, text, author, calendar(date),
+                        calendar(deadline), snippet, language);
+                case "TestingNote" -> new TestingNote(title, description, text, author, calendar(date),
+                        calendar(deadline), testCase, status == null ? null : TestingNote.TestStatus.valueOf(status),
+                        mandatory);
+                default -> new Note(title, description, text, author, calendar(date), calendar(deadline));
+            };
+            // the constructors replace empty values with defaults
+            note.setDescription(description);
+            note.setText(text);
+            note.setAuthor(author);
+            note.setId(id);
+            for (NoteFields version : versions) {
+                note.versions.add(version.toNote(id));
+            }
+            note.currentVersionIndex = currentVersionIndex;
+            return note;
+        }
+
+        void digest(DataOutputStream out, boolean withVersions) throws IOException {
+            out.writeUTF(type);
+            for (String value : new String[] { title, description, text, author, language, snippet, testCase,
+                    status }) {
+                if (value == null) {
+                    out.writeInt(-1);
+                } else {
+                    out.writeInt(value.length());
+                    out.writeChars(value);
+                }
+            }
+            for (CalendarValue calendar : new CalendarValue[] { date, deadline }) {
+                out.writeBoolean(calendar != null);
+                if (calendar != null) {
+                    out.writeLong(calendar.millis());
+                    out.writeUTF(calendar.zone());
+                }
+            }
+            out.writeBoolean(mandatory);
+            if (withVersions) {
+                out.writeInt(currentVersionIndex);
+                out.writeInt(versions.size());
+                for (NoteFields version : versions) {
+                    version.digest(out, false);
+                }
+            }
+        }
+
+        private static String text(Object rope, Object text) throws StreamCorruptedException {
+            if (rope instanceof Instance) {
+                StringBuilder flattened = new StringBuilder();
+                appendRope(rope, flattened);
+                return flattened.toString();
+            }
+            return (String) text;
+        }
+
+        private static void appendRope(Object rope, StringBuilder out) throws StreamCorruptedException {
+            if (!(rope instanceof Instance node)) {
+                throw new StreamCorruptedException("Malformed rope: " + describe(rope));
+            }
+            if (node.fields().get("text") instanceof String leaf) {
+                out.append(leaf);
+            } else {
+                appendRope(node.fields().get("left"), out);
+                appendRope(node.fields().get("right"), out);
+            }
+        }
+
+        private static CalendarValue calendar(Object serialized) throws StreamCorruptedException {
+            if (serialized == null) {
+                return null;
+            }
+            if (!(serialized instanceof Instance calendar) || !(calendar.fields().get("time") instanceof Long time)) {
+                throw new StreamCorruptedException("Expected a calendar but found " + describe(serialized));
+            }
+            String zone = null;
+            for (Object annotation : calendar.objects()) {
+                if (annotation instanceof Instance savedZone && savedZone.isA("java.util.TimeZone")) {
+                    zone = (String) savedZone.fields().get("ID");
+                }
+            }
+            if (zone == null && calendar.fields().get("zone") instanceof Instance fieldZone) {
+                zone = (String) fieldZone.fields().get("ID");
+            }
+            return new CalendarValue(time, zone == null ? "UTC" : zone);
+        }
+
+        private static CalendarValue calendar(Calendar calendar) {
+            return calendar == null ? null : new CalendarValue(calendar.getTimeInMillis(), calendar.getTimeZone().getID());
+        }
+
+        private static Calendar calendar(CalendarValue value) {
+            if (value == null) {
+                return null;
+            }
+            Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone(value.zone()));
+            calendar.setTimeInMillis(value.millis());
+            return calendar;
+        }
+
+        private static String describe(Object serialized) {
+            return serialized instanceof Instance instance ? instance.desc().name() : String.valueOf(serialized);
+        }
+    }
+
+    /**
+     * Creates a migrator.
+     *
+     * @param source the legacy note file
+     * @param target the note file to create, in the format of {@link NoteStore}
+     */
+    public LegacyNoteMigrator(Path source, Path target) {
+        this.source = source;
+        this.target = target;
+        this.journal = target.resolveSibling(target.getFileName() + ".journal");
+        this.pending = target.resolveSibling(target.getFileName() + ".journal.migrating");
+        this.manifest = target.resolveSibling(target.getFileName() + ".migration");
+    }
+
+    /**
+     * Sets where progress messages go, standard output by default.
+     *
+     * @param progress receives one line per message
+     */
+    public void setProgress(Consumer<String> progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Migrates the source, resuming an interrupted run if there is one.
+     *
+     * @return the outcome
+     * @throws IOException if a file cannot be read or written, the source is malformed or
+     *                     contains a class outside the filter, or verification fails
+     */
+    public Report migrate() throws IOException {
+        Properties state = readManifest();
+        if (!Boolean.parseBoolean(state.getProperty("verified"))) {
+            Scan scan = scan();
+            long resumedAt = prepareJournal(scan.listSize());
+            long checksum = convert(scan, resumedAt);
+            long verified = verify(scan.listSize());
+            if (verified != checksum) {
+                throw new IOException(String.format("Verification failed: source checksum %08x but target %08x",
+                        checksum, verified));
+            }
+            state.setProperty("notes", String.valueOf(scan.listSize()));
+            state.setProperty("resumedAt", String.valueOf(resumedAt));
+            state.setProperty("checksum", String.valueOf(checksum));
+            state.setProperty("verified", "true");
+            writeManifest(state);
+        }
+        if (Files.exists(pending)) {
+            Files.move(pending, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        writeEmptySnapshot();
+        Files.delete(manifest);
+        Report report = new Report(Long.parseLong(state.getProperty("notes")),
+                Long.parseLong(state.getProperty("resumedAt")), Long.parseLong(state.getProperty("checksum")),
+                Files.size(source), Files.size(target) + Files.size(journal));
+        progress.accept(String.format("Migrated %d notes (%d bytes) to %s (%d bytes), checksum %08x", report.notes(),
+                report.sourceBytes(), target, report.targetBytes(), report.checksum()));
+        return report;
+    }
+
+    /**
+     * Migrates a legacy note file.
+     *
+     * @param args the legacy file and the target file
+     * @throws IOException if the migration fails; running it again resumes it
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java notes.LegacyNoteMigrator <legacy file> <target file>");
+            return;
+        }
+        new LegacyNoteMigrator(Path.of(args[0]), Path.of(args[1])).migrate();
+    }
+
+    /**
+     * Returns the state of an earlier run, or starts a new manifest if there was none.
+     */
+    private Properties readManifest() throws IOException {
+        Properties state = new Properties();
+        String sourceId = source.toAbsolutePath().normalize() + "|" + Files.size(source) + "|"
+                + Files.getLastModifiedTime(source).toMillis();
+        if (Files.exists(manifest)) {
+            try (Reader in = Files.newBufferedReader(manifest)) {
+                state.load(in);
+            }
+            if (!sourceId.equals(state.getProperty("source"))) {
+                throw new IOException("An unfinished migration of another source is in the way: " + manifest
+                        + "; delete it and " + pending + " to start over");
+            }
+            return state;
+        }
+        if (Files.exists(target) || Files.exists(journal) || Files.exists(pending)) {
+            throw new IOException("Target already exists: " + target);
+        }
+        state.setProperty("source", sourceId);
+        writeManifest(state);
+        return state;
+    }
+
+    private void writeManifest(Properties state) throws IOException {
+        Path temp = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp)) {
+            state.store(out, "Legacy note file migration");
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * First pass: finds the objects referenced by a later note than the one they were
+     * written with, and the last note using each.
+     */
+    private Scan scan() throws IOException {
+        Map<Integer, Integer> lastUse = new HashMap<>();
+        int[] element = { -1 };
+        int[] elementStart = { 0 };
+        try (InputStream in = Files.newInputStream(source)) {
+            SerialStreamReader reader = new SerialStreamReader(in, filter, false);
+            reader.setReferenceListener(handle -> {
+                if (handle < elementStart[0]) {
+                    lastUse.put(handle, element[0]);
+                }
+            });
+            int size = reader.readListStart();
+            while (reader.hasNextElement()) {
+                element[0]++;
+                elementStart[0] = reader.nextHandle();
+                reader.readElement();
+                if ((element[0] + 1) % PROGRESS_INTERVAL == 0) {
+                    progress.accept(String.format("Scanned %d of %d notes", element[0] + 1, size));
+                }
+            }
+            if (element[0] + 1 != size) {
+                throw new IOException("The legacy list records " + size + " notes but holds " + (element[0] + 1));
+            }
+            return new Scan(size, lastUse);
+        }
+    }
+
+    /**
+     * Creates the pending journal, or cuts an existing one back to its last complete record.
+     *
+     * @return number of notes already migrated
+     */
+    private long prepareJournal(int notes) throws IOException {
+        if (!Files.exists(pending)) {
+            try (FileChannel channel = FileChannel.open(pending, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                channel.write(NoteStore.journalHeader(0));
+                channel.force(true);
+            }
+            return 0;
+        }
+        long records = 0;
+        long offset = NoteStore.JOURNAL_HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pending)))) {
+            byte[] header = new byte[NoteStore.JOURNAL_HEADER_SIZE];
+            in.readFully(header);
+            if (!ByteBuffer.wrap(header).equals(NoteStore.journalHeader(0))) {
+                throw new IOException("Not a migration journal: " + pending);
+            }
+            while (records < notes) {
+                long seq = in.readLong();
+                in.readLong();
+                int length = in.readInt();
+                if (seq != records + 1 || length < 0) {
+                    throw new IOException("Unexpected record " + seq + " in " + pending);
+                }
+                in.skipNBytes(length);
+                records++;
+                offset += NoteStore.RECORD_HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            // the last record is incomplete
+        }
+        try (FileChannel channel = FileChannel.open(pending, StandardOpenOption.WRITE)) {
+            channel.truncate(offset);
+        }
+        progress.accept("Resuming after " + records + " notes");
+        return records;
+    }
+
+    /**
+     * Second pass: converts every note, appending those after the resume point.
+     *
+     * @return checksum of the source notes
+     */
+    private long convert(Scan scan, long resumedAt) throws IOException {
+        Map<Integer, List<Integer>> expiring = new HashMap<>();
+        scan.lastUse().forEach((handle, last) -> expiring.computeIfAbsent(last, k -> new ArrayList<>()).add(handle));
+        CRC32C checksum = new CRC32C();
+        DataOutputStream digest = digestStream(checksum);
+        try (InputStream in = Files.newInputStream(source);
+                FileChannel channel = FileChannel.open(pending, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                    1 << 16));
+            SerialStreamReader reader = new SerialStreamReader(in, filter, true);
+            reader.readListStart();
+            for (int i = 0; i < scan.listSize(); i++) {
+                if (!reader.hasNextElement()) {
+                    throw new IOException("The legacy file ended after " + i + " notes");
+                }
+                int firstHandle = reader.nextHandle();
+                NoteFields fields;
+                try {
+                    fields = NoteFields.of(reader.readElement(), true);
+                    fields.digest(digest, true);
+                    if (i >= resumedAt) {
+                        Note note = fields.toNote(i + 1);
+                        NoteStore.writeRecord(out, i + 1, i + 1, NoteStore.serialize(note));
+                        note.releaseBlobs();
+                    }
+                } catch (NoteException | RuntimeException e) {
+                    throw new IOException("Note " + (i + 1) + " cannot be converted: " + e.getMessage(), e);
+                }
+                reader.release(firstHandle, scan.lastUse()::containsKey);
+                for (int handle : expiring.getOrDefault(i, List.of())) {
+                    reader.release(handle);
+                }
+                if ((i + 1) % SYNC_INTERVAL == 0) {
+                    out.flush();
+                    channel.force(false);
+                }
+                if ((i + 1) % PROGRESS_INTERVAL == 0) {
+                    progress.accept(String.format("Converted %d of %d notes", i + 1, scan.listSize()));
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+        digest.flush();
+        return checksum.getValue();
+    }
+
+    /**
+     * Reads every record back and checks numbering, count and contents.
+     *
+     * @return checksum of the migrated notes
+     */
+    private long verify(int notes) throws IOException {
+        CRC32C checksum = new CRC32C();
+        DataOutputStream digest = digestStream(checksum);
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(pending)))) {
+            in.skipNBytes(NoteStore.JOURNAL_HEADER_SIZE);
+            while (true) {
+                long seq;
+                try {
+                    seq = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                long id = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                records++;
+                if (seq != records || id != records) {
+                    throw new IOException("Verification failed: record " + records + " is numbered " + seq);
+                }
+                try (ObjectInputStream record = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    record.setObjectInputFilter(filter);
+                    Note note = (Note) record.readObject();
+                    NoteFields.of(note, true).digest(digest, true);
+                    note.releaseBlobs();
+                } catch (ClassNotFoundException | ClassCastException e) {
+                    throw new IOException("Verification failed: record " + records + " is not a note", e);
+                }
+            }
+        }
+        if (records != notes) {
+            throw new IOException("Verification failed: " + notes + " notes in the source but " + records
+                    + " migrated");
+        }
+        digest.flush();
+        progress.accept("Verified " + records + " notes");
+        return checksum.getValue();
+    }
+
+    private void writeEmptySnapshot() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(new ArrayList<Note>());
+            out.writeLong(0);
+        }
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            buffer.writeTo(out);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static DataOutputStream digestStream(CRC32C checksum) {
+        return new DataOutputStream(new BufferedOutputStream(
+                new CheckedOutputStream(OutputStream.nullOutputStream(), checksum), 1 << 16));
+    }
+}
@@ -0,0 +1,400 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Near-duplicate detection over note bodies using MinHash signatures and
+ * locality-sensitive hashing.
+ *
+ * <p>Each note's text (and, for {@link ProgrammingNote}s, its coding snippet) is split into
+ * word tokens and overlapping three-token shingles. A signature of {@link #NUM_HASHES}
+ * minimum hash values estimates the Jaccard similarity between two notes as the share of
+ * equal positions. Signatures are cut into {@link #BANDS} bands; notes sharing any band
+ * land in the same bucket, so only bucket neighbours are ever compared and lookups stay
+ * sub-quadratic. Notes above roughly 50% similarity share a bucket with high probability.</p>
+ *
+ * <p>The index is maintained incrementally: signatures are kept per note so a note can be
+ * removed after its fields have already changed. Signatures are computed on a background
+ * thread, so {@link #add(Note)} returns at once and a note shows up in lookups shortly
+ * after it was added; when a note is added again before its signature is ready, only the
+ * latest content is hashed. Only the first {@link #MAX_CHARS} characters of each field are
+ * read, keeping the cost of a signature independent of the note size. The index is
+ * thread-safe.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class MinHashIndex {
+
+    /** Number of hash functions in a signature */
+    public static final int NUM_HASHES = 64;
+
+    /** Number of LSH bands the signature is split into */
+    public static final int BANDS = 16;
+
+    /** Number of characters of the text and of the snippet read for a signature */
+    public static final int MAX_CHARS = 64 * 1024;
+
+    private static final int ROWS = NUM_HASHES / BANDS;
+    private static final int SHINGLE_SIZE = 3;
+    private static final long[] SEEDS = new long[NUM_HASHES];
+
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private static final ExecutorService SIGNER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "minhash-signer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<Note, int[]> signatures = new IdentityHashMap<>();
+    private final Map<Long, Set<Note>> buckets = new HashMap<>();
+    /** Notes waiting for a signature by identifier, holding the content they had when added */
+    private final Map<Long, Pending> pending = new LinkedHashMap<>();
+    private boolean signing;
+
+    /**
+     * Content of a note captured when it was added. Texts and ropes never change, so the
+     * signer can read them without holding the notebook.
+     */
+    private record Pending(Note note, CharSequence text, CharSequence snippet) {
+    }
+
+    /**
+     * A note found to be similar to another one.
+     *
+     * @param note the similar note
+     * @param similarity estimated Jaccard similarity between 0 and 1
+     */
+    public record Match(Note note, double similarity) {
+    }
+
+    /**
+     * A group of notes that are near-duplicates of each other.
+     *
+     * @param notes the notes in the cluster, the first one being the representative
+     * @param similarity average estimated similarity of the members to the representative
+     */
+    public record Cluster(List<Note> notes, double similarity) {
+    }
+
+    /**
+     * Queues a note for the index. Its signature is computed in the background from the
+     * content it has now; notes without any words are then ignored.
+     *
+     * @param note the note to add
+     */
+    public synchronized void add(Note note) {
+        CharSequence snippet = note instanceof ProgrammingNote programmingNote
+                ? programmingNote.getCodingSnippetContent() : null;
+        pending.put(note.getId(), new Pending(note, note.getTextContent(), snippet));
+        if (!signing) {
+            signing = true;
+            SIGNER.execute(this::sign);
+        }
+    }
+
+    /**
+     * Removes a note from the index using the signature it was added with, or drops it from
+     * the queue if its signature is not ready yet.
+     *
+     * @param note the note to remove
+     */
+    public synchronized void remove(Note note) {
+        Pending queued = pending.get(note.getId());
+        if (queued != null && queued.note() == note) {
+            pending.remove(note.getId());
+        }
+        unlink(note);
+    }
+
+    /**
+     * Drops every note and every queued signature, used when the notebook is closed.
+     */
+    public synchronized void clear() {
+        pending.clear();
+        signatures.clear();
+        buckets.clear();
+    }
+
+    /** @return number of notes whose signature is still being computed */
+    public synchronized int pendingSize() {
+        return pending.size();
+    }
+
+    /**
+     * Computes the signatures of the queued notes one at a time, without holding the index
+     * while hashing. A signature is dropped if its note was added again or removed meanwhile.
+     */
+    private void sign() {
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    signing = false;
+                    return;
+                }
+                next = pending.values().iterator().next();
+            }
+            int[] signature = signature(next.text(), next.snippet());
+            synchronized (this) {
+                if (pending.get(next.note().getId()) == next) {
+                    pending.remove(next.note().getId());
+                    link(next.note(), signature);
+                }
+            }
+        }
+    }
+
+    private void link(Note note, int[] signature) {
+        unlink(note);
+        if (signature == null) {
+            return;
+        }
+        signatures.put(note, signature);
+        for (int band = 0; band < BANDS; band++) {
+            buckets.computeIfAbsent(bandKey(signature, band), k -> Collections.newSetFromMap(new IdentityHashMap<>(4))).add(note);
+        }
+    }
+
+    private void unlink(Note note) {
+        int[] signature = signatures.remove(note);
+        if (signature == null) {
+            return;
+        }
+        for (int band = 0; band < BANDS; band++) {
+            Long key = bandKey(signature, band);
+            Set<Note> bucket = buckets.get(key);
+            if (bucket != null) {
+                bucket.remove(note);
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds indexed notes similar to the given one, which does not need to be indexed itself.
+     * The signature of a note that is not indexed is computed before taking the index, so
+     * the probe must not be changed by another thread meanwhile.
+     *
+     * @param probe the note to compare
+     * @param minSimilarity minimum estimated similarity to report
+     * @return matches sorted by decreasing similarity
+     */
+    public List<Match> findSimilar(Note probe, double minSimilarity) {
+        int[] signature;
+        synchronized (this) {
+            signature = signatures.get(probe);
+        }
+        if (signature == null) {
+            signature = signature(probe.getTextContent(), probe instanceof ProgrammingNote programmingNote
+                    ? programmingNote.getCodingSnippetContent() : null);
+        }
+        if (signature == null) {
+            return new ArrayList<>();
+        }
+        return findSimilar(probe, signature, minSimilarity);
+    }
+
+    private synchronized List<Match> findSimilar(Note probe, int[] signature, double minSimilarity) {
+        List<Match> matches = new ArrayList<>();
+        Set<Note> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(probe);
+        for (int band = 0; band < BANDS; band++) {
+            for (Note candidate : buckets.getOrDefault(bandKey(signature, band), Set.of())) {
+                if (seen.add(candidate)) {
+                    double similarity = estimate(signature, signatures.get(candidate));
+                    if (similarity >= minSimilarity) {
+                        matches.add(new Match(candidate, similarity));
+                    }
+                }
+            }
+        }
+        matches.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return matches;
+    }
+
+    /**
+     * Groups the indexed notes into clusters of near-duplicates. Only notes sharing an LSH
+     * bucket are compared, each against the first note of the bucket, so the work grows with
+     * the number of notes rather than the number of pairs.
+     *
+     * @param minSimilarity minimum estimated similarity for two notes to be merged
+     * @return clusters with at least two notes, most similar first
+     */
+    public synchronized List<Cluster> clusters(double minSimilarity) {
+        Map<Note, Note> parent = new IdentityHashMap<>();
+        for (Set<Note> bucket : buckets.values()) {
+            Iterator<Note> members = bucket.iterator();
+            Note anchor = members.next();
+            while (members.hasNext()) {
+                Note other = members.next();
+                if (estimate(signatures.get(anchor), signatures.get(other)) >= minSimilarity) {
+                    union(parent, anchor, other);
+                }
+            }
+        }
+        Map<Note, List<Note>> groups = new IdentityHashMap<>();
+        for (Note note : parent.keySet()) {
+            groups.computeIfAbsent(find(parent, note), k -> new ArrayList<>()).add(note);
+        }
+        List<Cluster> clusters = new ArrayList<>();
+        for (Map.Entry<Note, List<Note>> group : groups.entrySet()) {
+            List<Note> members = new ArrayList<>();
+            members.add(group.getKey());
+            double total = 0;
+            for (Note member : group.getValue()) {
+                if (member != group.getKey()) {
+                    members.add(member);
+                    total += estimate(signatures.get(group.getKey()), signatures.get(member));
+                }
+            }
+            if (members.size() > 1) {
+                clusters.add(new Cluster(members, total / (members.size() - 1)));
+            }
+        }
+        clusters.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return clusters;
+    }
+
+    /** @return number of indexed notes */
+    public synchronized int size() {
+        return signatures.size();
+    }
+
+    private static Note find(Map<Note, Note> parent, Note note) {
+        Note root = note;
+        while (parent.getOrDefault(root, root) != root) {
+            root = parent.get(root);
+        }
+        while (note != root) {
+            Note next = parent.get(note);
+            parent.put(note, root);
+            note = next;
+        }
+        return root;
+    }
+
+    private static void union(Map<Note, Note> parent, Note a, Note b) {
+        parent.putIfAbsent(a, a);
+        parent.putIfAbsent(b, b);
+        Note rootA = find(parent, a);
+        Note rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent.put(rootB, rootA);
+        }
+    }
+
+    /**
+     * Computes the MinHash signature of a note's text and coding snippet.
+     *
+     * @param snippet the coding snippet, null for notes without one
+     * @return the signature, or null if the note contains no words
+     */
+    private static int[] signature(CharSequence text, CharSequence snippet) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        words(text, word, words);
+        if (snippet != null) {
+            words(snippet, word, words);
+        }
+        if (words.isEmpty()) {
+            return null;
+        }
+        Set<Long> shingles = new HashSet<>();
+        int shingleSize = Math.min(SHINGLE_SIZE, words.size());
+        for (int i = 0; i + shingleSize <= words.size(); i++) {
+            long hash = 0xcbf29ce484222325L;
+            for (int j = i; j < i + shingleSize; j++) {
+                hash = (hash ^ words.get(j).hashCode()) * 0x100000001b3L;
+            }
+            shingles.add(hash);
+        }
+        int[] signature = new int[NUM_HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int value = (int) (mix(shingle ^ SEEDS[i]) >>> 33);
+                if (value < signature[i]) {
+                    signature[i] = value;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Splits the first {@link #MAX_CHARS} characters of a text into lower-case words of
+     * letters, digits and underscores, reading a rope leaf by leaf instead of flattening it.
+     *
+     * @param word the word being built, ended by the end of the text
+     */
+    private static void words(CharSequence text, StringBuilder word, List<String> words) {
+        int[] remaining = {MAX_CHARS};
+        Rope.forEachChunk(text, chunk -> {
+            int length = Math.min(chunk.length(), remaining[0]);
+            remaining[0] -= length;
+            for (int i = 0; i < length; i++) {
+                char c = chunk.charAt(i);
+                if (Character.isLetterOrDigit(c) || c == '_' || Character.getType(c) == Character.LETTER_NUMBER
+                        || Character.getType(c) == Character.OTHER_NUMBER) {
+                    word.append(Character.toLowerCase(c));
+                } else if (!word.isEmpty()) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                }
+            }
+            return remaining[0] > 0;
+        });
+        if (!word.isEmpty()) {
+            words.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static Long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) {
+            key = key * 0x100000001b3L + signature[i];
+        }
+        return mix(key);
+    }
+
+    private static double estimate(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a[i] == b[i]) {
+                equal++;
+            }
+        }
+        return (double) equal / NUM_HASHES;
+    }
+
+    /** SplitMix64 finalizer */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -8,11 +8,24 @@
  */
 package notes;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import diagnostics.Metrics;
+import diagnostics.NoteCloneEvent;
 
 /**
  * Represents a basic note with title, description, text, author, creation date,
@@ -21,17 +34,44 @@ import java.util.List;
  * @author 
  */
 public class Note implements Reversable, Cloneable, Serializable {
+    /** Pinned to the value computed for the original class so existing note.ser files keep loading */
+    private static final long serialVersionUID = -3779567523336970399L;
+
+    /** Identifier assigned by the {@link Notebook}, 0 until the note is added to one */
+    private long id;
     private String title;
     private String description;
     protected String text;
+    /** Rope holding the content of very large notes, null while the content is a plain string */
+    private Rope textRope;
     private String author;
     private Calendar date;
     private Calendar deadline;
     private static int count = 0;
     private static final int MAX_TITLE_LENGTH = 50;
+    private static final Metrics.Histogram CLONE_TIME = Metrics.histogram("note.clone.nanos");
+    /** Rough heap cost of a note object with its dates, tag set and version list, strings excluded */
+    private static final long NOTE_OVERHEAD = 400;
+    /** Rough heap cost of a string or rope apart from its characters */
+    private static final long TEXT_OVERHEAD = 48;
+    /** Rough heap cost of a tag entry apart from its characters */
+    private static final long TAG_OVERHEAD = 80;
+    /** Rough heap cost of an attachment reference, whose content is never held */
+    private static final long ATTACHMENT_OVERHEAD = 64;
 
     protected List<Note> versions = new ArrayList<>();
     protected int currentVersionIndex = -1;
+    /** True while {@link #versions} is shared with a frozen copy, which copies it on the next save */
+    private transient boolean versionsShared;
+
+    /** Normalized tags of the note, see {@link #normalizeTag(String)} */
+    private TreeSet<String> tags = new TreeSet<>();
+
+    /** Files attached to the note; immutable, so clones and versions share it */
+    private List<Attachment> attachments = List.of();
+
+    /** Publisher of the notebook holding this note, null while the note is in none */
+    private transient NoteChangePublisher changePublisher;
 
     /**
      * Constructs a default note with placeholder content.
@@ -50,8 +90,9 @@ public class Note implements Reversable, Cloneable, Serializable {
     public Note(String title, String description, String text, String author, Calendar date, Calendar deadline)
             throws TitleLengthExceededException {
         setTitle(title);
-        this.description = (description != null && !description.isEmpty()) ? description : "Default Description";
-        this.text = (text != null && !text.isEmpty()) ? text : "Default Text";
+        this.description = BlobStore.shared()
+                .retain((description != null && !description.isEmpty()) ? description : "Default Description");
+        this.text = BlobStore.shared().retain((text != null && !text.isEmpty()) ? text : "Default Text");
         this.author = (author != null && !author.isEmpty()) ? author : "Anonymous";
         this.date = date;
         this.deadline = deadline;
@@ -67,18 +108,153 @@ public class Note implements Reversable, Cloneable, Serializable {
      */
     @Override
     public Note clone() throws CloneNotSupportedException {
+        NoteCloneEvent event = new NoteCloneEvent();
+        event.begin();
+        long start = Metrics.start();
         Note cloned = (Note) super.clone();
+        cloned.changePublisher = null;
+        cloned.tags = new TreeSet<>(tags);
+        cloned.versionsShared = false;
         cloned.versions = new ArrayList<>();
         for (Note version : versions) {
             cloned.versions.add(version);
         }
+        cloned.retainBlobs();
+        CLONE_TIME.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.noteType = getClass().getSimpleName();
+            event.versions = versions.size();
+            event.commit();
+        }
         return cloned;
     }
 
+    /**
+     * Returns a copy for a {@link NotebookSnapshot}. Unlike {@link #clone()} the copy holds
+     * no references in the {@link BlobStore}, which it would otherwise keep for as long as
+     * the undo history reaches back, and it must never be changed.
+     *
+     * <p>The copy costs one object: tags are replaced rather than changed, so both share the
+     * set, and both share the list of saved versions until this note saves another.</p>
+     *
+     * @return the frozen copy, sharing its texts, tags and saved versions with this note
+     */
+    Note frozenCopy() {
+        try {
+            Note copy = (Note) super.clone();
+            copy.changePublisher = null;
+            versionsShared = true;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks whether a frozen copy still describes this note, saved versions included.
+     *
+     * @param frozen a copy taken by {@link #frozenCopy()}
+     * @return true if nothing changed since the copy was taken
+     */
+    boolean sameState(Note frozen) {
+        return versions.size() == frozen.versions.size() && sameContent(frozen);
+    }
+
+    /**
+     * Registers this object's large string fields with the {@link BlobStore}, replacing
+     * them with their canonical instances. Called for every clone and every deserialized note.
+     */
+    protected void retainBlobs() {
+        BlobStore store = BlobStore.shared();
+        description = store.retain(description);
+        text = store.retain(text);
+    }
+
+    /**
+     * Drops this object's references to its large string fields in the {@link BlobStore}.
+     */
+    protected void releaseOwnBlobs() {
+        BlobStore store = BlobStore.shared();
+        store.release(description);
+        store.release(text);
+    }
+
+    /**
+     * Estimates the heap taken by this note and its saved versions. Texts shared between
+     * the note and its versions are counted once; texts shared with other notes through the
+     * {@link BlobStore} are counted for each note, so the estimate errs on the high side.
+     *
+     * @return the estimated size in bytes
+     */
+    public long estimateSize() {
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        long size = estimateOwnSize(counted);
+        for (Note version : versions) {
+            size += version.estimateOwnSize(counted);
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap taken by this object without its saved versions.
+     *
+     * @param counted texts already counted, to which the texts of this object are added
+     * @return the estimated size in bytes
+     */
+    protected long estimateOwnSize(Set<Object> counted) {
+        long size = NOTE_OVERHEAD + textSize(title, counted) + textSize(description, counted)
+                + textSize(textRope != null ? textRope : text, counted) + textSize(author, counted);
+        for (String tag : tags) {
+            size += TAG_OVERHEAD + 2L * tag.length();
+        }
+        for (Attachment attachment : attachments) {
+            size += ATTACHMENT_OVERHEAD + 2L * attachment.name().length();
+        }
+        return size;
+    }
+
+    /**
+     * Estimates the heap taken by a text field unless it was already counted.
+     *
+     * @param text a string or rope, may be null
+     * @param counted texts already counted
+     * @return the estimated size in bytes, 0 for null or already counted texts
+     */
+    protected static long textSize(CharSequence text, Set<Object> counted) {
+        return text == null || !counted.add(text) ? 0 : TEXT_OVERHEAD + 2L * text.length();
+    }
+
+    /**
+     * Releases the blob references held by this note and all of its saved versions.
+     * Call when the note is removed from the notebook or replaced by a reload.
+     */
+    public void releaseBlobs() {
+        releaseOwnBlobs();
+        for (Note version : versions) {
+            version.releaseOwnBlobs();
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        BlobStore store = BlobStore.shared();
+        description = store.retain(description);
+        text = store.retain(text);
+        if (tags == null) {
+            // written before notes had tags
+            tags = new TreeSet<>();
+        }
+        if (attachments == null) {
+            attachments = List.of();
+        }
+    }
+
     @Override
     public Note nextVersion() {
         if (currentVersionIndex < versions.size() - 1) {
             currentVersionIndex++;
+            fireChange(NoteChange.Field.VERSION, currentVersionIndex - 1, currentVersionIndex);
             return versions.get(currentVersionIndex);
         }
         return getCurrentVersion();
@@ -88,14 +264,21 @@ public class Note implements Reversable, Cloneable, Serializable {
     public Note revertVersion() {
         if (currentVersionIndex > 0) {
             currentVersionIndex--;
+            fireChange(NoteChange.Field.VERSION, currentVersionIndex + 1, currentVersionIndex);
             return versions.get(currentVersionIndex);
         }
         return getCurrentVersion();
     }
 
     public void saveVersion(Note version) {
+        int oldIndex = currentVersionIndex;
+        if (versionsShared) {
+            versions = new ArrayList<>(versions);
+            versionsShared = false;
+        }
         versions.add(version);
         currentVersionIndex = versions.size() - 1;
+        fireChange(NoteChange.Field.VERSION, oldIndex, currentVersionIndex);
     }
 
     public List<Note> getAllVersions() {
@@ -126,7 +309,9 @@ public class Note implements Reversable, Cloneable, Serializable {
                     "Title '" + title + "' exceeds maximum length of " + MAX_TITLE_LENGTH + " characters.",
                     title.length());
         } else {
+            String oldTitle = this.title;
             this.title = (title != null && !title.isEmpty()) ? title : "Default Title";
+            fireChange(NoteChange.Field.TITLE, oldTitle, this.title);
         }
     }
 
@@ -141,9 +326,104 @@ public class Note implements Reversable, Cloneable, Serializable {
                  && this.getDateRaw().equals(other.getDateRaw());
      }
 
+    /**
+     * Checks whether another note holds the same content as this one, ignoring the
+     * identifier and the saved versions. Used to tell whether an edit changed anything.
+     *
+     * @param other the note to compare with, typically a clone taken before an edit
+     * @return true if every field has the same value
+     */
+    boolean sameContent(Note other) {
+        return getClass() == other.getClass()
+                && Objects.equals(title, other.title)
+                && Objects.equals(description, other.description)
+                && sameText(textRope != null ? textRope : text, other.textRope != null ? other.textRope : other.text)
+                && Objects.equals(author, other.author)
+                && Objects.equals(date, other.date)
+                && Objects.equals(deadline, other.deadline)
+                && tags.equals(other.tags)
+                && attachments.equals(other.attachments)
+                && currentVersionIndex == other.currentVersionIndex;
+    }
+
+    /**
+     * Compares two texts by content, either of which may be a plain string or a rope.
+     */
+    static boolean sameText(CharSequence a, CharSequence b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.length() != b.length()) {
+            return false;
+        }
+        return CharSequence.compare(a, b) == 0;
+    }
+
     /** @return main note content */
     public String getText() {
-        return text;
+        return textRope != null ? textRope.toString() : text;
+    }
+
+    /**
+     * Returns the note content without flattening a rope, for callers that only scan it.
+     *
+     * @return the rope of rope-backed notes, otherwise the plain text
+     * @see Rope#forEachChunk(CharSequence, java.util.function.Predicate)
+     */
+    public CharSequence getTextContent() {
+        return textRope != null ? textRope : text;
+    }
+
+    /**
+     * Returns the note content as a rope. Rope-backed notes return their rope directly,
+     * plain notes get a rope built from their text.
+     *
+     * @return the content as a rope
+     */
+    public Rope getTextRope() {
+        return textRope != null ? textRope : Rope.of(text);
+    }
+
+    /** @return true if the content is held as a rope rather than a plain string */
+    public boolean isTextRopeBacked() {
+        return textRope != null;
+    }
+
+    /** @return identifier of the note within its notebook, 0 if not yet assigned */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Assigns the notebook identifier. Saved versions keep the identifier of their note.
+     *
+     * @param id the new identifier
+     */
+    void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Connects the note to the change publisher of its notebook.
+     *
+     * @param changePublisher the publisher, or null when the note leaves the notebook
+     */
+    void setChangePublisher(NoteChangePublisher changePublisher) {
+        this.changePublisher = changePublisher;
+    }
+
+    /**
+     * Reports a field change to the subscribers of the notebook holding this note, if any.
+     *
+     * @param field the changed field
+     * @param oldValue value before the change
+     * @param newValue value after the change
+     */
+    protected void fireChange(NoteChange.Field field, Object oldValue, Object newValue) {
+        NoteChangePublisher publisher = changePublisher;
+        if (publisher != null && publisher.isActive() && !Objects.equals(oldValue, newValue)) {
+            publisher.publish(new NoteChange(id, this, field, oldValue, newValue));
+        }
     }
 
     /** @return note title */
@@ -182,16 +462,35 @@ public class Note implements Reversable, Cloneable, Serializable {
      * @param text the new text
      */
      public void setText(String text) {
-         this.text = text;
+         CharSequence oldText = textRope != null ? textRope : this.text;
+         this.text = BlobStore.shared().replace(this.text, text);
+         this.textRope = null;
+         fireChange(NoteChange.Field.TEXT, oldText, this.text);
      }
 
+    /**
+     * Sets the note content from a rope without flattening it. Saved versions keep
+     * sharing every piece of the rope that later edits leave untouched.
+     *
+     * @param rope the new content
+     */
+    public void setTextRope(Rope rope) {
+        CharSequence oldText = textRope != null ? textRope : text;
+        BlobStore.shared().release(text);
+        this.text = null;
+        this.textRope = rope;
+        fireChange(NoteChange.Field.TEXT, oldText, rope);
+    }
+
     /**
      * Sets the note description.
      * 
      * @param description the new description
      */
     public void setDescription(String description) {
-        this.description = description;
+        String oldDescription = this.description;
+        this.description = BlobStore.shared().replace(this.description, description);
+        fireChange(NoteChange.Field.DESCRIPTION, oldDescription, this.description);
     }
 
     /**
@@ -200,7 +499,9 @@ public class Note implements Reversable, Cloneable, Serializable {
      * @param author new author name
      */
     public final void setAuthor(String author) {
+        String oldAuthor = this.author;
         this.author = author;
+        fireChange(NoteChange.Field.AUTHOR, oldAuthor, author);
     }
 
     /**
@@ -209,7 +510,174 @@ public class Note implements Reversable, Cloneable, Serializable {
      * @param deadline the new deadline
      */
     public void setDeadline(Calendar deadline) {
+        Calendar oldDeadline = this.deadline;
         this.deadline = deadline;
+        fireChange(NoteChange.Field.DEADLINE, oldDeadline, deadline);
+    }
+
+    /** @return the tags of the note in alphabetical order */
+    public SortedSet<String> getTags() {
+        return new TreeSet<>(tags);
+    }
+
+    /**
+     * Checks whether the note carries a tag.
+     *
+     * @param tag the tag, normalized before the check
+     * @return true if the note has the tag
+     */
+    public boolean hasTag(String tag) {
+        String normalized = normalizeTag(tag);
+        return normalized != null && tags.contains(normalized);
+    }
+
+    /**
+     * Replaces the tags of the note. Tags are normalized and blank ones dropped.
+     *
+     * @param tags the new tags
+     */
+    public void setTags(Collection<String> tags) {
+        TreeSet<String> newTags = new TreeSet<>();
+        for (String tag : tags) {
+            String normalized = normalizeTag(tag);
+            if (normalized != null) {
+                newTags.add(normalized);
+            }
+        }
+        TreeSet<String> oldTags = this.tags;
+        this.tags = newTags;
+        fireChange(NoteChange.Field.TAGS, oldTags, new TreeSet<>(newTags));
+    }
+
+    /**
+     * Adds a tag to the note.
+     *
+     * @param tag the tag, normalized before it is added
+     * @return true if the note did not have the tag yet
+     */
+    public boolean addTag(String tag) {
+        String normalized = normalizeTag(tag);
+        if (normalized == null || tags.contains(normalized)) {
+            return false;
+        }
+        TreeSet<String> newTags = new TreeSet<>(tags);
+        newTags.add(normalized);
+        setTags(newTags);
+        return true;
+    }
+
+    /**
+     * Removes a tag from the note.
+     *
+     * @param tag the tag, normalized before it is removed
+     * @return true if the note had the tag
+     */
+    public boolean removeTag(String tag) {
+        String normalized = normalizeTag(tag);
+        if (normalized == null || !tags.contains(normalized)) {
+            return false;
+        }
+        TreeSet<String> newTags = new TreeSet<>(tags);
+        newTags.remove(normalized);
+        setTags(newTags);
+        return true;
+    }
+
+    /** @return the attachments of the note in the order they were added */
+    public List<Attachment> getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * Replaces the attachments of the note. The content stays in the
+     * {@link AttachmentStore}, where saved versions may still refer to it.
+     *
+     * @param attachments the new attachments
+     */
+    public void setAttachments(Collection<Attachment> attachments) {
+        List<Attachment> oldAttachments = this.attachments;
+        this.attachments = List.copyOf(attachments);
+        fireChange(NoteChange.Field.ATTACHMENTS, oldAttachments, this.attachments);
+    }
+
+    /**
+     * Attaches a file stored in an {@link AttachmentStore}.
+     *
+     * @param attachment the stored file
+     */
+    public void addAttachment(Attachment attachment) {
+        List<Attachment> newAttachments = new ArrayList<>(attachments);
+        newAttachments.add(attachment);
+        setAttachments(newAttachments);
+    }
+
+    /**
+     * Detaches a file from the note.
+     *
+     * @param attachment the attachment
+     * @return true if the note had the attachment
+     */
+    public boolean removeAttachment(Attachment attachment) {
+        List<Attachment> newAttachments = new ArrayList<>(attachments);
+        if (!newAttachments.remove(attachment)) {
+            return false;
+        }
+        setAttachments(newAttachments);
+        return true;
+    }
+
+    /**
+     * Adds the identifiers of the attachments of this note and its saved versions.
+     *
+     * @param ids the identifiers found so far
+     */
+    void collectAttachments(Set<Long> ids) {
+        for (Attachment attachment : attachments) {
+            ids.add(attachment.id());
+        }
+        for (Note version : versions) {
+            for (Attachment attachment : version.attachments) {
+                ids.add(attachment.id());
+            }
+        }
+    }
+
+    /**
+     * Normalizes a tag: surrounding whitespace and a leading {@code #} are dropped, the
+     * tag is lower-cased, and whitespace and commas inside it become dashes.
+     *
+     * @param tag the tag as typed
+     * @return the normalized tag, or null if nothing is left of it
+     */
+    public static String normalizeTag(String tag) {
+        if (tag == null) {
+            return null;
+        }
+        String normalized = tag.trim();
+        while (normalized.startsWith("#")) {
+            normalized = normalized.substring(1);
+        }
+        normalized = normalized.trim().toLowerCase(Locale.ROOT).replaceAll("[\\s,]+", "-");
+        return normalized.isEmpty() ? null : normalized;
+    }
+
+    /**
+     * Splits a comma or whitespace separated list of tags, as typed in a form.
+     *
+     * @param text the tag list
+     * @return the normalized tags in the order given, without blanks
+     */
+    public static List<String> parseTags(String text) {
+        List<String> parsed = new ArrayList<>();
+        if (text != null) {
+            for (String tag : text.split("[,\\s]+")) {
+                String normalized = normalizeTag(tag);
+                if (normalized != null && !parsed.contains(normalized)) {
+                    parsed.add(normalized);
+                }
+            }
+        }
+        return parsed;
     }
 
     /**
@@ -220,8 +688,10 @@ public class Note implements Reversable, Cloneable, Serializable {
     @Override
     public String toString() {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        return "Title: " + title + "\nDescription: " + description + "\nText: " + text +
+        return "Title: " + title + "\nDescription: " + description + "\nText: " + getText() +
                 "\nAuthor: " + author + "\nCreation Date: " + dateFormat.format(this.date.getTime()) + "\nDeadline: "
-                + dateFormat.format(this.deadline.getTime());
+                + dateFormat.format(this.deadline.getTime())
+                + (tags.isEmpty() ? "" : "\nTags: " + String.join(", ", tags))
+                + (attachments.isEmpty() ? "" : "\nAttachments: " + attachments.size());
     }
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package notes;
+
+import java.util.List;
+
+/**
+ * A change to a field of a note in a {@link Notebook}, carrying the value before and after
+ * the change. Notes added to or removed from the notebook are reported as a change of
+ * {@link Field#NOTE} from or to null.
+ *
+ * @param noteId identifier of the changed note
+ * @param note the changed note
+ * @param field the field that changed
+ * @param oldValue value before the change
+ * @param newValue value after the change
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ * @see NoteChangePublisher
+ */
+public record NoteChange(long noteId, Note note, Field field, Object oldValue, Object newValue) {
+
+    /**
+     * Fields reported by note changes. Text and snippet values are strings or
+     * {@link Rope}s, depending on how the note holds them.
+     */
+    public enum Field {
+        /** The whole note: added, removed, or replaced by a version written elsewhere */
+        NOTE,
+        TITLE,
+        DESCRIPTION,
+        TEXT,
+        AUTHOR,
+        DEADLINE,
+        /** The tags, as a sorted set */
+        TAGS,
+        /** Index of the current version, after saving or moving between versions */
+        VERSION,
+        LANGUAGE,
+        CODING_SNIPPET,
+        TEST_CASE,
+        TEST_STATUS,
+        MANDATORY,
+        /** The attachments, as an immutable list */
+        ATTACHMENTS
+    }
+
+    /**
+     * Changes delivered to a subscriber together.
+     *
+     * @param changes the changes in the order they were made
+     * @param missed number of changes dropped for this subscriber before this batch because
+     *               its buffer was full; a subscriber seeing a non-zero value should rescan
+     */
+    public record Batch(List<NoteChange> changes, long missed) {
+    }
+}
@@ -0,0 +1,165 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Publishes the changes made to the notes of a notebook as a {@link Flow} stream of
+ * {@link NoteChange.Batch}es.
+ *
+ * <p>Publishing never blocks the thread changing the note: changes are queued and handed
+ * to subscribers in batches from a background thread. Each subscriber has its own bounded
+ * buffer of batches and receives them only as fast as it requests them. When a slow
+ * subscriber's buffer is full, further batches are dropped for that subscriber alone and
+ * the number of missed changes is reported with the next batch it receives, so neither the
+ * UI nor the other subscribers wait for it.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class NoteChangePublisher implements Flow.Publisher<NoteChange.Batch> {
+    /** Maximum number of changes delivered in one batch */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /** Number of batches buffered per subscriber before batches are dropped for it */
+    private static final int BUFFER_CAPACITY = 64;
+
+    private final ExecutorService delivery = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "note-change-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService batcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-change-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SubmissionPublisher<List<NoteChange>> publisher =
+            new SubmissionPublisher<>(delivery, BUFFER_CAPACITY);
+    private List<NoteChange> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean closed;
+    /** Receives every change synchronously, even without subscribers, may be null */
+    private volatile Consumer<NoteChange> recorder;
+
+    /**
+     * Passes batches on to a subscriber, adding the number of changes dropped for it.
+     */
+    private static final class CountingSubscriber implements Flow.Subscriber<List<NoteChange>> {
+        private final Flow.Subscriber<? super NoteChange.Batch> subscriber;
+        private final AtomicLong missed = new AtomicLong();
+
+        private CountingSubscriber(Flow.Subscriber<? super NoteChange.Batch> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<NoteChange> changes) {
+            subscriber.onNext(new NoteChange.Batch(changes, missed.getAndSet(0)));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            subscriber.onComplete();
+        }
+    }
+
+    /**
+     * Subscribes to the changes made from now on.
+     *
+     * @param subscriber the subscriber, which controls the pace through its subscription
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super NoteChange.Batch> subscriber) {
+        publisher.subscribe(new CountingSubscriber(subscriber));
+    }
+
+    /**
+     * Hands every change to a recorder in the thread making it, before it is queued for
+     * the subscribers. Unlike subscribers the recorder never misses a change.
+     *
+     * @param recorder the recorder, or null to stop recording
+     */
+    void setRecorder(Consumer<NoteChange> recorder) {
+        this.recorder = recorder;
+    }
+
+    /** @return true if anyone is subscribed or recording, so changes are worth reporting */
+    boolean isActive() {
+        return recorder != null || publisher.hasSubscribers();
+    }
+
+    /**
+     * Queues a change for delivery without waiting for any subscriber.
+     *
+     * @param change the change to publish
+     */
+    void publish(NoteChange change) {
+        Consumer<NoteChange> recording = recorder;
+        if (recording != null) {
+            recording.accept(change);
+        }
+        if (!publisher.hasSubscribers()) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            pending.add(change);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        batcher.execute(this::flush);
+    }
+
+    /**
+     * Completes every subscription once the queued changes have been offered.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        batcher.execute(() -> {
+            publisher.close();
+            delivery.shutdown();
+        });
+        batcher.shutdown();
+    }
+
+    private void flush() {
+        List<NoteChange> changes;
+        synchronized (this) {
+            changes = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+        }
+        for (int from = 0; from < changes.size(); from += MAX_BATCH_SIZE) {
+            List<NoteChange> batch = List.copyOf(changes.subList(from, Math.min(changes.size(), from + MAX_BATCH_SIZE)));
+            publisher.offer(batch, (subscriber, dropped) -> {
+                ((CountingSubscriber) subscriber).missed.addAndGet(dropped.size());
+                return false;
+            });
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package notes;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import notes.TestingNote.TestStatus;
+
+/**
+ * Compiled filter over the notes of a {@link Notebook}.
+ *
+ * <p>An expression is a list of space separated terms that must all match, for example
+ * {@code type:TestingNote status:FAILED mandatory:true author:alice deadline<2026-11-01 lang:java}.
+ * Supported fields are {@code type}, {@code author}, {@code lang} (or {@code language}),
+ * {@code status}, {@code mandatory}, {@code deadline} (with {@code :}, {@code <}, {@code <=},
+ * {@code >} and {@code >=} and dates as {@code yyyy-MM-dd}), {@code testcase}, {@code tag},
+ * {@code title} and {@code text}.
+ * A term without a field matches titles and text containing it, values containing spaces
+ * can be quoted, and {@code sort:deadline} or {@code sort:-title} orders the result.
+ * A field term prefixed with {@code -} matches the notes the term does not match, and
+ * {@code tag}, {@code type} and {@code status} accept comma separated alternatives, so
+ * {@code tag:ui,backend -tag:done status:FAILED,PENDING} finds the open UI or backend
+ * tests.</p>
+ *
+ * <p>When executed, the query intersects the {@link TagIndex} bitmaps of its tag, type and
+ * status terms and looks up every term backed by a {@link FieldIndex}, starting from the
+ * smallest candidate set; the remaining terms are checked against those candidates only.
+ * Only queries without any indexed term scan the whole notebook.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public final class NoteQuery {
+    private static final Pattern TERM = Pattern.compile("(\\w+)(<=|>=|:|<|>)(.*)");
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final String expression;
+    private final List<Condition> conditions;
+    private final Comparator<Note> order;
+
+    /**
+     * One term of the query: a predicate and, for indexed fields, the index lookup
+     * returning the groups of notes that can possibly match, or the bitmap of the notes
+     * that match exactly.
+     */
+    private record Condition(Predicate<Note> predicate, Function<FieldIndex, List<Set<Note>>> lookup,
+            Function<TagIndex, RoaringBitmap> bitmap) {
+
+        /** @return the condition matching exactly the notes this one does not */
+        Condition negate() {
+            return new Condition(predicate.negate(), null,
+                    bitmap == null ? null : tags -> tags.all().andNot(bitmap.apply(tags)));
+        }
+    }
+
+    /**
+     * One page of query results.
+     *
+     * @param notes the notes on this page
+     * @param total number of notes matching the query
+     * @param page zero-based page number
+     * @param pageSize maximum number of notes per page
+     */
+    public record Page(List<Note> notes, int total, int page, int pageSize) {
+
+        /** @return number of pages needed for all matching notes */
+        public int pageCount() {
+            return pageSize <= 0 ? 1 : Math.max(1, (total + pageSize - 1) / pageSize);
+        }
+    }
+
+    private NoteQuery(String expression, List<Condition> conditions, Comparator<Note> order) {
+        this.expression = expression;
+        this.conditions = conditions;
+        this.order = order;
+    }
+
+    /**
+     * Parses a query expression.
+     *
+     * @param expression the expression, blank to match every note
+     * @return the compiled query
+     * @throws InvalidQueryException if a term has an unknown field or an invalid value
+     */
+    public static NoteQuery parse(String expression) throws InvalidQueryException {
+        List<Condition> conditions = new ArrayList<>();
+        Comparator<Note> order = byCreationDate().reversed();
+        for (String term : tokenize(expression == null ? "" : expression)) {
+            boolean negated = term.startsWith("-") && TERM.matcher(term.substring(1)).matches();
+            Matcher matcher = TERM.matcher(negated ? term.substring(1) : term);
+            if (!matcher.matches()) {
+                String word = term.toLowerCase(Locale.ROOT);
+                conditions.add(new Condition(n -> contains(n.getTitle(), word) || contains(n.getTextContent(), word), null,
+                        null));
+                continue;
+            }
+            String field = matcher.group(1).toLowerCase(Locale.ROOT);
+            String op = matcher.group(2);
+            String value = unquote(matcher.group(3));
+            if (!op.equals(":") && !field.equals("deadline")) {
+                throw new InvalidQueryException("Field '" + field + "' only supports ':' in term '" + term + "'");
+            }
+            if (field.equals("sort")) {
+                if (negated) {
+                    throw new InvalidQueryException("Cannot negate term '" + term + "'");
+                }
+                order = parseOrder(value);
+                continue;
+            }
+            Condition condition = switch (field) {
+                case "type" -> {
+                    List<String> types = alternatives(value);
+                    yield new Condition(n -> types.stream().anyMatch(n.getClass().getSimpleName()::equalsIgnoreCase),
+                            index -> lookups(types, index::type), tags -> union(types, tags::type));
+                }
+                case "author" -> new Condition(n -> value.equalsIgnoreCase(trim(n.getAuthor())),
+                        index -> List.of(index.author(value)), null);
+                case "lang", "language" -> new Condition(
+                        n -> n instanceof ProgrammingNote p && value.equalsIgnoreCase(trim(p.getLanguage())),
+                        index -> List.of(index.language(value)), null);
+                case "status" -> {
+                    // a set, as alternatives spelled differently may name the same status
+                    Set<TestStatus> statuses = EnumSet.noneOf(TestStatus.class);
+                    for (String status : alternatives(value)) {
+                        statuses.add(parseStatus(status));
+                    }
+                    yield new Condition(n -> n instanceof TestingNote t && statuses.contains(t.getTestStatus()),
+                            index -> lookups(statuses, index::status), tags -> union(statuses, tags::status));
+                }
+                case "tag" -> {
+                    List<String> tagged = new ArrayList<>();
+                    for (String tag : alternatives(value)) {
+                        String normalized = Note.normalizeTag(tag);
+                        if (normalized == null) {
+                            throw new InvalidQueryException("Missing tag in term '" + term + "'");
+                        }
+                        tagged.add(normalized);
+                    }
+                    yield new Condition(n -> tagged.stream().anyMatch(n::hasTag), null,
+                            tags -> union(tagged, tags::tag));
+                }
+                case "mandatory" -> {
+                    if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                        throw new InvalidQueryException("Expected true or false in term '" + term + "'");
+                    }
+                    boolean mandatory = Boolean.parseBoolean(value);
+                    yield new Condition(n -> n instanceof TestingNote t && t.getIsMandatoryTest() == mandatory, null,
+                            null);
+                }
+                case "testcase" -> new Condition(n -> n instanceof TestingNote t && value.equals(t.getTestcase()),
+                        index -> List.of(index.testCase(value)), null);
+                case "deadline" -> deadlineCondition(op, parseDay(value, term));
+                case "title" -> {
+                    String word = value.toLowerCase(Locale.ROOT);
+                    yield new Condition(n -> contains(n.getTitle(), word), null, null);
+                }
+                case "text" -> {
+                    String word = value.toLowerCase(Locale.ROOT);
+                    yield new Condition(n -> contains(n.getTextContent(), word), null, null);
+                }
+                default -> throw new InvalidQueryException("Unknown field '" + field + "' in term '" + term + "'");
+            };
+            conditions.add(negated ? condition.negate() : condition);
+        }
+        return new NoteQuery(expression, conditions, order);
+    }
+
+    /**
+     * Checks a single note against every term of the query.
+     *
+     * @param note the note to check
+     * @return true if the note matches
+     */
+    public boolean matches(Note note) {
+        for (Condition condition : conditions) {
+            if (!condition.predicate().test(note)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the expression this query was parsed from */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Selects the matching notes. Tag, type and status terms are combined as bitmaps; the
+     * result is built from those bitmaps or from the most selective {@link FieldIndex}
+     * lookup, whichever holds fewer notes.
+     *
+     * @param all every note of the notebook by identifier, scanned only if no term is indexed
+     * @param index the secondary indexes of the notebook
+     * @param tags the bitmap indexes of the notebook
+     * @return the matching notes in query order
+     */
+    List<Note> select(Map<Long, Note> all, FieldIndex index, TagIndex tags) {
+        RoaringBitmap candidates = candidates(tags);
+        List<Set<Note>> best = null;
+        long bestSize = candidates == null ? Long.MAX_VALUE : candidates.cardinality();
+        for (Condition condition : conditions) {
+            if (condition.lookup() == null) {
+                continue;
+            }
+            List<Set<Note>> groups = condition.lookup().apply(index);
+            long size = 0;
+            for (Set<Note> group : groups) {
+                size += group.size();
+            }
+            if (size < bestSize) {
+                best = groups;
+                bestSize = size;
+            }
+        }
+        List<Note> result = new ArrayList<>();
+        if (best != null) {
+            for (Set<Note> group : best) {
+                for (Note note : group) {
+                    if (matches(note)) {
+                        result.add(note);
+                    }
+                }
+            }
+        } else if (candidates != null) {
+            candidates.forEach(id -> {
+                Note note = all.get(Integer.toUnsignedLong(id));
+                if (note != null && matchesUnindexed(note)) {
+                    result.add(note);
+                }
+            });
+        } else {
+            for (Note note : all.values()) {
+                if (matches(note)) {
+                    result.add(note);
+                }
+            }
+        }
+        result.sort(order);
+        return result;
+    }
+
+    /**
+     * Returns the identifiers of the matching notes as a bitmap. Queries made of tag, type
+     * and status terms only are answered from the bitmaps without touching any note.
+     *
+     * @param all every note of the notebook by identifier
+     * @param index the secondary indexes of the notebook
+     * @param tags the bitmap indexes of the notebook
+     * @return the matching identifiers; must not be modified
+     */
+    RoaringBitmap matching(Map<Long, Note> all, FieldIndex index, TagIndex tags) {
+        boolean bitmapsOnly = true;
+        for (Condition condition : conditions) {
+            bitmapsOnly &= condition.bitmap() != null;
+        }
+        if (bitmapsOnly) {
+            RoaringBitmap candidates = candidates(tags);
+            return candidates != null ? candidates : tags.all();
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for (Note note : select(all, index, tags)) {
+            result.add(TagIndex.bitmapId(note.getId()));
+        }
+        return result;
+    }
+
+    /** @return the intersection of the bitmaps of all terms that have one, null if none has */
+    private RoaringBitmap candidates(TagIndex tags) {
+        RoaringBitmap candidates = null;
+        for (Condition condition : conditions) {
+            if (condition.bitmap() != null) {
+                RoaringBitmap matching = condition.bitmap().apply(tags);
+                candidates = candidates == null ? matching : candidates.and(matching);
+            }
+        }
+        return candidates;
+    }
+
+    private boolean matchesUnindexed(Note note) {
+        for (Condition condition : conditions) {
+            if (condition.bitmap() == null && !condition.predicate().test(note)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the comma separated values, each listed once ignoring case */
+    private static List<String> alternatives(String value) {
+        List<String> values = new ArrayList<>();
+        for (String alternative : value.split(",")) {
+            String trimmed = alternative.trim();
+            if (!trimmed.isEmpty() && values.stream().noneMatch(trimmed::equalsIgnoreCase)) {
+                values.add(trimmed);
+            }
+        }
+        if (values.isEmpty()) {
+            values.add(value.trim());
+        }
+        return values;
+    }
+
+    private static <K> List<Set<Note>> lookups(Collection<K> keys, Function<K, Set<Note>> lookup) {
+        List<Set<Note>> groups = new ArrayList<>();
+        for (K key : keys) {
+            groups.add(lookup.apply(key));
+        }
+        return groups;
+    }
+
+    private static <K> RoaringBitmap union(Collection<K> keys, Function<K, RoaringBitmap> lookup) {
+        RoaringBitmap union = null;
+        for (K key : keys) {
+            RoaringBitmap notes = lookup.apply(key);
+            union = union == null ? notes : union.or(notes);
+        }
+        return union != null ? union : new RoaringBitmap();
+    }
+
+    private static Condition deadlineCondition(String op, long day) {
+        long nextDay = FieldIndex.startOfDay(day + DAY_MILLIS + DAY_MILLIS / 2);
+        Long from;
+        Long to;
+        switch (op) {
+            case "<" -> {
+                from = null;
+                to = day;
+            }
+            case "<=" -> {
+                from = null;
+                to = nextDay;
+            }
+            case ">" -> {
+                from = nextDay;
+                to = null;
+            }
+            case ">=" -> {
+                from = day;
+                to = null;
+            }
+            default -> {
+                from = day;
+                to = nextDay;
+            }
+        }
+        return new Condition(n -> {
+            if (n.getDeadline() == null) {
+                return false;
+            }
+            long millis = n.getDeadline().getTimeInMillis();
+            return (from == null || millis >= from) && (to == null || millis < to);
+        }, index -> index.deadlineDays(from, to), null);
+    }
+
+    private static long parseDay(String value, String term) throws InvalidQueryException {
+        try {
+            return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new InvalidQueryException("Expected a yyyy-MM-dd date in term '" + term + "'");
+        }
+    }
+
+    private static TestStatus parseStatus(String value) throws InvalidQueryException {
+        try {
+            return TestStatus.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidQueryException("Unknown test status '" + value + "'");
+        }
+    }
+
+    private static Comparator<Note> parseOrder(String value) throws InvalidQueryException {
+        boolean descending = value.startsWith("-");
+        String field = (descending ? value.substring(1) : value).toLowerCase(Locale.ROOT);
+        Comparator<Note> order = switch (field) {
+            case "title" -> Comparator.comparing(Note::getTitle, String.CASE_INSENSITIVE_ORDER);
+            case "author" -> Comparator.comparing(n -> trim(n.getAuthor()), String.CASE_INSENSITIVE_ORDER);
+            case "deadline" -> Comparator.comparing(Note::getDeadline, Comparator.nullsLast(Comparator.naturalOrder()));
+            case "created", "date" -> byCreationDate();
+            default -> throw new InvalidQueryException("Cannot sort by '" + field + "'");
+        };
+        return descending ? order.reversed() : order;
+    }
+
+    private static Comparator<Note> byCreationDate() {
+        return Comparator.comparing(Note::getDateRaw, Comparator.nullsFirst(Comparator.<Calendar>naturalOrder()));
+    }
+
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (char c : expression.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                current.append(c);
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (current.length() > 0) {
+                    tokens.add(unquote(current.toString()));
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(unquote(current.toString()));
+        }
+        return tokens;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static String trim(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    /**
+     * Searches a text case-insensitively. Ropes are searched leaf by leaf, carrying over
+     * enough of each leaf to find matches that span two, so the text is never flattened.
+     */
+    private static boolean contains(CharSequence haystack, String lowerCaseNeedle) {
+        if (haystack == null) {
+            return false;
+        }
+        if (haystack instanceof String text) {
+            return text.toLowerCase(Locale.ROOT).contains(lowerCaseNeedle);
+        }
+        StringBuilder window = new StringBuilder();
+        return !Rope.forEachChunk(haystack, chunk -> {
+            window.append(chunk);
+            String lowerCase = window.toString().toLowerCase(Locale.ROOT);
+            if (lowerCase.contains(lowerCaseNeedle)) {
+                return false;
+            }
+            window.delete(0, Math.max(0, window.length() - lowerCaseNeedle.length() + 1));
+            return true;
+        });
+    }
+}
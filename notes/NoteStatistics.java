@@ -0,0 +1,255 @@
+package notes;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import notes.TestingNote.TestStatus;
+
+/**
+ * Aggregates over the notes of a notebook shown by the statistics dashboard: notes per
+ * type and author, programming notes per language, testing notes per status, the notes
+ * and test results due each week, and how many versions the notes have.
+ *
+ * <p>{@link Notebook#statistics()} reads the aggregates from the notebook's field index,
+ * which every edit keeps up to date, so taking them costs time proportional to the number
+ * of distinct authors, languages and deadline days rather than to the number of notes.
+ * {@link #compute(Collection)} recomputes them from the notes in parallel on the common
+ * fork/join pool. Both give equal results for the same notes, so the recomputation checks
+ * the incremental path. Authors, languages and types are normalized as for queries.</p>
+ *
+ * @param notes number of notes
+ * @param types number of notes of each type, by lower-case class simple name
+ * @param authors number of notes of each author, most first
+ * @param languages number of programming notes in each language, most first
+ * @param statuses number of testing notes with each status
+ * @param weeks notes and testing note results due each week, in week order
+ * @param versionCounts number of notes by how many versions they have, including none
+ * @param mostVersioned notes with the most versions, most first, at most {@link #TOP_NOTES}
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public record NoteStatistics(int notes, Map<String, Integer> types, Map<String, Integer> authors,
+        Map<String, Integer> languages, Map<TestStatus, Integer> statuses, List<Week> weeks,
+        SortedMap<Integer, Integer> versionCounts, List<Churn> mostVersioned) {
+
+    /** Number of notes listed in {@link #mostVersioned()} */
+    public static final int TOP_NOTES = 20;
+
+    /** Orders notes with more versions first, then by identifier */
+    private static final Comparator<Churn> MOST_VERSIONED =
+            Comparator.comparingInt(Churn::versions).reversed().thenComparingLong(Churn::noteId);
+
+    /**
+     * Notes due in one week.
+     *
+     * @param start the Monday starting the week
+     * @param due number of notes whose deadline falls in the week
+     * @param pending testing notes due in the week that are pending
+     * @param passed testing notes due in the week that passed
+     * @param failed testing notes due in the week that failed
+     */
+    public record Week(LocalDate start, int due, int pending, int passed, int failed) {
+    }
+
+    /**
+     * A note and the number of versions saved of it.
+     *
+     * @param noteId identifier of the note
+     * @param title title of the note
+     * @param versions number of saved versions
+     */
+    public record Churn(long noteId, String title, int versions) {
+    }
+
+    /**
+     * Counts gathered from the notes, combined across the threads of a parallel stream.
+     */
+    private static final class Tally {
+        private int notes;
+        private final Map<String, Integer> types = new HashMap<>();
+        private final Map<String, Integer> authors = new HashMap<>();
+        private final Map<String, Integer> languages = new HashMap<>();
+        private final Map<TestStatus, Integer> statuses = new EnumMap<>(TestStatus.class);
+        /** Per week: notes due, then testing notes due with each status by ordinal */
+        private final Map<LocalDate, int[]> weeks = new HashMap<>();
+        private final Map<Integer, Integer> versionCounts = new HashMap<>();
+        private final PriorityQueue<Churn> top = new PriorityQueue<>(MOST_VERSIONED.reversed());
+
+        private void add(Note note) {
+            notes++;
+            count(types, FieldIndex.key(note.getClass().getSimpleName()), 1);
+            count(authors, FieldIndex.key(note.getAuthor()), 1);
+            if (note instanceof ProgrammingNote programmingNote) {
+                count(languages, FieldIndex.key(programmingNote.getLanguage()), 1);
+            }
+            TestStatus status = note instanceof TestingNote testingNote ? testingNote.getTestStatus() : null;
+            count(statuses, status, 1);
+            if (note.getDeadline() != null) {
+                int[] week = week(weeks, weekOf(FieldIndex.startOfDay(note.getDeadline().getTimeInMillis())));
+                week[0]++;
+                if (status != null) {
+                    week[status.ordinal() + 1]++;
+                }
+            }
+            int versions = note.getVersionSize() + 1;
+            count(versionCounts, versions, 1);
+            if (versions > 0) {
+                offer(top, new Churn(note.getId(), note.getTitle(), versions));
+            }
+        }
+
+        private void merge(Tally other) {
+            notes += other.notes;
+            other.types.forEach((key, count) -> count(types, key, count));
+            other.authors.forEach((key, count) -> count(authors, key, count));
+            other.languages.forEach((key, count) -> count(languages, key, count));
+            other.statuses.forEach((key, count) -> count(statuses, key, count));
+            other.weeks.forEach((start, counts) -> {
+                int[] week = week(weeks, start);
+                for (int i = 0; i < counts.length; i++) {
+                    week[i] += counts[i];
+                }
+            });
+            other.versionCounts.forEach((key, count) -> count(versionCounts, key, count));
+            for (Churn churn : other.top) {
+                offer(top, churn);
+            }
+        }
+    }
+
+    /**
+     * Reads the aggregates from the field index of a notebook, which the caller keeps
+     * locked.
+     *
+     * @param index the index of the notebook
+     * @param notes number of notes in the notebook
+     */
+    static NoteStatistics of(FieldIndex index, int notes) {
+        Map<LocalDate, int[]> weeks = new HashMap<>();
+        Map<Long, int[]> statusCounts = index.deadlineDayStatusCounts();
+        int[] week = null;
+        long weekEnd = Long.MIN_VALUE;
+        for (Map.Entry<Long, Integer> day : index.deadlineDayCounts().entrySet()) {
+            if (day.getKey() >= weekEnd) {
+                // days come in order, so the week only has to be worked out when it ends
+                LocalDate start = weekOf(day.getKey());
+                week = week(weeks, start);
+                weekEnd = start.plusWeeks(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            week[0] += day.getValue();
+            int[] statuses = statusCounts.get(day.getKey());
+            if (statuses != null) {
+                for (int i = 0; i < statuses.length; i++) {
+                    week[i + 1] += statuses[i];
+                }
+            }
+        }
+
+        Map<Integer, Integer> versionCounts = new HashMap<>();
+        List<Churn> top = new ArrayList<>(TOP_NOTES);
+        int versioned = 0;
+        for (Map.Entry<Integer, NavigableMap<Long, Note>> group : index.versionGroups().entrySet()) {
+            int versions = group.getKey();
+            versionCounts.put(versions, group.getValue().size());
+            versioned += group.getValue().size();
+            for (Note note : group.getValue().values()) {
+                if (top.size() == TOP_NOTES) {
+                    break;
+                }
+                top.add(new Churn(note.getId(), note.getTitle(), versions));
+            }
+        }
+        if (notes > versioned) {
+            versionCounts.put(0, notes - versioned);
+        }
+        return build(notes, index.typeCounts(), index.authorCounts(), index.languageCounts(), index.statusCounts(),
+                weeks, versionCounts, top);
+    }
+
+    /**
+     * Computes the aggregates by visiting every note, splitting the work across the
+     * common fork/join pool. The notes must not change while they are visited.
+     *
+     * @param notes the notes to aggregate
+     * @return the aggregates
+     */
+    public static NoteStatistics compute(Collection<? extends Note> notes) {
+        Tally tally = notes.parallelStream().collect(Tally::new, Tally::add, Tally::merge);
+        return build(tally.notes, tally.types, tally.authors, tally.languages, tally.statuses, tally.weeks,
+                tally.versionCounts, tally.top);
+    }
+
+    private static NoteStatistics build(int notes, Map<String, Integer> types, Map<String, Integer> authors,
+            Map<String, Integer> languages, Map<TestStatus, Integer> statuses, Map<LocalDate, int[]> weeks,
+            Map<Integer, Integer> versionCounts, Collection<Churn> top) {
+        List<Week> weekList = new ArrayList<>(weeks.size());
+        new TreeMap<>(weeks).forEach((start, counts) -> weekList.add(new Week(start, counts[0],
+                counts[TestStatus.PENDING.ordinal() + 1], counts[TestStatus.PASSED.ordinal() + 1],
+                counts[TestStatus.FAILED.ordinal() + 1])));
+        List<Churn> mostVersioned = new ArrayList<>(top);
+        mostVersioned.sort(MOST_VERSIONED);
+        Map<TestStatus, Integer> statusCounts = new EnumMap<>(TestStatus.class);
+        statusCounts.putAll(statuses);
+        return new NoteStatistics(notes, mostFirst(types), mostFirst(authors), mostFirst(languages),
+                Collections.unmodifiableMap(statusCounts), Collections.unmodifiableList(weekList),
+                Collections.unmodifiableSortedMap(new TreeMap<>(versionCounts)),
+                Collections.unmodifiableList(mostVersioned));
+    }
+
+    /**
+     * Copies counts into a map iterating the largest count first, ties by key.
+     */
+    private static Map<String, Integer> mostFirst(Map<String, Integer> counts) {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Integer> sorted = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            sorted.put(entry.getKey(), entry.getValue());
+        }
+        return Collections.unmodifiableMap(sorted);
+    }
+
+    /**
+     * Adds a note to the notes with the most versions, dropping the one with the fewest
+     * once there are more than {@link #TOP_NOTES}.
+     */
+    private static void offer(PriorityQueue<Churn> top, Churn churn) {
+        top.add(churn);
+        if (top.size() > TOP_NOTES) {
+            top.poll();
+        }
+    }
+
+    private static <K> void count(Map<K, Integer> counts, K key, int count) {
+        if (key != null) {
+            counts.merge(key, count, Integer::sum);
+        }
+    }
+
+    private static int[] week(Map<LocalDate, int[]> weeks, LocalDate start) {
+        return weeks.computeIfAbsent(start, w -> new int[TestStatus.values().length + 1]);
+    }
+
+    /** @return the Monday starting the week of a day given as start-of-day millis */
+    private static LocalDate weekOf(long day) {
+        return Instant.ofEpochMilli(day).atZone(ZoneId.systemDefault()).toLocalDate()
+                .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+}
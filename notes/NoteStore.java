@@ -0,0 +1,1137 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import diagnostics.Metrics;
+import diagnostics.StoreReadEvent;
+import diagnostics.StoreWriteEvent;
+
+/**
+ * Persists the notes of a notebook as a snapshot file plus an append-only journal, and
+ * keeps the notebook opened from it in step with writes made by other processes.
+ *
+ * <p>The snapshot is the serialized note list the application has always written,
+ * followed by the sequence number of the last change it contains, so it stays readable by
+ * older versions. Saving the notebook returned by {@link #open()} appends one journal
+ * record per changed note instead of rewriting the snapshot, and the journal is folded back
+ * into the snapshot once it outgrows it. Records carry increasing sequence numbers, so a
+ * reader that has applied everything up to some number only reads the records after it.</p>
+ *
+ * <p>Processes sharing the store coordinate through an advisory lock on a sidecar lock
+ * file: readers take it shared, writers exclusive. Before appending, a writer merges the
+ * records other processes appended since its last read. {@link #watch(Runnable)} notices
+ * such writes as they happen and merges them into the open notebook, at a cost
+ * proportional to the change rather than to the notebook. Each file is expected to be
+ * used by a single store per process.</p>
+ *
+ * <p>The tag bitmaps of the notebook are checkpointed to a sidecar file together with each
+ * snapshot, tagged with its sequence number. Opening the store reuses them for every note
+ * the journal has not changed since, so only those notes are indexed again; a missing or
+ * outdated checkpoint is rebuilt from the notes and written with the next save.</p>
+ *
+ * <p>The content of note attachments is kept in a sidecar {@link AttachmentStore}, so the
+ * records only carry references to it. Writing a snapshot frees the attachments that no
+ * note or saved version refers to any more.</p>
+ *
+ * <p>Saves are serialized so that concurrent savers never interleave, and
+ * {@link #scheduleSave(Notebook)} coalesces bursts of changes, for example from the HTTP
+ * API, into a single background write. A save that appends several records frames them as
+ * one batch that readers apply atomically, serialized through a single object stream so
+ * that texts the notes share are written once per batch, as they are once per snapshot.
+ * The save syncs the journal before returning;
+ * {@link #commit(Notebook)} lets concurrent callers, such as committing
+ * {@link NoteTransaction}s, share one such save.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class NoteStore {
+    /** Marks the start of a journal file */
+    private static final int JOURNAL_MAGIC = 0x4E4A524E;
+
+    /** Marks the start of a tag bitmap checkpoint */
+    private static final int TAGS_MAGIC = 0x4E544147;
+
+    static final int JOURNAL_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    static final int RECORD_HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Note identifier of a record that starts a batch; its body is the number of records
+     * in the batch
+     */
+    private static final long BATCH_ID = 0;
+
+    /**
+     * Batch flag: the notes of the batch are written through one object stream, split at
+     * note boundaries across its records, so content they share is written once
+     */
+    private static final int SHARED_STREAM = 1;
+
+    /** Journal size below which the journal is never folded into the snapshot */
+    private static final long MIN_COMPACT_SIZE = 4L * 1024 * 1024;
+
+    private static final Metrics.Histogram SAVE_TIME = Metrics.histogram("store.save.nanos");
+    private static final Metrics.Histogram OPEN_TIME = Metrics.histogram("store.open.nanos");
+    private static final Metrics.Histogram REFRESH_TIME = Metrics.histogram("store.refresh.nanos");
+    private static final Metrics.Histogram SNAPSHOT_SERIALIZE_TIME = Metrics.histogram("store.snapshot.serialize.nanos");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("store.bytes.written");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("store.bytes.read");
+    private static final Metrics.Counter NOTES_WRITTEN = Metrics.counter("store.notes.written");
+    private static final Metrics.Counter NOTES_READ = Metrics.counter("store.notes.read");
+    private static final Metrics.Histogram COMMIT_TIME = Metrics.histogram("store.commit.nanos");
+    private static final Metrics.Histogram COMMIT_GROUP_SIZE = Metrics.histogram("store.commit.group");
+
+    private final Path file;
+    private final Path journal;
+    private final Path lockFile;
+    private final Path tagsFile;
+    private final AttachmentStore attachments;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-store-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private volatile Consumer<IOException> errorHandler = e -> System.out.println(e.getMessage());
+
+    private Notebook openNotebook;
+    /** Notebook last given up through {@link #close()}, which must not replace the store later */
+    private WeakReference<Notebook> closedNotebook;
+    private long lastSeq;
+    private long journalBase = -1;
+    private long journalOffset;
+    private FileStamp snapshotStamp;
+    private boolean snapshotRequired;
+    private boolean tagCheckpointRequired;
+    private WatchService watchService;
+    private volatile Runnable changeListener;
+
+    /** Guards the group commit state below, never held while waiting for the store */
+    private final Object commitLock = new Object();
+    /** Group that callers of {@link #commit(Notebook)} join while another group is written */
+    private CommitGroup nextCommit;
+    private boolean committing;
+
+    /**
+     * Modification time and size used to notice a snapshot rewritten by another process.
+     */
+    private record FileStamp(long modified, long size) {
+    }
+
+    /**
+     * Notes read from the snapshot and journal, and the journal position they end at.
+     */
+    private record State(List<Note> notes, long seq, long journalBase, long journalOffset, boolean idsAssigned,
+            long snapshotSeq, List<Change> changes) {
+    }
+
+    /**
+     * A journal record: the stored note, or null when the note was removed.
+     */
+    private record Change(long seq, long id, Note note) {
+    }
+
+    /**
+     * Callers of {@link #commit(Notebook)} whose changes are written by one save.
+     */
+    private static final class CommitGroup {
+        private int members;
+        private boolean done;
+        private IOException failure;
+    }
+
+    /**
+     * Work done while the store is locked.
+     */
+    @FunctionalInterface
+    private interface LockedAction<T> {
+        T run() throws IOException, ClassNotFoundException;
+    }
+
+    /**
+     * Creates a store writing to the given file.
+     *
+     * @param file the serialized note file
+     */
+    public NoteStore(Path file) {
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + ".journal");
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        this.tagsFile = file.resolveSibling(file.getFileName() + ".tags");
+        this.attachments = new AttachmentStore(file.resolveSibling(file.getFileName() + ".attachments"));
+        Metrics.gauge("store.journal.bytes", () -> {
+            synchronized (this) {
+                return journalOffset;
+            }
+        });
+    }
+
+    /** @return the file this store reads and writes */
+    public Path getFile() {
+        return file;
+    }
+
+    /** @return the store holding the content of the attachments of the notes */
+    public AttachmentStore getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * Sets the handler notified when a scheduled background save or a background reload
+     * fails.
+     *
+     * @param errorHandler the handler to call with the failure
+     */
+    public void setErrorHandler(Consumer<IOException> errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Reads all notes from the store, waiting for a scheduled save to finish first. The
+     * notes are not tracked by the store; use {@link #open()} to get a notebook that saves
+     * incrementally.
+     *
+     * @return the stored notes in saved order, empty if the store does not exist yet
+     * @throws IOException if the file cannot be read
+     * @throws ClassNotFoundException if the file contains unknown classes
+     */
+    public List<Note> load() throws IOException, ClassNotFoundException {
+        awaitScheduledSave();
+        synchronized (this) {
+            return locked(true, () -> readState().notes());
+        }
+    }
+
+    /**
+     * Reads the store into a notebook whose later saves append only the changed notes, and
+     * which {@link #refresh(Notebook)} and {@link #watch(Runnable)} keep up to date.
+     *
+     * @return the notebook holding the stored notes
+     * @throws IOException if the file cannot be read
+     * @throws ClassNotFoundException if the file contains unknown classes
+     */
+    public Notebook open() throws IOException, ClassNotFoundException {
+        awaitScheduledSave();
+        long start = Metrics.start();
+        synchronized (this) {
+            return locked(true, () -> {
+                FileStamp stamp = stamp(file);
+                State state = readState();
+                TagIndex tags = state.idsAssigned() ? null : readTagCheckpoint(state);
+                Notebook notebook = new Notebook(state.notes(), tags);
+                openNotebook = notebook;
+                tagCheckpointRequired = tags == null;
+                lastSeq = state.seq();
+                journalBase = state.journalBase();
+                journalOffset = state.journalOffset();
+                snapshotStamp = stamp;
+                snapshotRequired = state.idsAssigned() || stamp == null;
+                OPEN_TIME.recordSince(start);
+                return notebook;
+            });
+        }
+    }
+
+    /**
+     * Checks whether saves of the notebook are incremental and other writers are merged
+     * into it.
+     *
+     * @param notebook the notebook to check
+     * @return true if the notebook was opened or last saved through this store
+     */
+    public synchronized boolean isOpen(Notebook notebook) {
+        return notebook == openNotebook;
+    }
+
+    /**
+     * Writes the changes of the notebook to the store. For the open notebook, changes made
+     * by other processes are merged first and only the changed notes are appended to the
+     * journal. Any other notebook replaces the contents of the store and becomes the open
+     * one.
+     *
+     * @param notebook the notebook to save
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save(Notebook notebook) throws IOException {
+        long start = Metrics.start();
+        if (closedNotebook != null && closedNotebook.get() == notebook) {
+            throw new IOException("The notebook was closed and is no longer saved to " + file);
+        }
+        try {
+            locked(false, () -> {
+                if (notebook != openNotebook) {
+                    writeSnapshot(notebook, Math.max(lastSeq, lastJournalSeq()) + 1);
+                    return null;
+                }
+                catchUp(notebook);
+                if (snapshotRequired) {
+                    writeSnapshot(notebook, lastSeq + 1);
+                    return null;
+                }
+                appendChanges(notebook);
+                if (journalOffset > MIN_COMPACT_SIZE && (snapshotStamp == null || journalOffset > snapshotStamp.size())) {
+                    writeSnapshot(notebook, lastSeq);
+                }
+                return null;
+            });
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in note store: " + e.getMessage(), e);
+        } finally {
+            SAVE_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Saves the notebook on a background thread. Calls made while a save is still queued
+     * are merged into it.
+     *
+     * @param notebook the notebook to save
+     */
+    public void scheduleSave(Notebook notebook) {
+        if (savePending.compareAndSet(false, true)) {
+            writer.execute(() -> {
+                savePending.set(false);
+                try {
+                    save(notebook);
+                } catch (IOException e) {
+                    errorHandler.accept(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Saves the notebook and returns once its changes are on disk. Callers arriving while
+     * another commit is being written wait for it and are then saved together by one of
+     * them, so concurrent commits share a single journal write and sync.
+     *
+     * @param notebook the notebook to save
+     * @throws IOException if the file cannot be written, or the thread was interrupted
+     *                     while waiting for the commit in progress
+     */
+    public void commit(Notebook notebook) throws IOException {
+        long start = Metrics.start();
+        CommitGroup group;
+        int members;
+        synchronized (commitLock) {
+            if (nextCommit == null) {
+                nextCommit = new CommitGroup();
+            }
+            group = nextCommit;
+            group.members++;
+            while (!group.done && (committing || nextCommit != group)) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for a commit", e);
+                }
+            }
+            if (group.done) {
+                if (group.failure != null) {
+                    throw new IOException(group.failure.getMessage(), group.failure);
+                }
+                COMMIT_TIME.recordSince(start);
+                return;
+            }
+            // the changes of every member are in the notebook, and no one joins any more
+            committing = true;
+            nextCommit = null;
+            members = group.members;
+        }
+        IOException failure = null;
+        try {
+            save(notebook);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        } finally {
+            synchronized (commitLock) {
+                group.failure = failure;
+                group.done = true;
+                committing = false;
+                commitLock.notifyAll();
+            }
+            COMMIT_GROUP_SIZE.record(members);
+            COMMIT_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Merges the changes other processes wrote since the last read into the open notebook.
+     *
+     * @param notebook the open notebook
+     * @return number of notes added, changed or removed; 0 if the notebook is not open
+     * @throws IOException if the store cannot be read
+     */
+    public synchronized int refresh(Notebook notebook) throws IOException {
+        if (notebook != openNotebook) {
+            return 0;
+        }
+        long start = Metrics.start();
+        try {
+            return locked(true, () -> catchUp(notebook));
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in note store: " + e.getMessage(), e);
+        } finally {
+            REFRESH_TIME.recordSince(start);
+        }
+    }
+
+    /**
+     * Starts a background thread that refreshes the open notebook whenever another process
+     * writes to the store. Calling it again only replaces the listener.
+     *
+     * @param listener called on the watcher thread after changes were merged, or null when
+     *                 the changes are followed through {@link Notebook#subscribe}
+     * @throws IOException if the directory of the store cannot be watched
+     */
+    public synchronized void watch(Runnable listener) throws IOException {
+        changeListener = listener;
+        if (watchService != null) {
+            return;
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        WatchService service = directory.getFileSystem().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        Thread thread = new Thread(() -> watchLoop(service), "note-store-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the watcher started by {@link #watch(Runnable)}.
+     */
+    public synchronized void stopWatching() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * Stops watching and lets go of the open notebook once a scheduled save has finished,
+     * so the notebook can be garbage collected. Later saves of that notebook fail instead of
+     * replacing the store; save it before closing if it has changes. The store can be
+     * opened again.
+     *
+     * @throws IOException if the scheduled save could not be waited for
+     */
+    public void close() throws IOException {
+        awaitScheduledSave();
+        synchronized (this) {
+            stopWatching();
+            if (openNotebook != null) {
+                closedNotebook = new WeakReference<>(openNotebook);
+                openNotebook = null;
+            }
+        }
+    }
+
+    /**
+     * A store file captured by {@link #capture()}.
+     *
+     * @param name file name, relative to the directory of the store
+     * @param path the file
+     * @param channel the open file, or null for a file that does not change until the
+     *                capture ends and is opened when it is read
+     * @param length number of bytes belonging to the captured state
+     */
+    record CapturedFile(String name, Path path, FileChannel channel, long length) {
+    }
+
+    /**
+     * Opens the snapshot, journal and tag checkpoint as they are at this moment, so that a
+     * backup can read one consistent state without holding up writers for its duration.
+     * The snapshot and checkpoint are only ever replaced by new files and the journal is
+     * only appended to until it is replaced, so the open channels keep showing the captured
+     * state up to the captured lengths. The attachments are captured with them, see
+     * {@link AttachmentStore#capture()}, and kept until {@link #endCapture(List)}.
+     *
+     * @return the files that exist; the caller passes them to {@link #endCapture(List)}
+     * @throws IOException if a file cannot be opened
+     */
+    List<CapturedFile> capture() throws IOException {
+        awaitScheduledSave();
+        synchronized (this) {
+            List<CapturedFile> files = new ArrayList<>();
+            boolean captured = false;
+            try {
+                locked(true, () -> {
+                    for (Path path : List.of(file, journal, tagsFile)) {
+                        try {
+                            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                            files.add(new CapturedFile(path.getFileName().toString(), path, channel, channel.size()));
+                        } catch (NoSuchFileException e) {
+                            // not written yet
+                        }
+                    }
+                    // last, so that nothing can fail once the attachments are held
+                    files.addAll(attachments.capture());
+                    return null;
+                });
+                captured = true;
+                return files;
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            } finally {
+                if (!captured) {
+                    closeChannels(files);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the channels of a capture and lets the attachments be freed again.
+     *
+     * @param files the files returned by {@link #capture()}
+     * @throws IOException if a channel cannot be closed
+     */
+    void endCapture(List<CapturedFile> files) throws IOException {
+        try {
+            closeChannels(files);
+        } finally {
+            attachments.endCapture();
+        }
+    }
+
+    private static void closeChannels(List<CapturedFile> files) throws IOException {
+        for (CapturedFile file : files) {
+            if (file.channel() != null) {
+                file.channel().close();
+            }
+        }
+    }
+
+    private void watchLoop(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean relevant = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object changed = event.context();
+                    relevant |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || file.getFileName().equals(changed) || journal.getFileName().equals(changed);
+                }
+                key.reset();
+                if (relevant) {
+                    Notebook notebook;
+                    synchronized (this) {
+                        notebook = openNotebook;
+                    }
+                    try {
+                        Runnable listener = changeListener;
+                        if (notebook != null && refresh(notebook) > 0 && listener != null) {
+                            listener.run();
+                        }
+                    } catch (IOException e) {
+                        errorHandler.accept(e);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // watching stopped
+        }
+    }
+
+    /**
+     * Brings the open notebook up to date with the store. Reads only the journal records
+     * after the last applied one, unless the snapshot was rewritten with changes this store
+     * has not seen, in which case everything is read again.
+     */
+    private int catchUp(Notebook notebook) throws IOException, ClassNotFoundException {
+        FileStamp stamp = stamp(file);
+        List<Change> changes = new ArrayList<>();
+        long base;
+        long end;
+        try (FileChannel channel = openJournal()) {
+            base = channel == null ? -1 : readJournalBase(channel);
+            boolean compacted = base != journalBase;
+            if (compacted ? base < 0 || base > lastSeq : !Objects.equals(stamp, snapshotStamp)) {
+                return reload(notebook, stamp);
+            }
+            StoreReadEvent event = new StoreReadEvent();
+            event.begin();
+            long from = compacted ? JOURNAL_HEADER_SIZE : journalOffset;
+            end = base < 0 ? 0 : readJournal(channel, from, lastSeq, changes);
+            if (!changes.isEmpty()) {
+                recordRead(event, "incremental", end - from, changes.size());
+            }
+        }
+        int applied = 0;
+        for (Change change : changes) {
+            if (notebook.applyStored(change.id(), change.note())) {
+                applied++;
+            }
+            lastSeq = Math.max(lastSeq, change.seq());
+        }
+        journalBase = base;
+        journalOffset = end;
+        snapshotStamp = stamp;
+        return applied;
+    }
+
+    private int reload(Notebook notebook, FileStamp stamp) throws IOException, ClassNotFoundException {
+        State state = readState();
+        Set<Long> stored = new HashSet<>();
+        int applied = 0;
+        for (Note note : state.notes()) {
+            stored.add(note.getId());
+            if (notebook.applyStored(note.getId(), note)) {
+                applied++;
+            }
+        }
+        for (Note note : notebook.getNotes()) {
+            if (!stored.contains(note.getId()) && notebook.applyStored(note.getId(), null)) {
+                applied++;
+            }
+        }
+        lastSeq = state.seq();
+        journalBase = state.journalBase();
+        journalOffset = state.journalOffset();
+        snapshotStamp = stamp;
+        snapshotRequired |= state.idsAssigned() || stamp == null;
+        return applied;
+    }
+
+    /**
+     * Appends one record per note changed since the last save, dropping any record left
+     * incomplete by a writer that crashed, and syncs the journal. Several records are
+     * framed as a batch so readers apply all of them or, if the write was cut short,
+     * none.
+     */
+    private void appendChanges(Notebook notebook) throws IOException {
+        StoreWriteEvent event = new StoreWriteEvent();
+        event.begin();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        long seq = lastSeq;
+        ByteArrayOutputStream tags = null;
+        synchronized (notebook) {
+            Map<Long, Note> changes = notebook.drainChanges();
+            ByteArrayOutputStream shared = null;
+            ObjectOutputStream sharedOut = null;
+            if (changes.size() > 1) {
+                writeBatchHeader(out, seq + 1, changes.size());
+                shared = new ByteArrayOutputStream();
+                sharedOut = new ObjectOutputStream(shared);
+            }
+            for (Map.Entry<Long, Note> change : changes.entrySet()) {
+                long start = Metrics.start();
+                byte[] bytes = null;
+                if (change.getValue() != null && sharedOut != null) {
+                    // the record holds what the stream wrote for this note, plus the
+                    // stream header for the first one
+                    sharedOut.writeObject(change.getValue());
+                    sharedOut.flush();
+                    bytes = shared.toByteArray();
+                    shared.reset();
+                } else if (change.getValue() != null) {
+                    bytes = serialize(change.getValue());
+                }
+                if (Metrics.ENABLED && bytes != null) {
+                    Metrics.histogram("store.serialize." + change.getValue().getClass().getSimpleName() + ".nanos")
+                            .recordSince(start);
+                }
+                writeRecord(out, ++seq, change.getKey(), bytes);
+            }
+            if (tagCheckpointRequired && seq > lastSeq) {
+                tags = tagCheckpoint(notebook, seq);
+            }
+        }
+        if (seq == lastSeq) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (journalBase < 0) {
+                channel.truncate(0);
+                writeFully(channel, journalHeader(lastSeq), 0);
+                journalBase = lastSeq;
+                journalOffset = JOURNAL_HEADER_SIZE;
+            }
+            channel.truncate(journalOffset);
+            writeFully(channel, ByteBuffer.wrap(buffer.toByteArray()), journalOffset);
+            channel.force(false);
+        } catch (IOException e) {
+            snapshotRequired = true;
+            throw e;
+        }
+        journalOffset += buffer.size();
+        recordWrite(event, "journal", buffer.size(), (int) (seq - lastSeq));
+        lastSeq = seq;
+        if (tags != null) {
+            writeTagCheckpoint(tags);
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the notebook and starts an empty journal after it.
+     *
+     * @param seq sequence number the snapshot is written with; raised if the notebook has
+     *            unsaved changes so that other processes reload it
+     */
+    private void writeSnapshot(Notebook notebook, long seq) throws IOException {
+        StoreWriteEvent event = new StoreWriteEvent();
+        event.begin();
+        int notes;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        ByteArrayOutputStream tags;
+        Set<Long> referenced = new HashSet<>();
+        try {
+            long start = Metrics.start();
+            NotebookSnapshot state;
+            synchronized (notebook) {
+                if (!notebook.drainChanges().isEmpty()) {
+                    seq = Math.max(seq, lastSeq + 1);
+                }
+                state = notebook.snapshot();
+                tags = tagCheckpoint(notebook, seq);
+                // undo may restore notes the snapshot no longer holds
+                notebook.collectHistoryAttachments(referenced);
+            }
+            // the frozen notes are serialized while the notebook is free to change again
+            List<Note> saved = state.getNotes();
+            try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+                out.writeObject(saved);
+                out.writeLong(seq);
+            }
+            notes = saved.size();
+            for (Note note : saved) {
+                note.collectAttachments(referenced);
+            }
+            SNAPSHOT_SERIALIZE_TIME.recordSince(start);
+            replace(file, buffer);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(journalHeader(seq).array());
+            replace(journal, header);
+        } catch (IOException e) {
+            snapshotRequired = true;
+            throw e;
+        }
+        openNotebook = notebook;
+        lastSeq = seq;
+        journalBase = seq;
+        journalOffset = JOURNAL_HEADER_SIZE;
+        snapshotStamp = stamp(file);
+        snapshotRequired = false;
+        writeTagCheckpoint(tags);
+        recordWrite(event, "snapshot", buffer.size(), notes);
+        try {
+            attachments.collectGarbage(referenced);
+        } catch (IOException e) {
+            // the attachments stay until the next snapshot
+            errorHandler.accept(e);
+        }
+    }
+
+    /**
+     * Serializes the tag bitmaps of the notebook, which must be locked and saved up to the
+     * given sequence number.
+     */
+    private static ByteArrayOutputStream tagCheckpoint(Notebook notebook, long seq) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(TAGS_MAGIC);
+        out.writeLong(seq);
+        notebook.writeTagIndex(out);
+        out.flush();
+        return buffer;
+    }
+
+    /**
+     * Replaces the tag checkpoint. A failure is not reported: the notes are saved, and the
+     * checkpoint is only an accelerator that the next open rebuilds if it is outdated.
+     */
+    private void writeTagCheckpoint(ByteArrayOutputStream tags) {
+        try {
+            replace(tagsFile, tags);
+            tagCheckpointRequired = false;
+        } catch (IOException e) {
+            tagCheckpointRequired = true;
+        }
+    }
+
+    /**
+     * Reads the tag checkpoint and removes from it the notes the journal changed after it
+     * was written.
+     *
+     * @return the bitmaps, or null if the checkpoint is missing, unreadable, or older than
+     *         the snapshot
+     */
+    private TagIndex readTagCheckpoint(State state) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(tagsFile)))) {
+            if (in.readInt() != TAGS_MAGIC) {
+                return null;
+            }
+            long seq = in.readLong();
+            if (seq < state.snapshotSeq() || seq > state.seq()) {
+                return null;
+            }
+            TagIndex tags = TagIndex.readFrom(in);
+            for (Change change : state.changes()) {
+                if (change.seq() > seq) {
+                    tags.forget(change.id());
+                }
+            }
+            return tags;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void recordWrite(StoreWriteEvent event, String kind, long bytes, int notes) {
+        BYTES_WRITTEN.add(bytes);
+        NOTES_WRITTEN.add(notes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.bytes = bytes;
+            event.notes = notes;
+            event.commit();
+        }
+    }
+
+    private static void recordRead(StoreReadEvent event, String kind, long bytes, int notes) {
+        BYTES_READ.add(bytes);
+        NOTES_READ.add(notes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.kind = kind;
+            event.bytes = bytes;
+            event.notes = notes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Reads the snapshot and replays the journal records that came after it.
+     */
+    private State readState() throws IOException, ClassNotFoundException {
+        StoreReadEvent event = new StoreReadEvent();
+        event.begin();
+        long bytes = 0;
+        Map<Long, Note> notes = new LinkedHashMap<>();
+        long snapshotSeq = 0;
+        long unassigned = 0;
+        if (Files.exists(file)) {
+            bytes += Files.size(file);
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                for (Object stored : (List<?>) in.readObject()) {
+                    Note note = (Note) stored;
+                    notes.put(note.getId() > 0 && !notes.containsKey(note.getId()) ? note.getId() : --unassigned, note);
+                }
+                try {
+                    snapshotSeq = in.readLong();
+                } catch (EOFException e) {
+                    // written before the journal existed
+                }
+            }
+        }
+        long seq = snapshotSeq;
+        long base = -1;
+        long end = 0;
+        List<Change> changes = new ArrayList<>();
+        try (FileChannel channel = openJournal()) {
+            if (channel != null && (base = readJournalBase(channel)) >= 0) {
+                end = readJournal(channel, JOURNAL_HEADER_SIZE, snapshotSeq, changes);
+                bytes += end;
+                for (Change change : changes) {
+                    Note replaced = change.note() == null
+                            ? notes.remove(change.id())
+                            : notes.put(change.id(), change.note());
+                    if (replaced != null) {
+                        replaced.releaseBlobs();
+                    }
+                    seq = Math.max(seq, change.seq());
+                }
+            }
+        }
+        recordRead(event, "full", bytes, notes.size());
+        return new State(new ArrayList<>(notes.values()), seq, base, end, unassigned < 0, snapshotSeq, changes);
+    }
+
+    /**
+     * Reads the complete journal records from the given offset, keeping those newer than
+     * a sequence number. A batch counts as complete only once all its records are.
+     *
+     * @return the offset after the last complete record
+     */
+    private static long readJournal(FileChannel channel, long offset, long afterSeq, List<Change> changes)
+            throws IOException, ClassNotFoundException {
+        channel.position(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        try {
+            while (true) {
+                offset += readRecord(in, afterSeq, changes);
+            }
+        } catch (EOFException e) {
+            return offset;
+        }
+    }
+
+    /**
+     * Reads one record, or a whole batch, keeping the changes newer than a sequence
+     * number.
+     *
+     * @return number of bytes read
+     * @throws EOFException if the record or batch is incomplete, leaving the changes as
+     *                      they were
+     */
+    private static long readRecord(DataInputStream in, long afterSeq, List<Change> changes)
+            throws IOException, ClassNotFoundException {
+        long seq = in.readLong();
+        long id = in.readLong();
+        int length = in.readInt();
+        if (id == BATCH_ID) {
+            int count = in.readInt();
+            int flags = length >= 2 * Integer.BYTES ? in.readInt() : 0;
+            in.skipNBytes(length - (length >= 2 * Integer.BYTES ? 2 : 1) * Integer.BYTES);
+            long read = RECORD_HEADER_SIZE + length;
+            List<Change> batch = new ArrayList<>(count);
+            if ((flags & SHARED_STREAM) != 0) {
+                read += readSharedBatch(in, count, afterSeq, batch);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    read += readRecord(in, afterSeq, batch);
+                }
+            }
+            changes.addAll(batch);
+            return read;
+        }
+        Note note = null;
+        if (length >= 0 && seq > afterSeq) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            try (ObjectInputStream record = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                note = (Note) record.readObject();
+            }
+        } else if (length > 0) {
+            in.skipNBytes(length);
+        }
+        if (seq > afterSeq) {
+            changes.add(new Change(seq, id, note));
+        }
+        return RECORD_HEADER_SIZE + Math.max(length, 0);
+    }
+
+    /**
+     * Reads the records of a batch written through one object stream. Their bodies only
+     * form a stream together, so they are all read before any note is deserialized.
+     *
+     * @return number of bytes read
+     */
+    private static long readSharedBatch(DataInputStream in, int count, long afterSeq, List<Change> changes)
+            throws IOException, ClassNotFoundException {
+        long[] seqs = new long[count];
+        long[] ids = new long[count];
+        boolean[] removed = new boolean[count];
+        ByteArrayOutputStream bodies = new ByteArrayOutputStream();
+        long read = 0;
+        for (int i = 0; i < count; i++) {
+            seqs[i] = in.readLong();
+            ids[i] = in.readLong();
+            int length = in.readInt();
+            removed[i] = length < 0;
+            if (length > 0) {
+                byte[] body = new byte[length];
+                in.readFully(body);
+                bodies.write(body);
+            }
+            read += RECORD_HEADER_SIZE + Math.max(length, 0);
+        }
+        if (seqs[count - 1] <= afterSeq) {
+            return read;
+        }
+        ObjectInputStream notes = bodies.size() > 0
+                ? new ObjectInputStream(new ByteArrayInputStream(bodies.toByteArray()))
+                : null;
+        for (int i = 0; i < count; i++) {
+            Note note = removed[i] ? null : (Note) notes.readObject();
+            if (seqs[i] > afterSeq) {
+                changes.add(new Change(seqs[i], ids[i], note));
+            }
+        }
+        return read;
+    }
+
+    /** @return the highest sequence number in the journal, 0 if there is none */
+    private long lastJournalSeq() throws IOException {
+        try (FileChannel channel = openJournal()) {
+            long seq = channel == null ? -1 : readJournalBase(channel);
+            if (seq < 0) {
+                return 0;
+            }
+            channel.position(JOURNAL_HEADER_SIZE);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            try {
+                while (true) {
+                    seq = Math.max(seq, in.readLong());
+                    in.readLong();
+                    in.skipNBytes(Math.max(in.readInt(), 0));
+                }
+            } catch (EOFException e) {
+                return seq;
+            }
+        }
+    }
+
+    /** @return the journal opened for reading, or null if there is none */
+    private FileChannel openJournal() throws IOException {
+        try {
+            return FileChannel.open(journal, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** @return the sequence number the journal starts after, or -1 if it has no header */
+    private long readJournalBase(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // keep reading
+        }
+        if (header.hasRemaining()) {
+            return -1;
+        }
+        header.flip();
+        if (header.getInt() != JOURNAL_MAGIC) {
+            throw new IOException("Not a note journal: " + journal);
+        }
+        return header.getLong();
+    }
+
+    /**
+     * Writes one journal record.
+     *
+     * @param bytes the serialized note, or null if the note was removed
+     */
+    static void writeRecord(DataOutputStream out, long seq, long id, byte[] bytes) throws IOException {
+        out.writeLong(seq);
+        out.writeLong(id);
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Writes the record starting a batch of the given number of records.
+     *
+     * @param seq sequence number of the first record of the batch
+     */
+    private static void writeBatchHeader(DataOutputStream out, long seq, int count) throws IOException {
+        out.writeLong(seq);
+        out.writeLong(BATCH_ID);
+        out.writeInt(2 * Integer.BYTES);
+        out.writeInt(count);
+        out.writeInt(SHARED_STREAM);
+    }
+
+    static ByteBuffer journalHeader(long base) {
+        ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putLong(base).flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+
+    static byte[] serialize(Note note) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(note);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes the contents to a temporary file that is synced and then atomically replaces
+     * the target.
+     */
+    private static void replace(Path target, ByteArrayOutputStream contents) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            contents.writeTo(Channels.newOutputStream(channel));
+            channel.force(false);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static FileStamp stamp(Path path) throws IOException {
+        try {
+            return new FileStamp(Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Runs an action while holding the advisory lock on the lock file.
+     *
+     * @param shared true for a read lock, false for the exclusive write lock
+     */
+    private <T> T locked(boolean shared, LockedAction<T> action) throws IOException, ClassNotFoundException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            channel.lock(0, Long.MAX_VALUE, shared);
+            return action.run();
+        }
+    }
+
+    private void awaitScheduledSave() throws IOException {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a pending save", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
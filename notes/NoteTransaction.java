@@ -0,0 +1,103 @@
+package notes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups edits of many notes of a {@link Notebook} so they are applied and saved together,
+ * for bulk actions such as postponing the deadlines of hundreds of notes.
+ *
+ * <p>Edits are only recorded until {@link #commit()}, which runs all of them under the
+ * notebook lock, so other threads see either none or all of them. Each edit therefore
+ * reads the values it changes, for example the current deadline, when it runs. A note gets
+ * one new version per transaction, and only if its edits actually changed it; unchanged
+ * notes are neither versioned nor written. If an edit fails, the notes are restored to
+ * their state from before the transaction. {@link #commit(NoteStore)} also writes the
+ * changes as one batch through {@link NoteStore#commit(Notebook)}, which shares a single
+ * write with the transactions committing at the same time.</p>
+ *
+ * <p>A transaction is used by one thread and can be committed or rolled back once.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class NoteTransaction {
+    private final Notebook notebook;
+    private final Map<Note, List<Notebook.NoteEdit>> edits = new LinkedHashMap<>();
+    private boolean finished;
+
+    NoteTransaction(Notebook notebook) {
+        this.notebook = notebook;
+    }
+
+    /**
+     * Records an edit of a note, to be applied on commit after the edits recorded before
+     * it.
+     *
+     * @param note a note of the notebook
+     * @param edit the changes to apply to the note
+     * @return this transaction
+     * @throws IllegalStateException if the transaction was already committed or rolled back
+     */
+    public NoteTransaction update(Note note, Notebook.NoteEdit edit) {
+        checkOpen();
+        edits.computeIfAbsent(note, n -> new ArrayList<>()).add(edit);
+        return this;
+    }
+
+    /** @return number of notes the transaction edits */
+    public int size() {
+        return edits.size();
+    }
+
+    /**
+     * Applies the edits to the notebook, leaving them to be saved with its next save.
+     *
+     * @return the notes that changed and got a new version
+     * @throws NoteException if a note is no longer part of the notebook or an edit rejects
+     *                       a value, in which case no note is changed
+     * @throws IllegalStateException if the transaction was already committed or rolled back
+     */
+    public List<Note> commit() throws NoteException {
+        checkOpen();
+        finished = true;
+        return edits.isEmpty() ? List.of() : notebook.apply(edits);
+    }
+
+    /**
+     * Applies the edits to the notebook and writes them to the store as one batch,
+     * returning once they are on disk.
+     *
+     * @param store the store the notebook is saved to
+     * @return the notes that changed and got a new version
+     * @throws NoteException if a note is no longer part of the notebook or an edit rejects
+     *                       a value, in which case nothing is changed or written
+     * @throws IOException if the store cannot be written; the changes stay in the notebook
+     *                     and are written with its next save
+     */
+    public List<Note> commit(NoteStore store) throws NoteException, IOException {
+        List<Note> changed = commit();
+        if (!changed.isEmpty()) {
+            store.commit(notebook);
+        }
+        return changed;
+    }
+
+    /**
+     * Discards the recorded edits without applying any of them.
+     */
+    public void rollback() {
+        finished = true;
+        edits.clear();
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Transaction already finished");
+        }
+    }
+}
@@ -0,0 +1,1022 @@
+package notes;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Flow;
+
+import diagnostics.Metrics;
+import diagnostics.SaveVersionEvent;
+
+/**
+ * Holds the notes of the application together with the in-memory indexes built over them.
+ *
+ * <p>All changes to notes that are part of a notebook should go through {@link #add(Note)},
+ * {@link #remove(Note)} and {@link #update(Note, NoteEdit)} so the indexes stay in step with
+ * the note fields. The notebook is thread-safe; loading threads may build a whole notebook
+ * before handing it over to the user interface.</p>
+ *
+ * <p>The notebook also records which notes changed since they were last saved, so that
+ * {@link NoteStore} can persist only those and merge in changes written by other
+ * processes. Field-level changes of the notes it holds can be followed through
+ * {@link #subscribe(Flow.Subscriber)}.</p>
+ *
+ * <p>After each operation the notebook stores a frozen copy of the notes it changed in an
+ * immutable {@link NotebookSnapshot}, which shares the copies of all other notes with the
+ * snapshot from before the operation. {@link #snapshot()} therefore returns a consistent
+ * view of every note without copying anything, and {@link #undo()} and {@link #redo()},
+ * which cover removals and transactions as well as edits, switch to the previous or next
+ * snapshot and put back only the notes that differ from it.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class Notebook {
+    private static final Metrics.Histogram SAVE_VERSION_TIME = Metrics.histogram("note.saveVersion.nanos");
+    private static final Metrics.Histogram VERSION_CHAIN_LENGTH = Metrics.histogram("note.versions");
+    /** Rough heap cost of the index entries and bookkeeping of one note */
+    private static final long INDEX_OVERHEAD = 512;
+    /** Number of operations that can be undone unless configured otherwise */
+    public static final int DEFAULT_UNDO_LIMIT = 100;
+
+    private final Map<Long, Note> notes = new LinkedHashMap<>();
+    /** Notes in notebook order, by the position they were added at */
+    private final NavigableMap<Long, Note> ordered = new TreeMap<>();
+    private final Map<Long, Long> positions = new HashMap<>();
+    private long nextPosition = 1;
+    private long nextId = 1;
+    private final Map<Long, Note> changes = new LinkedHashMap<>();
+    private final Set<Note> unsaved = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final TitleIndex titleIndex = new TitleIndex();
+    private final MinHashIndex duplicateIndex = new MinHashIndex();
+    private final FieldIndex fieldIndex = new FieldIndex();
+    private final TagIndex tagIndex;
+    private final NoteChangePublisher changePublisher = new NoteChangePublisher();
+    /** Size estimate of each indexed note, kept by identity because restored copies share the id */
+    private final Map<Note, Long> noteSizes = new IdentityHashMap<>();
+    private long notesSize;
+    /** Changes streamed to followers, null until a {@link ReplicationServer} asks for them */
+    private ReplicationLog replicationLog;
+
+    /** Frozen state of the notes as of the end of the last operation */
+    private NotebookSnapshot state = NotebookSnapshot.EMPTY;
+    /** Notes changed since the state was last frozen */
+    private final Set<Long> touched = new HashSet<>();
+    /** States before the operations that can be undone, latest first */
+    private final Deque<NotebookSnapshot> undoStates = new ArrayDeque<>();
+    /** States left by undone operations, the one to redo first */
+    private final Deque<NotebookSnapshot> redoStates = new ArrayDeque<>();
+    private int undoLimit = DEFAULT_UNDO_LIMIT;
+    /** Nesting of the operations in progress; the outermost one records the undo step */
+    private int operationDepth;
+    private NotebookSnapshot operationStart;
+    /** Note whose version was saved by the latest operation, whose edit joins that step */
+    private long versionSaved;
+
+    /**
+     * Edit applied to a note through {@link Notebook#update(Note, NoteEdit)}.
+     */
+    @FunctionalInterface
+    public interface NoteEdit {
+        /**
+         * Changes the fields of the note being updated.
+         *
+         * @throws NoteException if the new values are rejected
+         */
+        void apply() throws NoteException;
+    }
+
+    /**
+     * Creates an empty notebook.
+     */
+    public Notebook() {
+        tagIndex = new TagIndex();
+    }
+
+    /**
+     * Creates a notebook holding the given notes in their current order.
+     *
+     * @param loaded notes to add
+     */
+    public Notebook(Collection<? extends Note> loaded) {
+        this(loaded, null);
+    }
+
+    /**
+     * Creates a notebook holding the given notes, reusing tag bitmaps read from the store
+     * for the notes they still describe.
+     *
+     * @param loaded notes to add
+     * @param storedTags bitmaps covering the loaded notes except those removed from them
+     *                   through {@link TagIndex#forget(long)}, or null to index every note
+     */
+    Notebook(Collection<? extends Note> loaded, TagIndex storedTags) {
+        tagIndex = storedTags != null ? storedTags : new TagIndex();
+        for (Note note : loaded) {
+            nextId = Math.max(nextId, note.getId() + 1);
+        }
+        for (Note note : loaded) {
+            add(note, storedTags != null);
+        }
+        if (tagIndex.size() != notes.size()) {
+            // the stored bitmaps also describe notes that no longer exist
+            tagIndex.clear();
+            for (Note note : notes.values()) {
+                tagIndex.add(note);
+            }
+        }
+        changes.clear();
+        unsaved.clear();
+        freeze();
+    }
+
+    /**
+     * Appends a note to the notebook and indexes it. Notes without an identifier, or whose
+     * identifier is already taken, are given a new one.
+     *
+     * @param note the note to add
+     */
+    public synchronized void add(Note note) {
+        beginOperation();
+        try {
+            add(note, false);
+        } finally {
+            endOperation(false);
+        }
+    }
+
+    private void add(Note note, boolean tagsStored) {
+        if (note.getId() <= 0 || notes.containsKey(note.getId())) {
+            note.setId(nextId++);
+        }
+        place(note.getId(), note, nextPosition++);
+        index(note, tagsStored);
+        changed(note.getId(), note);
+        unsaved.add(note);
+        note.setChangePublisher(changePublisher);
+        note.fireChange(NoteChange.Field.NOTE, null, note);
+    }
+
+    /**
+     * Removes a note from the notebook and releases the blobs it references.
+     *
+     * @param note the note to remove
+     * @return true if the note was part of this notebook
+     */
+    public synchronized boolean remove(Note note) {
+        if (notes.get(note.getId()) != note) {
+            return false;
+        }
+        beginOperation();
+        try {
+            unplace(note.getId());
+            unindex(note, note.getTitle());
+            note.releaseBlobs();
+            changed(note.getId(), null);
+            unsaved.remove(note);
+            note.fireChange(NoteChange.Field.NOTE, note, null);
+            note.setChangePublisher(null);
+        } finally {
+            endOperation(false);
+        }
+        return true;
+    }
+
+    /**
+     * Applies an edit to a note of this notebook and re-indexes it afterwards. The indexes
+     * are updated even if the edit fails part way.
+     *
+     * @param note the note being edited
+     * @param edit the changes to apply
+     * @throws NoteException if the note is not part of the notebook, for instance because
+     *         undo replaced it, or the edit rejects a value
+     */
+    public synchronized void update(Note note, NoteEdit edit) throws NoteException {
+        if (notes.get(note.getId()) != note) {
+            throw new NoteException("Note '" + note.getTitle() + "' is not part of the notebook");
+        }
+        boolean afterVersion = operationDepth == 0 && versionSaved == note.getId();
+        String oldTitle = note.getTitle();
+        beginOperation();
+        try {
+            edit.apply();
+        } finally {
+            unindex(note, oldTitle);
+            index(note);
+            markChanged(note);
+            endOperation(afterVersion);
+        }
+    }
+
+    /**
+     * Runs several operations as one, which a single {@link #undo()} reverts.
+     *
+     * @param operations calls to the methods of this notebook
+     * @throws NoteException if an operation fails; those before it stay applied
+     */
+    public synchronized void group(NoteEdit operations) throws NoteException {
+        beginOperation();
+        try {
+            operations.apply();
+        } finally {
+            endOperation(false);
+        }
+    }
+
+    /**
+     * Starts a transaction grouping edits of many notes, which are applied together and
+     * saved as one batch.
+     *
+     * @return the new transaction
+     */
+    public NoteTransaction begin() {
+        return new NoteTransaction(this);
+    }
+
+    /**
+     * Applies the edits of a transaction while no other thread can see the notes half
+     * edited. Each changed note gets a version holding its state from before the
+     * transaction; notes the edits left as they were are not versioned and not saved. If
+     * an edit fails, every note is restored to its state from before the transaction,
+     * replacing the edited objects.
+     *
+     * @param edits the edits of each note, in the order they are applied
+     * @return the notes that changed
+     * @throws NoteException if a note is not part of the notebook or an edit fails
+     */
+    synchronized List<Note> apply(Map<Note, List<NoteEdit>> edits) throws NoteException {
+        for (Note note : edits.keySet()) {
+            if (notes.get(note.getId()) != note) {
+                throw new NoteException("Note '" + note.getTitle() + "' is not part of the notebook");
+            }
+        }
+        beginOperation();
+        try {
+            return applyEdits(edits);
+        } finally {
+            endOperation(false);
+        }
+    }
+
+    private List<Note> applyEdits(Map<Note, List<NoteEdit>> edits) throws NoteException {
+        List<Note> edited = new ArrayList<>(edits.size());
+        List<Note> originals = new ArrayList<>(edits.size());
+        List<List<ReplicationLog.Entry>> heldChanges = new ArrayList<>(edits.size());
+        try {
+            for (Map.Entry<Note, List<NoteEdit>> entry : edits.entrySet()) {
+                Note note = entry.getKey();
+                try {
+                    originals.add(note.clone());
+                } catch (CloneNotSupportedException e) {
+                    throw new IllegalStateException(e);
+                }
+                edited.add(note);
+                String oldTitle = note.getTitle();
+                if (replicationLog != null) {
+                    replicationLog.hold();
+                }
+                try {
+                    for (NoteEdit edit : entry.getValue()) {
+                        edit.apply();
+                    }
+                } finally {
+                    if (replicationLog != null) {
+                        heldChanges.add(replicationLog.release());
+                    }
+                    unindex(note, oldTitle);
+                    index(note);
+                }
+            }
+        } catch (NoteException | RuntimeException e) {
+            for (int i = edited.size() - 1; i >= 0; i--) {
+                restore(edited.get(i), originals.get(i));
+            }
+            throw e;
+        }
+        List<Note> changed = new ArrayList<>();
+        for (int i = 0; i < edited.size(); i++) {
+            Note note = edited.get(i);
+            Note original = originals.get(i);
+            if (original.sameContent(note)) {
+                original.releaseOwnBlobs();
+                continue;
+            }
+            // followers version their copy before repeating the edits, as it is still the original
+            saveVersion(note, original);
+            if (replicationLog != null) {
+                replicationLog.append(heldChanges.get(i));
+            }
+            fieldIndex.remove(note);
+            fieldIndex.add(note);
+            measure(note);
+            markChanged(note);
+            VERSION_CHAIN_LENGTH.record(note.getVersionSize() + 1);
+            changed.add(note);
+        }
+        return changed;
+    }
+
+    /**
+     * Puts the copy of a note taken before a failed transaction back in place of the
+     * edited note.
+     */
+    private void restore(Note edited, Note original) {
+        long id = edited.getId();
+        unindex(edited, edited.getTitle());
+        edited.releaseOwnBlobs();
+        edited.setChangePublisher(null);
+        place(id, original, positions.get(id));
+        index(original);
+        if (changes.get(id) == edited) {
+            changed(id, original);
+        }
+        if (unsaved.remove(edited)) {
+            unsaved.add(original);
+        }
+        original.setChangePublisher(changePublisher);
+        original.fireChange(NoteChange.Field.NOTE, edited, original);
+    }
+
+    /**
+     * Saves the current state of a note as a new version, the way every edit starts.
+     *
+     * @param note the note about to be edited
+     * @throws CloneNotSupportedException if the note cannot be cloned
+     */
+    public synchronized void saveVersion(Note note) throws CloneNotSupportedException {
+        SaveVersionEvent event = new SaveVersionEvent();
+        event.begin();
+        long start = Metrics.start();
+        boolean outermost = operationDepth == 0;
+        boolean recorded;
+        beginOperation();
+        try {
+            saveVersion(note, note.clone());
+            if (notes.get(note.getId()) == note) {
+                fieldIndex.remove(note);
+                fieldIndex.add(note);
+                measure(note);
+            }
+            markChanged(note);
+        } finally {
+            recorded = endOperation(false);
+        }
+        if (outermost && recorded) {
+            versionSaved = note.getId();
+        }
+        SAVE_VERSION_TIME.recordSince(start);
+        VERSION_CHAIN_LENGTH.record(note.getAllVersions().size());
+        event.end();
+        if (event.shouldCommit()) {
+            event.noteType = note.getClass().getSimpleName();
+            event.noteId = note.getId();
+            event.chainLength = note.getAllVersions().size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Adds a version to a note, recording it for followers as a version save rather than a
+     * move between versions.
+     */
+    private void saveVersion(Note note, Note version) {
+        if (replicationLog == null || notes.get(note.getId()) != note) {
+            note.saveVersion(version);
+            return;
+        }
+        replicationLog.savingVersion(note.getId());
+        try {
+            note.saveVersion(version);
+        } finally {
+            replicationLog.versionSaved();
+        }
+    }
+
+    /**
+     * Records that a note changed in a way that does not affect the indexes, such as moving
+     * between its versions, so the next save persists it.
+     *
+     * @param note the changed note
+     */
+    public synchronized void markChanged(Note note) {
+        if (notes.get(note.getId()) == note) {
+            beginOperation();
+            changed(note.getId(), note);
+            endOperation(false);
+        }
+    }
+
+    /**
+     * Checks whether notes changed since the notebook was last saved.
+     *
+     * @return true if a save would write anything
+     */
+    synchronized boolean hasChanges() {
+        return !changes.isEmpty();
+    }
+
+    /**
+     * Estimates the heap taken by the notes, their versions and their index entries. The
+     * estimate is kept up to date as notes change, so reading it is cheap.
+     *
+     * @return the estimated size in bytes
+     * @see Note#estimateSize()
+     */
+    public synchronized long estimatedSize() {
+        return notesSize + notes.size() * INDEX_OVERHEAD;
+    }
+
+    /**
+     * Returns the notes changed since the last call and forgets them. Removed notes map to
+     * null.
+     *
+     * @return changed notes by identifier, in the order they were first changed
+     */
+    synchronized Map<Long, Note> drainChanges() {
+        Map<Long, Note> drained = new LinkedHashMap<>(changes);
+        changes.clear();
+        unsaved.clear();
+        return drained;
+    }
+
+    /**
+     * Merges the stored state of a note, written by another process, into the notebook.
+     * Local changes that have not been saved yet win over the stored state, except that a
+     * new local note whose identifier was taken by the other process is given a new one.
+     *
+     * @param id the note identifier
+     * @param stored the stored note, or null if the note was removed
+     * @return true if the notebook changed
+     */
+    synchronized boolean applyStored(long id, Note stored) {
+        if (stored != null && id <= 0) {
+            add(stored, false);
+            forgetHistory();
+            return true;
+        }
+        Note local = notes.get(id);
+        if (changes.containsKey(id)) {
+            if (local == null || !unsaved.contains(local)) {
+                return false;
+            }
+            long position = positions.get(id);
+            unplace(id);
+            changes.remove(id);
+            nextId = Math.max(nextId, id + 1);
+            tagIndex.remove(local);
+            local.setId(nextId++);
+            tagIndex.add(local);
+            place(local.getId(), local, position);
+            changed(local.getId(), local);
+            local = null;
+        }
+        nextId = Math.max(nextId, id + 1);
+        if (local == null && stored == null) {
+            return false;
+        }
+        forgetHistory();
+        touched.add(id);
+        if (local != null) {
+            unindex(local, local.getTitle());
+            local.releaseBlobs();
+            local.setChangePublisher(null);
+        }
+        if (stored == null) {
+            if (local != null) {
+                changePublisher.publish(new NoteChange(id, local, NoteChange.Field.NOTE, local, null));
+            }
+            unplace(id);
+            return true;
+        }
+        place(id, stored, positionOf(id));
+        index(stored);
+        stored.setChangePublisher(changePublisher);
+        stored.fireChange(NoteChange.Field.NOTE, local, stored);
+        return true;
+    }
+
+    /**
+     * Puts a note received from a replication primary in place of the local note with the
+     * same identifier, keeping its position, or appends it. Unlike
+     * {@link #applyStored(long, Note)} local changes never win, as a follower mirrors the
+     * primary.
+     *
+     * @param id the note identifier
+     * @param replicated the note, or null if the primary removed it
+     */
+    synchronized void applyReplicated(long id, Note replicated) {
+        Note local = notes.get(id);
+        nextId = Math.max(nextId, id + 1);
+        forgetHistory();
+        if (local != null) {
+            unindex(local, local.getTitle());
+            local.releaseBlobs();
+            unsaved.remove(local);
+            local.setChangePublisher(null);
+        }
+        if (replicated == null) {
+            if (local != null) {
+                unplace(id);
+                changed(id, null);
+                changePublisher.publish(new NoteChange(id, local, NoteChange.Field.NOTE, local, null));
+            }
+            return;
+        }
+        replicated.setId(id);
+        place(id, replicated, positionOf(id));
+        index(replicated);
+        changed(id, replicated);
+        replicated.setChangePublisher(changePublisher);
+        replicated.fireChange(NoteChange.Field.NOTE, local, replicated);
+    }
+
+    /**
+     * Returns the log of changes streamed to replication followers, recording changes from
+     * now on if it did not exist yet.
+     *
+     * @return the replication log of this notebook
+     */
+    synchronized ReplicationLog replicationLog() {
+        if (replicationLog == null) {
+            replicationLog = new ReplicationLog();
+            changePublisher.setRecorder(replicationLog::record);
+        }
+        return replicationLog;
+    }
+
+    /**
+     * Returns the state of every note as of now. Taking a snapshot copies nothing: the
+     * notebook keeps its state as a snapshot, updated with the notes each operation changed.
+     *
+     * @return the current state, which never changes
+     */
+    public synchronized NotebookSnapshot snapshot() {
+        freeze();
+        return state;
+    }
+
+    /**
+     * Reverts the latest operation that has not been undone: an added, removed or edited
+     * note, a transaction, or a {@link #group(NoteEdit) group} of them. An edit together
+     * with the version saved right before it counts as one operation. The notes that
+     * differ from the state before the operation are replaced by copies of their earlier
+     * state, so references to them held elsewhere go stale.
+     *
+     * @return false if there is nothing to undo
+     */
+    public synchronized boolean undo() {
+        freeze();
+        if (undoStates.isEmpty()) {
+            return false;
+        }
+        redoStates.push(state);
+        switchTo(undoStates.pop());
+        return true;
+    }
+
+    /**
+     * Applies again the latest operation reverted by {@link #undo()}, unless another
+     * operation was made since.
+     *
+     * @return false if there is nothing to redo
+     */
+    public synchronized boolean redo() {
+        freeze();
+        if (redoStates.isEmpty()) {
+            return false;
+        }
+        undoStates.push(state);
+        switchTo(redoStates.pop());
+        return true;
+    }
+
+    /** @return true if {@link #undo()} would revert an operation */
+    public synchronized boolean canUndo() {
+        return !undoStates.isEmpty();
+    }
+
+    /** @return true if {@link #redo()} would apply an operation */
+    public synchronized boolean canRedo() {
+        return !redoStates.isEmpty();
+    }
+
+    /**
+     * Adds the identifiers of the attachments of notes that only the undo and redo history
+     * still holds, such as removed notes or replaced versions, so they are not collected
+     * while an undo can bring the notes back. Only the notes that differ from the current
+     * state are visited.
+     *
+     * @param ids the identifiers found so far
+     */
+    synchronized void collectHistoryAttachments(Set<Long> ids) {
+        NotebookSnapshot current = snapshot();
+        for (Deque<NotebookSnapshot> states : List.of(undoStates, redoStates)) {
+            for (NotebookSnapshot earlier : states) {
+                earlier.diff(current, (id, slot, now) -> {
+                    if (slot != null) {
+                        slot.note().collectAttachments(ids);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sets how many operations can be undone. Each kept step holds frozen copies of the
+     * notes its operation changed; everything else is shared with the current state.
+     *
+     * @param limit maximum number of steps kept, 0 to keep none
+     */
+    public synchronized void setUndoLimit(int limit) {
+        undoLimit = Math.max(0, limit);
+        trimHistory();
+    }
+
+    /**
+     * Writes the notes as a serialized list while no other thread can change them.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    public synchronized void writeNotes(ObjectOutputStream out) throws IOException {
+        out.writeObject(new ArrayList<>(ordered.values()));
+    }
+
+    /**
+     * Releases every note of the notebook and completes the change subscriptions, used
+     * when the notebook is replaced by a reload.
+     */
+    public synchronized void close() {
+        changePublisher.close();
+        duplicateIndex.clear();
+        undoStates.clear();
+        redoStates.clear();
+        for (Note note : notes.values()) {
+            note.releaseBlobs();
+            note.setChangePublisher(null);
+        }
+    }
+
+    /**
+     * Subscribes to the changes made to the notes of this notebook from now on, delivered
+     * in batches on a background thread.
+     *
+     * @param subscriber the subscriber, which controls the pace through its subscription
+     * @see NoteChangePublisher
+     */
+    public void subscribe(Flow.Subscriber<? super NoteChange.Batch> subscriber) {
+        changePublisher.subscribe(subscriber);
+    }
+
+    /**
+     * Returns typeahead suggestions for a partially typed title.
+     *
+     * @param query the text typed so far
+     * @param limit maximum number of suggestions
+     * @return matching notes, best matches first
+     * @see TitleIndex#suggest(String, int)
+     */
+    public synchronized List<Note> suggest(String query, int limit) {
+        return titleIndex.suggest(query, limit);
+    }
+
+    /**
+     * Finds notes whose text and snippet closely match the given note, which may or may
+     * not be part of the notebook yet. Notes changed in the last moments may be missing,
+     * as their signatures are computed in the background without holding the notebook.
+     *
+     * @param note the note to compare
+     * @param minSimilarity minimum estimated similarity between 0 and 1
+     * @return similar notes, most similar first
+     * @see MinHashIndex
+     */
+    public List<MinHashIndex.Match> findSimilar(Note note, double minSimilarity) {
+        return duplicateIndex.findSimilar(note, minSimilarity);
+    }
+
+    /**
+     * Groups the notes of the notebook into clusters of near-duplicates.
+     *
+     * @param minSimilarity minimum estimated similarity between 0 and 1
+     * @return clusters of at least two notes, most similar first
+     */
+    public List<MinHashIndex.Cluster> findDuplicateClusters(double minSimilarity) {
+        return duplicateIndex.clusters(minSimilarity);
+    }
+
+    /** @return number of notes not yet covered by near-duplicate lookups */
+    public int pendingDuplicateChecks() {
+        return duplicateIndex.pendingSize();
+    }
+
+    /**
+     * Runs a query against the notebook and returns one page of the sorted result.
+     *
+     * @param query the compiled query
+     * @param page zero-based page number
+     * @param pageSize maximum number of notes per page
+     * @return the requested page together with the total number of matches
+     * @see NoteQuery
+     */
+    public synchronized NoteQuery.Page query(NoteQuery query, int page, int pageSize) {
+        List<Note> matches = query.select(notes, fieldIndex, tagIndex);
+        int from = (int) Math.min(matches.size(), (long) Math.max(0, page) * pageSize);
+        int to = (int) Math.min(matches.size(), (long) from + pageSize);
+        return new NoteQuery.Page(new ArrayList<>(matches.subList(from, to)), matches.size(), page, pageSize);
+    }
+
+    /**
+     * Counts the notes carrying each tag, answered from the tag bitmaps.
+     *
+     * @return tags in use, most frequent first
+     */
+    public synchronized Map<String, Integer> tagCounts() {
+        return tagIndex.counts(null);
+    }
+
+    /**
+     * Counts the notes matching a query that carry each tag. Queries made only of tag,
+     * type and status terms are answered from the tag bitmaps without visiting the notes.
+     *
+     * @param query the compiled query
+     * @return tags of the matching notes, most frequent first
+     */
+    public synchronized Map<String, Integer> tagCounts(NoteQuery query) {
+        return tagIndex.counts(query.matching(notes, fieldIndex, tagIndex));
+    }
+
+    /**
+     * Writes the tag bitmaps while no other thread can change them.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    synchronized void writeTagIndex(DataOutputStream out) throws IOException {
+        tagIndex.writeTo(out);
+    }
+
+    /**
+     * Returns the dashboard aggregates, which the indexes keep up to date as notes change.
+     *
+     * @return the aggregates over the notes as they are now
+     */
+    public synchronized NoteStatistics statistics() {
+        return NoteStatistics.of(fieldIndex, notes.size());
+    }
+
+    /**
+     * Recomputes the dashboard aggregates from every note in parallel, holding the
+     * notebook for the duration. Meant to verify {@link #statistics()}.
+     *
+     * @return the aggregates over the notes as they are now
+     */
+    public synchronized NoteStatistics recomputeStatistics() {
+        return NoteStatistics.compute(notes.values());
+    }
+
+    /**
+     * Looks up a note by its identifier.
+     *
+     * @param id the note identifier
+     * @return the note, or null if no note has this identifier
+     */
+    public synchronized Note get(long id) {
+        return notes.get(id);
+    }
+
+    /**
+     * Looks up a testing note through the hash index on its test case field.
+     *
+     * @param testCase the exact test case identifier
+     * @return a testing note with this test case, or null if there is none
+     */
+    public synchronized TestingNote findByTestCase(String testCase) {
+        for (Note note : fieldIndex.testCase(testCase)) {
+            return (TestingNote) note;
+        }
+        return null;
+    }
+
+    /** @return a copy of the notes in insertion order */
+    public synchronized List<Note> getNotes() {
+        return new ArrayList<>(ordered.values());
+    }
+
+    /** @return number of notes */
+    public synchronized int size() {
+        return notes.size();
+    }
+
+    /** @return true if the notebook holds no notes */
+    public synchronized boolean isEmpty() {
+        return notes.isEmpty();
+    }
+
+    /**
+     * Starts an operation; the outermost one remembers the state to undo to.
+     */
+    private void beginOperation() {
+        if (operationDepth++ == 0) {
+            freeze();
+            operationStart = state;
+        }
+    }
+
+    /**
+     * Ends an operation. When the outermost one ends, the notes it changed are frozen and
+     * the state from before it becomes an undo step.
+     *
+     * @param continuesStep true to fold the operation into the latest undo step
+     * @return true if the outermost operation changed any note
+     */
+    private boolean endOperation(boolean continuesStep) {
+        if (--operationDepth > 0) {
+            return false;
+        }
+        versionSaved = 0;
+        freeze();
+        NotebookSnapshot start = operationStart;
+        operationStart = null;
+        if (state == start) {
+            return false;
+        }
+        if (!continuesStep || undoStates.isEmpty()) {
+            undoStates.push(start);
+            trimHistory();
+        }
+        redoStates.clear();
+        return true;
+    }
+
+    private void trimHistory() {
+        while (undoStates.size() > undoLimit) {
+            undoStates.removeLast();
+        }
+        if (undoLimit == 0) {
+            redoStates.clear();
+        }
+    }
+
+    /**
+     * Drops the undo and redo steps after a note was changed by another process or a
+     * replication primary, as undoing to a state from before would revert that change too.
+     */
+    private void forgetHistory() {
+        undoStates.clear();
+        redoStates.clear();
+        versionSaved = 0;
+    }
+
+    /**
+     * Stores frozen copies of the notes changed since the last call in the state, leaving
+     * the copies of every other note shared with the previous state.
+     */
+    private void freeze() {
+        if (touched.isEmpty()) {
+            return;
+        }
+        NotebookSnapshot frozen = state;
+        for (long id : touched) {
+            Note note = notes.get(id);
+            if (note == null) {
+                frozen = frozen.without(id);
+                continue;
+            }
+            long position = positions.get(id);
+            NotebookSnapshot.Slot slot = frozen.slot(id);
+            if (slot == null || slot.position() != position || !note.sameState(slot.note())) {
+                frozen = frozen.with(id, position, note.frozenCopy());
+            }
+        }
+        touched.clear();
+        state = frozen;
+    }
+
+    /**
+     * Makes the notes match another state, replacing only those whose frozen copies differ
+     * from the current state. The replaced notes are reported as changed so they are saved
+     * and replicated like any other change.
+     */
+    private void switchTo(NotebookSnapshot target) {
+        state.diff(target, (id, from, to) -> {
+            Note local = notes.get(id);
+            if (local != null) {
+                unindex(local, local.getTitle());
+                local.releaseBlobs();
+                local.setChangePublisher(null);
+                unplace(id);
+            }
+            if (to == null) {
+                unsaved.remove(local);
+                changes.put(id, null);
+                changePublisher.publish(new NoteChange(id, local, NoteChange.Field.NOTE, local, null));
+                return;
+            }
+            Note restored;
+            try {
+                restored = to.note().clone();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException(e);
+            }
+            for (Note version : restored.versions) {
+                // the frozen copy held no references, the live note does
+                version.retainBlobs();
+            }
+            place(id, restored, to.position());
+            index(restored);
+            changes.put(id, restored);
+            if (local != null && unsaved.remove(local)) {
+                unsaved.add(restored);
+            }
+            restored.setChangePublisher(changePublisher);
+            restored.fireChange(NoteChange.Field.NOTE, local, restored);
+        });
+        state = target;
+        versionSaved = 0;
+    }
+
+    /**
+     * Records that a note was added, replaced, changed or removed, for the next save and
+     * the next frozen state.
+     *
+     * @param note the note now held under the identifier, or null if it was removed
+     */
+    private void changed(long id, Note note) {
+        changes.put(id, note);
+        touched.add(id);
+    }
+
+    private void place(long id, Note note, long position) {
+        notes.put(id, note);
+        positions.put(id, position);
+        ordered.put(position, note);
+    }
+
+    private void unplace(long id) {
+        notes.remove(id);
+        Long position = positions.remove(id);
+        if (position != null) {
+            ordered.remove(position);
+        }
+    }
+
+    /** @return the position of the note held under an identifier, or a new last one */
+    private long positionOf(long id) {
+        Long position = positions.get(id);
+        return position != null ? position : nextPosition++;
+    }
+
+    private void index(Note note) {
+        index(note, false);
+    }
+
+    /**
+     * Adds a note to every index.
+     *
+     * @param tagsStored true if the tag bitmaps read from the store may already hold the note
+     */
+    private void index(Note note, boolean tagsStored) {
+        measure(note);
+        titleIndex.add(note);
+        duplicateIndex.add(note);
+        fieldIndex.add(note);
+        if (!tagsStored || !tagIndex.track(note)) {
+            tagIndex.add(note);
+        }
+    }
+
+    /**
+     * Updates the size estimate of a note after it changed.
+     */
+    private void measure(Note note) {
+        long size = note.estimateSize();
+        Long old = noteSizes.put(note, size);
+        notesSize += size - (old != null ? old : 0);
+    }
+
+    private void unindex(Note note, String indexedTitle) {
+        Long size = noteSizes.remove(note);
+        if (size != null) {
+            notesSize -= size;
+        }
+        titleIndex.remove(note, indexedTitle);
+        duplicateIndex.remove(note);
+        fieldIndex.remove(note);
+        tagIndex.remove(note);
+    }
+}
@@ -0,0 +1,94 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * State of every note of a {@link Notebook} at one point in time, as returned by
+ * {@link Notebook#snapshot()}.
+ *
+ * <p>A snapshot never changes. It holds a frozen copy of each note in a
+ * {@link PersistentLongMap}, and the snapshot taken after an operation shares every entry
+ * but those of the notes the operation changed with the one taken before, so the notebook
+ * can keep many of them for undo at little cost. The copies share their text, tags and saved
+ * versions with the notes they were taken from and must not be changed; clone a note to
+ * edit it.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public final class NotebookSnapshot {
+    static final NotebookSnapshot EMPTY = new NotebookSnapshot(PersistentLongMap.empty());
+
+    /**
+     * A frozen note with its place in the notebook order.
+     *
+     * @param position orders the notes of the notebook; kept while a note is replaced
+     * @param note the frozen copy
+     */
+    record Slot(long position, Note note) {
+    }
+
+    private final PersistentLongMap<Slot> slots;
+
+    private NotebookSnapshot(PersistentLongMap<Slot> slots) {
+        this.slots = slots;
+    }
+
+    /**
+     * Looks up a note by its identifier.
+     *
+     * @param id the note identifier
+     * @return the note as it was, or null if there was no note with this identifier
+     */
+    public Note get(long id) {
+        Slot slot = slots.get(id);
+        return slot != null ? slot.note() : null;
+    }
+
+    /** @return the notes as they were, in notebook order */
+    public List<Note> getNotes() {
+        List<Slot> ordered = slots.values();
+        ordered.sort(Comparator.comparingLong(Slot::position));
+        List<Note> notes = new ArrayList<>(ordered.size());
+        for (Slot slot : ordered) {
+            notes.add(slot.note());
+        }
+        return notes;
+    }
+
+    /** @return number of notes */
+    public int size() {
+        return slots.size();
+    }
+
+    Slot slot(long id) {
+        return slots.get(id);
+    }
+
+    /**
+     * @return a snapshot with the note stored under the identifier, which must be a
+     *         frozen copy
+     */
+    NotebookSnapshot with(long id, long position, Note frozen) {
+        return new NotebookSnapshot(slots.put(id, new Slot(position, frozen)));
+    }
+
+    NotebookSnapshot without(long id) {
+        PersistentLongMap<Slot> removed = slots.remove(id);
+        return removed == slots ? this : new NotebookSnapshot(removed);
+    }
+
+    /**
+     * Reports the notes that differ between this snapshot and another, visiting only the
+     * parts of the two that are not shared.
+     *
+     * @param other the snapshot to compare with
+     * @param difference receives the slot of each differing note in both snapshots
+     */
+    void diff(NotebookSnapshot other, PersistentLongMap.Difference<Slot> difference) {
+        slots.diff(other.slots, difference);
+    }
+}
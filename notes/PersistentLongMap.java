@@ -0,0 +1,294 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Immutable map from long keys to values, stored as a hash array mapped trie. Each level
+ * of the trie consumes six bits of the key, lowest first, so the small identifiers given
+ * out by a {@link Notebook} fill a shallow, dense tree.
+ *
+ * <p>{@link #put(long, Object)} and {@link #remove(long)} return a new map that copies only
+ * the nodes on the path to the key, at most eleven, and shares every other node with the
+ * map they were called on. Keeping many versions of a large map therefore costs little
+ * more than the entries that differ between them, and {@link #diff(PersistentLongMap,
+ * Difference)} finds those entries by skipping the subtrees both maps share.</p>
+ *
+ * @param <V> type of the values
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+final class PersistentLongMap<V> {
+    private static final int BITS = 6;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentLongMap<?> EMPTY = new PersistentLongMap<>(null, 0);
+
+    /**
+     * Receives an entry that differs between two maps.
+     *
+     * @param <V> type of the values
+     */
+    @FunctionalInterface
+    interface Difference<V> {
+        /**
+         * @param key the key
+         * @param oldValue value in the map diff was called on, null if it has none
+         * @param newValue value in the other map, null if it has none
+         */
+        void changed(long key, V oldValue, V newValue);
+    }
+
+    /**
+     * Inner node: one bit per child present, children packed in bit order. A child is
+     * either a node one level down or a leaf.
+     */
+    private record Node(long bitmap, Object[] children) {
+    }
+
+    private record Leaf(long key, Object value) {
+    }
+
+    /** Root node, null for the empty map; never collapsed to a leaf */
+    private final Node root;
+    private final int size;
+
+    private PersistentLongMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @param <V> type of the values
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <V> PersistentLongMap<V> empty() {
+        return (PersistentLongMap<V>) EMPTY;
+    }
+
+    /** @return number of entries */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, or null if the map has none
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        return (V) lookup(root, 0, key);
+    }
+
+    /**
+     * Returns a map with the key set to a value.
+     *
+     * @param key the key
+     * @param value the value, not null
+     * @return the new map, or this map if the key already has this very value
+     */
+    PersistentLongMap<V> put(long key, V value) {
+        int[] added = new int[1];
+        Node updated = put(root, 0, new Leaf(key, value), added);
+        return updated == root ? this : new PersistentLongMap<>(updated, size + added[0]);
+    }
+
+    /**
+     * Returns a map without the key.
+     *
+     * @param key the key
+     * @return the new map, or this map if it has no such key
+     */
+    PersistentLongMap<V> remove(long key) {
+        if (root == null) {
+            return this;
+        }
+        Object updated = remove(root, 0, key);
+        if (updated == root) {
+            return this;
+        }
+        return size == 1 ? empty() : new PersistentLongMap<>((Node) updated, size - 1);
+    }
+
+    /**
+     * Visits every entry, in no particular order.
+     *
+     * @param action receives each value with its key
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(ObjLongConsumer<? super V> action) {
+        forEach(root, (value, key) -> action.accept((V) value, key));
+    }
+
+    /** @return the values, in no particular order */
+    List<V> values() {
+        List<V> values = new ArrayList<>(size);
+        forEach((value, key) -> values.add(value));
+        return values;
+    }
+
+    /**
+     * Reports the entries whose values differ between this map and another, compared by
+     * identity. Subtrees the maps share are skipped, so comparing a map with one derived
+     * from it takes time in proportion to the changes made in between.
+     *
+     * @param other the map to compare with
+     * @param difference receives each differing entry
+     */
+    @SuppressWarnings("unchecked")
+    void diff(PersistentLongMap<V> other, Difference<? super V> difference) {
+        diff(root, other.root, 0, (Difference<Object>) difference);
+    }
+
+    private static Object lookup(Object node, int shift, long key) {
+        while (node instanceof Node inner) {
+            long bit = bit(key, shift);
+            if ((inner.bitmap & bit) == 0) {
+                return null;
+            }
+            node = inner.children[index(inner.bitmap, bit)];
+            shift += BITS;
+        }
+        return node instanceof Leaf leaf && leaf.key == key ? leaf.value : null;
+    }
+
+    private static Node put(Node node, int shift, Leaf leaf, int[] added) {
+        long bit = bit(leaf.key, shift);
+        if (node == null) {
+            added[0] = 1;
+            return new Node(bit, new Object[] {leaf});
+        }
+        int index = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = 1;
+            Object[] children = new Object[node.children.length + 1];
+            System.arraycopy(node.children, 0, children, 0, index);
+            children[index] = leaf;
+            System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+            return new Node(node.bitmap | bit, children);
+        }
+        Object child = node.children[index];
+        Object replacement;
+        if (child instanceof Node inner) {
+            replacement = put(inner, shift + BITS, leaf, added);
+        } else {
+            Leaf existing = (Leaf) child;
+            if (existing.key == leaf.key) {
+                replacement = existing.value == leaf.value ? existing : leaf;
+            } else {
+                // both keys share the bits so far, split them one level down
+                replacement = put(put(null, shift + BITS, existing, new int[1]), shift + BITS, leaf, added);
+            }
+        }
+        return replacement == child ? node : with(node, index, replacement);
+    }
+
+    /**
+     * @return the node itself if the key is absent, otherwise the node without it: null if
+     *         it became empty, or its remaining leaf if it is not the root
+     */
+    private static Object remove(Node node, int shift, long key) {
+        long bit = bit(key, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = index(node.bitmap, bit);
+        Object child = node.children[index];
+        Object replacement;
+        if (child instanceof Node inner) {
+            replacement = remove(inner, shift + BITS, key);
+            if (replacement == inner) {
+                return node;
+            }
+        } else if (((Leaf) child).key == key) {
+            replacement = null;
+        } else {
+            return node;
+        }
+        if (replacement != null) {
+            if (replacement instanceof Leaf && node.children.length == 1 && shift > 0) {
+                return replacement;
+            }
+            return with(node, index, replacement);
+        }
+        if (node.children.length == 1) {
+            return null;
+        }
+        if (node.children.length == 2 && shift > 0 && node.children[1 - index] instanceof Leaf other) {
+            return other;
+        }
+        Object[] children = new Object[node.children.length - 1];
+        System.arraycopy(node.children, 0, children, 0, index);
+        System.arraycopy(node.children, index + 1, children, index, children.length - index);
+        return new Node(node.bitmap & ~bit, children);
+    }
+
+    private static void diff(Object a, Object b, int shift, Difference<Object> difference) {
+        if (a == b) {
+            return;
+        }
+        if (a instanceof Node left && b instanceof Node right) {
+            long bits = left.bitmap | right.bitmap;
+            while (bits != 0) {
+                long bit = Long.lowestOneBit(bits);
+                bits &= ~bit;
+                diff(child(left, bit), child(right, bit), shift + BITS, difference);
+            }
+        } else if (a instanceof Leaf leaf) {
+            Object other = lookup(b, shift, leaf.key);
+            if (other != leaf.value) {
+                difference.changed(leaf.key, leaf.value, other);
+            }
+            forEach(b, (value, key) -> {
+                if (key != leaf.key) {
+                    difference.changed(key, null, value);
+                }
+            });
+        } else if (b instanceof Leaf leaf) {
+            Object other = lookup(a, shift, leaf.key);
+            if (other != leaf.value) {
+                difference.changed(leaf.key, other, leaf.value);
+            }
+            forEach(a, (value, key) -> {
+                if (key != leaf.key) {
+                    difference.changed(key, value, null);
+                }
+            });
+        } else if (a == null) {
+            forEach(b, (value, key) -> difference.changed(key, null, value));
+        } else {
+            forEach(a, (value, key) -> difference.changed(key, value, null));
+        }
+    }
+
+    private static void forEach(Object node, ObjLongConsumer<Object> action) {
+        if (node instanceof Leaf leaf) {
+            action.accept(leaf.value, leaf.key);
+        } else if (node instanceof Node inner) {
+            for (Object child : inner.children) {
+                forEach(child, action);
+            }
+        }
+    }
+
+    private static Object child(Node node, long bit) {
+        return (node.bitmap & bit) == 0 ? null : node.children[index(node.bitmap, bit)];
+    }
+
+    private static Node with(Node node, int index, Object child) {
+        Object[] children = node.children.clone();
+        children[index] = child;
+        return new Node(node.bitmap, children);
+    }
+
+    private static long bit(long key, int shift) {
+        return 1L << ((key >>> shift) & MASK);
+    }
+
+    /** @return position in the packed children of the child selected by a bit */
+    private static int index(long bitmap, long bit) {
+        return Long.bitCount(bitmap & (bit - 1));
+    }
+}
@@ -1,6 +1,10 @@
 package notes;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Calendar;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a programming note with programming language and coding snippet fields.
@@ -13,6 +17,8 @@ import java.util.Calendar;
  * @see Note
  */
 public class ProgrammingNote extends Note {
+    /** Pinned to the value computed for the original class so existing note.ser files keep loading */
+    private static final long serialVersionUID = -4003859327646658738L;
     
     /** The programming language associated with this note (e.g., "Java", "Python", "C++") */
     private String language;
@@ -20,6 +26,9 @@ public class ProgrammingNote extends Note {
     /** The code snippet or programming content stored in this note */
     private String codingSnippet;
 
+    /** Rope holding very large code snippets, null while the snippet is a plain string */
+    private Rope snippetRope;
+
     /**
      * Default constructor that creates a new ProgrammingNote with default values.
      * Initializes the note with "Unknown language" and an empty coding snippet.
@@ -29,7 +38,7 @@ public class ProgrammingNote extends Note {
     public ProgrammingNote() throws TitleLengthExceededException {
         super();
         this.language = "Unknown language";
-        this.codingSnippet = "";
+        this.codingSnippet = BlobStore.shared().retain("");
     }
 
     /**
@@ -64,6 +73,40 @@ public class ProgrammingNote extends Note {
         return (ProgrammingNote) super.clone();
     }
 
+    @Override
+    protected void retainBlobs() {
+        super.retainBlobs();
+        codingSnippet = BlobStore.shared().retain(codingSnippet);
+    }
+
+    @Override
+    protected void releaseOwnBlobs() {
+        super.releaseOwnBlobs();
+        BlobStore.shared().release(codingSnippet);
+    }
+
+    @Override
+    protected long estimateOwnSize(Set<Object> counted) {
+        return super.estimateOwnSize(counted) + textSize(language, counted)
+                + textSize(snippetRope != null ? snippetRope : codingSnippet, counted);
+    }
+
+    @Override
+    boolean sameContent(Note other) {
+        if (!super.sameContent(other)) {
+            return false;
+        }
+        ProgrammingNote programming = (ProgrammingNote) other;
+        return Objects.equals(language, programming.language)
+                && sameText(snippetRope != null ? snippetRope : codingSnippet,
+                        programming.snippetRope != null ? programming.snippetRope : programming.codingSnippet);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        codingSnippet = BlobStore.shared().retain(codingSnippet);
+    }
+
     /**
      * Returns the programming language associated with this note.
      * 
@@ -80,7 +123,9 @@ public class ProgrammingNote extends Note {
      *                 Can be null, though it's recommended to use "Unknown" instead
      */
     public void setLanguage(String language) {
+        String oldLanguage = this.language;
         this.language = language;
+        fireChange(NoteChange.Field.LANGUAGE, oldLanguage, language);
     }
 
     /**
@@ -91,7 +136,47 @@ public class ProgrammingNote extends Note {
      *                   Can be null or empty string for notes without code content.
      */
     public void setCodingSnippet(String newSnippet) {
-        this.codingSnippet = newSnippet;
+        CharSequence oldSnippet = snippetRope != null ? snippetRope : codingSnippet;
+        this.codingSnippet = BlobStore.shared().replace(this.codingSnippet, newSnippet);
+        this.snippetRope = null;
+        fireChange(NoteChange.Field.CODING_SNIPPET, oldSnippet, codingSnippet);
+    }
+
+    /**
+     * Sets the coding snippet from a rope without flattening it, so large source files
+     * can be edited in place and share unchanged pieces with saved versions.
+     *
+     * @param rope the new code snippet
+     */
+    public void setCodingSnippetRope(Rope rope) {
+        CharSequence oldSnippet = snippetRope != null ? snippetRope : codingSnippet;
+        BlobStore.shared().release(codingSnippet);
+        this.codingSnippet = null;
+        this.snippetRope = rope;
+        fireChange(NoteChange.Field.CODING_SNIPPET, oldSnippet, rope);
+    }
+
+    /**
+     * Returns the coding snippet as a rope.
+     *
+     * @return the snippet rope, built from the plain snippet if the note is not rope-backed
+     */
+    public Rope getCodingSnippetRope() {
+        return snippetRope != null ? snippetRope : Rope.of(codingSnippet);
+    }
+
+    /**
+     * Returns the coding snippet without flattening a rope, for callers that only scan it.
+     *
+     * @return the rope of rope-backed snippets, otherwise the plain snippet
+     */
+    public CharSequence getCodingSnippetContent() {
+        return snippetRope != null ? snippetRope : codingSnippet;
+    }
+
+    /** @return true if the snippet is held as a rope rather than a plain string */
+    public boolean isCodingSnippetRopeBacked() {
+        return snippetRope != null;
     }
 
     /**
@@ -100,19 +185,19 @@ public class ProgrammingNote extends Note {
      * @return the code snippet as a String, or empty string if no code is stored
      */
     public String getCodingSnippet() {
-        return codingSnippet;
+        return snippetRope != null ? snippetRope.toString() : codingSnippet;
     }
 
     /**
      * Sets the main text content of this note.
-     * This method overrides the parent class method to provide direct access
-     * to the text field for programming notes.
+     * This method overrides the parent class method for programming notes; the
+     * content is stored through the shared {@link BlobStore} like every other note body.
      * 
      * @param text the main text content to set for this note
      */
     @Override
     public void setText(String text) {
-        super.text = text;
+        super.setText(text);
     }
 
     /**
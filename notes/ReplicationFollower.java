@@ -0,0 +1,442 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import diagnostics.Metrics;
+
+/**
+ * Keeps a notebook in step with the notebook of another instance of the application
+ * through a {@link ReplicationServer}.
+ *
+ * <p>The follower applies each change as it arrives, through the same notebook methods a
+ * local edit would use, so indexes and change subscribers stay up to date. It remembers
+ * the epoch and sequence number of the last change it applied and, after a disconnect,
+ * reconnects with growing back-off and asks for the changes after it. A primary that
+ * restarted, switched notebooks or no longer holds those changes sends a snapshot instead.
+ * If the follower's application switches to another notebook, that notebook is filled
+ * from a snapshot too. A connection silent for longer than three heartbeats is dropped.</p>
+ *
+ * <p>The follower only applies changes from a primary that proves it holds the shared
+ * secret, see {@link ReplicationServer}. Replicated notes and values are deserialized
+ * through an {@link ObjectInputFilter} that admits the classes of note files only, with
+ * limits on nesting and array sizes, and frames larger than {@link #MAX_FRAME_BYTES} end the
+ * connection.</p>
+ *
+ * <p>The follower mirrors the primary: notes changed locally are overwritten by the next
+ * change to them, and are not sent back. Changes are saved to the store of the notebook,
+ * if any, once the follower has caught up with what has been received.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class ReplicationFollower {
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final long TIMEOUT_MILLIS = 3 * ReplicationServer.HEARTBEAT_MILLIS;
+    /** Largest payload accepted in one frame */
+    static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+    /** Classes allowed in replicated payloads: those of note files and boxed flag values */
+    private static final ObjectInputFilter FILTER =
+            ObjectInputFilter.Config.createFilter("java.lang.Boolean;" + LegacyNoteMigrator.FILTER);
+
+    private static final Metrics.Histogram LAG = Metrics.histogram("replication.lag.millis");
+    private static final Metrics.Counter CHANGES_APPLIED = Metrics.counter("replication.changes.applied");
+    private static final Metrics.Counter BYTES_RECEIVED = Metrics.counter("replication.bytes.received");
+    private static final Metrics.Counter RECONNECTS = Metrics.counter("replication.reconnects");
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replication-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final SocketAddress primary;
+    private final Supplier<Notebook> notebookSupplier;
+    private final Function<Notebook, NoteStore> storeLookup;
+    private final byte[] secret;
+    private volatile boolean stopped;
+    private volatile SocketChannel channel;
+    private volatile long lastFrame;
+    /** Epoch of the primary's log the applied changes come from, 0 if unknown */
+    private volatile long epoch;
+    private volatile long seq;
+
+    /**
+     * Creates a follower keeping a single notebook in step.
+     *
+     * @param primary address of the primary, see {@link ReplicationServer#address(String)}
+     * @param notebook the notebook to fill
+     * @param store the store changes are saved to, may be null
+     * @param secret the secret shared with the primary, see {@link ReplicationServer#secret(java.nio.file.Path)}
+     */
+    public ReplicationFollower(SocketAddress primary, Notebook notebook, NoteStore store, byte[] secret) {
+        this(primary, () -> notebook, current -> store, secret);
+    }
+
+    /**
+     * Creates a follower keeping the current notebook of the application in step.
+     *
+     * @param primary address of the primary, see {@link ReplicationServer#address(String)}
+     * @param notebookSupplier returns the notebook currently shown by the application
+     * @param storeLookup returns the store a notebook is saved to, or null
+     * @param secret the secret shared with the primary, see {@link ReplicationServer#secret(java.nio.file.Path)}
+     */
+    public ReplicationFollower(SocketAddress primary, Supplier<Notebook> notebookSupplier,
+            Function<Notebook, NoteStore> storeLookup, byte[] secret) {
+        this.primary = primary;
+        this.notebookSupplier = notebookSupplier;
+        this.storeLookup = storeLookup;
+        this.secret = secret.clone();
+    }
+
+    /** Starts following the primary on a background thread. */
+    public void start() {
+        Thread thread = new Thread(this::run, "replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Disconnects from the primary and stops reconnecting. */
+    public void stop() {
+        stopped = true;
+        disconnect();
+    }
+
+    /** @return true while connected to the primary */
+    public boolean isConnected() {
+        SocketChannel current = channel;
+        return current != null && current.isConnected();
+    }
+
+    /** @return sequence number of the last change applied */
+    public long getLastSeq() {
+        return seq;
+    }
+
+    private void run() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        while (!stopped) {
+            try (SocketChannel connected = connect()) {
+                channel = connected;
+                backoff = MIN_BACKOFF_MILLIS;
+                follow(connected);
+            } catch (IOException e) {
+                // the primary is down or went away, retried below
+            } finally {
+                channel = null;
+            }
+            if (stopped) {
+                return;
+            }
+            RECONNECTS.increment();
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel connected = primary instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        try {
+            connected.connect(primary);
+            return connected;
+        } catch (IOException e) {
+            connected.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Applies the stream of one connection until it ends. The channel is only written
+     * during the handshake, as channel streams of one socket cannot be used from two
+     * threads at once.
+     */
+    private void follow(SocketChannel connected) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(connected)));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(connected), 1 << 16));
+        lastFrame = System.nanoTime();
+        ScheduledFuture<?> watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+            if (System.nanoTime() - lastFrame > TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS)) {
+                disconnect();
+            }
+        }, TIMEOUT_MILLIS, ReplicationServer.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            handshake(in, out);
+        } catch (IOException e) {
+            watchdog.cancel(false);
+            throw e;
+        }
+        Notebook notebook = notebookSupplier.get();
+        // undoing a change of the primary would only make the mirror diverge from it
+        notebook.setUndoLimit(0);
+        long helloEpoch = 0;
+        Set<Long> snapshot = null;
+        boolean unsaved = false;
+        try {
+            while (!stopped) {
+                byte kind = in.readByte();
+                long frameSeq = in.readLong();
+                long time = in.readLong();
+                long noteId = in.readLong();
+                int field = in.readByte();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_FRAME_BYTES) {
+                    throw new IOException("Replication frame of " + length + " bytes");
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                lastFrame = System.nanoTime();
+                BYTES_RECEIVED.add(30 + payload.length);
+                switch (kind) {
+                    case ReplicationServer.HELLO -> {
+                        helloEpoch = noteId;
+                        if (helloEpoch != epoch) {
+                            // a snapshot follows; until it is complete nothing is known
+                            epoch = 0;
+                        }
+                    }
+                    case ReplicationServer.SNAPSHOT_BEGIN -> snapshot = new HashSet<>();
+                    case ReplicationServer.SNAPSHOT_END -> {
+                        if (snapshot == null) {
+                            throw new IOException("Snapshot end without a snapshot");
+                        }
+                        synchronized (notebook) {
+                            for (Note note : notebook.getNotes()) {
+                                if (!snapshot.contains(note.getId())) {
+                                    notebook.applyReplicated(note.getId(), null);
+                                }
+                            }
+                        }
+                        snapshot = null;
+                        epoch = helloEpoch;
+                        seq = frameSeq;
+                        unsaved = true;
+                    }
+                    case ReplicationServer.HEARTBEAT -> {
+                    }
+                    default -> {
+                        try {
+                            apply(notebook, kind, noteId, field, payload);
+                        } catch (IOException e) {
+                            // the notebook no longer matches the primary, so start over
+                            epoch = 0;
+                            throw e;
+                        }
+                        unsaved = true;
+                        if (snapshot != null) {
+                            snapshot.add(noteId);
+                        } else {
+                            seq = frameSeq;
+                            CHANGES_APPLIED.increment();
+                            LAG.record(Math.max(0, System.currentTimeMillis() - time));
+                        }
+                    }
+                }
+                if (unsaved && snapshot == null && in.available() == 0) {
+                    save(notebook);
+                    unsaved = false;
+                }
+                if (notebookSupplier.get() != notebook) {
+                    epoch = 0;
+                    return;
+                }
+            }
+        } finally {
+            watchdog.cancel(false);
+            if (unsaved) {
+                save(notebook);
+            }
+        }
+    }
+
+    /**
+     * Answers the primary's challenge and checks its answer to ours, then asks for the
+     * changes after the last one applied.
+     *
+     * @throws IOException if the connection fails or the primary does not hold the secret
+     */
+    private void handshake(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = new byte[ReplicationServer.CHALLENGE_BYTES];
+        in.readFully(challenge);
+        byte[] ownChallenge = ReplicationServer.challenge();
+        out.writeInt(ReplicationServer.MAGIC);
+        out.write(ReplicationServer.proof(secret, ReplicationServer.FOLLOWER, challenge));
+        out.write(ownChallenge);
+        out.writeLong(epoch);
+        out.writeLong(seq);
+        out.flush();
+        byte[] answer = new byte[ReplicationServer.PROOF_BYTES];
+        in.readFully(answer);
+        if (!MessageDigest.isEqual(answer, ReplicationServer.proof(secret, ReplicationServer.PRIMARY, ownChallenge))) {
+            throw new IOException("The primary does not hold the replication secret");
+        }
+    }
+
+    private void save(Notebook notebook) {
+        try {
+            NoteStore store = storeLookup.apply(notebook);
+            if (store != null) {
+                store.scheduleSave(notebook);
+            }
+        } catch (IllegalStateException e) {
+            // the notebook was closed, its changes are no longer wanted
+        }
+    }
+
+    private void disconnect() {
+        SocketChannel current = channel;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Applies one change of the primary's log to the notebook.
+     *
+     * @throws IOException if the change cannot be applied to the local state
+     */
+    private static void apply(Notebook notebook, byte kind, long id, int field, byte[] payload) throws IOException {
+        switch (kind) {
+            case ReplicationLog.PUT -> notebook.applyReplicated(id, (Note) deserialize(payload));
+            case ReplicationLog.REMOVE -> notebook.applyReplicated(id, null);
+            case ReplicationLog.FIELD, ReplicationLog.EDIT, ReplicationLog.SAVE_VERSION, ReplicationLog.VERSION_INDEX -> {
+                synchronized (notebook) {
+                    Note note = notebook.get(id);
+                    if (note == null) {
+                        throw new IOException("Change to unknown note " + id);
+                    }
+                    try {
+                        if (kind == ReplicationLog.FIELD) {
+                            Object value = deserialize(payload);
+                            notebook.update(note, () -> setField(note, NoteChange.Field.values()[field], value));
+                        } else if (kind == ReplicationLog.EDIT) {
+                            Rope value = edit(note, NoteChange.Field.values()[field], payload);
+                            notebook.update(note, () -> setField(note, NoteChange.Field.values()[field], value));
+                        } else if (kind == ReplicationLog.SAVE_VERSION) {
+                            notebook.saveVersion(note);
+                        } else {
+                            moveToVersion(notebook, note, ByteBuffer.wrap(payload).getInt());
+                        }
+                    } catch (NoteException | CloneNotSupportedException | ClassCastException
+                            | IndexOutOfBoundsException e) {
+                        throw new IOException("Cannot apply change to note " + id, e);
+                    }
+                }
+            }
+            default -> throw new IOException("Unknown replication frame " + kind);
+        }
+    }
+
+    /**
+     * Applies an {@link ReplicationLog#EDIT} to the current value of a text or snippet.
+     *
+     * @return the edited value
+     * @throws IOException if the field does not have the length the primary edited
+     */
+    private static Rope edit(Note note, NoteChange.Field field, byte[] payload) throws IOException {
+        CharSequence current = field == NoteChange.Field.TEXT ? note.getTextContent()
+                : ((ProgrammingNote) note).getCodingSnippetContent();
+        if (payload.length < 3 * Integer.BYTES) {
+            throw new IOException("Truncated edit of " + field);
+        }
+        ByteBuffer edit = ByteBuffer.wrap(payload);
+        int length = edit.getInt();
+        int start = edit.getInt();
+        int end = edit.getInt();
+        if (current.length() != length) {
+            throw new IOException("Edit of a " + length + " character " + field + " applied to " + current.length());
+        }
+        return Rope.of(current).delete(start, end).insert(start, edit.asCharBuffer());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setField(Note note, NoteChange.Field field, Object value) throws NoteException {
+        switch (field) {
+            case TITLE -> note.setTitle((String) value);
+            case DESCRIPTION -> note.setDescription((String) value);
+            case TEXT -> {
+                if (value instanceof Rope rope) {
+                    note.setTextRope(rope);
+                } else {
+                    note.setText((String) value);
+                }
+            }
+            case AUTHOR -> note.setAuthor((String) value);
+            case DEADLINE -> note.setDeadline((Calendar) value);
+            case TAGS -> note.setTags((Collection<String>) value);
+            case LANGUAGE -> ((ProgrammingNote) note).setLanguage((String) value);
+            case CODING_SNIPPET -> {
+                if (value instanceof Rope rope) {
+                    ((ProgrammingNote) note).setCodingSnippetRope(rope);
+                } else {
+                    ((ProgrammingNote) note).setCodingSnippet((String) value);
+                }
+            }
+            case TEST_CASE -> ((TestingNote) note).setTestcase((String) value);
+            case TEST_STATUS -> ((TestingNote) note).updateStatus((TestingNote.TestStatus) value);
+            case MANDATORY -> ((TestingNote) note).setIsMandatoryTest((Boolean) value);
+            case ATTACHMENTS -> note.setAttachments((Collection<Attachment>) value);
+            default -> throw new NoteException("Field " + field + " is not replicated as a value");
+        }
+    }
+
+    /**
+     * Steps a note to a version index. An index past the saved versions means the primary
+     * added a version without going through its notebook, which is repeated here.
+     */
+    private static void moveToVersion(Notebook notebook, Note note, int index) throws CloneNotSupportedException {
+        if (index > note.getVersionSize()) {
+            notebook.saveVersion(note);
+            return;
+        }
+        while (note.getCurrentVersionIndex() < index) {
+            note.nextVersion();
+        }
+        while (note.getCurrentVersionIndex() > index) {
+            note.revertVersion();
+        }
+        notebook.markChanged(note);
+    }
+
+    private static Object deserialize(byte[] payload) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            in.setObjectInputFilter(FILTER);
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class in replicated change", e);
+        }
+    }
+}
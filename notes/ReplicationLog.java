@@ -0,0 +1,277 @@
+package notes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordered log of the changes made to the notes of a notebook, numbered by sequence so a
+ * {@link ReplicationFollower} can ask for everything after the last change it applied.
+ *
+ * <p>Unlike the {@link NoteChangePublisher}, which drops changes for slow subscribers, the
+ * log records every change synchronously, in the thread and order in which it is made.
+ * Field changes carry only the new value of the field, except edits of a rope-backed text
+ * or snippet, which carry only the range they replaced and the characters put there, so
+ * typing into a multi-megabyte note sends a few bytes per edit. Added, replaced and
+ * restored notes carry the whole note. Saving a version is recorded as an operation of its own that the
+ * follower repeats on its copy of the note, which is in the same state at that point of the
+ * log, so versions are never sent. The log keeps the most recent changes up to a number of
+ * payload bytes; a follower that falls further behind is sent a snapshot instead.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+final class ReplicationLog {
+    /** Payload bytes of the changes kept for followers that reconnect */
+    static final long DEFAULT_CAPACITY = 32L * 1024 * 1024;
+    /** Maximum number of changes returned by one {@link #after(long, long)} call */
+    private static final int MAX_BATCH = 1024;
+
+    /** A note added or replaced; the payload is the serialized note */
+    static final byte PUT = 1;
+    /** A note removed */
+    static final byte REMOVE = 2;
+    /** A field changed; the payload is the serialized new value */
+    static final byte FIELD = 3;
+    /** The current state of a note saved as a new version */
+    static final byte SAVE_VERSION = 4;
+    /** Moved to another version; the payload is the version index */
+    static final byte VERSION_INDEX = 5;
+    /**
+     * Part of a rope-backed text or snippet replaced; the payload is the length the field
+     * had, the start and end of the replaced range, and the UTF-16 characters put there
+     */
+    static final byte EDIT = 6;
+
+    /**
+     * A recorded change.
+     *
+     * @param seq sequence number, 1 for the first change of the log
+     * @param time wall clock milliseconds when the change was made
+     * @param kind one of the operation constants of this class
+     * @param noteId identifier of the changed note
+     * @param field ordinal of the changed {@link NoteChange.Field}, or -1
+     * @param payload operation data, may be empty
+     */
+    record Entry(long seq, long time, byte kind, long noteId, int field, byte[] payload) {
+    }
+
+    private final long epoch;
+    private final long capacity;
+    private final List<Entry> entries = new ArrayList<>();
+    /** Index in entries of the oldest retained change */
+    private int head;
+    private long bytes;
+    private long lastSeq;
+    /** Changes held back while a transaction is applied, null if none is */
+    private List<Entry> held;
+    /** Note whose version event is being recorded as a SAVE_VERSION, or 0 */
+    private long savingVersion;
+
+    ReplicationLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    ReplicationLog(long capacity) {
+        this.capacity = capacity;
+        long random;
+        do {
+            random = ThreadLocalRandom.current().nextLong();
+        } while (random == 0);
+        this.epoch = random;
+    }
+
+    /**
+     * @return identifier of this log, which differs between notebooks and runs so followers
+     *         notice that sequence numbers started over
+     */
+    long epoch() {
+        return epoch;
+    }
+
+    /** @return sequence number of the latest change, 0 if nothing was recorded */
+    synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * @param seq the last change a follower applied
+     * @return true if every change after it is still in the log
+     */
+    synchronized boolean covers(long seq) {
+        return seq <= lastSeq && seq >= firstSeq() - 1;
+    }
+
+    /**
+     * Records a change reported by a note of the notebook.
+     *
+     * @param change the change
+     */
+    synchronized void record(NoteChange change) {
+        long id = change.noteId();
+        switch (change.field()) {
+            case NOTE -> {
+                if (change.newValue() == null) {
+                    add(REMOVE, id, -1, new byte[0]);
+                } else {
+                    add(PUT, id, -1, serialize(change.newValue()));
+                }
+            }
+            case VERSION -> {
+                if (id != savingVersion) {
+                    add(VERSION_INDEX, id, -1, ByteBuffer.allocate(Integer.BYTES).putInt((Integer) change.newValue()).array());
+                }
+            }
+            case TEXT, CODING_SNIPPET -> {
+                byte[] edit = edit(change.oldValue(), change.newValue());
+                if (edit != null) {
+                    add(EDIT, id, change.field().ordinal(), edit);
+                } else {
+                    add(FIELD, id, change.field().ordinal(), serialize(change.newValue()));
+                }
+            }
+            default -> add(FIELD, id, change.field().ordinal(), serialize(change.newValue()));
+        }
+    }
+
+    /**
+     * Encodes the change between two versions of a rope as the range that was replaced,
+     * found by skipping the leaves both share at the start and at the end.
+     *
+     * @return the payload of an {@link #EDIT}, or null if the values are not both ropes or
+     *         most of the text was replaced
+     */
+    private static byte[] edit(Object oldValue, Object newValue) {
+        if (!(oldValue instanceof Rope from) || !(newValue instanceof Rope to)) {
+            return null;
+        }
+        int shorter = Math.min(from.length(), to.length());
+        int prefix = Rope.commonLength(from, to, false, shorter);
+        int suffix = Rope.commonLength(from, to, true, shorter - prefix);
+        String inserted = to.substring(prefix, to.length() - suffix);
+        if (inserted.length() > to.length() / 2) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(3 * Integer.BYTES + inserted.length() * Character.BYTES);
+        payload.putInt(from.length()).putInt(prefix).putInt(from.length() - suffix);
+        payload.asCharBuffer().put(inserted);
+        return payload.array();
+    }
+
+    /**
+     * Records that a note is about to be saved as a new version. The version change the
+     * note reports until {@link #versionSaved()} is not recorded again.
+     *
+     * @param id the note identifier
+     */
+    synchronized void savingVersion(long id) {
+        add(SAVE_VERSION, id, -1, new byte[0]);
+        savingVersion = id;
+    }
+
+    synchronized void versionSaved() {
+        savingVersion = 0;
+    }
+
+    /**
+     * Holds back the changes recorded from now on, until {@link #release()}.
+     */
+    synchronized void hold() {
+        held = new ArrayList<>();
+    }
+
+    /**
+     * Stops holding changes back.
+     *
+     * @return the changes recorded since {@link #hold()}, not part of the log
+     */
+    synchronized List<Entry> release() {
+        List<Entry> released = held;
+        held = null;
+        return released;
+    }
+
+    /**
+     * Adds changes returned by {@link #release()} to the log, numbering them now.
+     *
+     * @param released the changes
+     */
+    synchronized void append(List<Entry> released) {
+        for (Entry entry : released) {
+            append(new Entry(++lastSeq, entry.time(), entry.kind(), entry.noteId(), entry.field(), entry.payload()));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the changes after a sequence number, waiting for one if there is none yet.
+     *
+     * @param seq the last change the caller has
+     * @param timeoutMillis how long to wait for a change
+     * @return the next changes in order, empty if none was made in time, or null if some of
+     *         them are no longer in the log
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized List<Entry> after(long seq, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (lastSeq == seq) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return List.of();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        if (!covers(seq)) {
+            return null;
+        }
+        int from = head + (int) (seq + 1 - firstSeq());
+        return new ArrayList<>(entries.subList(from, Math.min(entries.size(), from + MAX_BATCH)));
+    }
+
+    private long firstSeq() {
+        return lastSeq - (entries.size() - head) + 1;
+    }
+
+    private void add(byte kind, long id, int field, byte[] payload) {
+        Entry entry = new Entry(0, System.currentTimeMillis(), kind, id, field, payload);
+        if (held != null) {
+            held.add(entry);
+            return;
+        }
+        append(new Entry(++lastSeq, entry.time(), kind, id, field, payload));
+        notifyAll();
+    }
+
+    /**
+     * Adds a numbered change and drops the oldest ones over the capacity, always keeping
+     * the latest.
+     */
+    private void append(Entry entry) {
+        entries.add(entry);
+        bytes += entry.payload().length;
+        while (bytes > capacity && head < entries.size() - 1) {
+            bytes -= entries.get(head).payload().length;
+            entries.set(head++, null);
+        }
+        if (head > 1024 && head > entries.size() / 2) {
+            entries.subList(0, head).clear();
+            head = 0;
+        }
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot serialize " + value, e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,368 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import diagnostics.Metrics;
+
+/**
+ * Streams the changes made to the current notebook to {@link ReplicationFollower}s over a
+ * local socket, either TCP on the loopback interface or a Unix domain socket.
+ *
+ * <p>A follower connects with the epoch and sequence number of the last change it applied.
+ * If the {@link ReplicationLog} of the notebook still holds every later change, only those
+ * are sent; otherwise, and whenever the application switches to another notebook, the
+ * follower is sent a snapshot of every note followed by the changes made since. Each
+ * follower has its own thread that sends changes as soon as they are recorded, so the
+ * follower lags by the time it takes to serialize and transfer them, and that sends a
+ * heartbeat when there is nothing to send.</p>
+ *
+ * <p>Both sides hold a secret shared through a key file only their user can read, see
+ * {@link #secret(Path)}. On connecting, each side sends the other a random challenge and
+ * answers the one it received with an HMAC-SHA256 of it under the secret; the server sends
+ * nothing about the notebook to a follower that fails, and the follower applies nothing
+ * from a server that fails. The secret itself never crosses the socket. A Unix domain
+ * socket is in addition made accessible to its owner only.</p>
+ *
+ * <p>After the handshake, frames are written as: kind byte, sequence number, change time in
+ * milliseconds, note identifier, field ordinal, payload length and payload.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class ReplicationServer {
+    /**
+     * Sent by followers after reading the server's challenge, followed by their answer to it,
+     * their own challenge, and the epoch and sequence number of their last change
+     */
+    static final int MAGIC = 0x4E525032;
+    /** Bytes of the challenge each side sends */
+    static final int CHALLENGE_BYTES = 32;
+    /** Bytes of the answer to a challenge */
+    static final int PROOF_BYTES = 32;
+    /** Roles mixed into the answers, so an answer cannot be sent back to its sender */
+    static final String PRIMARY = "primary";
+    static final String FOLLOWER = "follower";
+    /** Milliseconds without changes after which a heartbeat is sent */
+    static final long HEARTBEAT_MILLIS = 1000;
+
+    /** First frame of a stream; the note identifier field holds the epoch */
+    static final byte HELLO = 10;
+    /** Starts a snapshot; the sequence number is the change it includes up to */
+    static final byte SNAPSHOT_BEGIN = 11;
+    /** Ends a snapshot, after which the notes the snapshot did not contain are removed */
+    static final byte SNAPSHOT_END = 12;
+    static final byte HEARTBEAT = 13;
+
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter("replication.bytes.sent");
+    private static final Metrics.Counter CHANGES_SENT = Metrics.counter("replication.changes.sent");
+    private static final Metrics.Counter SNAPSHOTS_SENT = Metrics.counter("replication.snapshots.sent");
+    private static final Metrics.Counter FOLLOWERS_REJECTED = Metrics.counter("replication.followers.rejected");
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Supplier<Notebook> notebookSupplier;
+    private final byte[] secret;
+    private final ServerSocketChannel server;
+    private final SocketAddress address;
+    private final Set<SocketChannel> followers = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+
+    /**
+     * Creates a server bound to a local address.
+     *
+     * @param address where to listen, see {@link #address(String)}
+     * @param notebookSupplier returns the notebook currently shown by the application
+     * @param secret the secret followers must prove they hold, see {@link #secret(Path)}
+     * @throws IOException if the address cannot be bound
+     */
+    public ReplicationServer(SocketAddress address, Supplier<Notebook> notebookSupplier, byte[] secret)
+            throws IOException {
+        this.notebookSupplier = notebookSupplier;
+        this.secret = secret.clone();
+        if (address instanceof UnixDomainSocketAddress unix) {
+            // a socket file left behind by a previous run
+            Files.deleteIfExists(unix.getPath());
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        if (address instanceof UnixDomainSocketAddress unix) {
+            ownerOnly(unix.getPath());
+        }
+        this.address = server.getLocalAddress();
+        Metrics.gauge("replication.followers", followers::size);
+    }
+
+    /**
+     * Parses a replication address: {@code unix:<path>} for a Unix domain socket, otherwise
+     * a port on the loopback interface.
+     *
+     * @param spec the address
+     * @return the socket address
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static SocketAddress address(String spec) {
+        if (spec.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(spec.substring("unix:".length()));
+        }
+        try {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid replication address '" + spec + "'", e);
+        }
+    }
+
+    /**
+     * Reads the secret shared by a primary and its followers from a key file, creating the
+     * file with a new random secret readable only by its owner if it does not exist. Point
+     * every instance that should replicate to the same file.
+     *
+     * @param keyFile the key file
+     * @return the secret
+     * @throws IOException if the file cannot be read or created, or is too short
+     */
+    public static byte[] secret(Path keyFile) throws IOException {
+        if (!Files.exists(keyFile)) {
+            byte[] secret = new byte[CHALLENGE_BYTES];
+            RANDOM.nextBytes(secret);
+            try {
+                Files.createFile(keyFile);
+                ownerOnly(keyFile);
+                Files.write(keyFile, secret);
+                return secret;
+            } catch (FileAlreadyExistsException e) {
+                // created by the other instance meanwhile
+            }
+        }
+        byte[] secret = Files.readAllBytes(keyFile);
+        if (secret.length < CHALLENGE_BYTES) {
+            throw new IOException("Replication key file " + keyFile + " holds fewer than " + CHALLENGE_BYTES + " bytes");
+        }
+        return secret;
+    }
+
+    /**
+     * Answers a challenge: the HMAC-SHA256 of the role and the challenge under the secret.
+     *
+     * @param secret the shared secret
+     * @param role {@link #PRIMARY} or {@link #FOLLOWER}, the side answering
+     * @param challenge the challenge received
+     * @return the answer, {@link #PROOF_BYTES} long
+     */
+    static byte[] proof(byte[] secret, String role, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(role.getBytes(StandardCharsets.US_ASCII));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    /** @return a new random challenge */
+    static byte[] challenge() {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Lets only the owner read and write a file, where the file system has POSIX
+     * permissions.
+     */
+    private static void ownerOnly(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // no POSIX permissions, the directory has to protect the file
+        }
+    }
+
+    /** Starts accepting followers. */
+    public void start() {
+        Thread acceptor = new Thread(this::accept, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Stops the server and disconnects every follower. */
+    public void stop() {
+        stopped = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (SocketChannel follower : followers) {
+            try {
+                follower.close();
+            } catch (IOException e) {
+                // already gone
+            }
+        }
+        if (address instanceof UnixDomainSocketAddress unix) {
+            try {
+                Files.deleteIfExists(unix.getPath());
+            } catch (IOException e) {
+                // removed on the next start
+            }
+        }
+    }
+
+    /** @return the address the server listens on, with the actual port if 0 was given */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /** @return the number of connected followers */
+    public int followerCount() {
+        return followers.size();
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                SocketChannel follower = server.accept();
+                followers.add(follower);
+                Thread sender = new Thread(() -> serve(follower), "replication-sender");
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!server.isOpen()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams changes to one follower until it disconnects. The channel is only read
+     * during the handshake, as channel streams of one socket cannot be used from two
+     * threads at once.
+     */
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            byte[] challenge = challenge();
+            out.write(challenge);
+            out.flush();
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            byte[] answer = new byte[PROOF_BYTES];
+            in.readFully(answer);
+            if (!MessageDigest.isEqual(answer, proof(secret, FOLLOWER, challenge))) {
+                FOLLOWERS_REJECTED.increment();
+                return;
+            }
+            byte[] followerChallenge = new byte[CHALLENGE_BYTES];
+            in.readFully(followerChallenge);
+            long epoch = in.readLong();
+            long seq = in.readLong();
+            out.write(proof(secret, PRIMARY, followerChallenge));
+            Notebook notebook = null;
+            ReplicationLog log = null;
+            while (!stopped) {
+                Notebook current = notebookSupplier.get();
+                if (current != notebook) {
+                    notebook = current;
+                    log = current.replicationLog();
+                    writeFrame(out, HELLO, 0, System.currentTimeMillis(), log.epoch(), -1, null);
+                    if (epoch != log.epoch() || !log.covers(seq)) {
+                        seq = sendSnapshot(out, notebook, log);
+                    }
+                    epoch = log.epoch();
+                }
+                List<ReplicationLog.Entry> entries = log.after(seq, HEARTBEAT_MILLIS);
+                if (entries == null) {
+                    // fell behind further than the log reaches
+                    seq = sendSnapshot(out, notebook, log);
+                } else if (entries.isEmpty()) {
+                    writeFrame(out, HEARTBEAT, seq, System.currentTimeMillis(), 0, -1, null);
+                } else {
+                    for (ReplicationLog.Entry entry : entries) {
+                        writeFrame(out, entry.kind(), entry.seq(), entry.time(), entry.noteId(), entry.field(), entry.payload());
+                        seq = entry.seq();
+                    }
+                    CHANGES_SENT.add(entries.size());
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the follower disconnected, it resumes from its last change when it reconnects
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(channel);
+        }
+    }
+
+    /**
+     * Sends every note of the notebook. Only taking the {@link NotebookSnapshot} holds up
+     * the notebook; its frozen notes are serialized and written one at a time afterwards.
+     *
+     * @return the sequence number of the last change included in the snapshot
+     */
+    private static long sendSnapshot(DataOutputStream out, Notebook notebook, ReplicationLog log) throws IOException {
+        long seq;
+        NotebookSnapshot snapshot;
+        synchronized (notebook) {
+            seq = log.lastSeq();
+            snapshot = notebook.snapshot();
+        }
+        List<Note> notes = snapshot.getNotes();
+        long time = System.currentTimeMillis();
+        writeFrame(out, SNAPSHOT_BEGIN, seq, time, notes.size(), -1, null);
+        for (Note note : notes) {
+            writeFrame(out, ReplicationLog.PUT, seq, time, note.getId(), -1, NoteStore.serialize(note));
+        }
+        writeFrame(out, SNAPSHOT_END, seq, time, 0, -1, null);
+        SNAPSHOTS_SENT.increment();
+        return seq;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte kind, long seq, long time, long noteId, int field,
+            byte[] payload) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(seq);
+        out.writeLong(time);
+        out.writeLong(noteId);
+        out.writeByte(field);
+        int length = payload != null ? payload.length : 0;
+        out.writeInt(length);
+        if (length > 0) {
+            out.write(payload);
+        }
+        BYTES_SENT.add(30 + length);
+    }
+}
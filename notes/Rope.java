@@ -0,0 +1,450 @@
+package notes;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Predicate;
+
+/**
+ * Immutable, height-balanced rope used as an optional representation for very large
+ * note bodies.
+ *
+ * <p>The text is kept in leaves of at most {@link #LEAF_SIZE} characters joined by an
+ * AVL-balanced tree, so {@link #insert(int, CharSequence)}, {@link #delete(int, int)} and
+ * {@link #charAt(int)} run in O(log n). Every edit returns a new rope that shares all
+ * untouched subtrees with the original, which lets saved versions of a multi-megabyte
+ * note cost only the pieces that actually changed.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ * @see Note#setTextRope(Rope)
+ */
+public abstract class Rope implements CharSequence, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of characters stored in a single leaf */
+    public static final int LEAF_SIZE = 2048;
+
+    /** Body length from which the editor switches to rope-backed editing */
+    public static final int LARGE_TEXT_THRESHOLD = 64 * 1024;
+
+    private static final Rope EMPTY = new Leaf("");
+
+    private Rope() {
+    }
+
+    /**
+     * Creates a balanced rope holding the given text.
+     *
+     * @param text the text to wrap, null is treated as empty
+     * @return a rope with the same content
+     */
+    public static Rope of(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return EMPTY;
+        }
+        if (text instanceof Rope rope) {
+            return rope;
+        }
+        String s = text.toString();
+        int leaves = (s.length() + LEAF_SIZE - 1) / LEAF_SIZE;
+        return build(s, 0, leaves);
+    }
+
+    private static Rope build(String s, int firstLeaf, int leafCount) {
+        if (leafCount == 1) {
+            int start = firstLeaf * LEAF_SIZE;
+            return new Leaf(s.substring(start, Math.min(s.length(), start + LEAF_SIZE)));
+        }
+        int half = leafCount / 2;
+        return new Node(build(s, firstLeaf, half), build(s, firstLeaf + half, leafCount - half));
+    }
+
+    /** @return height of the tree, 0 for a leaf */
+    abstract int height();
+
+    /** Copies the characters in [start, end) into dst starting at dstBegin. */
+    abstract void copyChars(int start, int end, char[] dst, int dstBegin);
+
+    /**
+     * Returns a rope with {@code text} inserted at the given index.
+     *
+     * @param index position to insert at
+     * @param text the text to insert
+     * @return the edited rope
+     * @throws IndexOutOfBoundsException if index is outside [0, length]
+     */
+    public Rope insert(int index, CharSequence text) {
+        checkIndex(index, length());
+        if (text == null || text.length() == 0) {
+            return this;
+        }
+        Rope[] parts = split(this, index);
+        return join(join(parts[0], of(text)), parts[1]);
+    }
+
+    /**
+     * Returns a rope without the characters in [start, end).
+     *
+     * @param start first index to remove
+     * @param end index after the last removed character
+     * @return the edited rope
+     * @throws IndexOutOfBoundsException if the range is invalid
+     */
+    public Rope delete(int start, int end) {
+        checkRange(start, end);
+        if (start == end) {
+            return this;
+        }
+        Rope[] head = split(this, start);
+        Rope[] tail = split(head[1], end - start);
+        return join(head[0], tail[1]);
+    }
+
+    /**
+     * Returns a rope consisting of this rope followed by {@code other}.
+     *
+     * @param other the rope to append
+     * @return the concatenated rope
+     */
+    public Rope append(Rope other) {
+        return join(this, other);
+    }
+
+    /**
+     * Copies the characters in [start, end) into the given array.
+     *
+     * @param start first index to copy
+     * @param end index after the last copied character
+     * @param dst destination array
+     * @param dstBegin offset in the destination array
+     */
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        checkRange(start, end);
+        if (start < end) {
+            copyChars(start, end, dst, dstBegin);
+        }
+    }
+
+    /**
+     * Returns the characters in [start, end) as a string.
+     *
+     * @param start first index
+     * @param end index after the last character
+     * @return the substring
+     */
+    public String substring(int start, int end) {
+        char[] chars = new char[end - start];
+        getChars(start, end, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * Builds the whole text as one string. The string is not kept, as ropes held by saved
+     * versions would otherwise each keep a full copy of the text; callers that only scan the
+     * text should use {@link #forEachChunk(CharSequence, Predicate)} instead.
+     */
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    /**
+     * Passes a text to an action piece by piece and in order, without building it as one
+     * string: a rope leaf by leaf, any other character sequence whole.
+     *
+     * @param text the text, may be null
+     * @param action receives each piece; returns false to stop
+     * @return false if the action stopped early
+     */
+    public static boolean forEachChunk(CharSequence text, Predicate<CharSequence> action) {
+        if (!(text instanceof Rope rope)) {
+            return text == null || action.test(text);
+        }
+        Deque<Rope> pending = new ArrayDeque<>();
+        pending.push(rope);
+        while (!pending.isEmpty()) {
+            Rope next = pending.pop();
+            if (next instanceof Node node) {
+                pending.push(node.right);
+                pending.push(node.left);
+            } else if (next.length() > 0 && !action.test(((Leaf) next).text)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the leaf holding a character, so callers can read a rope a leaf at a time
+     * without copying it.
+     *
+     * @param index index of the character
+     * @param start receives in its first element the index of the leaf's first character
+     * @return the text of the leaf
+     * @throws IndexOutOfBoundsException if index is outside [0, length)
+     */
+    public String chunkAt(int index, int[] start) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length());
+        }
+        Rope rope = this;
+        int offset = 0;
+        while (rope instanceof Node node) {
+            int leftLength = node.left.length();
+            if (index - offset < leftLength) {
+                rope = node.left;
+            } else {
+                offset += leftLength;
+                rope = node.right;
+            }
+        }
+        start[0] = offset;
+        return ((Leaf) rope).text;
+    }
+
+    /**
+     * Counts the characters two ropes have in common at their start, or at their end.
+     * Subtrees the ropes share are skipped without comparing their characters, so comparing
+     * a rope with an edit of it takes time in proportion to the leaves before the edit
+     * rather than to its characters.
+     *
+     * @param a one rope
+     * @param b the other rope
+     * @param fromEnd true to compare from the last characters backwards
+     * @param limit maximum number of characters to count
+     * @return length of the common prefix, or suffix, up to the limit
+     */
+    static int commonLength(Rope a, Rope b, boolean fromEnd, int limit) {
+        Deque<Rope> left = new ArrayDeque<>();
+        Deque<Rope> right = new ArrayDeque<>();
+        left.push(a);
+        right.push(b);
+        // characters already compared of the leaf on top of each stack
+        int doneA = 0;
+        int doneB = 0;
+        int common = 0;
+        while (common < limit && !left.isEmpty() && !right.isEmpty()) {
+            Rope x = left.peek();
+            Rope y = right.peek();
+            if (x == y && doneA == 0 && doneB == 0) {
+                left.pop();
+                right.pop();
+                common += x.length();
+            } else if (x instanceof Node node) {
+                left.pop();
+                left.push(fromEnd ? node.left : node.right);
+                left.push(fromEnd ? node.right : node.left);
+            } else if (y instanceof Node node) {
+                right.pop();
+                right.push(fromEnd ? node.left : node.right);
+                right.push(fromEnd ? node.right : node.left);
+            } else {
+                int n = Math.min(x.length() - doneA, y.length() - doneB);
+                for (int k = 0; k < n; k++) {
+                    int ia = fromEnd ? x.length() - 1 - doneA - k : doneA + k;
+                    int ib = fromEnd ? y.length() - 1 - doneB - k : doneB + k;
+                    if (x.charAt(ia) != y.charAt(ib)) {
+                        return Math.min(limit, common + k);
+                    }
+                }
+                common += n;
+                doneA += n;
+                doneB += n;
+                if (doneA == x.length()) {
+                    left.pop();
+                    doneA = 0;
+                }
+                if (doneB == y.length()) {
+                    right.pop();
+                    doneB = 0;
+                }
+            }
+        }
+        return Math.min(limit, common);
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length());
+        }
+    }
+
+    private static void checkIndex(int index, int length) {
+        if (index < 0 || index > length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+    }
+
+    /**
+     * Splits a rope into the parts before and after the given index.
+     */
+    private static Rope[] split(Rope rope, int index) {
+        if (index == 0) {
+            return new Rope[] { EMPTY, rope };
+        }
+        if (index == rope.length()) {
+            return new Rope[] { rope, EMPTY };
+        }
+        if (rope instanceof Leaf leaf) {
+            return new Rope[] { new Leaf(leaf.text.substring(0, index)), new Leaf(leaf.text.substring(index)) };
+        }
+        Node node = (Node) rope;
+        int leftLength = node.left.length();
+        if (index < leftLength) {
+            Rope[] parts = split(node.left, index);
+            return new Rope[] { parts[0], join(parts[1], node.right) };
+        }
+        if (index > leftLength) {
+            Rope[] parts = split(node.right, index - leftLength);
+            return new Rope[] { join(node.left, parts[0]), parts[1] };
+        }
+        return new Rope[] { node.left, node.right };
+    }
+
+    /**
+     * Concatenates two balanced ropes, keeping the result balanced. Small neighbours are
+     * merged into one leaf so that character-by-character typing does not fragment the tree.
+     */
+    private static Rope join(Rope a, Rope b) {
+        if (a.length() == 0) {
+            return b;
+        }
+        if (b.length() == 0) {
+            return a;
+        }
+        if (a.length() + b.length() <= LEAF_SIZE) {
+            return new Leaf(a.toString() + b);
+        }
+        int ha = a.height();
+        int hb = b.height();
+        if (ha > hb + 1) {
+            Node n = (Node) a;
+            return balance(n.left, join(n.right, b));
+        }
+        if (hb > ha + 1) {
+            Node n = (Node) b;
+            return balance(join(a, n.left), n.right);
+        }
+        return new Node(a, b);
+    }
+
+    private static Rope balance(Rope left, Rope right) {
+        if (left.height() > right.height() + 1) {
+            Node l = (Node) left;
+            if (l.left.height() >= l.right.height()) {
+                return new Node(l.left, new Node(l.right, right));
+            }
+            Node lr = (Node) l.right;
+            return new Node(new Node(l.left, lr.left), new Node(lr.right, right));
+        }
+        if (right.height() > left.height() + 1) {
+            Node r = (Node) right;
+            if (r.right.height() >= r.left.height()) {
+                return new Node(new Node(left, r.left), r.right);
+            }
+            Node rl = (Node) r.left;
+            return new Node(new Node(left, rl.left), new Node(rl.right, r.right));
+        }
+        return new Node(left, right);
+    }
+
+    /**
+     * Leaf holding a contiguous piece of text.
+     */
+    private static final class Leaf extends Rope {
+        private static final long serialVersionUID = 1L;
+        private final String text;
+
+        private Leaf(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        int height() {
+            return 0;
+        }
+
+        @Override
+        void copyChars(int start, int end, char[] dst, int dstBegin) {
+            text.getChars(start, end, dst, dstBegin);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * Inner node concatenating two subtrees.
+     */
+    private static final class Node extends Rope {
+        private static final long serialVersionUID = 1L;
+        private final Rope left;
+        private final Rope right;
+        private final int length;
+        private final int height;
+
+        private Node(Rope left, Rope right) {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.height = Math.max(left.height(), right.height()) + 1;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            Rope rope = this;
+            while (rope instanceof Node node) {
+                int leftLength = node.left.length();
+                if (index < leftLength) {
+                    rope = node.left;
+                } else {
+                    index -= leftLength;
+                    rope = node.right;
+                }
+            }
+            return rope.charAt(index);
+        }
+
+        @Override
+        int height() {
+            return height;
+        }
+
+        @Override
+        void copyChars(int start, int end, char[] dst, int dstBegin) {
+            int leftLength = left.length();
+            if (start < leftLength) {
+                int leftEnd = Math.min(end, leftLength);
+                left.copyChars(start, leftEnd, dst, dstBegin);
+                dstBegin += leftEnd - start;
+            }
+            if (end > leftLength) {
+                right.copyChars(Math.max(0, start - leftLength), end - leftLength, dst, dstBegin);
+            }
+        }
+    }
+}
@@ -0,0 +1,691 @@
+package notes;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Reads a Java serialization stream without instantiating the serialized classes, so that
+ * a stream holding one huge list can be processed one element at a time.
+ *
+ * <p>{@link java.io.ObjectInputStream} keeps every object it has read reachable until the
+ * stream is closed, because any later object may refer back to it. This reader instead
+ * returns generic {@link Instance}s and lets the caller decide which handles stay
+ * resolvable: {@link #release(int, HandleSet)} forgets the objects of an element once it has
+ * been processed, except those the caller knows are referenced again later. In scanning
+ * mode nothing but class descriptors is kept, and every back-reference is reported to a
+ * listener so the caller can work out which objects are shared between elements.</p>
+ *
+ * <p>Every class descriptor is resolved to a local class and checked against an
+ * {@link ObjectInputFilter}, together with array lengths and nesting depth, as
+ * {@code ObjectInputStream} would. Field values are matched by name, so class changes
+ * that altered the {@code serialVersionUID} do not prevent reading.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+final class SerialStreamReader {
+    private static final short STREAM_MAGIC = (short) 0xaced;
+    private static final short STREAM_VERSION = 5;
+    private static final int BASE_HANDLE = 0x7e0000;
+
+    private static final byte TC_NULL = 0x70;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_CLASSDESC = 0x72;
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_CLASS = 0x76;
+    private static final byte TC_BLOCKDATA = 0x77;
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    private static final byte TC_RESET = 0x79;
+    private static final byte TC_BLOCKDATALONG = 0x7A;
+    private static final byte TC_EXCEPTION = 0x7B;
+    private static final byte TC_LONGSTRING = 0x7C;
+    private static final byte TC_PROXYCLASSDESC = 0x7D;
+    private static final byte TC_ENUM = 0x7E;
+
+    private static final byte SC_WRITE_METHOD = 0x01;
+    private static final byte SC_SERIALIZABLE = 0x02;
+    private static final byte SC_EXTERNALIZABLE = 0x04;
+    private static final byte SC_BLOCK_DATA = 0x08;
+
+    /** Value returned in scanning mode for objects that were not materialized */
+    static final Object SKIPPED = new Object();
+
+    private final CountingInputStream counter;
+    private final BufferedInputStream buffered;
+    private final DataInputStream in;
+    private final ObjectInputFilter filter;
+    private final boolean materialize;
+    private final Map<Integer, Object> handles = new HashMap<>();
+    private IntConsumer referenceListener = handle -> { };
+    private int nextHandle;
+    private int depth;
+    private long references;
+
+    /**
+     * A serialized class descriptor.
+     */
+    static final class ClassDesc {
+        private final String name;
+        private byte flags;
+        private char[] fieldTypes = new char[0];
+        private String[] fieldNames = new String[0];
+        private ClassDesc superDesc;
+
+        private ClassDesc(String name) {
+            this.name = name;
+        }
+
+        /** @return the serialized class name */
+        String name() {
+            return name;
+        }
+
+        /** @return the descriptor of the serializable superclass, or null */
+        ClassDesc superDesc() {
+            return superDesc;
+        }
+    }
+
+    /**
+     * A serialized object: its field values by name across the class hierarchy, and the
+     * objects and {@link BlockData} its classes wrote after their fields.
+     *
+     * @param desc the class descriptor
+     * @param fields field values by name
+     * @param annotations extra data written by custom {@code writeObject} methods
+     */
+    record Instance(ClassDesc desc, Map<String, Object> fields, List<Object> annotations) {
+
+        /** @return the objects written after the fields, such as the elements of a list */
+        List<Object> objects() {
+            List<Object> objects = new ArrayList<>();
+            for (Object annotation : annotations) {
+                if (!(annotation instanceof BlockData)) {
+                    objects.add(annotation);
+                }
+            }
+            return objects;
+        }
+
+        /**
+         * Checks the class of the object or any of its superclasses.
+         *
+         * @param className the class name to look for
+         * @return true if the object is of that class
+         */
+        boolean isA(String className) {
+            for (ClassDesc d = desc; d != null; d = d.superDesc) {
+                if (d.name.equals(className)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Primitive data written by a custom {@code writeObject} method.
+     *
+     * @param bytes the data
+     */
+    record BlockData(byte[] bytes) {
+    }
+
+    /**
+     * A serialized enum constant.
+     *
+     * @param className the enum class
+     * @param name the constant name
+     */
+    record EnumConstant(String className, String name) {
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param source the serialized stream
+     * @param filter checked for every class, array and reference, as by {@code ObjectInputStream}
+     * @param materialize false to only scan the stream, keeping nothing but class descriptors
+     */
+    SerialStreamReader(InputStream source, ObjectInputFilter filter, boolean materialize) {
+        this.counter = new CountingInputStream(source);
+        this.buffered = new BufferedInputStream(counter, 1 << 16);
+        this.in = new DataInputStream(buffered);
+        this.filter = filter;
+        this.materialize = materialize;
+    }
+
+    /**
+     * Sets the listener told about every back-reference, with the referenced handle.
+     *
+     * @param referenceListener the listener
+     */
+    void setReferenceListener(IntConsumer referenceListener) {
+        this.referenceListener = referenceListener;
+    }
+
+    /** @return the handle the next object read will get */
+    int nextHandle() {
+        return nextHandle;
+    }
+
+    /** @return number of bytes read from the source so far, including what is buffered ahead */
+    long bytesRead() {
+        return counter.count;
+    }
+
+    /**
+     * Reads the stream header and the start of the top-level list, up to its first element.
+     *
+     * @return the size recorded for the list
+     * @throws IOException if the stream does not start with a serialized list
+     */
+    int readListStart() throws IOException {
+        if (in.readShort() != STREAM_MAGIC || in.readShort() != STREAM_VERSION) {
+            throw new StreamCorruptedException("Not a Java serialization stream");
+        }
+        if (in.readByte() != TC_OBJECT) {
+            throw new StreamCorruptedException("The stream does not start with an object");
+        }
+        ClassDesc desc = readClassDesc();
+        if (desc == null || !desc.name.equals("java.util.ArrayList")) {
+            throw new StreamCorruptedException("Expected a serialized ArrayList but found "
+                    + (desc == null ? "null" : desc.name));
+        }
+        assign(SKIPPED);
+        // only the fields; the elements follow in the data written by ArrayList.writeObject
+        Map<String, Object> fields = new HashMap<>();
+        for (int i = 0; i < desc.fieldTypes.length; i++) {
+            fields.put(desc.fieldNames[i], readValue(desc.fieldTypes[i]));
+        }
+        if (in.readByte() != TC_BLOCKDATA) {
+            throw new StreamCorruptedException("Missing list capacity");
+        }
+        in.skipNBytes(in.readUnsignedByte());
+        return (Integer) fields.get("size");
+    }
+
+    /**
+     * Checks whether another element of the top-level list follows, consuming the end of
+     * the list if not.
+     *
+     * @return true if {@link #readElement()} can be called
+     * @throws IOException if the stream cannot be read
+     */
+    boolean hasNextElement() throws IOException {
+        if (peek() == TC_ENDBLOCKDATA) {
+            in.readByte();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next element of the top-level list.
+     *
+     * @return the element: an {@link Instance}, a string, an array, an {@link EnumConstant},
+     *         null, or {@link #SKIPPED} when scanning
+     * @throws IOException if the stream is malformed or rejected by the filter
+     */
+    Object readElement() throws IOException {
+        return readContent();
+    }
+
+    /**
+     * Forgets the objects created from a handle on, except those still referenced later.
+     * Class descriptors are always kept.
+     *
+     * @param fromHandle the first handle to forget
+     * @param keep handles to keep, checked with {@link HandleSet#contains(int)}
+     */
+    void release(int fromHandle, HandleSet keep) {
+        for (int handle = fromHandle; handle < nextHandle; handle++) {
+            if (!keep.contains(handle) && !(handles.get(handle) instanceof ClassDesc)) {
+                handles.remove(handle);
+            }
+        }
+    }
+
+    /**
+     * Forgets one object that will not be referenced again.
+     *
+     * @param handle its handle
+     */
+    void release(int handle) {
+        if (!(handles.get(handle) instanceof ClassDesc)) {
+            handles.remove(handle);
+        }
+    }
+
+    /**
+     * Set of handles.
+     */
+    @FunctionalInterface
+    interface HandleSet {
+        /**
+         * @param handle the handle
+         * @return true if the handle is part of the set
+         */
+        boolean contains(int handle);
+    }
+
+    private Object readContent() throws IOException {
+        byte tc = in.readByte();
+        switch (tc) {
+            case TC_NULL:
+                return null;
+            case TC_REFERENCE:
+                return readReference();
+            case TC_CLASSDESC:
+            case TC_PROXYCLASSDESC:
+                return readNewClassDesc(tc);
+            case TC_OBJECT:
+                return readObject();
+            case TC_STRING:
+            case TC_LONGSTRING: {
+                Object string = readString(tc == TC_STRING ? in.readUnsignedShort() : in.readLong());
+                assign(string);
+                return string;
+            }
+            case TC_ARRAY:
+                return readArray();
+            case TC_ENUM:
+                return readEnum();
+            case TC_CLASS: {
+                ClassDesc desc = readClassDesc();
+                assign(desc);
+                return desc;
+            }
+            case TC_RESET:
+                handles.clear();
+                nextHandle = 0;
+                return readContent();
+            case TC_EXCEPTION:
+                throw new StreamCorruptedException("The writer of the stream failed while writing it");
+            default:
+                throw new StreamCorruptedException(String.format("Unexpected type code 0x%02x", tc));
+        }
+    }
+
+    private Object readReference() throws IOException {
+        int handle = in.readInt() - BASE_HANDLE;
+        if (handle < 0 || handle >= nextHandle) {
+            throw new StreamCorruptedException("Invalid handle " + handle);
+        }
+        references++;
+        check(null, -1);
+        referenceListener.accept(handle);
+        Object object = handles.get(handle);
+        if (object == null && materialize && !handles.containsKey(handle)) {
+            throw new StreamCorruptedException("Reference to released handle " + handle);
+        }
+        return object == null && !materialize ? SKIPPED : object;
+    }
+
+    private ClassDesc readClassDesc() throws IOException {
+        byte tc = in.readByte();
+        return switch (tc) {
+            case TC_NULL -> null;
+            case TC_REFERENCE -> {
+                Object desc = readReference();
+                if (!(desc instanceof ClassDesc classDesc)) {
+                    throw new StreamCorruptedException("Reference to a class descriptor expected");
+                }
+                yield classDesc;
+            }
+            case TC_CLASSDESC, TC_PROXYCLASSDESC -> readNewClassDesc(tc);
+            default -> throw new StreamCorruptedException(String.format("Unexpected type code 0x%02x", tc));
+        };
+    }
+
+    private ClassDesc readNewClassDesc(byte tc) throws IOException {
+        if (tc == TC_PROXYCLASSDESC) {
+            throw new InvalidClassException("Proxy classes are not allowed in note files");
+        }
+        ClassDesc desc = new ClassDesc(in.readUTF());
+        in.readLong();
+        assign(desc);
+        desc.flags = in.readByte();
+        int count = in.readShort();
+        desc.fieldTypes = new char[count];
+        desc.fieldNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            desc.fieldTypes[i] = (char) in.readByte();
+            desc.fieldNames[i] = in.readUTF();
+            if (desc.fieldTypes[i] == '[' || desc.fieldTypes[i] == 'L') {
+                readContent();
+            }
+        }
+        readAnnotation(null);
+        desc.superDesc = readClassDesc();
+        check(resolve(desc.name), -1);
+        return desc;
+    }
+
+    private Object readObject() throws IOException {
+        ClassDesc desc = readClassDesc();
+        if (desc == null) {
+            throw new StreamCorruptedException("Object without a class");
+        }
+        depth++;
+        Instance instance = materialize ? new Instance(desc, new HashMap<>(), new ArrayList<>()) : null;
+        assign(materialize ? instance : SKIPPED);
+        readFields(desc, instance == null ? null : instance.fields(), instance == null ? null : instance.annotations());
+        depth--;
+        return materialize ? instance : SKIPPED;
+    }
+
+    /**
+     * Reads the data of every class from the topmost serializable superclass down. Field
+     * values and annotations are only collected into non-null targets.
+     */
+    private void readFields(ClassDesc desc, Map<String, Object> fields, List<Object> annotations)
+            throws IOException {
+        List<ClassDesc> hierarchy = new ArrayList<>();
+        for (ClassDesc d = desc; d != null; d = d.superDesc) {
+            hierarchy.add(0, d);
+        }
+        for (ClassDesc d : hierarchy) {
+            if ((d.flags & SC_EXTERNALIZABLE) != 0) {
+                if ((d.flags & SC_BLOCK_DATA) == 0) {
+                    throw new InvalidClassException(d.name, "Externalizable data in the old protocol cannot be read");
+                }
+                readAnnotation(annotations);
+                continue;
+            }
+            if ((d.flags & SC_SERIALIZABLE) == 0) {
+                continue;
+            }
+            for (int i = 0; i < d.fieldTypes.length; i++) {
+                Object value = readValue(d.fieldTypes[i]);
+                if (fields != null) {
+                    fields.put(d.fieldNames[i], value);
+                }
+            }
+            if ((d.flags & SC_WRITE_METHOD) != 0) {
+                readAnnotation(annotations);
+            }
+        }
+    }
+
+    private Object readValue(char type) throws IOException {
+        return switch (type) {
+            case 'B' -> in.readByte();
+            case 'C' -> in.readChar();
+            case 'D' -> in.readDouble();
+            case 'F' -> in.readFloat();
+            case 'I' -> in.readInt();
+            case 'J' -> in.readLong();
+            case 'S' -> in.readShort();
+            case 'Z' -> in.readBoolean();
+            case 'L', '[' -> readContent();
+            default -> throw new StreamCorruptedException("Invalid field type " + type);
+        };
+    }
+
+    private void readAnnotation(List<Object> into) throws IOException {
+        while (true) {
+            byte tc = peek();
+            if (tc == TC_ENDBLOCKDATA) {
+                in.readByte();
+                return;
+            }
+            if (tc == TC_BLOCKDATA || tc == TC_BLOCKDATALONG) {
+                in.readByte();
+                int length = tc == TC_BLOCKDATA ? in.readUnsignedByte() : in.readInt();
+                if (into != null) {
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    into.add(new BlockData(bytes));
+                } else {
+                    in.skipNBytes(length);
+                }
+                continue;
+            }
+            Object content = readContent();
+            if (into != null) {
+                into.add(content);
+            }
+        }
+    }
+
+    private Object readArray() throws IOException {
+        ClassDesc desc = readClassDesc();
+        if (desc == null || desc.name.length() < 2 || desc.name.charAt(0) != '[') {
+            throw new StreamCorruptedException("Array without an array class");
+        }
+        int handle = assign(SKIPPED);
+        int length = in.readInt();
+        check(resolve(desc.name), length);
+        char type = desc.name.charAt(1);
+        depth++;
+        Object array;
+        if (type == 'L' || type == '[') {
+            Object[] values = materialize ? new Object[length] : null;
+            if (values != null) {
+                handles.put(handle, values);
+            }
+            for (int i = 0; i < length; i++) {
+                Object value = readContent();
+                if (values != null) {
+                    values[i] = value;
+                }
+            }
+            array = values;
+        } else if (materialize) {
+            array = switch (type) {
+                case 'B' -> {
+                    byte[] values = new byte[length];
+                    in.readFully(values);
+                    yield values;
+                }
+                case 'I' -> {
+                    int[] values = new int[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = in.readInt();
+                    }
+                    yield values;
+                }
+                case 'J' -> {
+                    long[] values = new long[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = in.readLong();
+                    }
+                    yield values;
+                }
+                default -> {
+                    Object[] values = new Object[length];
+                    for (int i = 0; i < length; i++) {
+                        values[i] = readValue(type);
+                    }
+                    yield values;
+                }
+            };
+        } else {
+            in.skipNBytes((long) length * primitiveSize(type));
+            array = null;
+        }
+        depth--;
+        if (materialize) {
+            handles.put(handle, array);
+            return array;
+        }
+        return SKIPPED;
+    }
+
+    private Object readEnum() throws IOException {
+        ClassDesc desc = readClassDesc();
+        if (desc == null) {
+            throw new StreamCorruptedException("Enum constant without a class");
+        }
+        int handle = assign(SKIPPED);
+        Object name = readContent();
+        if (!materialize) {
+            return SKIPPED;
+        }
+        String className = desc.superDesc != null && !desc.superDesc.name.equals("java.lang.Enum")
+                ? desc.superDesc.name : desc.name;
+        EnumConstant constant = new EnumConstant(className, (String) name);
+        handles.put(handle, constant);
+        return constant;
+    }
+
+    private Object readString(long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new StreamCorruptedException("String of " + length + " bytes is too long");
+        }
+        if (!materialize) {
+            in.skipNBytes(length);
+            return SKIPPED;
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return decodeModifiedUtf8(bytes);
+    }
+
+    /**
+     * Decodes the modified UTF-8 that serialization writes strings in.
+     */
+    private static String decodeModifiedUtf8(byte[] bytes) throws StreamCorruptedException {
+        char[] chars = new char[bytes.length];
+        int count = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0 && i + 1 < bytes.length) {
+                chars[count++] = (char) (((b & 0x1f) << 6) | (bytes[++i] & 0x3f));
+            } else if ((b & 0xf0) == 0xe0 && i + 2 < bytes.length) {
+                chars[count++] = (char) (((b & 0x0f) << 12) | ((bytes[i + 1] & 0x3f) << 6) | (bytes[i + 2] & 0x3f));
+                i += 2;
+            } else {
+                throw new StreamCorruptedException("Malformed string data");
+            }
+        }
+        return new String(chars, 0, count);
+    }
+
+    private int assign(Object object) {
+        if (materialize || object instanceof ClassDesc) {
+            handles.put(nextHandle, object);
+        }
+        return nextHandle++;
+    }
+
+    private byte peek() throws IOException {
+        buffered.mark(1);
+        int b = buffered.read();
+        buffered.reset();
+        if (b < 0) {
+            throw new StreamCorruptedException("Unexpected end of stream");
+        }
+        return (byte) b;
+    }
+
+    private static int primitiveSize(char type) throws StreamCorruptedException {
+        return switch (type) {
+            case 'B', 'Z' -> 1;
+            case 'C', 'S' -> 2;
+            case 'I', 'F' -> 4;
+            case 'J', 'D' -> 8;
+            default -> throw new StreamCorruptedException("Invalid array type " + type);
+        };
+    }
+
+    private static Class<?> resolve(String name) throws InvalidClassException {
+        try {
+            return Class.forName(name, false, SerialStreamReader.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new InvalidClassException(name, "Unknown class");
+        }
+    }
+
+    private void check(Class<?> serialClass, long arrayLength) throws InvalidClassException {
+        if (filter == null) {
+            return;
+        }
+        long streamBytes = counter.count;
+        long refs = references;
+        int currentDepth = depth;
+        ObjectInputFilter.Status status = filter.checkInput(new ObjectInputFilter.FilterInfo() {
+            @Override
+            public Class<?> serialClass() {
+                return serialClass;
+            }
+
+            @Override
+            public long arrayLength() {
+                return arrayLength;
+            }
+
+            @Override
+            public long depth() {
+                return currentDepth;
+            }
+
+            @Override
+            public long references() {
+                return refs;
+            }
+
+            @Override
+            public long streamBytes() {
+                return streamBytes;
+            }
+        });
+        if (status == ObjectInputFilter.Status.REJECTED) {
+            throw new InvalidClassException(serialClass == null ? "reference" : serialClass.getName(),
+                    "Rejected by the note file filter");
+        }
+    }
+
+    /**
+     * Counts the bytes read from the source.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import diagnostics.Metrics;
+
+/**
+ * Splits code snippets into the tokens used for syntax highlighting: keywords, strings,
+ * comments, numbers and annotations.
+ *
+ * <p>Code is lexed line by line. The only state carried from one line to the next is
+ * whether the line ends inside a block comment or a multi-line string, so after an edit
+ * only the lines from the edited one onwards are lexed again, and lexing stops as soon as
+ * a line past the edit ends in the same state as it did before: every line after it would
+ * come out the same. Typing inside a 100,000 line snippet therefore re-tokenizes one or
+ * two lines, while opening a block comment re-tokenizes up to where it closes.</p>
+ *
+ * <p>Whole snippets are lexed through {@link #highlight(SyntaxLexer, CharSequence)}, which
+ * keeps the most recently used results keyed by the snippet content, so listing the same
+ * notes again does not lex them again.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public final class SyntaxLexer {
+
+    /** Lexer state between lines: not inside a multi-line token */
+    private static final int NORMAL = 0;
+    /** Lexer state between lines: inside a block comment */
+    private static final int BLOCK_COMMENT = 1;
+    /** Lexer state between lines: inside a string opened by three double quotes */
+    private static final int TRIPLE_DOUBLE = 2;
+    /** Lexer state between lines: inside a string opened by three single quotes */
+    private static final int TRIPLE_SINGLE = 3;
+
+    private static final int CACHE_SIZE = 2048;
+    private static final Metrics.Histogram LEX_TIME = Metrics.histogram("highlight.lex.nanos");
+    private static final Metrics.Histogram RELEX_LINES = Metrics.histogram("highlight.relex.lines");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("highlight.cache.hits");
+    private static final Map<Key, Highlighting> CACHE = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Highlighting> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final Token[] NO_TOKENS = new Token[0];
+    private static final Map<String, SyntaxLexer> LEXERS = new HashMap<>();
+
+    /** Lexer for languages without rules of their own, marking only strings and numbers */
+    public static final SyntaxLexer PLAIN = new SyntaxLexer("plain", Set.of(), false, null, null, null, "\"'", false, '\0');
+
+    static {
+        SyntaxLexer java = new SyntaxLexer("java", Set.of("abstract", "assert", "boolean", "break", "byte", "case",
+                "catch", "char", "class", "const", "continue", "default", "do", "double", "else", "enum", "extends",
+                "false", "final", "finally", "float", "for", "if", "implements", "import", "instanceof", "int",
+                "interface", "long", "native", "new", "null", "package", "permits", "private", "protected", "public",
+                "record", "return", "sealed", "short", "static", "super", "switch", "synchronized", "this", "throw",
+                "throws", "transient", "true", "try", "var", "void", "volatile", "while", "yield"),
+                false, "//", "/*", "*/", "\"'", true, '@');
+        SyntaxLexer kotlin = new SyntaxLexer("kotlin", Set.of("as", "break", "class", "companion", "continue",
+                "data", "do", "else", "false", "for", "fun", "if", "import", "in", "interface", "is", "null",
+                "object", "override", "package", "private", "protected", "public", "return", "sealed", "super",
+                "this", "throw", "true", "try", "typealias", "val", "var", "when", "while"),
+                false, "//", "/*", "*/", "\"'", true, '@');
+        SyntaxLexer c = new SyntaxLexer("c", Set.of("auto", "break", "case", "char", "const", "continue",
+                "default", "do", "double", "else", "enum", "extern", "float", "for", "goto", "if", "inline", "int",
+                "long", "register", "return", "short", "signed", "sizeof", "static", "struct", "switch", "typedef",
+                "union", "unsigned", "void", "volatile", "while", "#include", "#define", "#ifdef", "#ifndef",
+                "#endif", "#if", "#else", "#pragma"),
+                false, "//", "/*", "*/", "\"'", false, '\0');
+        SyntaxLexer cpp = new SyntaxLexer("c++", Set.of("auto", "bool", "break", "case", "catch", "char", "class",
+                "const", "constexpr", "continue", "default", "delete", "do", "double", "else", "enum", "explicit",
+                "extern", "false", "float", "for", "friend", "if", "inline", "int", "long", "namespace", "new",
+                "noexcept", "nullptr", "operator", "override", "private", "protected", "public", "return", "short",
+                "signed", "sizeof", "static", "struct", "switch", "template", "this", "throw", "true", "try",
+                "typedef", "typename", "union", "unsigned", "using", "virtual", "void", "volatile", "while",
+                "#include", "#define", "#ifdef", "#ifndef", "#endif", "#if", "#else", "#pragma"),
+                false, "//", "/*", "*/", "\"'", false, '\0');
+        SyntaxLexer csharp = new SyntaxLexer("c#", Set.of("abstract", "as", "async", "await", "base", "bool",
+                "break", "case", "catch", "char", "class", "const", "continue", "decimal", "default", "do",
+                "double", "else", "enum", "false", "finally", "float", "for", "foreach", "if", "in", "int",
+                "interface", "internal", "is", "long", "namespace", "new", "null", "object", "out", "override",
+                "private", "protected", "public", "readonly", "ref", "return", "sealed", "static", "string",
+                "struct", "switch", "this", "throw", "true", "try", "using", "var", "virtual", "void", "while"),
+                false, "//", "/*", "*/", "\"'", false, '\0');
+        SyntaxLexer javascript = new SyntaxLexer("javascript", Set.of("async", "await", "break", "case", "catch",
+                "class", "const", "continue", "default", "delete", "do", "else", "export", "extends", "false",
+                "finally", "for", "from", "function", "if", "import", "in", "instanceof", "interface", "let", "new",
+                "null", "of", "return", "static", "super", "switch", "this", "throw", "true", "try", "type",
+                "typeof", "undefined", "var", "void", "while", "yield"),
+                false, "//", "/*", "*/", "\"'`", false, '@');
+        SyntaxLexer go = new SyntaxLexer("go", Set.of("break", "case", "chan", "const", "continue", "default",
+                "defer", "else", "fallthrough", "false", "for", "func", "go", "goto", "if", "import", "interface",
+                "map", "nil", "package", "range", "return", "select", "struct", "switch", "true", "type", "var"),
+                false, "//", "/*", "*/", "\"'`", false, '\0');
+        SyntaxLexer rust = new SyntaxLexer("rust", Set.of("as", "async", "await", "break", "const", "continue",
+                "crate", "else", "enum", "extern", "false", "fn", "for", "if", "impl", "in", "let", "loop", "match",
+                "mod", "move", "mut", "pub", "ref", "return", "self", "Self", "static", "struct", "super", "trait",
+                "true", "type", "unsafe", "use", "where", "while"),
+                false, "//", "/*", "*/", "\"", false, '#');
+        SyntaxLexer python = new SyntaxLexer("python", Set.of("False", "None", "True", "and", "as", "assert",
+                "async", "await", "break", "class", "continue", "def", "del", "elif", "else", "except", "finally",
+                "for", "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not", "or", "pass",
+                "raise", "return", "self", "try", "while", "with", "yield"),
+                false, "#", null, null, "\"'", true, '@');
+        SyntaxLexer sql = new SyntaxLexer("sql", Set.of("add", "all", "alter", "and", "as", "asc", "between", "by",
+                "case", "create", "delete", "desc", "distinct", "drop", "else", "end", "exists", "from", "group",
+                "having", "in", "index", "inner", "insert", "into", "is", "join", "key", "left", "like", "limit",
+                "not", "null", "on", "or", "order", "outer", "primary", "right", "select", "set", "table", "then",
+                "union", "update", "values", "when", "where"),
+                true, "--", "/*", "*/", "'\"", false, '\0');
+        SyntaxLexer shell = new SyntaxLexer("shell", Set.of("case", "do", "done", "elif", "else", "esac", "export",
+                "fi", "for", "function", "if", "in", "local", "return", "then", "until", "while"),
+                false, "#", null, null, "\"'", false, '\0');
+
+        register(java, "java");
+        register(kotlin, "kotlin", "kt");
+        register(c, "c", "h");
+        register(cpp, "c++", "cpp", "cxx", "hpp");
+        register(csharp, "c#", "csharp", "cs");
+        register(javascript, "javascript", "js", "typescript", "ts");
+        register(go, "go", "golang");
+        register(rust, "rust", "rs");
+        register(python, "python", "py");
+        register(sql, "sql");
+        register(shell, "shell", "sh", "bash");
+    }
+
+    private final String name;
+    private final Set<String> keywords;
+    private final boolean ignoreCase;
+    private final String lineComment;
+    private final String blockStart;
+    private final String blockEnd;
+    private final String quotes;
+    private final boolean tripleQuotes;
+    private final char annotation;
+
+    /**
+     * Kind of highlighted token.
+     */
+    public enum TokenType {
+        KEYWORD,
+        STRING,
+        COMMENT,
+        NUMBER,
+        ANNOTATION
+    }
+
+    /**
+     * A highlighted part of a line. Text between tokens is plain.
+     *
+     * @param start offset of the token from the start of its line
+     * @param length number of characters of the token
+     * @param type what the token is
+     */
+    public record Token(int start, int length, TokenType type) {
+    }
+
+    /**
+     * Cache key: the lexer and the snippet content. Snippets are canonical strings from
+     * {@link BlobStore}, which cache their hash code, so a lookup does not read the text.
+     */
+    private record Key(SyntaxLexer lexer, String content) {
+    }
+
+    private SyntaxLexer(String name, Set<String> keywords, boolean ignoreCase, String lineComment, String blockStart,
+            String blockEnd, String quotes, boolean tripleQuotes, char annotation) {
+        this.name = name;
+        this.keywords = keywords;
+        this.ignoreCase = ignoreCase;
+        this.lineComment = lineComment;
+        this.blockStart = blockStart;
+        this.blockEnd = blockEnd;
+        this.quotes = quotes;
+        this.tripleQuotes = tripleQuotes;
+        this.annotation = annotation;
+    }
+
+    private static void register(SyntaxLexer lexer, String... names) {
+        for (String name : names) {
+            LEXERS.put(name, lexer);
+        }
+    }
+
+    /**
+     * Returns the lexer for a language as entered in {@link ProgrammingNote#getLanguage()},
+     * such as "Java", "python" or "C++".
+     *
+     * @param language the language name, may be null
+     * @return the lexer for the language, or {@link #PLAIN} if it is not known
+     */
+    public static SyntaxLexer forLanguage(String language) {
+        if (language == null) {
+            return PLAIN;
+        }
+        return LEXERS.getOrDefault(language.trim().toLowerCase(Locale.ROOT), PLAIN);
+    }
+
+    /** @return the name of the language this lexer handles */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Lexes a whole snippet, reusing the result of a recent call with the same content.
+     * Safe to call from any thread; large snippets should be lexed off the event dispatch
+     * thread.
+     *
+     * @param lexer the lexer of the snippet language
+     * @param text the snippet; only strings are cached
+     * @return the tokens of every line
+     */
+    public static Highlighting highlight(SyntaxLexer lexer, CharSequence text) {
+        if (!(text instanceof String content)) {
+            return lexer.lex(text);
+        }
+        Key key = new Key(lexer, content);
+        synchronized (CACHE) {
+            Highlighting cached = CACHE.get(key);
+            if (cached != null) {
+                CACHE_HITS.increment();
+                return cached;
+            }
+        }
+        Highlighting highlighting = lexer.lex(content);
+        synchronized (CACHE) {
+            CACHE.put(key, highlighting);
+        }
+        return highlighting;
+    }
+
+    /**
+     * Lexes a whole text without caching.
+     *
+     * @param text the text
+     * @return the tokens of every line
+     */
+    public Highlighting lex(CharSequence text) {
+        long start = Metrics.start();
+        Lines lines = new Lines(64);
+        lexFrom(text, 0, NORMAL, lines, -1, null, 0);
+        LEX_TIME.recordSince(start);
+        return new Highlighting(this, text.length(), lines, 0, text.length());
+    }
+
+    /**
+     * Lexes lines from the given line start to the end of the text, or until a line ending
+     * at an old line start ends in the state the old line before it did.
+     *
+     * @param resyncAfter new offset from which lines may be matched with the old ones, or -1
+     *                    to lex to the end
+     * @param old the highlighting the text was edited from, null when lexing from scratch
+     * @param delta difference between new and old offsets after the edit
+     * @return the old line index lexing stopped at, or -1 if it reached the end of the text
+     */
+    private int lexFrom(CharSequence text, int lineStart, int state, Lines lines, int resyncAfter, Highlighting old,
+            int delta) {
+        int length = text.length();
+        List<Token> tokens = new ArrayList<>();
+        while (true) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            tokens.clear();
+            state = lexLine(text, lineStart, lineEnd, state, tokens);
+            lines.add(lineStart, state, tokens.isEmpty() ? NO_TOKENS : tokens.toArray(NO_TOKENS));
+            if (lineEnd == length) {
+                return -1;
+            }
+            lineStart = lineEnd + 1;
+            if (old != null && lineStart >= resyncAfter) {
+                int oldLine = old.exactLine(lineStart - delta);
+                if (oldLine >= 0 && (oldLine == 0 ? NORMAL : old.endStates[oldLine - 1]) == state) {
+                    return oldLine;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lexes one line.
+     *
+     * @param from offset of the first character of the line
+     * @param to offset of the line terminator, or the end of the text
+     * @param state the state the previous line ended in
+     * @param tokens receives the tokens of the line
+     * @return the state the line ends in
+     */
+    private int lexLine(CharSequence text, int from, int to, int state, List<Token> tokens) {
+        int i = from;
+        while (i < to) {
+            if (state != NORMAL) {
+                String end = state == BLOCK_COMMENT ? blockEnd : state == TRIPLE_DOUBLE ? "\"\"\"" : "'''";
+                int found = find(text, end, i, to);
+                int stop = found < 0 ? to : found;
+                tokens.add(new Token(i - from, stop - i, state == BLOCK_COMMENT ? TokenType.COMMENT : TokenType.STRING));
+                i = stop;
+                if (found >= 0) {
+                    state = NORMAL;
+                }
+                continue;
+            }
+            char c = text.charAt(i);
+            if (lineComment != null && startsWith(text, i, to, lineComment)) {
+                tokens.add(new Token(i - from, to - i, TokenType.COMMENT));
+                return NORMAL;
+            }
+            if (blockStart != null && startsWith(text, i, to, blockStart)) {
+                int found = find(text, blockEnd, i + blockStart.length(), to);
+                int stop = found < 0 ? to : found;
+                tokens.add(new Token(i - from, stop - i, TokenType.COMMENT));
+                i = stop;
+                state = found < 0 ? BLOCK_COMMENT : NORMAL;
+                continue;
+            }
+            if (quotes.indexOf(c) >= 0) {
+                if (tripleQuotes && (c == '"' || c == '\'') && startsWith(text, i, to, String.valueOf(c).repeat(3))) {
+                    String delimiter = String.valueOf(c).repeat(3);
+                    int found = find(text, delimiter, i + 3, to);
+                    int stop = found < 0 ? to : found;
+                    tokens.add(new Token(i - from, stop - i, TokenType.STRING));
+                    i = stop;
+                    state = found < 0 ? (c == '"' ? TRIPLE_DOUBLE : TRIPLE_SINGLE) : NORMAL;
+                    continue;
+                }
+                int j = i + 1;
+                while (j < to && text.charAt(j) != c) {
+                    j += text.charAt(j) == '\\' ? 2 : 1;
+                }
+                j = Math.min(to, j + 1);
+                tokens.add(new Token(i - from, j - i, TokenType.STRING));
+                i = j;
+                continue;
+            }
+            boolean wordStart = i == from || !isWordPart(text.charAt(i - 1));
+            if (wordStart && Character.isDigit(c)) {
+                int j = i + 1;
+                while (j < to && (isWordPart(text.charAt(j)) || text.charAt(j) == '.')) {
+                    j++;
+                }
+                tokens.add(new Token(i - from, j - i, TokenType.NUMBER));
+                i = j;
+                continue;
+            }
+            if (annotation != '\0' && c == annotation && i + 1 < to && Character.isJavaIdentifierStart(text.charAt(i + 1))) {
+                int j = i + 1;
+                while (j < to && (isWordPart(text.charAt(j)) || text.charAt(j) == '.')) {
+                    j++;
+                }
+                tokens.add(new Token(i - from, j - i, TokenType.ANNOTATION));
+                i = j;
+                continue;
+            }
+            if (wordStart && (Character.isJavaIdentifierStart(c) || c == '#')) {
+                int j = i + 1;
+                while (j < to && isWordPart(text.charAt(j))) {
+                    j++;
+                }
+                String word = text.subSequence(i, j).toString();
+                if (keywords.contains(ignoreCase ? word.toLowerCase(Locale.ROOT) : word)) {
+                    tokens.add(new Token(i - from, j - i, TokenType.KEYWORD));
+                }
+                i = j;
+                continue;
+            }
+            i++;
+        }
+        return state;
+    }
+
+    private static boolean isWordPart(char c) {
+        return Character.isJavaIdentifierPart(c);
+    }
+
+    private static boolean startsWith(CharSequence text, int at, int to, String prefix) {
+        if (to - at < prefix.length()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (text.charAt(at + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the offset just past the first occurrence of the delimiter in the range, or -1
+     */
+    private static int find(CharSequence text, String delimiter, int from, int to) {
+        for (int i = from; i <= to - delimiter.length(); i++) {
+            if (startsWith(text, i, to, delimiter)) {
+                return i + delimiter.length();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Growable columns of line starts, end states and tokens.
+     */
+    private static final class Lines {
+        private int[] starts;
+        private int[] states;
+        private Token[][] tokens;
+        private int size;
+
+        private Lines(int capacity) {
+            starts = new int[capacity];
+            states = new int[capacity];
+            tokens = new Token[capacity][];
+        }
+
+        private void add(int start, int state, Token[] lineTokens) {
+            ensure(size + 1);
+            starts[size] = start;
+            states[size] = state;
+            tokens[size] = lineTokens;
+            size++;
+        }
+
+        /**
+         * Appends old lines from the given index up to the given end, shifting their starts.
+         */
+        private void addAll(Highlighting old, int from, int to, int delta) {
+            int count = to - from;
+            ensure(size + count);
+            for (int k = 0; k < count; k++) {
+                starts[size + k] = old.lineStarts[from + k] + delta;
+            }
+            System.arraycopy(old.endStates, from, states, size, count);
+            System.arraycopy(old.tokens, from, tokens, size, count);
+            size += count;
+        }
+
+        private void ensure(int capacity) {
+            if (capacity > starts.length) {
+                int grown = Math.max(capacity, starts.length * 2);
+                starts = Arrays.copyOf(starts, grown);
+                states = Arrays.copyOf(states, grown);
+                tokens = Arrays.copyOf(tokens, grown);
+            }
+        }
+    }
+
+    /**
+     * Tokens of every line of a text, as lexed at one point in time. Instances are
+     * immutable and may be shared between threads; {@link #edit(CharSequence, int, int, int)}
+     * derives the highlighting of an edited text, sharing the tokens of unchanged lines.
+     */
+    public static final class Highlighting {
+        private final SyntaxLexer lexer;
+        private final int length;
+        private final int[] lineStarts;
+        private final int[] endStates;
+        private final Token[][] tokens;
+        private final int damageStart;
+        private final int damageEnd;
+
+        private Highlighting(SyntaxLexer lexer, int length, Lines lines, int damageStart, int damageEnd) {
+            this.lexer = lexer;
+            this.length = length;
+            this.lineStarts = Arrays.copyOf(lines.starts, lines.size);
+            this.endStates = Arrays.copyOf(lines.states, lines.size);
+            this.tokens = Arrays.copyOf(lines.tokens, lines.size);
+            this.damageStart = damageStart;
+            this.damageEnd = damageEnd;
+        }
+
+        /**
+         * Returns the highlighting of the text after an edit, lexing only the lines from the
+         * edited one up to where the lexer state matches the old lines again.
+         *
+         * @param text the whole text after the edit
+         * @param offset where the edit happened
+         * @param removed number of characters removed at the offset
+         * @param inserted number of characters inserted at the offset
+         * @return the new highlighting, whose damaged range covers the lines lexed again
+         * @throws IllegalArgumentException if the edit does not match the text lengths
+         */
+        public Highlighting edit(CharSequence text, int offset, int removed, int inserted) {
+            if (offset < 0 || offset + removed > length || text.length() != length - removed + inserted) {
+                throw new IllegalArgumentException("Edit at " + offset + " (-" + removed + " +" + inserted
+                        + ") does not match a text of " + length + " characters");
+            }
+            long start = Metrics.start();
+            int delta = inserted - removed;
+            int firstLine = lineOf(offset);
+            Lines lines = new Lines(lineStarts.length + 16);
+            lines.addAll(this, 0, firstLine, 0);
+            int state = firstLine == 0 ? NORMAL : endStates[firstLine - 1];
+            int resumeLine = lexer.lexFrom(text, lineStarts[firstLine], state, lines, offset + inserted, this, delta);
+            int relexed = lines.size - firstLine;
+            int end = text.length();
+            if (resumeLine >= 0) {
+                end = lineStarts[resumeLine] + delta;
+                lines.addAll(this, resumeLine, lineStarts.length, delta);
+            }
+            RELEX_LINES.record(relexed);
+            LEX_TIME.recordSince(start);
+            return new Highlighting(lexer, text.length(), lines, lineStarts[firstLine], end);
+        }
+
+        /** @return the lexer that produced this highlighting */
+        public SyntaxLexer getLexer() {
+            return lexer;
+        }
+
+        /** @return number of characters of the lexed text */
+        public int length() {
+            return length;
+        }
+
+        /** @return number of lines, one more than the number of line terminators */
+        public int lineCount() {
+            return lineStarts.length;
+        }
+
+        /**
+         * @param line the line index
+         * @return offset of the first character of the line
+         */
+        public int lineStart(int line) {
+            return lineStarts[line];
+        }
+
+        /**
+         * @param line the line index
+         * @return offset just past the line terminator, or the text length for the last line
+         */
+        public int lineEnd(int line) {
+            return line + 1 < lineStarts.length ? lineStarts[line + 1] : length;
+        }
+
+        /**
+         * @param line the line index
+         * @return the tokens of the line, offsets relative to the line start
+         */
+        public List<Token> tokens(int line) {
+            return Collections.unmodifiableList(Arrays.asList(tokens[line]));
+        }
+
+        /**
+         * Returns the line containing an offset.
+         *
+         * @param offset an offset between 0 and the text length
+         * @return the line index
+         */
+        public int lineOf(int offset) {
+            int line = Arrays.binarySearch(lineStarts, offset);
+            return line >= 0 ? line : -line - 2;
+        }
+
+        /** @return start of the range whose tokens may differ from the highlighting this one was edited from */
+        public int getDamageStart() {
+            return damageStart;
+        }
+
+        /** @return end of the range whose tokens may differ from the highlighting this one was edited from */
+        public int getDamageEnd() {
+            return damageEnd;
+        }
+
+        /**
+         * @return the index of the line starting exactly at the offset, or -1 if none does
+         */
+        private int exactLine(int offset) {
+            int line = Arrays.binarySearch(lineStarts, offset);
+            return line >= 0 ? line : -1;
+        }
+    }
+}
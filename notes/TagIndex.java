@@ -0,0 +1,282 @@
+package notes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import notes.TestingNote.TestStatus;
+
+/**
+ * Bitmap indexes of note identifiers by tag, note type and test status, used by
+ * {@link NoteQuery} to evaluate tag, type and status terms, including their negations and
+ * alternatives, as {@link RoaringBitmap} operations, and by {@link Notebook} to count tag
+ * facets.
+ *
+ * <p>Like {@link FieldIndex}, the keys a note was indexed under are remembered so the
+ * note can be removed after its fields have changed. The index can be written next to the
+ * note store and read back when the store is opened, in which case the notes are only
+ * {@linkplain #track(Note) tracked} against the stored bitmaps instead of being indexed
+ * again. Identifiers must fit in 32 unsigned bits. The index is not thread-safe;
+ * {@link Notebook} guards it.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+final class TagIndex {
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final Map<String, RoaringBitmap> byTag = new HashMap<>();
+    private final Map<String, RoaringBitmap> byType = new HashMap<>();
+    private final Map<TestStatus, RoaringBitmap> byStatus = new EnumMap<>(TestStatus.class);
+    private RoaringBitmap all = new RoaringBitmap();
+    private final Map<Note, Keys> indexedKeys = new IdentityHashMap<>();
+
+    /**
+     * Keys a note is currently indexed under.
+     */
+    private record Keys(int id, String type, TestStatus status, Set<String> tags) {
+
+        static Keys of(Note note) {
+            TestStatus status = note instanceof TestingNote testingNote ? testingNote.getTestStatus() : null;
+            return new Keys(bitmapId(note.getId()), typeKey(note.getClass().getSimpleName()), status,
+                    note.getTags());
+        }
+    }
+
+    /**
+     * Adds a note under its current identifier, type, status and tags.
+     *
+     * @param note the note to index
+     */
+    void add(Note note) {
+        Keys keys = Keys.of(note);
+        indexedKeys.put(note, keys);
+        all.add(keys.id());
+        byType.computeIfAbsent(keys.type(), k -> new RoaringBitmap()).add(keys.id());
+        if (keys.status() != null) {
+            byStatus.computeIfAbsent(keys.status(), k -> new RoaringBitmap()).add(keys.id());
+        }
+        for (String tag : keys.tags()) {
+            byTag.computeIfAbsent(tag, k -> new RoaringBitmap()).add(keys.id());
+        }
+    }
+
+    /**
+     * Takes over a note already present in bitmaps read from the store, remembering its
+     * keys without touching the bitmaps.
+     *
+     * @param note the note to track
+     * @return false if the bitmaps do not hold the note, which then has to be added
+     */
+    boolean track(Note note) {
+        Keys keys = Keys.of(note);
+        if (!all.contains(keys.id())) {
+            return false;
+        }
+        indexedKeys.put(note, keys);
+        return true;
+    }
+
+    /**
+     * Removes a note using the keys it was added with.
+     *
+     * @param note the note to remove
+     */
+    void remove(Note note) {
+        Keys keys = indexedKeys.remove(note);
+        if (keys == null) {
+            return;
+        }
+        all.remove(keys.id());
+        delete(byType, keys.type(), keys.id());
+        delete(byStatus, keys.status(), keys.id());
+        for (String tag : keys.tags()) {
+            delete(byTag, tag, keys.id());
+        }
+    }
+
+    /**
+     * Removes an identifier from every bitmap, for notes that changed in the store after
+     * the bitmaps were written and whose stored keys are therefore unknown.
+     *
+     * @param id the note identifier
+     */
+    void forget(long id) {
+        int bitmapId = bitmapId(id);
+        all.remove(bitmapId);
+        forget(byType, bitmapId);
+        forget(byStatus, bitmapId);
+        forget(byTag, bitmapId);
+    }
+
+    /**
+     * Removes every note and bitmap.
+     */
+    void clear() {
+        byTag.clear();
+        byType.clear();
+        byStatus.clear();
+        all = new RoaringBitmap();
+        indexedKeys.clear();
+    }
+
+    /** @return number of indexed notes */
+    int size() {
+        return all.cardinality();
+    }
+
+    /** @return every indexed note; must not be modified */
+    RoaringBitmap all() {
+        return all;
+    }
+
+    /** @return notes carrying the tag; must not be modified */
+    RoaringBitmap tag(String tag) {
+        RoaringBitmap notes = tag == null ? null : byTag.get(tag);
+        return notes != null ? notes : EMPTY;
+    }
+
+    /** @return notes of the given class simple name, ignoring case; must not be modified */
+    RoaringBitmap type(String type) {
+        RoaringBitmap notes = byType.get(typeKey(type));
+        return notes != null ? notes : EMPTY;
+    }
+
+    /** @return testing notes with the given status; must not be modified */
+    RoaringBitmap status(TestStatus status) {
+        RoaringBitmap notes = byStatus.get(status);
+        return notes != null ? notes : EMPTY;
+    }
+
+    /**
+     * Counts the notes carrying each tag.
+     *
+     * @param within the notes to count, or null to count every note
+     * @return tags with at least one note, most frequent first and alphabetically within
+     *         the same count
+     */
+    Map<String, Integer> counts(RoaringBitmap within) {
+        List<Map.Entry<String, Integer>> counts = new ArrayList<>(byTag.size());
+        for (Map.Entry<String, RoaringBitmap> tag : byTag.entrySet()) {
+            int count = within == null ? tag.getValue().cardinality() : tag.getValue().andCardinality(within);
+            if (count > 0) {
+                counts.add(Map.entry(tag.getKey(), count));
+            }
+        }
+        counts.sort(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())
+                .thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> count : counts) {
+            result.put(count.getKey(), count.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Writes the bitmaps, without the remembered keys, in the format read by
+     * {@link #readFrom(DataInputStream)}.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        all.writeTo(out);
+        writeMap(out, byType);
+        out.writeInt(byStatus.size());
+        for (Map.Entry<TestStatus, RoaringBitmap> status : byStatus.entrySet()) {
+            out.writeUTF(status.getKey().name());
+            status.getValue().writeTo(out);
+        }
+        writeMap(out, byTag);
+    }
+
+    /**
+     * Reads bitmaps written by {@link #writeTo(DataOutputStream)}. The notes they cover
+     * still have to be {@linkplain #track(Note) tracked}.
+     *
+     * @param in the stream to read from
+     * @return the index
+     * @throws IOException if reading fails or the data is malformed
+     */
+    static TagIndex readFrom(DataInputStream in) throws IOException {
+        TagIndex index = new TagIndex();
+        index.all = RoaringBitmap.readFrom(in);
+        readMap(in, index.byType);
+        int statuses = in.readInt();
+        for (int i = 0; i < statuses; i++) {
+            try {
+                index.byStatus.put(TestStatus.valueOf(in.readUTF()), RoaringBitmap.readFrom(in));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown test status in tag index", e);
+            }
+        }
+        readMap(in, index.byTag);
+        return index;
+    }
+
+    /**
+     * Converts a note identifier to the unsigned 32-bit value stored in the bitmaps.
+     *
+     * @param id the note identifier
+     * @return the bitmap value
+     */
+    static int bitmapId(long id) {
+        if (id <= 0 || id >>> 32 != 0) {
+            throw new IllegalArgumentException("Note id " + id + " cannot be indexed by tag");
+        }
+        return (int) id;
+    }
+
+    private static String typeKey(String type) {
+        return type == null ? null : type.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static <K> void delete(Map<K, RoaringBitmap> index, K key, int id) {
+        if (key == null) {
+            return;
+        }
+        RoaringBitmap notes = index.get(key);
+        if (notes != null) {
+            notes.remove(id);
+            if (notes.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static <K> void forget(Map<K, RoaringBitmap> index, int id) {
+        index.values().removeIf(notes -> {
+            notes.remove(id);
+            return notes.isEmpty();
+        });
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, RoaringBitmap> index) throws IOException {
+        out.writeInt(index.size());
+        for (Map.Entry<String, RoaringBitmap> entry : index.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeTo(out);
+        }
+    }
+
+    private static void readMap(DataInputStream in, Map<String, RoaringBitmap> index) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid tag index size " + size);
+        }
+        for (int i = 0; i < size; i++) {
+            index.put(in.readUTF(), RoaringBitmap.readFrom(in));
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package notes;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Calendar;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a testing note with test case, test status, and mandatory test option fields.
@@ -14,6 +18,8 @@ import java.util.Calendar;
  * @see TestStatus
  */
 public class TestingNote extends Note {
+    /** Pinned to the value computed for the original class so existing note.ser files keep loading */
+    private static final long serialVersionUID = -4914962086802196576L;
     
     /** The test case identifier or description associated with this testing note */
     private String testCase;
@@ -51,7 +57,7 @@ public class TestingNote extends Note {
      */
     public TestingNote() throws TitleLengthExceededException {
         super();
-        this.testCase = "";
+        this.testCase = BlobStore.shared().retain("");
         this.isMandatoryTest = false;
         this.testStatus = TestStatus.PENDING;
     }
@@ -73,7 +79,7 @@ public class TestingNote extends Note {
     public TestingNote(String title, String description, String text, String author, Calendar date, Calendar deadline,
             String testCase, TestStatus testStatus, boolean isMandatoryTest) throws TitleLengthExceededException {
         super(title, description, text, author, date, deadline);
-        this.testCase = testCase;
+        this.testCase = BlobStore.shared().retain(testCase);
         this.isMandatoryTest = isMandatoryTest;
         this.testStatus = testStatus;
     }
@@ -90,6 +96,38 @@ public class TestingNote extends Note {
     public TestingNote clone() throws CloneNotSupportedException {
         return (TestingNote) super.clone();
     }
+
+    @Override
+    protected void retainBlobs() {
+        super.retainBlobs();
+        testCase = BlobStore.shared().retain(testCase);
+    }
+
+    @Override
+    protected void releaseOwnBlobs() {
+        super.releaseOwnBlobs();
+        BlobStore.shared().release(testCase);
+    }
+
+    @Override
+    protected long estimateOwnSize(Set<Object> counted) {
+        return super.estimateOwnSize(counted) + textSize(testCase, counted);
+    }
+
+    @Override
+    boolean sameContent(Note other) {
+        if (!super.sameContent(other)) {
+            return false;
+        }
+        TestingNote testing = (TestingNote) other;
+        return Objects.equals(testCase, testing.testCase) && isMandatoryTest == testing.isMandatoryTest
+                && testStatus == testing.testStatus;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        testCase = BlobStore.shared().retain(testCase);
+    }
     
     /**
      * Returns whether this test is marked as mandatory for release.
@@ -120,7 +158,9 @@ public class TestingNote extends Note {
      *                       false to mark as optional
      */
     public void setIsMandatoryTest(boolean isMandatoryTest) {
+        boolean wasMandatory = this.isMandatoryTest;
         this.isMandatoryTest = isMandatoryTest;
+        fireChange(NoteChange.Field.MANDATORY, wasMandatory, isMandatoryTest);
     }
 
     /**
@@ -131,7 +171,9 @@ public class TestingNote extends Note {
      *                Can be null or empty string.
      */
     public void setTestcase(String testCase) {
-        this.testCase = testCase;
+        String oldTestCase = this.testCase;
+        this.testCase = BlobStore.shared().replace(this.testCase, testCase);
+        fireChange(NoteChange.Field.TEST_CASE, oldTestCase, this.testCase);
     }
 
     /**
@@ -150,7 +192,9 @@ public class TestingNote extends Note {
      * @see TestStatus
      */
     public void updateStatus(TestStatus status) {
+        TestStatus oldStatus = this.testStatus;
         this.testStatus = status;
+        fireChange(NoteChange.Field.TEST_STATUS, oldStatus, status);
     }
 
     /**
@@ -0,0 +1,838 @@
+package notes;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import diagnostics.Metrics;
+
+/**
+ * Line and word differences between two texts, used to compare saved versions of a note.
+ *
+ * <p>Lines are compared with Myers' O((N+M)D) algorithm in its linear-space form: each
+ * step searches the edit graph from both ends for the middle snake and then solves the two
+ * halves on either side of it, so memory stays proportional to the number of lines rather
+ * than to N&times;M. Lines that occur on only one side are changed in every edit script
+ * and are set aside before the search. If a single search exceeds {@link #COST_LIMIT} edits,
+ * the furthest point reached is used as the split instead, which bounds the running time on
+ * texts with little in common at the price of a possibly longer script, and once the
+ * searches of one comparison have visited {@link #WORK_PER_SYMBOL} diagonals per line (at
+ * least {@link #MIN_WORK}) the remaining ranges are reported as changed outright. Each block of
+ * changed lines up to {@link #MAX_WORD_DIFF_CHARS} characters is then compared again word by
+ * word, so a one-word edit in a long line shows up as such.</p>
+ *
+ * <p>Only changed lines and the unchanged lines around them are kept, grouped into
+ * {@link Hunk}s as in a unified diff. Diffs of note fields are computed through
+ * {@link #between(Note, Note, NoteChange.Field)}, which caches the most recently compared
+ * version pairs.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public final class TextDiff {
+
+    /** Number of unchanged lines shown around each change */
+    public static final int DEFAULT_CONTEXT = 3;
+
+    /** Largest block of changed lines, in characters per side, that is compared word by word */
+    public static final int MAX_WORD_DIFF_CHARS = 64 * 1024;
+
+    /** Number of edits after which a middle snake search settles for the furthest point reached */
+    public static final int COST_LIMIT = 1024;
+
+    /** Diagonals a comparison may visit per compared symbol before it stops searching */
+    public static final int WORK_PER_SYMBOL = 8;
+
+    /** Diagonals any comparison may visit before it stops searching */
+    public static final long MIN_WORK = 1L << 24;
+
+    private static final int CACHE_SIZE = 16;
+    private static final Metrics.Histogram DIFF_TIME = Metrics.histogram("diff.compute.nanos");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("diff.cache.hits");
+    private static final Map<Key, TextDiff> CACHE = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, TextDiff> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final List<Hunk> hunks;
+    private final int deletedLines;
+    private final int insertedLines;
+
+    /**
+     * Kind of change a line or part of a line belongs to.
+     */
+    public enum Operation {
+        EQUAL,
+        DELETE,
+        INSERT
+    }
+
+    /**
+     * Part of a line that was kept, deleted or inserted as a whole.
+     *
+     * @param operation what happened to the text
+     * @param text the text
+     */
+    public record Span(Operation operation, String text) {
+    }
+
+    /**
+     * A line of a hunk.
+     *
+     * @param operation {@link Operation#EQUAL} for context lines, otherwise whether the line
+     *                  was deleted from the old text or inserted into the new one
+     * @param oldNumber 1-based line number in the old text, 0 for inserted lines
+     * @param newNumber 1-based line number in the new text, 0 for deleted lines
+     * @param text the line without its terminator
+     * @param words the changed line split into kept and changed words, empty if it was not
+     *              compared word by word
+     */
+    public record Line(Operation operation, int oldNumber, int newNumber, String text, List<Span> words) {
+
+        /** @return the words if the line was compared word by word, otherwise the whole line */
+        public List<Span> spans() {
+            return words.isEmpty() ? List.of(new Span(operation, text)) : words;
+        }
+    }
+
+    /**
+     * A group of changes with the unchanged lines around them.
+     *
+     * @param oldStart first old line number, or the line before the hunk if it has no old lines
+     * @param oldCount number of old lines, context included
+     * @param newStart first new line number, or the line before the hunk if it has no new lines
+     * @param newCount number of new lines, context included
+     * @param lines the lines, deletions before insertions within each change
+     */
+    public record Hunk(int oldStart, int oldCount, int newStart, int newCount, List<Line> lines) {
+
+        /** @return the unified diff header, such as {@code @@ -10,7 +10,8 @@} */
+        public String header() {
+            return "@@ -" + oldStart + "," + oldCount + " +" + newStart + "," + newCount + " @@";
+        }
+
+        @Override
+        public String toString() {
+            return header();
+        }
+    }
+
+    /**
+     * Cache key: the compared texts by identity. Versions share unchanged bodies through
+     * {@link BlobStore} and rope-backed versions share their immutable ropes, so the same
+     * pair of versions yields the same texts without hashing megabytes on every lookup.
+     */
+    private record Key(CharSequence from, CharSequence to) {
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && from == other.from && to == other.to;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(from) + System.identityHashCode(to);
+        }
+    }
+
+    private TextDiff(List<Hunk> hunks, int deletedLines, int insertedLines) {
+        this.hunks = hunks;
+        this.deletedLines = deletedLines;
+        this.insertedLines = insertedLines;
+    }
+
+    /**
+     * Returns the differences in one field between two versions of a note, computing them
+     * only if the same pair of texts was not compared recently. Safe to call from any thread;
+     * large texts should be compared off the event dispatch thread.
+     *
+     * @param from the older version, usually one of {@link Note#getAllVersions()}
+     * @param to the newer version or the note itself
+     * @param field {@link NoteChange.Field#TEXT}, {@link NoteChange.Field#DESCRIPTION},
+     *              {@link NoteChange.Field#CODING_SNIPPET} or {@link NoteChange.Field#TEST_CASE};
+     *              a note without the field compares as empty
+     * @return the differences
+     * @throws IllegalArgumentException if the field is not a text field
+     */
+    public static TextDiff between(Note from, Note to, NoteChange.Field field) {
+        Key key = new Key(fieldText(from, field), fieldText(to, field));
+        synchronized (CACHE) {
+            TextDiff cached = CACHE.get(key);
+            if (cached != null) {
+                CACHE_HITS.increment();
+                return cached;
+            }
+        }
+        TextDiff diff = compute(key.from(), key.to(), DEFAULT_CONTEXT);
+        synchronized (CACHE) {
+            CACHE.put(key, diff);
+        }
+        return diff;
+    }
+
+    /**
+     * Compares two texts without caching.
+     *
+     * @param from the old text
+     * @param to the new text
+     * @param context number of unchanged lines to keep around each change
+     * @return the differences
+     */
+    public static TextDiff compute(CharSequence from, CharSequence to, int context) {
+        long start = Metrics.start();
+        Lines oldLines = new Lines(from.toString());
+        Lines newLines = new Lines(to.toString());
+        LineSymbols symbols = new LineSymbols();
+        int[] a = symbols.of(oldLines);
+        int[] b = symbols.of(newLines);
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+        Myers.diff(a, b, symbols.size(), deleted, inserted);
+
+        List<int[]> blocks = blocks(deleted, inserted);
+        List<Hunk> hunks = new ArrayList<>();
+        int deletedLines = 0;
+        int insertedLines = 0;
+        for (int first = 0; first < blocks.size(); ) {
+            int last = first;
+            while (last + 1 < blocks.size() && blocks.get(last + 1)[0] - blocks.get(last)[1] <= 2 * context) {
+                last++;
+            }
+            int oldFrom = Math.max(0, blocks.get(first)[0] - context);
+            int newFrom = blocks.get(first)[2] - (blocks.get(first)[0] - oldFrom);
+            int oldTo = Math.min(oldLines.size(), blocks.get(last)[1] + context);
+            int newTo = blocks.get(last)[3] + (oldTo - blocks.get(last)[1]);
+
+            List<Part> parts = new ArrayList<>();
+            int row = 0;
+            int i = oldFrom;
+            int j = newFrom;
+            for (int k = first; k <= last; k++) {
+                int[] block = blocks.get(k);
+                if (i < block[0]) {
+                    parts.add(new Part(row, i, block[0], j, block[2], null, null));
+                    row += block[0] - i;
+                }
+                parts.add(changedPart(row, oldLines, newLines, block));
+                row += block[1] - block[0] + block[3] - block[2];
+                deletedLines += block[1] - block[0];
+                insertedLines += block[3] - block[2];
+                i = block[1];
+                j = block[3];
+            }
+            if (i < oldTo) {
+                parts.add(new Part(row, i, oldTo, j, newTo, null, null));
+                row += oldTo - i;
+            }
+            int oldCount = oldTo - oldFrom;
+            int newCount = newTo - newFrom;
+            hunks.add(new Hunk(oldCount > 0 ? oldFrom + 1 : oldFrom, oldCount,
+                    newCount > 0 ? newFrom + 1 : newFrom, newCount, new HunkLines(oldLines, newLines, parts, row)));
+            first = last + 1;
+        }
+        DIFF_TIME.recordSince(start);
+        return new TextDiff(hunks, deletedLines, insertedLines);
+    }
+
+    /** @return the hunks in text order, empty if the texts have the same lines */
+    public List<Hunk> getHunks() {
+        return hunks;
+    }
+
+    /** @return true if the texts have the same lines */
+    public boolean isEmpty() {
+        return hunks.isEmpty();
+    }
+
+    /** @return number of lines only in the old text */
+    public int getDeletedLines() {
+        return deletedLines;
+    }
+
+    /** @return number of lines only in the new text */
+    public int getInsertedLines() {
+        return insertedLines;
+    }
+
+    private static CharSequence fieldText(Note note, NoteChange.Field field) {
+        CharSequence text = switch (field) {
+            case TEXT -> note.getTextContent();
+            case DESCRIPTION -> note.getDescription();
+            case CODING_SNIPPET -> note instanceof ProgrammingNote programmingNote
+                    ? programmingNote.getCodingSnippetContent() : null;
+            case TEST_CASE -> note instanceof TestingNote testingNote ? testingNote.getTestcase() : null;
+            default -> throw new IllegalArgumentException(field + " is not a text field");
+        };
+        return text != null ? text : "";
+    }
+
+    /**
+     * Groups changed lines into maximal blocks separated by unchanged lines.
+     *
+     * @return {old start, old end, new start, new end} of each block, ends exclusive
+     */
+    private static List<int[]> blocks(boolean[] deleted, boolean[] inserted) {
+        List<int[]> blocks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int oldStart = i;
+            int newStart = j;
+            while (i < deleted.length && deleted[i]) {
+                i++;
+            }
+            while (j < inserted.length && inserted[j]) {
+                j++;
+            }
+            blocks.add(new int[] {oldStart, i, newStart, j});
+        }
+        return blocks;
+    }
+
+    /**
+     * Describes a block of changed lines, comparing it word by word when it has both deleted
+     * and inserted lines and is small enough.
+     */
+    private static Part changedPart(int row, Lines oldLines, Lines newLines, int[] block) {
+        List<List<Span>> oldWords = null;
+        List<List<Span>> newWords = null;
+        if (block[0] < block[1] && block[2] < block[3]
+                && oldLines.length(block[0], block[1]) <= MAX_WORD_DIFF_CHARS
+                && newLines.length(block[2], block[3]) <= MAX_WORD_DIFF_CHARS) {
+            List<String> oldTokens = words(oldLines.text(block[0], block[1]));
+            List<String> newTokens = words(newLines.text(block[2], block[3]));
+            Map<String, Integer> symbols = new HashMap<>();
+            int[] a = symbols(oldTokens, symbols);
+            int[] b = symbols(newTokens, symbols);
+            boolean[] deleted = new boolean[a.length];
+            boolean[] inserted = new boolean[b.length];
+            Myers.diff(a, b, symbols.size(), deleted, inserted);
+            oldWords = lineSpans(oldTokens, deleted, Operation.DELETE);
+            newWords = lineSpans(newTokens, inserted, Operation.INSERT);
+        }
+        return new Part(row, block[0], block[1], block[2], block[3],
+                oldWords != null ? oldWords : List.of(), newWords != null ? newWords : List.of());
+    }
+
+    /**
+     * Splits text into runs of letters and digits, runs of blanks, line terminators and
+     * single other characters.
+     */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            char c = text.charAt(i);
+            if (isWordChar(c)) {
+                while (i < length && isWordChar(text.charAt(i))) {
+                    i++;
+                }
+            } else if (c != '\n' && Character.isWhitespace(c)) {
+                while (i < length && text.charAt(i) != '\n' && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+            } else if (Character.isHighSurrogate(c) && i + 1 < length) {
+                i += 2;
+            } else {
+                i++;
+            }
+            words.add(text.substring(start, i));
+        }
+        return words;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static int[] symbols(List<String> tokens, Map<String, Integer> symbols) {
+        int[] result = new int[tokens.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer next = symbols.size();
+            Integer symbol = symbols.putIfAbsent(tokens.get(i), next);
+            result[i] = symbol != null ? symbol : next;
+        }
+        return result;
+    }
+
+    /**
+     * Cuts compared words back into lines, merging neighbouring words with the same outcome.
+     */
+    private static List<List<Span>> lineSpans(List<String> words, boolean[] changed, Operation change) {
+        List<List<Span>> lines = new ArrayList<>();
+        List<Span> spans = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        Operation operation = Operation.EQUAL;
+        for (int i = 0; i <= words.size(); i++) {
+            String word = i < words.size() ? words.get(i) : "\n";
+            Operation next = i < changed.length && changed[i] ? change : Operation.EQUAL;
+            if (word.equals("\n") || next != operation) {
+                if (text.length() > 0) {
+                    spans.add(new Span(operation, text.toString()));
+                    text.setLength(0);
+                }
+                operation = next;
+            }
+            if (word.equals("\n")) {
+                lines.add(List.copyOf(spans));
+                spans.clear();
+            } else {
+                text.append(word);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Text split into lines, kept as offsets so that only the lines that are shown are ever
+     * copied. A final line terminator does not start another line.
+     */
+    private static final class Lines {
+        private final String text;
+        /** Start of each line, followed by the position one past the last line's terminator */
+        private final int[] starts;
+
+        Lines(String text) {
+            this.text = text;
+            int count = 0;
+            for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', end + 1)) {
+                count++;
+            }
+            boolean unterminated = !text.isEmpty() && text.charAt(text.length() - 1) != '\n';
+            starts = new int[count + (unterminated ? 2 : 1)];
+            int line = 0;
+            for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', end + 1)) {
+                starts[++line] = end + 1;
+            }
+            if (unterminated) {
+                starts[++line] = text.length() + 1;
+            }
+        }
+
+        int size() {
+            return starts.length - 1;
+        }
+
+        int start(int line) {
+            return starts[line];
+        }
+
+        int end(int line) {
+            return starts[line + 1] - 1;
+        }
+
+        String line(int line) {
+            return text.substring(start(line), end(line));
+        }
+
+        /** @return lines {@code [from, to)} joined by line terminators */
+        String text(int from, int to) {
+            return text.substring(start(from), end(to - 1));
+        }
+
+        /** @return length of {@link #text(int, int)} */
+        int length(int from, int to) {
+            return end(to - 1) - start(from);
+        }
+
+        boolean sameLine(int line, Lines other, int otherLine) {
+            int length = end(line) - start(line);
+            return length == other.end(otherLine) - other.start(otherLine)
+                    && text.regionMatches(start(line), other.text, other.start(otherLine), length);
+        }
+
+        int hash(int line) {
+            int hash = 0;
+            for (int i = start(line), end = end(line); i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Numbers distinct lines across texts by hashing them in place, without copying each
+     * line into a string.
+     */
+    private static final class LineSymbols {
+        private int[] slots = new int[1024];
+        private int[] hashes = new int[256];
+        private Lines[] texts = new Lines[256];
+        private int[] lines = new int[256];
+        private int size;
+
+        int[] of(Lines text) {
+            int[] symbols = new int[text.size()];
+            for (int line = 0; line < symbols.length; line++) {
+                symbols[line] = symbol(text, line);
+            }
+            return symbols;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int symbol(Lines text, int line) {
+            int hash = text.hash(line);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int symbol = slots[slot] - 1;
+                if (symbol < 0) {
+                    if (size == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, size * 2);
+                        texts = Arrays.copyOf(texts, size * 2);
+                        lines = Arrays.copyOf(lines, size * 2);
+                    }
+                    hashes[size] = hash;
+                    texts[size] = text;
+                    lines[size] = line;
+                    slots[slot] = ++size;
+                    if (size * 2 > slots.length) {
+                        rehash();
+                    }
+                    return size - 1;
+                }
+                if (hashes[symbol] == hash && texts[symbol].sameLine(lines[symbol], text, line)) {
+                    return symbol;
+                }
+            }
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int symbol = 0; symbol < size; symbol++) {
+                int slot = hashes[symbol] & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = symbol + 1;
+            }
+        }
+    }
+
+    /**
+     * Run of unchanged lines, or a block of changed lines, within a hunk.
+     *
+     * @param row index of the part's first line within the hunk
+     * @param oldWords deleted lines split into words, null for unchanged lines and empty if
+     *                 the block was not compared word by word
+     * @param newWords inserted lines split into words, likewise
+     */
+    private record Part(int row, int oldFrom, int oldTo, int newFrom, int newTo,
+            List<List<Span>> oldWords, List<List<Span>> newWords) {
+    }
+
+    /**
+     * Lines of a hunk, created as they are read so that a hunk covering most of a large text
+     * costs memory only for its word-level changes.
+     */
+    private static final class HunkLines extends AbstractList<Line> {
+        private final Lines oldLines;
+        private final Lines newLines;
+        private final List<Part> parts;
+        private final int size;
+
+        HunkLines(Lines oldLines, Lines newLines, List<Part> parts, int size) {
+            this.oldLines = oldLines;
+            this.newLines = newLines;
+            this.parts = parts;
+            this.size = size;
+        }
+
+        @Override
+        public Line get(int index) {
+            Objects.checkIndex(index, size);
+            int low = 0;
+            int high = parts.size() - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (parts.get(mid).row() <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            Part part = parts.get(low);
+            int offset = index - part.row();
+            if (part.oldWords() == null) {
+                int line = part.oldFrom() + offset;
+                return new Line(Operation.EQUAL, line + 1, part.newFrom() + offset + 1, oldLines.line(line), List.of());
+            }
+            int deleted = part.oldTo() - part.oldFrom();
+            if (offset < deleted) {
+                int line = part.oldFrom() + offset;
+                return new Line(Operation.DELETE, line + 1, 0, oldLines.line(line),
+                        part.oldWords().isEmpty() ? List.of() : part.oldWords().get(offset));
+            }
+            int line = part.newFrom() + offset - deleted;
+            return new Line(Operation.INSERT, 0, line + 1, newLines.line(line),
+                    part.newWords().isEmpty() ? List.of() : part.newWords().get(offset - deleted));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+
+    /**
+     * Linear-space Myers comparison of two symbol sequences, marking the symbols that are
+     * not part of the longest common subsequence found.
+     */
+    private static final class Myers {
+        private final int[] a;
+        private final int[] b;
+        private final int[] aIndex;
+        private final int[] bIndex;
+        private final boolean[] deleted;
+        private final boolean[] inserted;
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private final long budget;
+        private long work;
+
+        private Myers(int[] a, int[] b, int[] aIndex, int[] bIndex, boolean[] deleted, boolean[] inserted) {
+            this.a = a;
+            this.b = b;
+            this.aIndex = aIndex;
+            this.bIndex = bIndex;
+            this.deleted = deleted;
+            this.inserted = inserted;
+            this.forward = new int[a.length + b.length + 3];
+            this.backward = new int[a.length + b.length + 3];
+            this.offset = b.length + 1;
+            this.budget = Math.max(MIN_WORK, (long) WORK_PER_SYMBOL * (a.length + b.length));
+        }
+
+        /**
+         * Marks deleted symbols of {@code a} and inserted symbols of {@code b}.
+         *
+         * @param symbols number of distinct symbols, all of which are below this value
+         */
+        static void diff(int[] a, int[] b, int symbols, boolean[] deleted, boolean[] inserted) {
+            int[] inA = new int[symbols];
+            int[] inB = new int[symbols];
+            for (int symbol : a) {
+                inA[symbol]++;
+            }
+            for (int symbol : b) {
+                inB[symbol]++;
+            }
+            // a symbol missing from the other side is changed in every edit script
+            int[] aIndex = new int[a.length];
+            int n = 0;
+            for (int i = 0; i < a.length; i++) {
+                if (inB[a[i]] == 0) {
+                    deleted[i] = true;
+                } else {
+                    aIndex[n++] = i;
+                }
+            }
+            int[] bIndex = new int[b.length];
+            int m = 0;
+            for (int j = 0; j < b.length; j++) {
+                if (inA[b[j]] == 0) {
+                    inserted[j] = true;
+                } else {
+                    bIndex[m++] = j;
+                }
+            }
+            int[] keptA = new int[n];
+            for (int i = 0; i < n; i++) {
+                keptA[i] = a[aIndex[i]];
+            }
+            int[] keptB = new int[m];
+            for (int j = 0; j < m; j++) {
+                keptB[j] = b[bIndex[j]];
+            }
+            new Myers(keptA, keptB, aIndex, bIndex, deleted, inserted).compare(0, n, 0, m);
+        }
+
+        /**
+         * Compares {@code a[xoff, xlim)} with {@code b[yoff, ylim)}, recursing into the
+         * smaller half of each split so the stack stays logarithmic.
+         */
+        private void compare(int xoff, int xlim, int yoff, int ylim) {
+            while (true) {
+                while (xoff < xlim && yoff < ylim && a[xoff] == b[yoff]) {
+                    xoff++;
+                    yoff++;
+                }
+                while (xoff < xlim && yoff < ylim && a[xlim - 1] == b[ylim - 1]) {
+                    xlim--;
+                    ylim--;
+                }
+                if (xoff == xlim || yoff == ylim || work > budget) {
+                    markChanged(xoff, xlim, yoff, ylim);
+                    return;
+                }
+                long split = split(xoff, xlim, yoff, ylim);
+                int xmid = (int) (split >>> 32);
+                int ymid = (int) split;
+                if ((xmid == xoff && ymid == yoff) || (xmid == xlim && ymid == ylim)) {
+                    markChanged(xoff, xlim, yoff, ylim);
+                    return;
+                }
+                if ((xmid - xoff) + (ymid - yoff) <= (xlim - xmid) + (ylim - ymid)) {
+                    compare(xoff, xmid, yoff, ymid);
+                    xoff = xmid;
+                    yoff = ymid;
+                } else {
+                    compare(xmid, xlim, ymid, ylim);
+                    xlim = xmid;
+                    ylim = ymid;
+                }
+            }
+        }
+
+        private void markChanged(int xoff, int xlim, int yoff, int ylim) {
+            for (int x = xoff; x < xlim; x++) {
+                deleted[aIndex[x]] = true;
+            }
+            for (int y = yoff; y < ylim; y++) {
+                inserted[bIndex[y]] = true;
+            }
+        }
+
+        /**
+         * Finds the middle snake of the edit graph between {@code (xoff, yoff)} and
+         * {@code (xlim, ylim)}, searching from both corners one edit at a time. Diagonal
+         * {@code k} holds the points with {@code x - y == k}; {@code forward[k]} and
+         * {@code backward[k]} are the furthest x reached on it from either end.
+         *
+         * @return the split point as {@code x << 32 | y}
+         */
+        private long split(int xoff, int xlim, int yoff, int ylim) {
+            int dmin = xoff - ylim;
+            int dmax = xlim - yoff;
+            int fmid = xoff - yoff;
+            int bmid = xlim - ylim;
+            int fmin = fmid;
+            int fmax = fmid;
+            int bmin = bmid;
+            int bmax = bmid;
+            boolean odd = ((fmid - bmid) & 1) != 0;
+            forward[offset + fmid] = xoff;
+            backward[offset + bmid] = xlim;
+
+            for (int cost = 1; ; cost++) {
+                if (fmin > dmin) {
+                    forward[offset + --fmin - 1] = -1;
+                } else {
+                    fmin++;
+                }
+                if (fmax < dmax) {
+                    forward[offset + ++fmax + 1] = -1;
+                } else {
+                    fmax--;
+                }
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int low = forward[offset + d - 1];
+                    int high = forward[offset + d + 1];
+                    int x = low >= high ? low + 1 : high;
+                    int y = x - d;
+                    while (x < xlim && y < ylim && a[x] == b[y]) {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + d] = x;
+                    if (odd && bmin <= d && d <= bmax && backward[offset + d] <= x) {
+                        return pack(x, y);
+                    }
+                }
+
+                if (bmin > dmin) {
+                    backward[offset + --bmin - 1] = Integer.MAX_VALUE;
+                } else {
+                    bmin++;
+                }
+                if (bmax < dmax) {
+                    backward[offset + ++bmax + 1] = Integer.MAX_VALUE;
+                } else {
+                    bmax--;
+                }
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int low = backward[offset + d - 1];
+                    int high = backward[offset + d + 1];
+                    int x = low < high ? low : high - 1;
+                    int y = x - d;
+                    while (x > xoff && y > yoff && a[x - 1] == b[y - 1]) {
+                        x--;
+                        y--;
+                    }
+                    backward[offset + d] = x;
+                    if (!odd && fmin <= d && d <= fmax && x <= forward[offset + d]) {
+                        return pack(x, y);
+                    }
+                }
+
+                work += fmax - fmin + bmax - bmin + 2;
+                if (cost >= COST_LIMIT || work > budget) {
+                    return furthest(xoff, xlim, yoff, ylim, fmin, fmax, bmin, bmax);
+                }
+            }
+        }
+
+        /**
+         * Picks whichever search, forward or backward, got furthest from its corner, for
+         * searches that were cut off before meeting.
+         */
+        private long furthest(int xoff, int xlim, int yoff, int ylim, int fmin, int fmax, int bmin, int bmax) {
+            long forwardBest = -1;
+            int forwardX = xoff;
+            for (int d = fmax; d >= fmin; d -= 2) {
+                int x = Math.min(forward[offset + d], xlim);
+                int y = x - d;
+                if (y > ylim) {
+                    x = ylim + d;
+                    y = ylim;
+                }
+                if (x + y > forwardBest) {
+                    forwardBest = x + y;
+                    forwardX = x;
+                }
+            }
+            long backwardBest = Long.MAX_VALUE;
+            int backwardX = xlim;
+            for (int d = bmax; d >= bmin; d -= 2) {
+                int x = Math.max(xoff, backward[offset + d]);
+                int y = x - d;
+                if (y < yoff) {
+                    x = yoff + d;
+                    y = yoff;
+                }
+                if (x + y < backwardBest) {
+                    backwardBest = x + y;
+                    backwardX = x;
+                }
+            }
+            if ((long) xlim + ylim - backwardBest < forwardBest - (xoff + yoff)) {
+                return pack(forwardX, (int) (forwardBest - forwardX));
+            }
+            return pack(backwardX, (int) (backwardBest - backwardX));
+        }
+
+        private static long pack(int x, int y) {
+            return (long) x << 32 | (y & 0xFFFFFFFFL);
+        }
+    }
+}
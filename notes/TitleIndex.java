@@ -0,0 +1,393 @@
+package notes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * In-memory typeahead index over note titles.
+ *
+ * <p>Titles are normalized to lower case and stored in a compressed (radix) trie, so a
+ * prefix lookup costs O(prefix length + k) regardless of the notebook size. Typos are
+ * handled by walking the same trie with a Levenshtein row per edge character: a branch
+ * is abandoned as soon as every cell of the row exceeds the allowed distance, or the
+ * best suggestions found so far are closer than anything the branch can still reach, which
+ * keeps fuzzy lookups to the small part of the trie that is close to the query. Titles are
+ * capped at 50 characters, so the rows stay short.</p>
+ *
+ * <p>The index is not thread-safe; {@link Notebook} guards it together with the note list.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class TitleIndex {
+
+    /** Minimum query length before typo-tolerant matching is attempted */
+    private static final int MIN_FUZZY_QUERY_LENGTH = 3;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /** Orders fuzzy candidates worst first: farthest, then latest in title order */
+    private static final Comparator<Candidate> WORST_FIRST =
+            Comparator.comparingInt(Candidate::distance).thenComparingLong(Candidate::order).reversed();
+
+    private final Node root = new Node("");
+    private int size;
+
+    /**
+     * Note matching the query within the allowed edit distance.
+     *
+     * @param note the note
+     * @param distance edit distance between the query and the closest prefix of the title
+     * @param order position of the note in the walk, which visits titles alphabetically
+     */
+    private record Candidate(Note note, int distance, long order) {
+    }
+
+    /**
+     * State of one fuzzy lookup: the best candidates found so far, at most {@code limit}.
+     */
+    private static final class FuzzySearch {
+        private final String key;
+        private final int maxDistance;
+        private final Set<Note> exclude;
+        private final int limit;
+        private final PriorityQueue<Candidate> best = new PriorityQueue<>(WORST_FIRST);
+        private long visited;
+
+        private FuzzySearch(String key, int maxDistance, Set<Note> exclude, int limit) {
+            this.key = key;
+            this.maxDistance = maxDistance;
+            this.exclude = exclude;
+            this.limit = limit;
+        }
+
+        /** @return true if no note at this distance can enter the best candidates any more */
+        private boolean full(int distance) {
+            return best.size() >= limit && distance >= best.peek().distance();
+        }
+
+        private void offer(Note note, int distance) {
+            if (exclude.contains(note) || full(distance)) {
+                return;
+            }
+            best.add(new Candidate(note, distance, visited++));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+    }
+
+    /**
+     * Trie node reached through an edge labelled with one or more characters.
+     */
+    private static final class Node {
+        private String label;
+        private Node[] children = NO_CHILDREN;
+        private List<Note> notes;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private int findChild(char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = children[mid].label.charAt(0);
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private void insertChild(int position, Node child) {
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, position);
+            grown[position] = child;
+            System.arraycopy(children, position, grown, position + 1, children.length - position);
+            children = grown;
+        }
+
+        private void removeChild(int position) {
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, position);
+            System.arraycopy(children, position + 1, shrunk, position, children.length - position - 1);
+            children = shrunk;
+        }
+    }
+
+    /**
+     * Normalizes a title or query for lookups.
+     *
+     * @param title the raw title
+     * @return the trimmed, lower-cased title
+     */
+    static String normalize(String title) {
+        return title == null ? "" : title.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a note under its current title.
+     *
+     * @param note the note to index
+     */
+    public void add(Note note) {
+        String key = normalize(note.getTitle());
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int position = node.findChild(key.charAt(i));
+            if (position < 0) {
+                Node leaf = new Node(key.substring(i));
+                node.insertChild(-position - 1, leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.children[position];
+            int common = commonPrefix(child.label, key, i);
+            if (common < child.label.length()) {
+                Node split = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                split.children = new Node[] { child };
+                node.children[position] = split;
+                child = split;
+            }
+            node = child;
+            i += common;
+        }
+        if (node.notes == null) {
+            node.notes = new ArrayList<>(1);
+        }
+        node.notes.add(note);
+        size++;
+    }
+
+    /**
+     * Removes a note that was indexed under the given title.
+     *
+     * @param note the note to remove
+     * @param title the title the note was indexed with
+     */
+    public void remove(Note note, String title) {
+        if (remove(root, normalize(title), 0, note)) {
+            size--;
+        }
+    }
+
+    private boolean remove(Node node, String key, int i, Note note) {
+        if (i == key.length()) {
+            return node.notes != null && removeIdentity(node.notes, note);
+        }
+        int position = node.findChild(key.charAt(i));
+        if (position < 0) {
+            return false;
+        }
+        Node child = node.children[position];
+        if (!key.startsWith(child.label, i) || !remove(child, key, i + child.label.length(), note)) {
+            return false;
+        }
+        if (child.notes != null && child.notes.isEmpty()) {
+            child.notes = null;
+        }
+        if (child.notes == null && child.children.length == 0) {
+            node.removeChild(position);
+        } else if (child.notes == null && child.children.length == 1) {
+            Node only = child.children[0];
+            only.label = child.label + only.label;
+            node.children[position] = only;
+        }
+        return true;
+    }
+
+    private static boolean removeIdentity(List<Note> notes, Note note) {
+        for (int i = 0; i < notes.size(); i++) {
+            if (notes.get(i) == note) {
+                notes.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return number of indexed notes */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns up to {@code limit} notes for a typed query. Notes whose title starts with the
+     * query come first in alphabetical order, followed by titles that match the query
+     * within a small edit distance, closest first and alphabetically among equally close
+     * ones.
+     *
+     * @param query the text typed so far
+     * @param limit maximum number of suggestions
+     * @return matching notes, best matches first
+     */
+    public List<Note> suggest(String query, int limit) {
+        String key = normalize(query);
+        Set<Note> result = new LinkedHashSet<>();
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        Node match = descend(key);
+        if (match != null) {
+            collect(match, result, limit);
+        }
+        if (result.size() < limit && key.length() >= MIN_FUZZY_QUERY_LENGTH) {
+            int maxDistance = key.length() < 6 ? 1 : 2;
+            int[] row = new int[key.length() + 1];
+            for (int j = 0; j < row.length; j++) {
+                row[j] = j;
+            }
+            FuzzySearch search = new FuzzySearch(key, maxDistance, result, limit - result.size());
+            fuzzy(root, row, key.length(), search);
+            List<Candidate> candidates = new ArrayList<>(search.best);
+            candidates.sort(WORST_FIRST.reversed());
+            for (Candidate candidate : candidates) {
+                result.add(candidate.note());
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Finds the node whose subtree holds every title starting with the key.
+     */
+    private Node descend(String key) {
+        Node node = root;
+        int i = 0;
+        while (i < key.length()) {
+            int position = node.findChild(key.charAt(i));
+            if (position < 0) {
+                return null;
+            }
+            Node child = node.children[position];
+            int common = commonPrefix(child.label, key, i);
+            if (i + common == key.length()) {
+                return child;
+            }
+            if (common < child.label.length()) {
+                return null;
+            }
+            node = child;
+            i += common;
+        }
+        return node;
+    }
+
+    private static boolean collect(Node node, Set<Note> result, int limit) {
+        if (node.notes != null) {
+            for (Note note : node.notes) {
+                result.add(note);
+                if (result.size() >= limit) {
+                    return true;
+                }
+            }
+        }
+        for (Node child : node.children) {
+            if (collect(child, result, limit)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the trie computing one Levenshtein row per character. The distance of a title
+     * is the smallest distance between the whole query and a prefix of the title, found in
+     * the last cell of the rows along its path. No longer path gets closer than the
+     * smallest cell of the current row, so once that bound reaches the distance found so
+     * far every title below shares it, and a branch is skipped once the bound exceeds
+     * {@code maxDistance} or can no longer beat the candidates found.
+     *
+     * @param closest distance of the closest prefix on the path to the node
+     */
+    private static void fuzzy(Node node, int[] row, int closest, FuzzySearch search) {
+        int last = search.key.length();
+        for (Node child : node.children) {
+            int[] current = row;
+            int distance = closest;
+            int bound = min(current);
+            for (int c = 0; c < child.label.length() && bound < distance; c++) {
+                current = nextRow(current, search.key, child.label.charAt(c));
+                distance = Math.min(distance, current[last]);
+                bound = min(current);
+            }
+            if (search.full(Math.min(distance, bound))) {
+                continue;
+            }
+            if (bound >= distance) {
+                if (distance <= search.maxDistance) {
+                    collect(child, distance, search);
+                }
+            } else if (bound <= search.maxDistance) {
+                if (child.notes != null && distance <= search.maxDistance) {
+                    for (Note note : child.notes) {
+                        search.offer(note, distance);
+                    }
+                }
+                fuzzy(child, current, distance, search);
+            }
+        }
+    }
+
+    /**
+     * Offers every note of a subtree at the same distance, stopping once none can enter.
+     */
+    private static boolean collect(Node node, int distance, FuzzySearch search) {
+        if (search.full(distance)) {
+            return true;
+        }
+        if (node.notes != null) {
+            for (Note note : node.notes) {
+                search.offer(note, distance);
+            }
+        }
+        for (Node child : node.children) {
+            if (collect(child, distance, search)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] nextRow(int[] previous, String key, char c) {
+        int[] row = new int[previous.length];
+        row[0] = previous[0] + 1;
+        for (int j = 1; j < row.length; j++) {
+            int substitution = previous[j - 1] + (key.charAt(j - 1) == c ? 0 : 1);
+            row[j] = Math.min(Math.min(row[j - 1] + 1, previous[j] + 1), substitution);
+        }
+        return row;
+    }
+
+    private static int min(int[] row) {
+        int min = row[0];
+        for (int value : row) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    private static int commonPrefix(String label, String key, int offset) {
+        int max = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,350 @@
+package notes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import diagnostics.Metrics;
+
+/**
+ * Registry of the notebook files of a workspace, keeping the recently used notebooks in
+ * memory within a heap budget.
+ *
+ * <p>Each registered notebook has its own {@link NoteStore}. Opening a notebook that is
+ * resident returns it as it is; a cold one is read through {@link NoteStore#open()}, which
+ * reuses the snapshot, journal and tag checkpoint of the store. Whenever a notebook is
+ * loaded the least recently used ones are evicted until the {@link Notebook#estimatedSize()
+ * estimated sizes} of the resident notebooks fit the budget. An evicted notebook is saved
+ * first if it has changes, then closed, after which it must not be used any more. The
+ * current notebook and the one being opened are never evicted, even if they alone exceed
+ * the budget.</p>
+ *
+ * <p>The registry is a text file holding one {@code name<TAB>path} line per notebook, in
+ * registration order. Loading a cold notebook does not hold up opening or switching to
+ * resident ones.</p>
+ *
+ * @author [Mantas Kalvinskas]
+ * @version 1.0
+ * @since 1.0
+ */
+public class Workspace {
+    /** Name under which the note file of single-notebook installations is registered */
+    public static final String DEFAULT_NOTEBOOK = "Default";
+
+    private static final Metrics.Histogram OPEN_TIME = Metrics.histogram("workspace.open.nanos");
+    private static final Metrics.Counter HITS = Metrics.counter("workspace.hits");
+    private static final Metrics.Counter EVICTIONS = Metrics.counter("workspace.evictions");
+
+    private final Path registry;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    /** Resident notebooks, least recently used first */
+    private final Map<String, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private long heapBudget;
+    private String current;
+
+    /**
+     * A registered notebook. Loads of the notebook synchronize on the entry.
+     */
+    private static final class Entry {
+        private final String name;
+        private final Path file;
+        private final NoteStore store;
+        private Notebook notebook;
+
+        private Entry(String name, Path file) {
+            this.name = name;
+            this.file = file;
+            this.store = new NoteStore(file);
+        }
+    }
+
+    /**
+     * Creates a workspace from its registry file, which is created on the first
+     * registration if it does not exist.
+     *
+     * @param registry the registry file
+     * @param heapBudget estimated bytes the resident notebooks may take
+     * @throws IOException if the registry cannot be read
+     */
+    public Workspace(Path registry, long heapBudget) throws IOException {
+        this.registry = registry;
+        this.heapBudget = heapBudget;
+        if (Files.exists(registry)) {
+            for (String line : Files.readAllLines(registry, StandardCharsets.UTF_8)) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    String name = line.substring(0, tab);
+                    entries.put(name, new Entry(name, Path.of(line.substring(tab + 1))));
+                }
+            }
+        }
+        Metrics.gauge("workspace.resident.bytes", this::residentSize);
+        Metrics.gauge("workspace.resident.notebooks", () -> {
+            synchronized (this) {
+                return resident.size();
+            }
+        });
+    }
+
+    /**
+     * Adds a notebook file to the workspace and writes the registry.
+     *
+     * @param name name shown for the notebook, without tabs or line breaks
+     * @param file the note file, which need not exist yet
+     * @throws IOException if the registry cannot be written
+     * @throws IllegalArgumentException if the name is blank, malformed or already taken
+     */
+    public synchronized void register(String name, Path file) throws IOException {
+        if (name == null || name.isBlank() || name.matches(".*[\\t\\r\\n].*")) {
+            throw new IllegalArgumentException("Invalid notebook name '" + name + "'");
+        }
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("Notebook '" + name + "' is already registered");
+        }
+        entries.put(name, new Entry(name, file));
+        writeRegistry();
+    }
+
+    /**
+     * Removes a notebook from the workspace, saving and closing it if it is resident. The
+     * note file itself is kept.
+     *
+     * @param name the notebook name
+     * @throws IOException if the notebook cannot be saved or the registry written
+     * @throws IllegalArgumentException if the name is not registered or is the current notebook
+     */
+    public synchronized void unregister(String name) throws IOException {
+        Entry entry = entry(name);
+        if (name.equals(current)) {
+            throw new IllegalArgumentException("Notebook '" + name + "' is open");
+        }
+        if (entry.notebook != null) {
+            evict(entry);
+        }
+        entries.remove(name);
+        writeRegistry();
+    }
+
+    /** @return the registered notebook names in registration order */
+    public synchronized List<String> names() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    /**
+     * @param name the notebook name
+     * @return the note file of the notebook
+     * @throws IllegalArgumentException if the name is not registered
+     */
+    public synchronized Path fileOf(String name) {
+        return entry(name).file;
+    }
+
+    /**
+     * @param name the notebook name
+     * @return the store of the notebook
+     * @throws IllegalArgumentException if the name is not registered
+     */
+    public synchronized NoteStore storeOf(String name) {
+        return entry(name).store;
+    }
+
+    /**
+     * Returns the store a resident notebook is saved to.
+     *
+     * @param notebook a notebook returned by {@link #open(String)}
+     * @return the store of the notebook
+     * @throws IllegalStateException if the notebook is not resident, for example because it
+     *                               was evicted
+     */
+    public synchronized NoteStore storeOf(Notebook notebook) {
+        for (Entry entry : resident.values()) {
+            if (entry.notebook == notebook) {
+                return entry.store;
+            }
+        }
+        throw new IllegalStateException("The notebook is no longer open");
+    }
+
+    /** @return the name of the current notebook, or null before {@link #switchTo(String)} */
+    public synchronized String current() {
+        return current;
+    }
+
+    /**
+     * @param name the notebook name
+     * @return true if the notebook is held in memory
+     */
+    public synchronized boolean isResident(String name) {
+        return resident.containsKey(name);
+    }
+
+    /** @return estimated bytes taken by the resident notebooks */
+    public synchronized long residentSize() {
+        long size = 0;
+        for (Entry entry : resident.values()) {
+            size += entry.notebook.estimatedSize();
+        }
+        return size;
+    }
+
+    /** @return estimated bytes the resident notebooks may take */
+    public synchronized long getHeapBudget() {
+        return heapBudget;
+    }
+
+    /**
+     * Changes the heap budget, evicting notebooks that no longer fit.
+     *
+     * @param heapBudget estimated bytes the resident notebooks may take
+     * @throws IOException if an evicted notebook cannot be saved
+     */
+    public synchronized void setHeapBudget(long heapBudget) throws IOException {
+        this.heapBudget = heapBudget;
+        evictOverBudget(null);
+    }
+
+    /**
+     * Makes a notebook the current one, which is never evicted, and returns it.
+     *
+     * @param name the notebook name
+     * @return the notebook
+     * @throws IOException if the notebook cannot be read, or an evicted one cannot be saved
+     * @throws ClassNotFoundException if the note file contains unknown classes
+     * @throws IllegalArgumentException if the name is not registered
+     */
+    public Notebook switchTo(String name) throws IOException, ClassNotFoundException {
+        while (true) {
+            Notebook notebook = open(name);
+            synchronized (this) {
+                // the notebook may have been evicted by another thread in the meantime
+                if (entry(name).notebook == notebook) {
+                    current = name;
+                    return notebook;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a registered notebook, loading it if it is not resident.
+     *
+     * @param name the notebook name
+     * @return the notebook, valid until it is evicted
+     * @throws IOException if the notebook cannot be read, or an evicted one cannot be saved
+     * @throws ClassNotFoundException if the note file contains unknown classes
+     * @throws IllegalArgumentException if the name is not registered
+     */
+    public Notebook open(String name) throws IOException, ClassNotFoundException {
+        long start = Metrics.start();
+        Entry entry;
+        synchronized (this) {
+            entry = entry(name);
+            if (entry.notebook != null) {
+                resident.get(name);
+                HITS.increment();
+                return entry.notebook;
+            }
+        }
+        synchronized (entry) {
+            synchronized (this) {
+                if (entry.notebook != null) {
+                    resident.get(name);
+                    return entry.notebook;
+                }
+            }
+            Notebook notebook = entry.store.open();
+            synchronized (this) {
+                entry.notebook = notebook;
+                resident.put(name, entry);
+                evictOverBudget(entry);
+            }
+            OPEN_TIME.recordSince(start);
+            return notebook;
+        }
+    }
+
+    /**
+     * Saves every resident notebook that has changes.
+     *
+     * @throws IOException if a notebook cannot be saved
+     */
+    public synchronized void flush() throws IOException {
+        for (Entry entry : resident.values()) {
+            if (entry.notebook.hasChanges()) {
+                entry.store.save(entry.notebook);
+            }
+        }
+    }
+
+    /**
+     * Saves and closes every resident notebook.
+     *
+     * @throws IOException if a notebook cannot be saved
+     */
+    public synchronized void close() throws IOException {
+        for (Entry entry : new ArrayList<>(resident.values())) {
+            evict(entry);
+        }
+        current = null;
+    }
+
+    /**
+     * Evicts the least recently used notebooks until the resident ones fit the budget.
+     *
+     * @param keep a notebook that must stay resident, may be null
+     */
+    private void evictOverBudget(Entry keep) throws IOException {
+        long size = residentSize();
+        for (Iterator<Entry> it = new ArrayList<>(resident.values()).iterator(); it.hasNext() && size > heapBudget;) {
+            Entry entry = it.next();
+            if (entry == keep || entry.name.equals(current)) {
+                continue;
+            }
+            size -= entry.notebook.estimatedSize();
+            evict(entry);
+        }
+    }
+
+    /**
+     * Saves a resident notebook if it has changes, then closes it and lets go of it.
+     */
+    private void evict(Entry entry) throws IOException {
+        Notebook notebook = entry.notebook;
+        if (notebook.hasChanges()) {
+            entry.store.save(notebook);
+        }
+        entry.store.close();
+        entry.notebook = null;
+        resident.remove(entry.name);
+        notebook.close();
+        EVICTIONS.increment();
+    }
+
+    private Entry entry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown notebook '" + name + "'");
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the registry to a temporary file and moves it into place.
+     */
+    private void writeRegistry() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            lines.add(entry.name + "\t" + entry.file);
+        }
+        Path temp = registry.resolveSibling(registry.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        Files.move(temp, registry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}